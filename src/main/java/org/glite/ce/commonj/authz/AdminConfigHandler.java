@@ -65,6 +65,10 @@ public class AdminConfigHandler
         return expr;
     }
 
+    public String getStreamingPath() {
+        return XPATH_STRING;
+    }
+
     public Class<?> getCategory() {
         return AdminTable.class;
     }
@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.Subject;
+import javax.security.auth.x500.X500Principal;
+import javax.xml.namespace.QName;
+
+import org.apache.log4j.Logger;
+import org.glite.ce.commonj.authz.argus.PEPConfigurationItem;
+import org.glite.ce.commonj.configuration.xppm.ConfigurationEvent;
+import org.glite.ce.commonj.configuration.xppm.ConfigurationListener;
+import org.italiangrid.voms.VOMSAttribute;
+
+/**
+ * Decision cache in front of an authorization box (gjaf chain or Argus PEP).
+ * The decisions are keyed by the RFC2253 DN, the ordered list of FQANs, the
+ * operation and the admin flag; the properties the box sets in the context
+ * (e.g. the local user id or the obligations) are recorded and replayed on
+ * the following hits. Granted and denied decisions have different
+ * time-to-live; failures are never cached.
+ * <p>
+ * All the entries are discarded whenever a configuration event is received
+ * for the authorization box, the Argus parameters or the admin table.
+ */
+public class AuthorizationDecisionCache
+    implements ServiceAuthorizationInterface, ConfigurationListener {
+
+    private static Logger logger = Logger.getLogger(AuthorizationDecisionCache.class.getName());
+
+    public static final long DEFAULT_POSITIVE_TTL = 60000;
+
+    public static final long DEFAULT_NEGATIVE_TTL = 10000;
+
+    private final ServiceAuthorizationInterface delegate;
+
+    private final int maxSize;
+
+    private final long positiveTTL;
+
+    private final long negativeTTL;
+
+    private final LinkedHashMap<DecisionKey, Decision> decisions;
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    private final AtomicLong invalidationCount = new AtomicLong(0);
+
+    public AuthorizationDecisionCache(ServiceAuthorizationInterface delegate, int maxSize, long positiveTTL,
+            long negativeTTL) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Missing authorization box");
+        }
+        if (maxSize < 1 || positiveTTL < 0 || negativeTTL < 0) {
+            throw new IllegalArgumentException("Wrong cache parameters: maxSize=" + maxSize + " positiveTTL="
+                    + positiveTTL + " negativeTTL=" + negativeTTL);
+        }
+
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+        this.positiveTTL = positiveTTL;
+        this.negativeTTL = negativeTTL;
+        this.decisions = new LinkedHashMap<DecisionKey, Decision>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<DecisionKey, Decision> eldest) {
+                return size() > AuthorizationDecisionCache.this.maxSize;
+            }
+        };
+    }
+
+    public ServiceAuthorizationInterface getDelegate() {
+        return delegate;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getPositiveTTL() {
+        return positiveTTL;
+    }
+
+    public long getNegativeTTL() {
+        return negativeTTL;
+    }
+
+    /**
+     * Returns true if this cache wraps the given box with the given
+     * parameters.
+     */
+    public boolean isConfiguredWith(ServiceAuthorizationInterface delegate, int maxSize, long positiveTTL,
+            long negativeTTL) {
+        return this.delegate == delegate && this.maxSize == maxSize && this.positiveTTL == positiveTTL
+                && this.negativeTTL == negativeTTL;
+    }
+
+    public boolean isPermitted(Subject peerSubject, MessageContext context, QName operation)
+        throws AuthorizationException {
+
+        DecisionKey key = buildKey(peerSubject, context, operation);
+        if (key == null) {
+            return delegate.isPermitted(peerSubject, context, operation);
+        }
+
+        long now = System.currentTimeMillis();
+        Decision decision = null;
+
+        synchronized (decisions) {
+            decision = decisions.get(key);
+            if (decision != null && decision.expiration <= now) {
+                decisions.remove(key);
+                decision = null;
+            }
+        }
+
+        if (decision != null) {
+            hitCount.incrementAndGet();
+            decision.replay(context);
+            return decision.permitted;
+        }
+
+        missCount.incrementAndGet();
+
+        /*
+         * a decision taken across an invalidation may rely on the old
+         * configuration and is not stored
+         */
+        long generation = invalidationCount.get();
+
+        RecordingContext recorder = new RecordingContext(context);
+        boolean permitted = delegate.isPermitted(peerSubject, recorder, operation);
+
+        decision = new Decision(permitted, recorder.changes, recorder.removals, now
+                + (permitted ? positiveTTL : negativeTTL));
+
+        synchronized (decisions) {
+            if (generation == invalidationCount.get()) {
+                decisions.put(key, decision);
+            }
+        }
+
+        return permitted;
+    }
+
+    public void notify(ConfigurationEvent event) {
+        Class<?> category = event.getCategory();
+
+        if (category == ServiceAuthorizationInterface.class || category == PEPConfigurationItem.class
+                || category == AdminTable.class) {
+            logger.debug("Authorization configuration changed (" + category.getName() + "): clearing decision cache");
+            invalidate();
+        }
+    }
+
+    /**
+     * Discards all the cached decisions.
+     */
+    public void invalidate() {
+        synchronized (decisions) {
+            decisions.clear();
+            invalidationCount.incrementAndGet();
+        }
+    }
+
+    public int getSize() {
+        synchronized (decisions) {
+            return decisions.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public String toString() {
+        return "AuthorizationDecisionCache: size=" + getSize() + " hits=" + getHitCount() + " misses="
+                + getMissCount() + " invalidations=" + getInvalidationCount();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DecisionKey buildKey(Subject peerSubject, MessageContext context, QName operation) {
+
+        String dn = (String) context.getProperty(AuthZConstants.USERDN_RFC2253_LABEL);
+        if (dn == null && peerSubject != null) {
+            for (Principal principal : peerSubject.getPrincipals()) {
+                if (principal instanceof X500Principal) {
+                    dn = ((X500Principal) principal).getName();
+                    break;
+                }
+            }
+        }
+
+        if (dn == null || operation == null) {
+            return null;
+        }
+
+        ArrayList<String> fqans = new ArrayList<String>();
+        Object attrs = context.getProperty(AuthZConstants.USER_VOMSATTRS_LABEL);
+        if (attrs instanceof List) {
+            for (VOMSAttribute attr : (List<VOMSAttribute>) attrs) {
+                fqans.addAll(attr.getFQANs());
+            }
+        }
+
+        Object isAdmin = context.getProperty(AuthZConstants.IS_ADMIN);
+
+        return new DecisionKey(dn, fqans, operation, Boolean.TRUE.equals(isAdmin));
+    }
+
+    private static final class DecisionKey {
+
+        private final String dn;
+
+        private final List<String> fqans;
+
+        private final QName operation;
+
+        private final boolean admin;
+
+        private final int hash;
+
+        DecisionKey(String dn, List<String> fqans, QName operation, boolean admin) {
+            this.dn = dn;
+            this.fqans = fqans;
+            this.operation = operation;
+            this.admin = admin;
+
+            int h = dn.hashCode();
+            h = 31 * h + fqans.hashCode();
+            h = 31 * h + operation.hashCode();
+            this.hash = 31 * h + (admin ? 1 : 0);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) obj;
+            return admin == other.admin && dn.equals(other.dn) && operation.equals(other.operation)
+                    && fqans.equals(other.fqans);
+        }
+    }
+
+    private static final class Decision {
+
+        private final boolean permitted;
+
+        private final Map<String, Object> changes;
+
+        private final List<String> removals;
+
+        private final long expiration;
+
+        Decision(boolean permitted, Map<String, Object> changes, List<String> removals, long expiration) {
+            this.permitted = permitted;
+            this.changes = changes;
+            this.removals = removals;
+            this.expiration = expiration;
+        }
+
+        void replay(MessageContext context) {
+            for (String name : removals) {
+                context.removeProperty(name);
+            }
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                context.setProperty(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /*
+     * Forwards everything to the request context, recording the properties
+     * set or removed by the authorization box.
+     */
+    private static final class RecordingContext
+        implements MessageContext {
+
+        private final MessageContext context;
+
+        private Map<String, Object> changes = Collections.emptyMap();
+
+        private List<String> removals = Collections.emptyList();
+
+        RecordingContext(MessageContext context) {
+            this.context = context;
+        }
+
+        public boolean containsProperty(String name) {
+            return context.containsProperty(name);
+        }
+
+        public Object getProperty(String name) {
+            return context.getProperty(name);
+        }
+
+        public Iterator<String> getPropertyNames() {
+            return context.getPropertyNames();
+        }
+
+        public void removeProperty(String name) {
+            context.removeProperty(name);
+
+            if (changes.containsKey(name)) {
+                changes.remove(name);
+            }
+            if (removals.isEmpty()) {
+                removals = new ArrayList<String>();
+            }
+            if (!removals.contains(name)) {
+                removals.add(name);
+            }
+        }
+
+        public void setProperty(String name, Object value) {
+            context.setProperty(name, value);
+
+            if (changes.isEmpty()) {
+                changes = new HashMap<String, Object>();
+            }
+            changes.put(name, value);
+
+            if (removals.contains(name)) {
+                removals.remove(name);
+            }
+        }
+    }
+}
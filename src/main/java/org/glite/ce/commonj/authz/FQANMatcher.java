@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable index over a set of {@link FQANPattern}, equivalent to checking
+ * each pattern in turn with {@link FQANPattern#matches(String)} but with the
+ * FQAN canonicalized only once:
+ * <ul>
+ * <li>the literal patterns are resolved with a hash lookup;</li>
+ * <li>the patterns with wildcards (<code>*</code>, <code>?</code> and
+ * <code>.</code>, which the regular expression of FQANPattern matches with
+ * any character) are merged into a single trie, run as an automaton whose
+ * states are built on demand and shared by all the following calls: the
+ * cost of a match is linear in the length of the FQAN;</li>
+ * <li>the few patterns using other regular expression constructs are still
+ * checked one by one.</li>
+ * </ul>
+ * The instances are thread-safe.
+ */
+public class FQANMatcher {
+
+    /* joins the group and the role of an FQAN, matched by literals only */
+    private static final char SEPARATOR = '\u0000';
+
+    private static final String REGEX_CHARS = "\\[]{}()+^$|";
+
+    private static final String WILDCARD_CHARS = "*?.";
+
+    /*
+     * The states created beyond max(MIN_STATES, STATES_PER_NODE * trie nodes)
+     * are not cached; in practice the states reached are fewer than the nodes
+     */
+    private static final int MIN_STATES = 10000;
+
+    private static final int STATES_PER_NODE = 2;
+
+    private final int size;
+
+    private final HashMap<String, FQANPattern> exactPatterns;
+
+    private final ArrayList<FQANPattern> globPatterns;
+
+    private final ArrayList<FQANPattern> regexPatterns;
+
+    private final Node[] nodes;
+
+    private final int maxStates;
+
+    private final ConcurrentHashMap<BitSet, State> states;
+
+    private final State initialState;
+
+    private final State deadState;
+
+    public FQANMatcher(Collection<FQANPattern> patterns) {
+        exactPatterns = new HashMap<String, FQANPattern>();
+        globPatterns = new ArrayList<FQANPattern>();
+        regexPatterns = new ArrayList<FQANPattern>();
+
+        ArrayList<Node> nodeList = new ArrayList<Node>();
+        Node root = new Node(nodeList, false);
+
+        for (FQANPattern pattern : patterns) {
+            String str = pattern.toString();
+
+            if (containsAny(str, REGEX_CHARS)) {
+                regexPatterns.add(pattern);
+            } else if (!containsAny(str, WILDCARD_CHARS)) {
+                exactPatterns.put(str, pattern);
+            } else {
+                globPatterns.add(pattern);
+                insert(root, nodeList, pattern);
+            }
+        }
+
+        size = exactPatterns.size() + globPatterns.size() + regexPatterns.size();
+        nodes = nodeList.toArray(new Node[nodeList.size()]);
+        maxStates = Math.max(MIN_STATES, STATES_PER_NODE * nodes.length);
+        states = new ConcurrentHashMap<BitSet, State>();
+
+        deadState = new State(new BitSet(), nodes, false);
+
+        BitSet initial = new BitSet(nodes.length);
+        addNode(initial, root);
+        initialState = globPatterns.isEmpty() ? deadState : intern(initial);
+    }
+
+    /**
+     * Looks for a pattern matching the given FQAN.
+     *
+     * @param fqan
+     *            the FQAN, not canonicalized
+     * @return one of the matching patterns, null if none matches
+     * @throws IllegalArgumentException
+     *             if the FQAN is malformed and the index is not empty
+     */
+    public FQANPattern match(String fqan)
+        throws IllegalArgumentException {
+
+        if (size == 0) {
+            return null;
+        }
+
+        String str = FQANPattern.canonicalize(fqan);
+
+        FQANPattern result = exactPatterns.get(str);
+        if (result != null) {
+            return result;
+        }
+
+        String groupStr = str;
+        String roleStr = null;
+        int idx = str.indexOf("/Role=");
+        if (idx >= 0) {
+            groupStr = str.substring(0, idx);
+            roleStr = str.substring(idx);
+        }
+
+        if (initialState != deadState) {
+            if (str.indexOf(SEPARATOR) < 0) {
+                result = run(groupStr, roleStr);
+            } else {
+                result = matchAll(globPatterns, groupStr, roleStr);
+            }
+        }
+
+        if (result == null) {
+            result = matchAll(regexPatterns, groupStr, roleStr);
+        }
+
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of automaton states built so far
+     */
+    public int getStateCount() {
+        return states.size();
+    }
+
+    private FQANPattern run(String groupStr, String roleStr) {
+        State state = initialState;
+
+        for (int k = 0; k < groupStr.length() && state != deadState; k++) {
+            state = next(state, groupStr.charAt(k));
+        }
+
+        if (state != deadState) {
+            state = next(state, SEPARATOR);
+        }
+
+        if (roleStr != null) {
+            for (int k = 0; k < roleStr.length() && state != deadState; k++) {
+                state = next(state, roleStr.charAt(k));
+            }
+        }
+
+        return state.accepted;
+    }
+
+    private State next(State state, char c) {
+        State result = state.getNext(c);
+        if (result != null) {
+            return result;
+        }
+
+        BitSet target = new BitSet(nodes.length);
+        boolean any = isAny(c);
+
+        for (Node node : state.nodes) {
+            Node child = node.literals.get(Character.valueOf(c));
+            if (child != null) {
+                addNode(target, child);
+            }
+            if (any) {
+                if (node.any != null) {
+                    addNode(target, node.any);
+                }
+                if (node.loop) {
+                    addNode(target, node);
+                }
+            }
+        }
+
+        if (target.isEmpty()) {
+            result = deadState;
+        } else {
+            result = intern(target);
+        }
+
+        if (result.cached || result == deadState) {
+            state.setNext(c, result);
+        }
+        return result;
+    }
+
+    private State intern(BitSet bits) {
+        State result = states.get(bits);
+        if (result != null) {
+            return result;
+        }
+
+        if (states.size() >= maxStates) {
+            return new State(bits, nodes, false);
+        }
+
+        result = new State(bits, nodes, true);
+        State previous = states.putIfAbsent(bits, result);
+        return previous != null ? previous : result;
+    }
+
+    /*
+     * Adds the node and the star nodes reachable without consuming input
+     */
+    private static void addNode(BitSet bits, Node node) {
+        while (node != null && !bits.get(node.id)) {
+            bits.set(node.id);
+            node = node.star;
+        }
+    }
+
+    private static void insert(Node root, List<Node> nodeList, FQANPattern pattern) {
+        String str = pattern.toString();
+        int idx = str.indexOf("/Role=");
+        if (idx < 0) {
+            str = str + SEPARATOR;
+        } else {
+            str = str.substring(0, idx) + SEPARATOR + str.substring(idx);
+        }
+
+        Node node = root;
+        for (int k = 0; k < str.length(); k++) {
+            char c = str.charAt(k);
+
+            if (c == '*') {
+                if (node.star == null) {
+                    node.star = new Node(nodeList, true);
+                }
+                node = node.star;
+            } else if (c == '?' || c == '.') {
+                if (node.any == null) {
+                    node.any = new Node(nodeList, false);
+                }
+                node = node.any;
+            } else {
+                Character key = Character.valueOf(c);
+                Node child = node.literals.get(key);
+                if (child == null) {
+                    child = new Node(nodeList, false);
+                    node.literals.put(key, child);
+                }
+                node = child;
+            }
+        }
+
+        if (node.pattern == null) {
+            node.pattern = pattern;
+        }
+    }
+
+    private static FQANPattern matchAll(List<FQANPattern> patterns, String groupStr, String roleStr) {
+        for (FQANPattern pattern : patterns) {
+            if (pattern.matches(groupStr, roleStr)) {
+                return pattern;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * The characters matched by "." in a regular expression without flags
+     */
+    private static boolean isAny(char c) {
+        return c != SEPARATOR && c != '\n' && c != '\r' && c != '\u0085' && c != '\u2028' && c != '\u2029';
+    }
+
+    private static boolean containsAny(String str, String chars) {
+        for (int k = 0; k < chars.length(); k++) {
+            if (str.indexOf(chars.charAt(k)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * A node of the trie; the nodes reached through '*' consume any character
+     * and stay in place.
+     */
+    private static final class Node {
+
+        final int id;
+
+        final boolean loop;
+
+        final HashMap<Character, Node> literals = new HashMap<Character, Node>(4);
+
+        Node any;
+
+        Node star;
+
+        FQANPattern pattern;
+
+        Node(List<Node> nodeList, boolean loop) {
+            this.id = nodeList.size();
+            this.loop = loop;
+            nodeList.add(this);
+        }
+    }
+
+    /*
+     * A state of the automaton: the set of trie nodes active after the input
+     * read so far. The transitions are computed on demand, outside any lock:
+     * concurrent callers may compute the same transition twice, with the
+     * same result. The table of the transitions is replaced on each update
+     * and read without locking.
+     */
+    private static final class State {
+
+        final Node[] nodes;
+
+        final FQANPattern accepted;
+
+        final boolean cached;
+
+        private volatile Transitions transitions = Transitions.NONE;
+
+        State(BitSet bits, Node[] allNodes, boolean cached) {
+            this.cached = cached;
+            nodes = new Node[bits.cardinality()];
+
+            FQANPattern found = null;
+            int k = 0;
+            for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+                nodes[k++] = allNodes[id];
+                if (found == null && allNodes[id].pattern != null) {
+                    found = allNodes[id].pattern;
+                }
+            }
+            accepted = found;
+        }
+
+        State getNext(char c) {
+            Transitions curr = transitions;
+            int idx = Arrays.binarySearch(curr.inputs, c);
+            return idx >= 0 ? curr.targets[idx] : null;
+        }
+
+        synchronized void setNext(char c, State state) {
+            Transitions curr = transitions;
+            int idx = Arrays.binarySearch(curr.inputs, c);
+            if (idx < 0) {
+                transitions = new Transitions(curr, -idx - 1, c, state);
+            }
+        }
+    }
+
+    private static final class Transitions {
+
+        static final Transitions NONE = new Transitions(new char[0], new State[0]);
+
+        final char[] inputs;
+
+        final State[] targets;
+
+        Transitions(char[] inputs, State[] targets) {
+            this.inputs = inputs;
+            this.targets = targets;
+        }
+
+        /*
+         * Copies the given table, inserting a transition at the given position
+         */
+        Transitions(Transitions orig, int idx, char c, State state) {
+            int length = orig.inputs.length;
+            inputs = new char[length + 1];
+            targets = new State[length + 1];
+
+            System.arraycopy(orig.inputs, 0, inputs, 0, idx);
+            System.arraycopy(orig.targets, 0, targets, 0, idx);
+            inputs[idx] = c;
+            targets[idx] = state;
+            System.arraycopy(orig.inputs, idx, inputs, idx + 1, length - idx);
+            System.arraycopy(orig.targets, idx, targets, idx + 1, length - idx);
+        }
+    }
+}
@@ -59,6 +59,13 @@ public class FQANPattern {
             roleStr = tmps.substring(idx);
         }
         
+        return matches(groupStr, roleStr);
+    }
+    
+    /*
+     * Matches an FQAN already canonicalized and split at the role
+     */
+    public boolean matches(String groupStr, String roleStr){
         if( group.matcher(groupStr).matches() ){
             if( role==null ){
                 return roleStr==null;
@@ -78,6 +85,10 @@ public class FQANPattern {
         return pattern.equals(((FQANPattern)obj).pattern);
     }
     
+    public int hashCode(){
+        return pattern.hashCode();
+    }
+    
     public String toString(){
         return new String(pattern);
     }
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.italiangrid.voms.VOMSAttribute;
+
+/**
+ * Bounded LRU cache of the VOMS attributes validated for a certificate chain,
+ * keyed by the SHA-256 digest of the whole chain (end-entity and proxies).
+ * An entry expires at the earliest of: the <code>notAfter</code> of the
+ * certificates in the chain, the <code>notAfter</code> of the attribute
+ * certificates, the configured time-to-live and the deadline given by the
+ * caller (e.g. the next update of the VOMS trust store).
+ */
+public class VOMSValidationCache {
+
+    private static Logger logger = Logger.getLogger(VOMSValidationCache.class.getName());
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    public static final long DEFAULT_TTL = 300000;
+
+    private static VOMSValidationCache instance = null;
+
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex.getMessage(), ex);
+            }
+        }
+    };
+
+    private final LinkedHashMap<ByteBuffer, CacheEntry> entries;
+
+    private volatile int maxSize;
+
+    private volatile long ttl;
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    private final AtomicLong expiredCount = new AtomicLong(0);
+
+    private final AtomicLong evictionCount = new AtomicLong(0);
+
+    public static synchronized VOMSValidationCache getInstance() {
+        if (instance == null) {
+            instance = new VOMSValidationCache(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+        }
+        return instance;
+    }
+
+    public VOMSValidationCache(int maxSize, long ttl) {
+        if (maxSize < 0 || ttl < 0) {
+            throw new IllegalArgumentException("wrong cache parameters: maxSize=" + maxSize + " ttl=" + ttl);
+        }
+
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<ByteBuffer, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CacheEntry> eldest) {
+                if (size() > VOMSValidationCache.this.maxSize) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached attributes for the given chain.
+     *
+     * @param certChain
+     *            the certificate chain of the request
+     * @return the attributes (an unmodifiable list) or null if missing or
+     *         expired
+     */
+    public List<VOMSAttribute> get(X509Certificate[] certChain) {
+        if (maxSize == 0 || certChain == null || certChain.length == 0) {
+            return null;
+        }
+
+        ByteBuffer key = digest(certChain);
+        if (key == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+
+            if (entry != null) {
+                if (entry.expiration > now) {
+                    hitCount.incrementAndGet();
+                    return entry.attributes;
+                }
+
+                entries.remove(key);
+                expiredCount.incrementAndGet();
+            }
+        }
+
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns the cached attributes for the given chain or, if missing or
+     * expired, validates them; the result is cached only if the validation
+     * reported no errors.
+     *
+     * @param certChain
+     *            the certificate chain of the request
+     * @param validation
+     *            the validation performed on a miss
+     * @param deadline
+     *            the time (ms) after which the entry must not be used, 0 for
+     *            none
+     * @return the attributes for the chain
+     */
+    public List<VOMSAttribute> get(X509Certificate[] certChain, Validation validation, long deadline) {
+        List<VOMSAttribute> attributes = get(certChain);
+        if (attributes != null) {
+            return attributes;
+        }
+
+        attributes = validation.validate(certChain);
+        if (validation.hasErrors()) {
+            return attributes;
+        }
+
+        return put(certChain, attributes, deadline);
+    }
+
+    /**
+     * Stores the attributes successfully validated for the given chain.
+     *
+     * @param certChain
+     *            the certificate chain of the request
+     * @param attributes
+     *            the validated attributes
+     * @param deadline
+     *            the time (ms) after which the entry must not be used, 0 for
+     *            none
+     * @return the cached, unmodifiable, list of attributes
+     */
+    public List<VOMSAttribute> put(X509Certificate[] certChain, List<VOMSAttribute> attributes, long deadline) {
+        if (attributes == null) {
+            return null;
+        }
+
+        List<VOMSAttribute> result = Collections.unmodifiableList(attributes);
+
+        if (maxSize == 0 || certChain == null || certChain.length == 0) {
+            return result;
+        }
+
+        long expiration = System.currentTimeMillis() + ttl;
+        if (deadline > 0) {
+            expiration = Math.min(expiration, deadline);
+        }
+
+        for (X509Certificate cert : certChain) {
+            expiration = Math.min(expiration, cert.getNotAfter().getTime());
+        }
+
+        for (VOMSAttribute attr : attributes) {
+            Date notAfter = attr.getNotAfter();
+            if (notAfter != null) {
+                expiration = Math.min(expiration, notAfter.getTime());
+            }
+        }
+
+        ByteBuffer key = digest(certChain);
+        if (key != null && expiration > System.currentTimeMillis()) {
+            synchronized (entries) {
+                entries.put(key, new CacheEntry(result, expiration));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Discards all the entries, e.g. when the trust anchors change.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize
+     *            the max number of entries, 0 disables the cache
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must be >= 0");
+        }
+
+        this.maxSize = maxSize;
+        if (maxSize == 0) {
+            clear();
+        }
+    }
+
+    public long getTTL() {
+        return ttl;
+    }
+
+    /**
+     * @param ttl
+     *            the max time (ms) an entry is used
+     */
+    public void setTTL(long ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl must be >= 0");
+        }
+        this.ttl = ttl;
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public String toString() {
+        return "VOMSValidationCache: size=" + getSize() + " hits=" + getHitCount() + " misses=" + getMissCount() + " expired="
+                + getExpiredCount() + " evicted=" + getEvictionCount();
+    }
+
+    private static ByteBuffer digest(X509Certificate[] certChain) {
+        MessageDigest md = digests.get();
+        md.reset();
+
+        try {
+            for (X509Certificate cert : certChain) {
+                md.update(cert.getEncoded());
+            }
+        } catch (CertificateEncodingException ex) {
+            logger.debug("Cannot encode certificate: " + ex.getMessage());
+            return null;
+        }
+
+        return ByteBuffer.wrap(md.digest());
+    }
+
+    /**
+     * The validation of the VOMS attributes of a request.
+     */
+    public interface Validation {
+
+        /**
+         * @param certChain
+         *            the certificate chain of the request
+         * @return the validated attributes
+         */
+        public List<VOMSAttribute> validate(X509Certificate[] certChain);
+
+        /**
+         * @return true if the validation reported any error
+         */
+        public boolean hasErrors();
+    }
+
+    private static final class CacheEntry {
+        final List<VOMSAttribute> attributes;
+
+        final long expiration;
+
+        CacheEntry(List<VOMSAttribute> attributes, long expiration) {
+            this.attributes = attributes;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -76,6 +76,10 @@ public class ArgusConfigHandler
         return expr;
     }
 
+    public String getStreamingPath() {
+        return XPATH_STRING;
+    }
+
     public Class<?> getCategory() {
         return PEPConfigurationItem.class;
     }
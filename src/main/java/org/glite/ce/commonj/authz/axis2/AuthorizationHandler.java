@@ -39,11 +39,16 @@ import org.glite.ce.commonj.authz.AuthZConstants;
 import org.glite.ce.commonj.authz.AuthorizationException;
 import org.glite.ce.commonj.authz.ServiceAuthorizationInterface;
 import org.glite.ce.commonj.authz.VOMSResultCollector;
+import org.glite.ce.commonj.authz.VOMSValidationCache;
 import org.glite.ce.commonj.configuration.CommonServiceConfig;
 import org.italiangrid.voms.VOMSAttribute;
 import org.italiangrid.voms.VOMSValidators;
 import org.italiangrid.voms.ac.VOMSACValidator;
+import org.italiangrid.voms.ac.VOMSValidationResult;
+import org.italiangrid.voms.ac.ValidationResultListener;
+import org.italiangrid.voms.store.impl.DefaultUpdatingVOMSTrustStore;
 
+import eu.emi.security.authn.x509.impl.OpensslCertChainValidator;
 import eu.emi.security.authn.x509.proxy.ProxyUtils;
 
 public abstract class AuthorizationHandler
@@ -53,6 +58,12 @@ public abstract class AuthorizationHandler
 
     private static final Logger acctLogger = Logger.getLogger(AuthorizationHandler.class.getName() + ".Accounting");
 
+    /*
+     * The validators are reused across the requests, one for each thread so
+     * that the results are notified to the collector of the current request
+     */
+    private static final ThreadLocal<ValidatorHolder> validators = new ThreadLocal<ValidatorHolder>();
+
     public AuthorizationHandler() {
         super();
     }
@@ -97,10 +108,19 @@ public abstract class AuthorizationHandler
         subject.getPrincipals().add(userCert.getSubjectX500Principal());
         subject.getPublicCredentials().add(userCertChain);
 
-        VOMSResultCollector collector = new VOMSResultCollector();
-        VOMSACValidator validator = VOMSValidators.newValidator(AuthorizationModule.vomsStore,
-                AuthorizationModule.validator, collector);
-        List<VOMSAttribute> vomsList = validator.validate(userCertChain);
+        final VOMSResultCollector collector = new VOMSResultCollector();
+        long deadline = AuthorizationModule.getNextTrustStoreUpdate(System.currentTimeMillis());
+
+        List<VOMSAttribute> vomsList = VOMSValidationCache.getInstance().get(userCertChain,
+                new VOMSValidationCache.Validation() {
+                    public List<VOMSAttribute> validate(X509Certificate[] certChain) {
+                        return validateVOMSAttributes(certChain, collector);
+                    }
+
+                    public boolean hasErrors() {
+                        return collector.size() > 0;
+                    }
+                }, deadline);
 
         msgContext.setProperty(AuthZConstants.USERDN_RFC2253_LABEL, dnRFC2253);
 
@@ -183,6 +203,24 @@ public abstract class AuthorizationHandler
         return Handler.InvocationResponse.CONTINUE;
     }
 
+    private static List<VOMSAttribute> validateVOMSAttributes(X509Certificate[] userCertChain,
+            VOMSResultCollector collector) {
+
+        ValidatorHolder holder = validators.get();
+        if (holder == null || holder.vomsStore != AuthorizationModule.vomsStore
+                || holder.certValidator != AuthorizationModule.validator) {
+            holder = new ValidatorHolder(AuthorizationModule.vomsStore, AuthorizationModule.validator);
+            validators.set(holder);
+        }
+
+        holder.collector = collector;
+        try {
+            return holder.validator.validate(userCertChain);
+        } finally {
+            holder.collector = null;
+        }
+    }
+
     protected QName getOperation(MessageContext context) {
         OperationContext opCtx = context.getOperationContext();
         AxisOperation operation = opCtx.getAxisOperation();
@@ -223,6 +261,30 @@ public abstract class AuthorizationHandler
         return buffer.toString();
     }
 
+    private static class ValidatorHolder
+        implements ValidationResultListener {
+
+        private DefaultUpdatingVOMSTrustStore vomsStore;
+
+        private OpensslCertChainValidator certValidator;
+
+        private VOMSACValidator validator;
+
+        private VOMSResultCollector collector = null;
+
+        ValidatorHolder(DefaultUpdatingVOMSTrustStore vomsStore, OpensslCertChainValidator certValidator) {
+            this.vomsStore = vomsStore;
+            this.certValidator = certValidator;
+            this.validator = VOMSValidators.newValidator(vomsStore, certValidator, this);
+        }
+
+        public void notifyValidationResult(VOMSValidationResult result) {
+            if (collector != null) {
+                collector.notifyValidationResult(result);
+            }
+        }
+    }
+
     public class MessageContextWrapper
         implements ServiceAuthorizationInterface.MessageContext {
 
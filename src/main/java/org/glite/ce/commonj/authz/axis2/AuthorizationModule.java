@@ -28,6 +28,7 @@ import org.apache.axis2.modules.Module;
 import org.apache.log4j.Logger;
 import org.apache.neethi.Assertion;
 import org.apache.neethi.Policy;
+import org.glite.ce.commonj.authz.VOMSValidationCache;
 import org.glite.ce.commonj.configuration.CommonServiceConfig;
 import org.italiangrid.voms.store.impl.DefaultUpdatingVOMSTrustStore;
 
@@ -44,6 +45,29 @@ public class AuthorizationModule
 
     public static OpensslCertChainValidator validator = null;
 
+    private static volatile long trustStoreCreationTime = 0;
+
+    private static volatile long trustStoreUpdateFrequency = 0;
+
+    /**
+     * Returns the time of the first reload of the VOMS trust store after the
+     * given time: the cached validation results must not be used after it.
+     * 
+     * @param now
+     *            the current time (ms)
+     * @return the time of the next reload, 0 if unknown
+     */
+    public static long getNextTrustStoreUpdate(long now) {
+        long start = trustStoreCreationTime;
+        long period = trustStoreUpdateFrequency;
+
+        if (start == 0 || period <= 0 || now < start) {
+            return 0;
+        }
+
+        return start + ((now - start) / period + 1) * period;
+    }
+
     public void init(ConfigurationContext configContext, AxisModule module)
         throws AxisFault {
 
@@ -63,6 +87,13 @@ public class AuthorizationModule
             localTrustDirs.add(voDir);
 
             vomsStore = new DefaultUpdatingVOMSTrustStore(localTrustDirs, updateFrequency);
+            trustStoreCreationTime = System.currentTimeMillis();
+            trustStoreUpdateFrequency = updateFrequency;
+
+            VOMSValidationCache vomsCache = VOMSValidationCache.getInstance();
+            vomsCache.clear();
+            vomsCache.setMaxSize(commonConfig.getGlobalAttributeAsInt("VOMSCacheSize", VOMSValidationCache.DEFAULT_MAX_SIZE));
+            vomsCache.setTTL(commonConfig.getGlobalAttributeAsLong("VOMSCacheTTL", VOMSValidationCache.DEFAULT_TTL));
 
         } catch (Exception ex) {
             if (logger.isDebugEnabled()) {
@@ -82,6 +113,10 @@ public class AuthorizationModule
             vomsStore.cancel();
         }
 
+        trustStoreCreationTime = 0;
+        VOMSValidationCache.getInstance().clear();
+        logger.info(VOMSValidationCache.getInstance().toString());
+
         if (validator != null) {
             validator.dispose();
         }
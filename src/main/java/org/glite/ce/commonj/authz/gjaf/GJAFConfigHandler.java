@@ -74,6 +74,10 @@ public class GJAFConfigHandler
         return expr;
     }
 
+    public String getStreamingPath() {
+        return XPATH_STRING;
+    }
+
     public Class<?> getCategory() {
         return ServiceAuthorizationInterface.class;
     }
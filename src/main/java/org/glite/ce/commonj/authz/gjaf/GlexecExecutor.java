@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz.gjaf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.glite.ce.commonj.authz.AuthorizationException;
+import org.glite.ce.commonj.utils.Timer;
+import org.glite.ce.commonj.utils.TimerTask;
+
+/**
+ * Runs the glexec processes for all the LocalUserPIP instances: at most
+ * <code>maxProcesses</code> processes run at the same time, at most
+ * <code>maxQueue</code> callers wait for a free slot and any further caller
+ * fails immediately. Every call has a deadline, covering both the wait and
+ * the execution: a process still running at the deadline is killed. The
+ * standard output and error are drained concurrently while the process runs.
+ */
+public class GlexecExecutor {
+
+    private static final Logger logger = Logger.getLogger(GlexecExecutor.class.getName());
+
+    public static final int DEFAULT_MAX_PROCESSES = 10;
+
+    public static final int DEFAULT_MAX_QUEUE = 50;
+
+    public static final long DEFAULT_TIMEOUT = 30000;
+
+    /* the output kept for each stream, the rest is discarded */
+    private static final int MAX_OUTPUT_SIZE = 65536;
+
+    private static final int KEEP_ALIVE_TIME = 60;
+
+    private static GlexecExecutor instance = null;
+
+    private final ResizableSemaphore slots = new ResizableSemaphore(0);
+
+    private volatile int maxProcesses;
+
+    private volatile int maxQueue;
+
+    private volatile long timeout;
+
+    private final AtomicInteger queueDepth = new AtomicInteger(0);
+
+    private final AtomicInteger runningCount = new AtomicInteger(0);
+
+    private final AtomicLong executionCount = new AtomicLong(0);
+
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+
+    private final AtomicLong timeoutCount = new AtomicLong(0);
+
+    private final AtomicLong totalLatency = new AtomicLong(0);
+
+    private final AtomicLong maxLatency = new AtomicLong(0);
+
+    private final ThreadPoolExecutor drainers;
+
+    private final Timer watchdog;
+
+    public static synchronized GlexecExecutor getInstance() {
+        if (instance == null) {
+            instance = new GlexecExecutor(DEFAULT_MAX_PROCESSES, DEFAULT_MAX_QUEUE, DEFAULT_TIMEOUT);
+        }
+        return instance;
+    }
+
+    /**
+     * Creates an executor with the given limits, not shared with the
+     * LocalUserPIP instances (see {@link #getInstance()}).
+     *
+     * @param maxProcesses
+     *            the max number of concurrent processes
+     * @param maxQueue
+     *            the max number of callers waiting for a free slot
+     * @param timeout
+     *            the deadline (ms) of a call
+     */
+    public GlexecExecutor(int maxProcesses, int maxQueue, long timeout) {
+        configure(maxProcesses, maxQueue, timeout);
+
+        drainers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+
+                    private AtomicInteger counter = new AtomicInteger(0);
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread result = new Thread(runnable, "GlexecDrainer-" + counter.incrementAndGet());
+                        result.setDaemon(true);
+                        return result;
+                    }
+                });
+
+        watchdog = new Timer("GlexecWatchdog", true);
+    }
+
+    /**
+     * Changes the limits; the processes already running are not affected,
+     * but no new process starts until the running ones are fewer than the
+     * new max number.
+     *
+     * @param maxProcesses
+     *            the max number of concurrent processes
+     * @param maxQueue
+     *            the max number of callers waiting for a free slot
+     * @param timeout
+     *            the deadline (ms) of a call
+     */
+    public synchronized void configure(int maxProcesses, int maxQueue, long timeout) {
+        if (maxProcesses < 1 || maxQueue < 0 || timeout < 1) {
+            throw new IllegalArgumentException("Wrong glexec limits: maxProcesses=" + maxProcesses + " maxQueue="
+                    + maxQueue + " timeout=" + timeout);
+        }
+
+        int delta = maxProcesses - this.maxProcesses;
+        if (delta > 0) {
+            slots.release(delta);
+        } else if (delta < 0) {
+            slots.reducePermits(-delta);
+        }
+        this.maxProcesses = maxProcesses;
+        this.maxQueue = maxQueue;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Runs the command and returns its exit code and output.
+     *
+     * @param cmdLine
+     *            the command line
+     * @param envp
+     *            the environment
+     * @return the outcome of the process
+     * @throws AuthorizationException
+     *             if the executor is saturated, the deadline expires or the
+     *             process cannot be run
+     */
+    public Result execute(String[] cmdLine, String[] envp)
+        throws AuthorizationException {
+
+        long start = System.currentTimeMillis();
+        long deadline = start + timeout;
+
+        if (!slots.tryAcquire()) {
+            if (queueDepth.incrementAndGet() > maxQueue) {
+                queueDepth.decrementAndGet();
+                rejectedCount.incrementAndGet();
+                throw new AuthorizationException("Too many pending glexec requests (" + maxQueue + ")");
+            }
+
+            boolean acquired = false;
+            try {
+                acquired = slots.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+                throw new AuthorizationException("Interrupted while waiting for glexec");
+            } finally {
+                queueDepth.decrementAndGet();
+            }
+
+            if (!acquired) {
+                rejectedCount.incrementAndGet();
+                throw new AuthorizationException("Timeout waiting for a free glexec slot");
+            }
+        }
+
+        runningCount.incrementAndGet();
+        try {
+            return run(cmdLine, envp, deadline);
+        } finally {
+            runningCount.decrementAndGet();
+            slots.release();
+
+            long latency = System.currentTimeMillis() - start;
+            executionCount.incrementAndGet();
+            totalLatency.addAndGet(latency);
+            long max = maxLatency.get();
+            while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+                max = maxLatency.get();
+            }
+        }
+    }
+
+    private Result run(String[] cmdLine, String[] envp, long deadline)
+        throws AuthorizationException {
+
+        final Process proc;
+        try {
+            proc = Runtime.getRuntime().exec(cmdLine, envp);
+        } catch (IOException ioEx) {
+            throw new AuthorizationException("Cannot run glexec: " + ioEx.getMessage(), ioEx);
+        }
+
+        final AtomicBoolean killed = new AtomicBoolean(false);
+        TimerTask killer = new TimerTask("glexec-killer") {
+            public void run() {
+                cancel();
+                killed.set(true);
+                proc.destroy();
+            }
+        };
+
+        Future<String> outFuture = null;
+        Future<String> errFuture = null;
+
+        try {
+            proc.getOutputStream().close();
+
+            outFuture = drainers.submit(new StreamDrainer(proc.getInputStream()));
+            errFuture = drainers.submit(new StreamDrainer(proc.getErrorStream()));
+
+            /*
+             * the Timer accepts only periodic tasks: the killer cancels
+             * itself at the first run
+             */
+            watchdog.schedule(killer, Math.max(1, deadline - System.currentTimeMillis()), timeout,
+                    TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+
+            int exitCode = proc.waitFor();
+
+            String stdout = getOutput(outFuture, deadline);
+            String stderr = getOutput(errFuture, deadline);
+
+            if (killed.get()) {
+                timeoutCount.incrementAndGet();
+                throw new AuthorizationException("glexec killed after " + timeout + " ms");
+            }
+
+            return new Result(exitCode, stdout, stderr);
+
+        } catch (InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+            proc.destroy();
+            throw new AuthorizationException("Interrupted while waiting for glexec");
+        } catch (IOException ioEx) {
+            proc.destroy();
+            throw new AuthorizationException("Cannot run glexec: " + ioEx.getMessage(), ioEx);
+        } finally {
+            killer.cancel();
+            if (outFuture != null) {
+                outFuture.cancel(true);
+            }
+            if (errFuture != null) {
+                errFuture.cancel(true);
+            }
+            closeQuietly(proc.getInputStream());
+            closeQuietly(proc.getErrorStream());
+        }
+    }
+
+    /*
+     * The streams normally reach the end when the process exits; they may not
+     * if a child process inherited them, so the wait is bound to the deadline.
+     */
+    private String getOutput(Future<String> future, long deadline)
+        throws InterruptedException {
+        try {
+            return future.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException exEx) {
+            logger.debug("Cannot read glexec output: " + exEx.getCause());
+            return "";
+        } catch (TimeoutException tEx) {
+            logger.warn("glexec output still open after the process exit");
+            return "";
+        }
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException ioEx) {
+            logger.debug(ioEx.getMessage());
+        }
+    }
+
+    public int getMaxProcesses() {
+        return maxProcesses;
+    }
+
+    public int getMaxQueue() {
+        return maxQueue;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getRunningCount() {
+        return runningCount.get();
+    }
+
+    public long getExecutionCount() {
+        return executionCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * @return the average time (ms) of a call, wait included
+     */
+    public long getAverageLatency() {
+        long count = executionCount.get();
+        return count == 0 ? 0 : totalLatency.get() / count;
+    }
+
+    /**
+     * @return the max time (ms) of a call, wait included
+     */
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    public String toString() {
+        return "GlexecExecutor: running=" + getRunningCount() + " queued=" + getQueueDepth() + " executed="
+                + getExecutionCount() + " rejected=" + getRejectedCount() + " timedout=" + getTimeoutCount()
+                + " avgLatency=" + getAverageLatency() + "ms maxLatency=" + getMaxLatency() + "ms";
+    }
+
+    public static class Result {
+
+        private final int exitCode;
+
+        private final String stdout;
+
+        private final String stderr;
+
+        Result(int exitCode, String stdout, String stderr) {
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public String getStdout() {
+            return stdout;
+        }
+
+        public String getStderr() {
+            return stderr;
+        }
+    }
+
+    /*
+     * The permits can be reduced below the ones in use: the running
+     * processes keep their slots and the excess is absorbed as they end.
+     */
+    private static final class ResizableSemaphore
+        extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    private static class StreamDrainer
+        implements Callable<String> {
+
+        private final InputStream stream;
+
+        StreamDrainer(InputStream stream) {
+            this.stream = stream;
+        }
+
+        public String call()
+            throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+
+            int n = stream.read(chunk);
+            while (n >= 0) {
+                int room = MAX_OUTPUT_SIZE - buffer.size();
+                if (room > 0) {
+                    buffer.write(chunk, 0, Math.min(n, room));
+                }
+                n = stream.read(chunk);
+            }
+
+            return buffer.toString();
+        }
+    }
+}
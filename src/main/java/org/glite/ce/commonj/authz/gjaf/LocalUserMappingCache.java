@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz.gjaf;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.glite.ce.commonj.authz.AuthorizationException;
+
+/**
+ * Cache of the local user mappings, keyed by the digest of the certificate
+ * chain and the FQANs. An entry is published before the mapping is
+ * computed, so that the concurrent requests for the same identity wait for
+ * the same result. A mapping expires at the earliest of the time-to-live and
+ * the <code>notAfter</code> of the certificates in the chain; a failure is
+ * never cached, nor is a mapping the loader rejects. When the cache grows
+ * beyond its size the expired mappings are removed and, if still too many,
+ * those expiring first.
+ */
+public class LocalUserMappingCache<V> {
+
+    /**
+     * Computes the mapping on a miss.
+     */
+    public interface Loader<V> {
+
+        public V load()
+            throws AuthorizationException;
+
+        /**
+         * @return true if the mapping can be cached
+         */
+        public boolean isCacheable(V value);
+    }
+
+    private final ConcurrentHashMap<MappingKey, MappingEntry<V>> mappings = new ConcurrentHashMap<MappingKey, MappingEntry<V>>();
+
+    private volatile long ttl;
+
+    private volatile int maxSize;
+
+    /**
+     * @param ttl
+     *            the max time (ms) a mapping is used, 0 disables the cache
+     * @param maxSize
+     *            the max number of mappings, 0 disables the cache
+     */
+    public LocalUserMappingCache(long ttl, int maxSize) {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached mapping for the identity, calling the loader if
+     * missing or expired.
+     *
+     * @param certList
+     *            the certificate chain of the request
+     * @param fqans
+     *            the FQANs of the request
+     * @param loader
+     *            the loader of the mapping
+     * @return the mapping
+     * @throws AuthorizationException
+     *             if the chain cannot be processed or the loader fails
+     */
+    public V get(X509Certificate[] certList, List<String> fqans, Loader<V> loader)
+        throws AuthorizationException {
+
+        MappingKey key = new MappingKey(digest(certList), fqans);
+
+        while (true) {
+            MappingEntry<V> entry = mappings.get(key);
+
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                mappings.remove(key, entry);
+                entry = null;
+            }
+
+            if (entry != null) {
+                return entry.await();
+            }
+
+            MappingEntry<V> newEntry = new MappingEntry<V>();
+            if (mappings.putIfAbsent(key, newEntry) != null) {
+                continue;
+            }
+
+            V value = null;
+            try {
+                value = loader.load();
+            } catch (AuthorizationException authEx) {
+                mappings.remove(key, newEntry);
+                newEntry.fail(authEx);
+                throw authEx;
+            } catch (RuntimeException rEx) {
+                mappings.remove(key, newEntry);
+                newEntry.fail(new AuthorizationException(rEx.getMessage(), rEx));
+                throw rEx;
+            }
+
+            long expiration = System.currentTimeMillis() + ttl;
+            for (X509Certificate certItem : certList) {
+                expiration = Math.min(expiration, certItem.getNotAfter().getTime());
+            }
+            newEntry.complete(value, expiration);
+
+            if (!loader.isCacheable(value) || ttl <= 0 || maxSize <= 0) {
+                mappings.remove(key, newEntry);
+            } else if (mappings.size() > maxSize) {
+                purge();
+            }
+
+            return value;
+        }
+    }
+
+    /*
+     * Removes the expired mappings and, if still too many, the oldest ones.
+     */
+    private void purge() {
+        long now = System.currentTimeMillis();
+        ArrayList<Map.Entry<MappingKey, MappingEntry<V>>> completed = new ArrayList<Map.Entry<MappingKey, MappingEntry<V>>>();
+
+        for (Iterator<Map.Entry<MappingKey, MappingEntry<V>>> it = mappings.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<MappingKey, MappingEntry<V>> item = it.next();
+            if (item.getValue().isExpired(now)) {
+                it.remove();
+            } else if (item.getValue().isDone()) {
+                completed.add(item);
+            }
+        }
+
+        int excess = mappings.size() - maxSize;
+        if (excess <= 0) {
+            return;
+        }
+
+        Collections.sort(completed, new Comparator<Map.Entry<MappingKey, MappingEntry<V>>>() {
+            public int compare(Map.Entry<MappingKey, MappingEntry<V>> e1, Map.Entry<MappingKey, MappingEntry<V>> e2) {
+                long t1 = e1.getValue().expiration;
+                long t2 = e2.getValue().expiration;
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+
+        for (int k = 0; k < excess && k < completed.size(); k++) {
+            mappings.remove(completed.get(k).getKey(), completed.get(k).getValue());
+        }
+    }
+
+    public long getTTL() {
+        return ttl;
+    }
+
+    public void setTTL(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the number of mappings, including those being computed
+     */
+    public int getSize() {
+        return mappings.size();
+    }
+
+    private static ByteBuffer digest(X509Certificate[] certList)
+        throws AuthorizationException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (X509Certificate certItem : certList) {
+                md.update(certItem.getEncoded());
+            }
+            return ByteBuffer.wrap(md.digest());
+        } catch (Exception ex) {
+            throw new AuthorizationException("Cannot process the certificate chain: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static class MappingKey {
+
+        private final ByteBuffer digest;
+
+        private final List<String> fqans;
+
+        MappingKey(ByteBuffer digest, List<String> fqans) {
+            this.digest = digest;
+            this.fqans = fqans;
+        }
+
+        public int hashCode() {
+            return 31 * digest.hashCode() + fqans.hashCode();
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof MappingKey)) {
+                return false;
+            }
+            MappingKey key = (MappingKey) obj;
+            return digest.equals(key.digest) && fqans.equals(key.fqans);
+        }
+    }
+
+    private static class MappingEntry<V> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile V value = null;
+
+        private volatile AuthorizationException error = null;
+
+        private volatile long expiration = Long.MAX_VALUE;
+
+        void complete(V value, long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+            done.countDown();
+        }
+
+        void fail(AuthorizationException error) {
+            this.error = error;
+            this.expiration = 0;
+            done.countDown();
+        }
+
+        boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        boolean isExpired(long now) {
+            return expiration <= now;
+        }
+
+        V await()
+            throws AuthorizationException {
+            try {
+                done.await();
+            } catch (InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+                throw new AuthorizationException("Interrupted while waiting for the local user id");
+            }
+
+            if (error != null) {
+                throw new AuthorizationException(error.getMessage());
+            }
+            return value;
+        }
+    }
+}
@@ -24,15 +24,18 @@
 
 package org.glite.ce.commonj.authz.gjaf;
 
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -45,7 +48,19 @@ import org.bouncycastle.util.encoders.Base64;
 import org.glite.ce.commonj.authz.AuthZConstants;
 import org.glite.ce.commonj.authz.AuthorizationException;
 import org.glite.ce.commonj.authz.ServiceAuthorizationInterface;
-
+import org.italiangrid.voms.VOMSAttribute;
+
+/**
+ * Retrieves the local user id, group and secondary groups of the requester
+ * via glexec. The mappings are cached by each instance (see
+ * {@link LocalUserMappingCache}) as configured by <code>mapping_cache_ttl</code>
+ * and <code>mapping_cache_size</code>. The glexec processes are run by the
+ * {@link GlexecExecutor} shared by all the instances: its limits
+ * <code>glexec_max_processes</code>, <code>glexec_max_queue</code> and
+ * <code>glexec_timeout</code> are process-wide and the values of the last
+ * instance initialized, or of the last property set, win; they should be
+ * configured with the same values for all the instances.
+ */
 public class LocalUserPIP
     implements ServicePIP {
 
@@ -57,6 +72,20 @@ public class LocalUserPIP
 
     public static final String ALLOWED_OPS = "methods";
 
+    public static final String MAPPING_CACHE_TTL = "mapping_cache_ttl";
+
+    public static final String MAPPING_CACHE_SIZE = "mapping_cache_size";
+
+    public static final String GLEXEC_MAX_PROCESSES = "glexec_max_processes";
+
+    public static final String GLEXEC_MAX_QUEUE = "glexec_max_queue";
+
+    public static final String GLEXEC_TIMEOUT = "glexec_timeout";
+
+    public static final long DEFAULT_MAPPING_CACHE_TTL = 300000;
+
+    public static final int DEFAULT_MAPPING_CACHE_SIZE = 1000;
+
     public static final Pattern uidPattern = Pattern.compile("uid=\\d+\\(([^)]+)\\)");
 
     public static final Pattern gidPattern = Pattern.compile("gid=\\d+\\(([^)]+)\\)");
@@ -73,6 +102,15 @@ public class LocalUserPIP
 
     private String[] opList;
 
+    private int glexecMaxProcs = GlexecExecutor.DEFAULT_MAX_PROCESSES;
+
+    private int glexecMaxQueue = GlexecExecutor.DEFAULT_MAX_QUEUE;
+
+    private long glexecTimeout = GlexecExecutor.DEFAULT_TIMEOUT;
+
+    private final LocalUserMappingCache<UserInfo> mappingCache = new LocalUserMappingCache<UserInfo>(
+            DEFAULT_MAPPING_CACHE_TTL, DEFAULT_MAPPING_CACHE_SIZE);
+
     public LocalUserPIP() {
         this("undef");
     }
@@ -105,6 +143,19 @@ public class LocalUserPIP
 
         opList = parseOpList(tmps);
 
+        mappingCache.setTTL(parseLong(MAPPING_CACHE_TTL, (String) config.getProperty(name, MAPPING_CACHE_TTL),
+                DEFAULT_MAPPING_CACHE_TTL));
+        mappingCache.setMaxSize((int) parseLong(MAPPING_CACHE_SIZE,
+                (String) config.getProperty(name, MAPPING_CACHE_SIZE), DEFAULT_MAPPING_CACHE_SIZE));
+
+        glexecMaxProcs = (int) parseLong(GLEXEC_MAX_PROCESSES,
+                (String) config.getProperty(name, GLEXEC_MAX_PROCESSES), GlexecExecutor.DEFAULT_MAX_PROCESSES);
+        glexecMaxQueue = (int) parseLong(GLEXEC_MAX_QUEUE, (String) config.getProperty(name, GLEXEC_MAX_QUEUE),
+                GlexecExecutor.DEFAULT_MAX_QUEUE);
+        glexecTimeout = parseLong(GLEXEC_TIMEOUT, (String) config.getProperty(name, GLEXEC_TIMEOUT),
+                GlexecExecutor.DEFAULT_TIMEOUT);
+        configureExecutor();
+
         logger.debug("Initialized LocalUserPIP: " + id);
     }
 
@@ -123,6 +174,38 @@ public class LocalUserPIP
         if (name.equals(ALLOWED_OPS)) {
             opList = parseOpList(value);
         }
+        if (name.equals(MAPPING_CACHE_TTL)) {
+            mappingCache.setTTL(parseLong(name, value, DEFAULT_MAPPING_CACHE_TTL));
+        }
+        if (name.equals(MAPPING_CACHE_SIZE)) {
+            mappingCache.setMaxSize((int) parseLong(name, value, DEFAULT_MAPPING_CACHE_SIZE));
+        }
+        if (name.equals(GLEXEC_MAX_PROCESSES)) {
+            glexecMaxProcs = (int) parseLong(name, value, GlexecExecutor.DEFAULT_MAX_PROCESSES);
+            configureExecutor();
+        }
+        if (name.equals(GLEXEC_MAX_QUEUE)) {
+            glexecMaxQueue = (int) parseLong(name, value, GlexecExecutor.DEFAULT_MAX_QUEUE);
+            configureExecutor();
+        }
+        if (name.equals(GLEXEC_TIMEOUT)) {
+            glexecTimeout = parseLong(name, value, GlexecExecutor.DEFAULT_TIMEOUT);
+            configureExecutor();
+        }
+    }
+
+    /*
+     * The executor is shared by all the instances: the last configured
+     * limits apply (see the class description).
+     */
+    private void configureExecutor()
+        throws InitializeException {
+        try {
+            GlexecExecutor.getInstance().configure(glexecMaxProcs, glexecMaxQueue, glexecTimeout);
+        } catch (IllegalArgumentException argEx) {
+            logger.error(argEx.getMessage());
+            throw new InitializeException(argEx.getMessage());
+        }
     }
 
     public String getProperty(String name) {
@@ -143,11 +226,27 @@ public class LocalUserPIP
             }
             return buffer.toString();
         }
+        if (name.equals(MAPPING_CACHE_TTL)) {
+            return Long.toString(mappingCache.getTTL());
+        }
+        if (name.equals(MAPPING_CACHE_SIZE)) {
+            return Integer.toString(mappingCache.getMaxSize());
+        }
+        if (name.equals(GLEXEC_MAX_PROCESSES)) {
+            return Integer.toString(glexecMaxProcs);
+        }
+        if (name.equals(GLEXEC_MAX_QUEUE)) {
+            return Integer.toString(glexecMaxQueue);
+        }
+        if (name.equals(GLEXEC_TIMEOUT)) {
+            return Long.toString(glexecTimeout);
+        }
         return null;
     }
 
     public String[] getProperties() {
-        return new String[] { GLEXEC_BIN_PATH, GLEXEC_PROBE_CMD, ALLOWED_OPS };
+        return new String[] { GLEXEC_BIN_PATH, GLEXEC_PROBE_CMD, ALLOWED_OPS, MAPPING_CACHE_TTL, MAPPING_CACHE_SIZE,
+                GLEXEC_MAX_PROCESSES, GLEXEC_MAX_QUEUE, GLEXEC_TIMEOUT };
     }
 
     public boolean isTriggerable(String name) {
@@ -173,11 +272,58 @@ public class LocalUserPIP
             throw new AuthorizationException("Cannot retrieve proxy certificate from context");
         }
 
+        String tmpDN = (String) context.getProperty(AuthZConstants.USERDN_RFC2253_LABEL);
+        UserInfo userInfo = getMapping(certList, getFQANs(context), tmpDN);
+
+        if (userInfo.uid == null) {
+            logger.warn("Cannot retrieve user ID from glexec output for: " + tmpDN);
+        } else {
+            logger.debug("Mapped " + tmpDN + " into " + userInfo.uid);
+            context.setProperty(AuthZConstants.LOCAL_USER_ID, userInfo.uid);
+        }
+
+        if (userInfo.gid == null) {
+            logger.warn("Cannot retrieve group ID from glexec output for: " + tmpDN);
+        } else {
+            logger.debug("Gid for " + tmpDN + ": " + userInfo.gid);
+            context.setProperty(AuthZConstants.LOCAL_GROUP_ID, userInfo.gid);
+        }
+
+        if (userInfo.groups.size() > 0) {
+            String[] tmpgrp = new String[userInfo.groups.size()];
+            userInfo.groups.toArray(tmpgrp);
+            context.setProperty(AuthZConstants.LOCAL_GROUPS_LIST, tmpgrp);
+        }
+    }
+
+    /*
+     * Returns the cached mapping for the identity, calling glexec if missing
+     * or expired; a failure is never cached, nor is a glexec output without
+     * the user id.
+     */
+    private UserInfo getMapping(final X509Certificate[] certList, List<String> fqans, final String dn)
+        throws AuthorizationException {
+
+        return mappingCache.get(certList, fqans, new LocalUserMappingCache.Loader<UserInfo>() {
+            public UserInfo load()
+                throws AuthorizationException {
+                return callGlexec(certList, dn);
+            }
+
+            public boolean isCacheable(UserInfo userInfo) {
+                return userInfo.uid != null;
+            }
+        });
+    }
+
+    private UserInfo callGlexec(X509Certificate[] certList, String tmpDN)
+        throws AuthorizationException {
+
         File tmpFile = null;
         BufferedWriter tmpFileWriter = null;
         try {
-            tmpFile = File.createTempFile("userproxy", ".pem");
-            tmpFileWriter = new BufferedWriter(new FileWriter(tmpFile));
+            tmpFile = createProxyFile();
+            tmpFileWriter = Files.newBufferedWriter(tmpFile.toPath(), Charset.forName("US-ASCII"));
             for (X509Certificate certItem : certList) {
                 byte[] pemBytes = Base64.encode(certItem.getEncoded());
                 tmpFileWriter.write("-----BEGIN CERTIFICATE-----");
@@ -201,6 +347,9 @@ public class LocalUserPIP
             } else {
                 logger.error("Cannot store proxy certificate: " + th.getMessage());
             }
+            if (tmpFile != null && !tmpFile.delete()) {
+                logger.error("Cannot delete file " + tmpFile.getAbsolutePath());
+            }
             throw new AuthorizationException("Cannot store proxy certificate");
         } finally {
             if (tmpFileWriter != null) {
@@ -212,66 +361,18 @@ public class LocalUserPIP
             }
         }
 
-        int retcod = 0;
-        Process chmodProc = null;
-        /*
-         * TODO chmod as parameter
-         */
-        String chmodCmd = "chmod 0600 " + tmpFile.getAbsolutePath();
-        try {
-            chmodProc = Runtime.getRuntime().exec(chmodCmd);
-            retcod = chmodProc.waitFor();
-        } catch (InterruptedException e) {
-            logger.warn("Interrupted call to " + chmodCmd);
-            retcod = -1;
-        } catch (Exception ex) {
-            if (logger.isDebugEnabled()) {
-                logger.error("Cannot set permissions to the store proxy certificate", ex);
-
-            } else {
-                logger.error("Cannot set permissions to the store proxy certificate: " + ex.getMessage());
-            }
-            retcod = -1;
-        } finally {
-            if (chmodProc != null) {
-                try {
-                    chmodProc.getInputStream().close();
-                } catch (IOException e) {
-                    logger.error("Cannot close instream for " + chmodCmd);
-                }
-                try {
-                    chmodProc.getErrorStream().close();
-                } catch (IOException e) {
-                    logger.error("Cannot close errstream for " + chmodCmd);
-                }
-                try {
-                    chmodProc.getOutputStream().close();
-                } catch (IOException e) {
-                    logger.error("Cannot close outstream for " + chmodCmd);
-                }
-            }
-        }
-
-        if (retcod != 0)
-            throw new AuthorizationException("Cannot set permissions to the store proxy certificate");
-
+        UserInfo userInfo = null;
         String[] envp = new String[] { "GLEXEC_MODE=lcmaps_get_account",
                 "GLEXEC_CLIENT_CERT=" + tmpFile.getAbsolutePath() };
         String[] cmdLine = new String[] { glexecPath, probeCmd };
 
-        BufferedReader in = null;
-        BufferedOutputStream out = null;
-        BufferedReader err = null;
         String failureDescr = null;
         try {
-            Process proc = Runtime.getRuntime().exec(cmdLine, envp);
-            in = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-            out = new BufferedOutputStream(proc.getOutputStream());
-            err = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
+            GlexecExecutor.Result result = GlexecExecutor.getInstance().execute(cmdLine, envp);
 
-            proc.waitFor();
-            if (proc.exitValue() != 0) {
+            if (result.getExitCode() != 0) {
                 StringBuffer buff = new StringBuffer("glexec error: ");
+                BufferedReader err = new BufferedReader(new StringReader(result.getStderr()));
                 String line = err.readLine();
                 while (line != null) {
                     buff.append(line);
@@ -280,29 +381,12 @@ public class LocalUserPIP
                 failureDescr = buff.toString();
                 logger.error(failureDescr);
             } else {
-                String tmpDN = (String) context.getProperty(AuthZConstants.USERDN_RFC2253_LABEL);
-                UserInfo userInfo = parseGlexecOutput(in);
-                if (userInfo.uid == null) {
-                    logger.warn("Cannot retrieve user ID from glexec output for: " + tmpDN);
-                } else {
-                    logger.debug("Mapped " + tmpDN + " into " + userInfo.uid);
-                    context.setProperty(AuthZConstants.LOCAL_USER_ID, userInfo.uid);
-                }
-
-                if (userInfo.gid == null) {
-                    logger.warn("Cannot retrieve group ID from glexec output for: " + tmpDN);
-                } else {
-                    logger.debug("Gid for " + tmpDN + ": " + userInfo.gid);
-                    context.setProperty(AuthZConstants.LOCAL_GROUP_ID, userInfo.gid);
-                }
-
-                if (userInfo.groups.size() > 0) {
-                    String[] tmpgrp = new String[userInfo.groups.size()];
-                    userInfo.groups.toArray(tmpgrp);
-                    context.setProperty(AuthZConstants.LOCAL_GROUPS_LIST, tmpgrp);
-                }
+                userInfo = parseGlexecOutput(new BufferedReader(new StringReader(result.getStdout())));
             }
 
+        } catch (AuthorizationException authEx) {
+            logger.error(authEx.getMessage());
+            failureDescr = authEx.getMessage();
         } catch (Throwable th) {
             if (logger.isDebugEnabled()) {
                 logger.error(th.getMessage(), th);
@@ -311,28 +395,6 @@ public class LocalUserPIP
             }
             failureDescr = th.getMessage();
         } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException ioEx) {
-                    logger.error(ioEx.getMessage());
-                }
-            }
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException ioEx) {
-                    logger.error(ioEx.getMessage());
-                }
-            }
-            if (err != null) {
-                try {
-                    err.close();
-                } catch (IOException ioEx) {
-                    logger.error(ioEx.getMessage());
-                }
-            }
-
             if (tmpFile != null && !tmpFile.delete()) {
                 logger.error("Cannot delete file " + tmpFile.getAbsolutePath());
             }
@@ -341,6 +403,53 @@ public class LocalUserPIP
         if (failureDescr != null) {
             throw new AuthorizationException("Failed to get the local user id via glexec: " + failureDescr);
         }
+
+        return userInfo;
+    }
+
+    /*
+     * The temporary file is created with owner-only permissions, where the
+     * file system supports them, without any window of wider access.
+     */
+    private File createProxyFile()
+        throws IOException {
+        try {
+            Path tmpPath = Files.createTempFile("userproxy", ".pem",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            return tmpPath.toFile();
+        } catch (UnsupportedOperationException uoEx) {
+            File tmpFile = File.createTempFile("userproxy", ".pem");
+            if (!(tmpFile.setReadable(false, false) && tmpFile.setReadable(true, true)
+                    && tmpFile.setWritable(false, false) && tmpFile.setWritable(true, true))) {
+                tmpFile.delete();
+                throw new IOException("Cannot set permissions to the store proxy certificate");
+            }
+            return tmpFile;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> getFQANs(ServiceAuthorizationInterface.MessageContext context) {
+        ArrayList<String> result = new ArrayList<String>();
+        Object attrs = context.getProperty(AuthZConstants.USER_VOMSATTRS_LABEL);
+        if (attrs instanceof List) {
+            for (VOMSAttribute attr : (List<VOMSAttribute>) attrs) {
+                result.addAll(attr.getFQANs());
+            }
+        }
+        return result;
+    }
+
+    private static long parseLong(String name, String value, long defValue) {
+        if (value == null || value.trim().length() == 0) {
+            return defValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException nfEx) {
+            logger.error("Wrong value for " + name + ": " + value);
+            return defValue;
+        }
     }
 
     public void close()
@@ -353,6 +462,11 @@ public class LocalUserPIP
         result.glexecPath = glexecPath;
         result.probeCmd = probeCmd;
         result.opList = opList;
+        result.mappingCache.setTTL(mappingCache.getTTL());
+        result.mappingCache.setMaxSize(mappingCache.getMaxSize());
+        result.glexecMaxProcs = glexecMaxProcs;
+        result.glexecMaxQueue = glexecMaxQueue;
+        result.glexecTimeout = glexecTimeout;
         return result;
     }
 
@@ -412,7 +526,7 @@ public class LocalUserPIP
         return result;
     }
 
-    private class UserInfo {
+    private static class UserInfo {
         public String uid;
 
         public String gid;
@@ -38,6 +38,7 @@ import javax.xml.namespace.QName;
 import org.apache.log4j.Logger;
 import org.glite.ce.commonj.authz.AuthZConstants;
 import org.glite.ce.commonj.authz.AuthorizationException;
+import org.glite.ce.commonj.authz.FQANMatcher;
 import org.glite.ce.commonj.authz.FQANPattern;
 import org.glite.ce.commonj.authz.ServiceAuthorizationInterface;
 import org.italiangrid.voms.VOMSAttribute;
@@ -58,6 +59,8 @@ public class VomsServicePDP
 
     private HashMap<FQANPattern, String> fqanTable;
 
+    private FQANMatcher fqanMatcher;
+
     private long timestamp;
 
     public VomsServicePDP() {
@@ -151,6 +154,8 @@ public class VomsServicePDP
                 } catch (Exception ex) {
                 }
             }
+
+            fqanMatcher = new FQANMatcher(fqanTable.keySet());
         }
 
     }
@@ -184,12 +189,11 @@ public class VomsServicePDP
 
                 for (String fqanStr : fqanList) {
 
-                    for (FQANPattern pattern : fqanTable.keySet()) {
-                        logger.debug("Checking fqan: " + fqanStr + " against " + pattern.toString());
-                        if (pattern.matches(fqanStr)) {
-                            logger.info("VOMS attribute authorized: " + fqanStr);
-                            return ALLOWED;
-                        }
+                    FQANPattern pattern = fqanMatcher.match(fqanStr);
+                    if (pattern != null) {
+                        logger.debug("Fqan " + fqanStr + " matches " + pattern.toString());
+                        logger.info("VOMS attribute authorized: " + fqanStr);
+                        return ALLOWED;
                     }
                 }
             }
@@ -212,6 +216,7 @@ public class VomsServicePDP
         result.timestamp = this.timestamp;
         result.fqanTable = new HashMap<FQANPattern, String>(fqanTable.size());
         result.fqanTable.putAll(fqanTable);
+        result.fqanMatcher = this.fqanMatcher;
         return result;
     }
 
@@ -28,15 +28,20 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
 import org.glite.ce.commonj.authz.AdminTable;
+import org.glite.ce.commonj.authz.AuthorizationDecisionCache;
 import org.glite.ce.commonj.authz.ServiceAuthorizationInterface;
 import org.glite.ce.commonj.authz.argus.ArgusPEPFactory;
 import org.glite.ce.commonj.authz.argus.PEPConfigurationItem;
+import org.glite.ce.commonj.configuration.xppm.ConfigurationEvent;
+import org.glite.ce.commonj.configuration.xppm.ConfigurationListener;
 import org.glite.ce.commonj.configuration.xppm.ConfigurationManager;
 import org.glite.ce.commonj.configuration.xppm.GlobalAttributes;
 import org.glite.ce.commonj.listeners.CommonContextListener;
@@ -49,6 +54,14 @@ public class CommonServiceConfig {
 
     private File configFile;
 
+    private volatile GlobalAttributeView attrView;
+
+    private HashMap<String, ArrayList<GlobalAttributeListener>> attrListeners;
+
+    private GlobalAttributeView notifiedView;
+
+    private volatile AuthorizationDecisionCache decisionCache = null;
+
     protected CommonServiceConfig() throws CommonConfigException {
         String configFilename = CommonContextListener.getConfigPath();
 
@@ -77,6 +90,139 @@ public class CommonServiceConfig {
             throw new CommonConfigException("Wrong configuration file path");
         }
 
+        attrView = new GlobalAttributeView();
+        attrListeners = new HashMap<String, ArrayList<GlobalAttributeListener>>();
+        notifiedView = getAttributeView();
+
+        confManager.addListener(new ConfigurationListener() {
+            public void notify(ConfigurationEvent event) {
+                if (event.getCategory() == GlobalAttributes.class) {
+                    notifyAttributeChanges();
+                }
+            }
+        });
+
+    }
+
+    /*
+     * The view is rebuilt only when a new version of the configuration is
+     * published.
+     */
+    private GlobalAttributeView getAttributeView() {
+
+        confManager.getConfigurationElements(GlobalAttributes.class);
+        long version = confManager.getConfigurationVersion();
+
+        GlobalAttributeView view = attrView;
+        if (view.getVersion() == version) {
+            return view;
+        }
+
+        synchronized (this) {
+
+            view = attrView;
+            if (view.getVersion() == version) {
+                return view;
+            }
+
+            Object[] tmpo = confManager.getConfigurationElements(GlobalAttributes.class);
+            GlobalAttributes attrs = tmpo.length > 0 ? (GlobalAttributes) tmpo[0] : null;
+            view = new GlobalAttributeView(version, attrs);
+            attrView = view;
+
+            return view;
+        }
+    }
+
+    /*
+     * Called by the configuration manager whenever the global attributes
+     * change, regardless of the callers of the attribute getters.
+     */
+    private void notifyAttributeChanges() {
+
+        GlobalAttributeView newView = getAttributeView();
+
+        synchronized (attrListeners) {
+
+            GlobalAttributeView oldView = notifiedView;
+            if (newView.getVersion() <= oldView.getVersion()) {
+                return;
+            }
+            notifiedView = newView;
+
+            if (attrListeners.size() > 0) {
+                notifyAttributeChanges(oldView, newView);
+            }
+        }
+    }
+
+    private void notifyAttributeChanges(GlobalAttributeView oldView, GlobalAttributeView newView) {
+
+        HashSet<String> names = new HashSet<String>(attrListeners.keySet());
+        for (String name : names) {
+
+            String oldValue = oldView.getString(name);
+            String newValue = newView.getString(name);
+            if (oldValue == null ? newValue == null : oldValue.equals(newValue)) {
+                continue;
+            }
+
+            logger.debug("Global attribute " + name + " changed");
+            ArrayList<GlobalAttributeListener> tmpList = attrListeners.get(name);
+            if (tmpList == null) {
+                continue;
+            }
+
+            for (GlobalAttributeListener lsnr : new ArrayList<GlobalAttributeListener>(tmpList)) {
+                try {
+                    lsnr.attributeChanged(name, oldValue, newValue);
+                } catch (Throwable th) {
+                    logger.error(th.getMessage(), th);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a listener for the changes of a global attribute. The listener
+     * is called by the notification thread of the configuration manager, as
+     * soon as the change is detected; a slow listener delays the following
+     * notifications.
+     * 
+     * @param name
+     *            is the name of the attribute
+     * @param lsnr
+     *            is the listener to be registered
+     */
+    public void addGlobalAttributeListener(String name, GlobalAttributeListener lsnr) {
+        synchronized (attrListeners) {
+            ArrayList<GlobalAttributeListener> tmpList = attrListeners.get(name);
+            if (tmpList == null) {
+                tmpList = new ArrayList<GlobalAttributeListener>();
+                attrListeners.put(name, tmpList);
+            }
+            tmpList.add(lsnr);
+        }
+    }
+
+    /**
+     * Removes a listener for the changes of a global attribute.
+     * 
+     * @param name
+     *            is the name of the attribute
+     * @param lsnr
+     *            is the listener to be removed
+     */
+    public void removeGlobalAttributeListener(String name, GlobalAttributeListener lsnr) {
+        synchronized (attrListeners) {
+            ArrayList<GlobalAttributeListener> tmpList = attrListeners.get(name);
+            if (tmpList != null) {
+                tmpList.remove(lsnr);
+                if (tmpList.size() == 0) {
+                    attrListeners.remove(name);
+                }
+            }
+        }
     }
 
     protected String getSysPropertyName() {
@@ -84,12 +230,9 @@ public class CommonServiceConfig {
     }
 
     public String getGlobalAttributeAsString(String name) {
-        Object[] tmpo = confManager.getConfigurationElements(GlobalAttributes.class);
-        if (tmpo.length > 0) {
-            String attrString = ((GlobalAttributes) tmpo[0]).get(name);
-            if (attrString != null) {
-                return attrString;
-            }
+        String attrString = getAttributeView().getString(name);
+        if (attrString != null) {
+            return attrString;
         }
 
         return "";
@@ -104,36 +247,65 @@ public class CommonServiceConfig {
     }
 
     public int getGlobalAttributeAsInt(String name, int defValue) {
-        Object[] tmpo = confManager.getConfigurationElements(GlobalAttributes.class);
-        if (tmpo.length > 0) {
-            GlobalAttributes attrs = (GlobalAttributes) tmpo[0];
-            try {
-                return Integer.parseInt(attrs.get(name));
-            } catch (Exception ex) {
-                logger.debug("Error parsing " + name + ": " + ex.getMessage() + "; used default");
-            }
+        return getAttributeView().getInt(name, defValue);
+    }
+
+    public long getGlobalAttributeAsLong(String name, long defValue) {
+        return getAttributeView().getLong(name, defValue);
+    }
+
+    /**
+     * Returns the configured authorization box. If the global attribute
+     * AuthzCacheSize is greater than 0 the box is wrapped by a decision cache
+     * (see {@link AuthorizationDecisionCache}), whose time-to-live for granted
+     * and denied decisions are AuthzCachePositiveTTL and AuthzCacheNegativeTTL.
+     * 
+     * @return the authorization box or null if not configured
+     */
+    public ServiceAuthorizationInterface getAuthorizationConfig() {
+        ServiceAuthorizationInterface authz = getAuthorizationBox();
+        if (authz == null) {
+            return null;
         }
 
-        return defValue;
+        int cacheSize = getGlobalAttributeAsInt("AuthzCacheSize", 0);
+        if (cacheSize <= 0) {
+            return authz;
+        }
 
-    }
+        long positiveTTL = getGlobalAttributeAsLong("AuthzCachePositiveTTL",
+                AuthorizationDecisionCache.DEFAULT_POSITIVE_TTL);
+        long negativeTTL = getGlobalAttributeAsLong("AuthzCacheNegativeTTL",
+                AuthorizationDecisionCache.DEFAULT_NEGATIVE_TTL);
+
+        /*
+         * the cache is rebuilt when the box or any of its parameters change
+         */
+        AuthorizationDecisionCache cache = decisionCache;
+        if (cache != null && cache.isConfiguredWith(authz, cacheSize, positiveTTL, negativeTTL)) {
+            return cache;
+        }
 
-    public long getGlobalAttributeAsLong(String name, long defValue) {
-        Object[] tmpo = confManager.getConfigurationElements(GlobalAttributes.class);
-        if (tmpo.length > 0) {
-            GlobalAttributes attrs = (GlobalAttributes) tmpo[0];
-            try {
-                return Long.parseLong(attrs.get(name));
-            } catch (Exception ex) {
-                logger.debug("Error parsing " + name + ": " + ex.getMessage() + "; used default");
+        synchronized (this) {
+            cache = decisionCache;
+            if (cache != null && cache.isConfiguredWith(authz, cacheSize, positiveTTL, negativeTTL)) {
+                return cache;
+            }
+
+            if (cache != null) {
+                confManager.removeListener(cache);
             }
-        }
 
-        return defValue;
+            cache = new AuthorizationDecisionCache(authz, cacheSize, positiveTTL, negativeTTL);
+            confManager.addListener(cache);
+            decisionCache = cache;
 
+            logger.debug("Authorization decision cache enabled: " + cacheSize + " entries");
+            return cache;
+        }
     }
 
-    public ServiceAuthorizationInterface getAuthorizationConfig() {
+    private ServiceAuthorizationInterface getAuthorizationBox() {
         Object[] tmpo = confManager.getConfigurationElements(ServiceAuthorizationInterface.class);
         if (tmpo.length > 0) {
             ServiceAuthorizationInterface authz = (ServiceAuthorizationInterface) tmpo[0];
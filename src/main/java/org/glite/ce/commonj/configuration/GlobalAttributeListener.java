@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration;
+
+/**
+ * Receives the changes of a global attribute of the service configuration.
+ */
+public interface GlobalAttributeListener {
+
+    /**
+     * Called when the value of the attribute is changed.
+     *
+     * @param name
+     *            is the name of the attribute
+     * @param oldValue
+     *            is the previous value or null if the attribute was not
+     *            defined
+     * @param newValue
+     *            is the current value or null if the attribute has been
+     *            removed
+     */
+    public void attributeChanged(String name, String oldValue, String newValue);
+
+}
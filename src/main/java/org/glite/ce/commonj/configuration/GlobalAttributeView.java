@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An immutable copy of the global attributes for a given version of the
+ * configuration. Numeric values are parsed once, when the view is built, so
+ * that the getters neither allocate nor parse.
+ */
+class GlobalAttributeView {
+
+    private static Logger logger = Logger.getLogger(GlobalAttributeView.class.getName());
+
+    private final long version;
+
+    private final HashMap<String, Entry> entries;
+
+    GlobalAttributeView() {
+        version = -1;
+        entries = new HashMap<String, Entry>(0);
+    }
+
+    GlobalAttributeView(long version, Map<String, String> attributes) {
+        this.version = version;
+
+        if (attributes == null) {
+            entries = new HashMap<String, Entry>(0);
+            return;
+        }
+
+        entries = new HashMap<String, Entry>(attributes.size() * 2);
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            if (attribute.getValue() != null) {
+                entries.put(attribute.getKey(), new Entry(attribute.getKey(), attribute.getValue()));
+            }
+        }
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    String getString(String name) {
+        Entry entry = entries.get(name);
+        return entry != null ? entry.strValue : null;
+    }
+
+    int getInt(String name, int defValue) {
+        Entry entry = entries.get(name);
+        return entry != null && entry.isInt ? entry.intValue : defValue;
+    }
+
+    long getLong(String name, long defValue) {
+        Entry entry = entries.get(name);
+        return entry != null && entry.isLong ? entry.longValue : defValue;
+    }
+
+    private static class Entry {
+
+        final String strValue;
+
+        final boolean isInt;
+
+        final int intValue;
+
+        final boolean isLong;
+
+        final long longValue;
+
+        Entry(String name, String value) {
+            strValue = value;
+
+            long tmpl = 0;
+            boolean tmpb = false;
+            try {
+                tmpl = Long.parseLong(value);
+                tmpb = true;
+            } catch (NumberFormatException nfEx) {
+                logger.debug("Attribute " + name + " is not a number: " + nfEx.getMessage());
+            }
+
+            isLong = tmpb;
+            longValue = tmpl;
+            isInt = tmpb && tmpl >= Integer.MIN_VALUE && tmpl <= Integer.MAX_VALUE;
+            intValue = isInt ? (int) tmpl : 0;
+        }
+
+    }
+
+}
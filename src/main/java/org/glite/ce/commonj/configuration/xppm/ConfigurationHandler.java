@@ -49,8 +49,35 @@ public abstract class ConfigurationHandler {
 
     public abstract XPathExpression getXPath();
 
+    /**
+     * Returns the absolute path of the nodes required by the handler, if it
+     * can be resolved by the streaming parser: a sequence of element names
+     * optionally followed by an attribute step (<code>/service/@*</code>).
+     * The path must select the same nodes as the expression returned by
+     * {@link #getXPath()}. The default implementation returns null and the
+     * configuration file is parsed with DOM and XPath.
+     * 
+     * @return the absolute path or null
+     */
+    public String getStreamingPath() {
+        return null;
+    }
+
     public abstract Class<?> getCategory();
 
+    /**
+     * Returns the categories of the handlers that must be processed and
+     * committed before this handler. Handlers without dependencies may be
+     * processed in parallel, so the nodes passed to
+     * {@link #process(NodeList)} must be treated as read-only. The default
+     * implementation returns null.
+     * 
+     * @return the array of categories or null
+     */
+    public Class<?>[] getDependencies() {
+        return null;
+    }
+
     public abstract Object[] getConfigurationElement();
 
     public abstract boolean process(NodeList parsedElements) throws CommonConfigException;
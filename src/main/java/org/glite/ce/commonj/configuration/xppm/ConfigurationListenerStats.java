@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.xppm;
+
+/**
+ * A snapshot of the delivery statistics of a configuration listener. The lag
+ * is the time, in milliseconds, elapsed between the detection of a change and
+ * the end of the notification.
+ */
+public class ConfigurationListenerStats {
+
+    private ConfigurationListener listener;
+
+    private int pendingEvents;
+
+    private long deliveredEvents;
+
+    private long coalescedEvents;
+
+    private long currentLag;
+
+    private long lastLag;
+
+    private long maxLag;
+
+    ConfigurationListenerStats(ConfigurationListener listener, int pending, long delivered, long coalesced,
+            long currentLag, long lastLag, long maxLag) {
+        this.listener = listener;
+        this.pendingEvents = pending;
+        this.deliveredEvents = delivered;
+        this.coalescedEvents = coalesced;
+        this.currentLag = currentLag;
+        this.lastLag = lastLag;
+        this.maxLag = maxLag;
+    }
+
+    public ConfigurationListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Returns the number of events waiting for delivery; at most one event per
+     * category is kept.
+     */
+    public int getPendingEvents() {
+        return pendingEvents;
+    }
+
+    public long getDeliveredEvents() {
+        return deliveredEvents;
+    }
+
+    /**
+     * Returns the number of events merged with a pending event of the same
+     * category because the listener was lagging.
+     */
+    public long getCoalescedEvents() {
+        return coalescedEvents;
+    }
+
+    /**
+     * Returns the age of the oldest pending event, 0 if the queue is empty.
+     */
+    public long getCurrentLag() {
+        return currentLag;
+    }
+
+    public long getLastLag() {
+        return lastLag;
+    }
+
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    public String toString() {
+        StringBuffer buff = new StringBuffer(listener.getClass().getName());
+        buff.append(": pending=").append(pendingEvents);
+        buff.append(" delivered=").append(deliveredEvents);
+        buff.append(" coalesced=").append(coalescedEvents);
+        buff.append(" currentLag=").append(currentLag);
+        buff.append(" lastLag=").append(lastLag);
+        buff.append(" maxLag=").append(maxLag);
+        return buff.toString();
+    }
+
+}
@@ -20,12 +20,16 @@ package org.glite.ce.commonj.configuration.xppm;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.ServiceLoader;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 
@@ -39,6 +43,25 @@ import org.w3c.dom.NodeList;
  * any all the Computing Element services. It loads the instantiates the
  * registered configuration handlers and parses the XML configuration file.
  * 
+ * By default the XML file and the trigger files are polled every
+ * <code>configuration.manager.refresh.time</code> seconds. If the system
+ * property <code>configuration.manager.watch</code> is set to true the files
+ * are monitored by a WatchService and the configuration is reloaded in
+ * background as soon as a change is detected; bursts of changes are coalesced
+ * within <code>configuration.manager.watch.delay</code> milliseconds.
+ * 
+ * If every registered handler provides a streaming path the XML file is read
+ * with a single StAX pass and only the selected sections are turned into DOM
+ * nodes; otherwise, or if the system property
+ * <code>configuration.manager.streaming</code> is set to false, the whole file
+ * is parsed with DOM and the XPath expressions of the handlers are evaluated.
+ * 
+ * The handlers are processed in parallel, on at most
+ * <code>configuration.manager.threads</code> threads, unless they declare
+ * dependencies on other categories; the commit or the rollback of all the
+ * handlers is performed sequentially, in dependency order, once every handler
+ * has been processed.
+ * 
  */
 public class ConfigurationManager
     implements Runnable {
@@ -49,6 +72,18 @@ public class ConfigurationManager
 
     private static long REFRESH_TIME_DEFAULT = 5;
 
+    private static String WATCH_ENABLED_LABEL = "configuration.manager.watch";
+
+    private static String WATCH_DELAY_LABEL = "configuration.manager.watch.delay";
+
+    private static long WATCH_DELAY_DEFAULT = 200;
+
+    private static String STREAMING_LABEL = "configuration.manager.streaming";
+
+    private static String THREADS_LABEL = "configuration.manager.threads";
+
+    private static int THREADS_DEFAULT = 4;
+
     private ArrayList<ConfigurationHandler> handlerList;
 
     private String xmlFilename;
@@ -59,15 +94,29 @@ public class ConfigurationManager
 
     private long refreshTime;
 
-    private ArrayList<ConfigurationListener> listeners;
+    private volatile long nextCheckTime;
+
+    private volatile ConfigurationSnapshot snapshot;
+
+    private EventDispatcher dispatcher;
 
     private Thread notifyThread;
 
-    private boolean running;
+    private volatile boolean running;
+
+    private boolean watchEnabled;
 
-    private boolean deadlockDetected;
+    private long watchDelay;
 
-    private ArrayBlockingQueue<ConfigurationEvent> eventQueue;
+    private volatile ConfigurationWatcher watcher;
+
+    private DocumentBuilder builder;
+
+    private StreamingConfigParser streamingParser;
+
+    private HandlerScheduler scheduler;
+
+    private IdentityHashMap<ConfigurationHandler, byte[]> fingerprints;
 
     /**
      * Instantiates a new configuration manager. The XML configuration file is
@@ -89,6 +138,8 @@ public class ConfigurationManager
 
         lastTick = 0;
         lastModificationTime = 0;
+        nextCheckTime = 0;
+        snapshot = new ConfigurationSnapshot();
 
         try {
             refreshTime = Long.parseLong(System.getProperty(REFRESH_TIME_LABEL)) * 1000;
@@ -99,6 +150,21 @@ public class ConfigurationManager
             refreshTime = REFRESH_TIME_DEFAULT * 1000;
         }
 
+        watchEnabled = Boolean.parseBoolean(System.getProperty(WATCH_ENABLED_LABEL, "false"));
+
+        try {
+            watchDelay = Long.parseLong(System.getProperty(WATCH_DELAY_LABEL));
+            if (watchDelay < 0) {
+                watchDelay = WATCH_DELAY_DEFAULT;
+            }
+        } catch (Throwable th) {
+            watchDelay = WATCH_DELAY_DEFAULT;
+        }
+        watcher = null;
+
+        builder = null;
+        fingerprints = new IdentityHashMap<ConfigurationHandler, byte[]>();
+
         handlerList = new ArrayList<ConfigurationHandler>();
 
         ServiceLoader<ConfigurationHandler> serviceLoader = ServiceLoader.load(ConfigurationHandler.class);
@@ -108,13 +174,41 @@ public class ConfigurationManager
             logger.debug("Loaded handler " + cHandler.getClass().getName());
         }
 
-        eventQueue = new ArrayBlockingQueue<ConfigurationEvent>(1000);
+        streamingParser = null;
+        if (Boolean.parseBoolean(System.getProperty(STREAMING_LABEL, "true"))) {
 
-        listeners = new ArrayList<ConfigurationListener>();
+            ArrayList<String> pathList = new ArrayList<String>(handlerList.size());
+            for (ConfigurationHandler cHandler : handlerList) {
+                String path = cHandler.getStreamingPath();
+                if (!StreamingConfigParser.isSupported(path)) {
+                    logger.debug("Streaming parser not supported by " + cHandler.getClass().getName());
+                    pathList = null;
+                    break;
+                }
+                pathList.add(path);
+            }
+
+            if (pathList != null) {
+                try {
+                    streamingParser = new StreamingConfigParser(pathList);
+                } catch (Exception ex) {
+                    logger.warn("Cannot create streaming parser: " + ex.getMessage());
+                }
+            }
+        }
+
+        int maxThreads = Math.min(Runtime.getRuntime().availableProcessors(), THREADS_DEFAULT);
+        try {
+            maxThreads = Integer.parseInt(System.getProperty(THREADS_LABEL));
+        } catch (Throwable th) {
+        }
+        scheduler = new HandlerScheduler(handlerList, maxThreads);
+        handlerList = new ArrayList<ConfigurationHandler>(scheduler.getOrderedHandlers());
+
+        dispatcher = new EventDispatcher();
 
         notifyThread = new Thread(this, "ConfigurationNotifier");
         running = false;
-        deadlockDetected = false;
 
     }
 
@@ -136,6 +230,10 @@ public class ConfigurationManager
         this(xmlFilename);
         refreshTime = rate / 2;
         running = true;
+
+        synchronized (this) {
+            checkAndUpdate();
+        }
         notifyThread.start();
 
     }
@@ -168,69 +266,94 @@ public class ConfigurationManager
         }
 
         running = true;
+
+        synchronized (this) {
+            checkAndUpdate();
+        }
         notifyThread.start();
 
     }
 
     /**
      * Returns an array of configuration objects registered for a given category
-     * The category specify the class type of the returned object.
+     * The category specify the class type of the returned object. The array is
+     * taken from the current configuration snapshot and it is shared among all
+     * the callers: it must not be modified.
+     * 
+     * If neither the notification manager nor the file watcher are running the
+     * configuration is checked by the first caller after the expiration of the
+     * refresh time; any other caller is served with the current snapshot
+     * without locking.
      * 
      * @param category
      *            is the class type for the registered object
      * @return an array, empty but never null, of configuration objects
      */
-    public synchronized Object[] getConfigurationElements(Class<?> category) {
-
-        checkAndUpdate();
-
-        ArrayList<Object> objList = new ArrayList<Object>();
+    public Object[] getConfigurationElements(Class<?> category) {
 
-        for (ConfigurationHandler cHandler : handlerList) {
-
-            if (!cHandler.isEnabled())
-                continue;
-
-            if (cHandler.getCategory().equals(category)) {
-                Object[] objArray = cHandler.getConfigurationElement();
-                if (objArray == null) {
-                    continue;
-                }
-                for (Object obj : objArray) {
-                    if (category.isInstance(obj)) {
-                        objList.add(obj);
-                    } else {
-                        logger.error("Bad returned category for " + cHandler.getClass().getName());
-                    }
-                }
+        if (!running && watcher == null && System.currentTimeMillis() >= nextCheckTime) {
+            synchronized (this) {
+                checkAndUpdate();
             }
         }
 
-        Object[] result = new Object[objList.size()];
-        objList.toArray(result);
-        return result;
+        return snapshot.getElements(category);
+    }
+
+    /**
+     * Returns the version of the current configuration snapshot. The version
+     * is increased each time a configuration change is committed or rolled
+     * back.
+     * 
+     * @return the version of the current configuration snapshot
+     */
+    public long getConfigurationVersion() {
+        return snapshot.getVersion();
+    }
+
+    private void publishSnapshot() {
+        snapshot = new ConfigurationSnapshot(snapshot.getVersion() + 1, handlerList);
+        logger.debug("Published configuration snapshot " + snapshot.getVersion());
     }
 
     private void checkAndUpdate() {
+        checkAndUpdate(false);
+    }
+
+    private void checkAndUpdate(boolean force) {
 
         long now = System.currentTimeMillis();
-        if ((now - lastTick) < refreshTime) {
+        if (!force && (now - lastTick) < refreshTime) {
             return;
         }
 
         lastTick = now;
+        nextCheckTime = now + refreshTime;
         File xmlFile = new File(xmlFilename);
         long tmpTS = xmlFile.lastModified();
 
         if (tmpTS > lastModificationTime) {
 
             Document document = null;
+            HashMap<String, NodeList> streamedNodes = null;
             boolean commitOK = true;
+            final IdentityHashMap<ConfigurationHandler, NodeList> nodeMap = new IdentityHashMap<ConfigurationHandler, NodeList>();
+            final Map<ConfigurationHandler, byte[]> tmpFingerprints = Collections
+                    .synchronizedMap(new IdentityHashMap<ConfigurationHandler, byte[]>());
 
             try {
-                DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-                logger.debug("Parsing file " + xmlFile);
-                document = builder.parse(xmlFile);
+                if (streamingParser != null) {
+                    logger.debug("Parsing file " + xmlFile + " in streaming mode");
+                    streamedNodes = streamingParser.parse(xmlFile);
+                } else {
+                    if (builder == null) {
+                        builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+                    } else {
+                        builder.reset();
+                    }
+                    logger.debug("Parsing file " + xmlFile);
+                    document = builder.parse(xmlFile);
+                }
             } catch (Exception ex) {
                 logger.error(ex.getMessage(), ex);
                 return;
@@ -238,27 +361,69 @@ public class ConfigurationManager
 
             try {
 
+                /*
+                 * The DOM is not thread-safe, not even for reading: the
+                 * expressions are evaluated here and each handler works on
+                 * nodes of its own document. The streaming parser creates a
+                 * document for each path, the nodes of a path shared by
+                 * several handlers are copied.
+                 */
+                IdentityHashMap<NodeList, Boolean> assigned = new IdentityHashMap<NodeList, Boolean>();
                 for (ConfigurationHandler handler : handlerList) {
-                    XPathExpression xpathExpr = handler.getXPath();
-                    NodeList pElements = (NodeList) xpathExpr.evaluate(document, XPathConstants.NODESET);
-                    if (pElements != null && pElements.getLength() > 0) {
-
-                        if (!handler.isEnabled()) {
-                            handler.scheduleForAdd();
+                    NodeList tmpNodes = null;
+                    if (streamedNodes != null) {
+                        tmpNodes = streamedNodes.get(handler.getStreamingPath());
+                        if (tmpNodes != null && assigned.put(tmpNodes, Boolean.TRUE) != null) {
+                            tmpNodes = copyNodes(tmpNodes);
                         }
+                    } else {
+                        XPathExpression xpathExpr = handler.getXPath();
+                        tmpNodes = copyNodes((NodeList) xpathExpr.evaluate(document, XPathConstants.NODESET));
+                    }
+                    nodeMap.put(handler, tmpNodes);
+                }
 
-                        if (handler.process(pElements) && handler.isEnabled()) {
-                            handler.scheduleForUpdate();
-                        }
+                scheduler.execute(new HandlerScheduler.HandlerTask() {
+                    public void execute(ConfigurationHandler handler)
+                        throws Exception {
 
-                    } else {
+                        NodeList pElements = nodeMap.get(handler);
+                        if (pElements != null && pElements.getLength() > 0) {
 
-                        if (handler.isEnabled()) {
-                            handler.scheduleForDelete();
-                        }
+                            byte[] fingerprint = NodeFingerprint.digest(pElements);
+                            if (handler.isEnabled() && Arrays.equals(fingerprint, fingerprints.get(handler))) {
+
+                                /*
+                                 * The section is unchanged; the trigger files
+                                 * are checked here because the modification
+                                 * time is moved forward at the end of the cycle
+                                 */
+                                logger.debug("Unchanged section for " + handler.getCategory().getName());
+                                if (getLatestTriggerTime(handler) > lastModificationTime && handler.processTriggers()) {
+                                    handler.scheduleForUpdate();
+                                }
+                                return;
+
+                            }
+                            tmpFingerprints.put(handler, fingerprint);
+
+                            if (!handler.isEnabled()) {
+                                handler.scheduleForAdd();
+                            }
 
+                            if (handler.process(pElements) && handler.isEnabled()) {
+                                handler.scheduleForUpdate();
+                            }
+
+                        } else {
+
+                            if (handler.isEnabled()) {
+                                handler.scheduleForDelete();
+                            }
+
+                        }
                     }
-                }
+                });
 
             } catch (Exception ex) {
                 logger.error(ex.getMessage(), ex);
@@ -300,9 +465,14 @@ public class ConfigurationManager
                 lastModificationTime = tmpTS;
                 for (ConfigurationHandler handler : handlerList) {
                     if (!handler.isEnabled()) {
+                        fingerprints.remove(handler);
                         continue;
                     }
 
+                    if (tmpFingerprints.containsKey(handler)) {
+                        fingerprints.put(handler, tmpFingerprints.get(handler));
+                    }
+
                     long tmpl = getLatestTriggerTime(handler);
                     if (tmpl > lastModificationTime) {
                         lastModificationTime = tmpl;
@@ -331,30 +501,47 @@ public class ConfigurationManager
                 }
             }
 
+            publishSnapshot();
+
+            if (watchEnabled && watcher == null) {
+                startWatcher();
+            }
+
         } else {
 
             long lastTriggerMod = 0;
             boolean commitOK = true;
+            boolean updated = false;
+            final ArrayList<ConfigurationHandler> triggeredList = new ArrayList<ConfigurationHandler>();
 
-            try {
+            for (ConfigurationHandler handler : handlerList) {
 
-                for (ConfigurationHandler handler : handlerList) {
+                if (!handler.isEnabled()) {
+                    continue;
+                }
 
-                    if (!handler.isEnabled()) {
-                        continue;
-                    }
+                long tmpl = getLatestTriggerTime(handler);
+                if (tmpl > lastTriggerMod) {
+                    lastTriggerMod = tmpl;
+                }
 
-                    long tmpl = getLatestTriggerTime(handler);
-                    if (tmpl > lastTriggerMod) {
-                        lastTriggerMod = tmpl;
-                    }
+                if (tmpl > lastModificationTime) {
+                    triggeredList.add(handler);
+                }
 
-                    if (tmpl > lastModificationTime) {
-                        if (handler.processTriggers()) {
-                            handler.scheduleForUpdate();
-                        }
-                    }
+            }
 
+            try {
+
+                if (triggeredList.size() > 0) {
+                    scheduler.execute(new HandlerScheduler.HandlerTask() {
+                        public void execute(ConfigurationHandler handler)
+                            throws Exception {
+                            if (triggeredList.contains(handler) && handler.processTriggers()) {
+                                handler.scheduleForUpdate();
+                            }
+                        }
+                    });
                 }
 
             } catch (Exception ex) {
@@ -364,6 +551,7 @@ public class ConfigurationManager
 
             for (ConfigurationHandler handler : handlerList) {
                 if (handler.isScheduledForUpdate()) {
+                    updated = true;
                     try {
                         if (commitOK) {
 
@@ -390,18 +578,93 @@ public class ConfigurationManager
                 lastModificationTime = lastTriggerMod;
             }
 
+            if (updated) {
+                publishSnapshot();
+            }
+
         }
     }
 
-    private void enqueueEvent(Class<?> cat, long ts, int type) {
-        if (running) {
-            try {
-                ConfigurationEvent event = new ConfigurationEvent(cat, ts, type);
-                eventQueue.add(event);
-            } catch (IllegalStateException illEx) {
-                logger.error("Cannot enqueue event", illEx);
+    /*
+     * Called by the file watcher when a change is detected; returns the list
+     * of files to be monitored for the new configuration.
+     */
+    synchronized File[] reload() {
+        checkAndUpdate(true);
+        return getWatchedFiles();
+    }
+
+    /*
+     * Copies the nodes into a new document
+     */
+    private NodeList copyNodes(NodeList nodes)
+        throws ParserConfigurationException {
+
+        if (nodes == null || nodes.getLength() == 0) {
+            return nodes;
+        }
+
+        if (builder == null) {
+            builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        }
+        Document tmpDoc = builder.newDocument();
+
+        NodeListImpl result = new NodeListImpl();
+        for (int k = 0; k < nodes.getLength(); k++) {
+            result.add(tmpDoc.importNode(nodes.item(k), true));
+        }
+        return result;
+    }
+
+    private void startWatcher() {
+        try {
+            ConfigurationWatcher tmpWatcher = new ConfigurationWatcher(this, watchDelay);
+            tmpWatcher.start(getWatchedFiles());
+            watcher = tmpWatcher;
+            logger.info("Started configuration watcher for " + xmlFilename);
+        } catch (Exception ex) {
+            logger.error("Cannot start configuration watcher, polling enabled: " + ex.getMessage());
+            watchEnabled = false;
+        }
+    }
+
+    /*
+     * Called by the file watcher when it terminates abruptly: the watch mode
+     * is disabled and the configuration is checked again by polling.
+     */
+    synchronized void watcherTerminated(ConfigurationWatcher tmpWatcher) {
+        if (watcher == tmpWatcher) {
+            logger.warn("Configuration watcher terminated, polling enabled");
+            watchEnabled = false;
+            nextCheckTime = 0;
+            watcher = null;
+        }
+    }
+
+    private File[] getWatchedFiles() {
+        ArrayList<File> result = new ArrayList<File>();
+        result.add(new File(xmlFilename));
+
+        for (ConfigurationHandler handler : handlerList) {
+            if (!handler.isEnabled()) {
+                continue;
+            }
+
+            File[] triggers = handler.getTriggers();
+            if (triggers != null) {
+                for (File trigger : triggers) {
+                    result.add(trigger);
+                }
             }
         }
+
+        return result.toArray(new File[result.size()]);
+    }
+
+    private void enqueueEvent(Class<?> cat, long ts, int type) {
+        if (dispatcher.hasListeners()) {
+            dispatcher.dispatch(new ConfigurationEvent(cat, ts, type));
+        }
     }
 
     private long getLatestTriggerTime(ConfigurationHandler handler) {
@@ -428,45 +691,23 @@ public class ConfigurationManager
      */
 
     /**
-     * Notifies the scheduled configuration events to the registered listeners
-     * If no events are scheduled the thread is blocked waiting for
-     * configuration changes. The thread may exit if illegal interrupted
+     * Checks the configuration periodically; the events are delivered to the
+     * listeners by the dispatcher, so a slow listener does not delay the
+     * detection of the changes. The thread may exit if illegal interrupted
      * exception are thrown. The correct way to stop the thread is to call the
      * shutdown method.
      */
     public void run() {
 
-        synchronized (this) {
-            checkAndUpdate();
-        }
-
         while (running) {
             try {
 
-                ConfigurationEvent event = eventQueue.poll(refreshTime * 2, TimeUnit.MILLISECONDS);
-
-                if (event != null) {
-
-                    logger.debug("Read event " + event.getCategory().getName() + " " + event.getType());
-
-                    synchronized (listeners) {
-                        deadlockDetected = true;
-                        for (ConfigurationListener lsnr : listeners) {
-                            try {
-                                lsnr.notify(event);
-                            } catch (Throwable th) {
-                                logger.error(th.getMessage(), th);
-                            }
-                        }
-                        deadlockDetected = false;
-                    }
-
-                } else {
+                Thread.sleep(refreshTime);
 
+                if (watcher == null) {
                     synchronized (this) {
                         checkAndUpdate();
                     }
-
                 }
 
             } catch (InterruptedException intEx) {
@@ -483,55 +724,57 @@ public class ConfigurationManager
     }
 
     /**
-     * Stops the notification thread.
+     * Stops the notification thread, the file watcher and the listener
+     * queues.
      */
     public void shutdown() {
         if (running) {
             running = false;
             notifyThread.interrupt();
         }
+
+        ConfigurationWatcher tmpWatcher = watcher;
+        if (tmpWatcher != null) {
+            tmpWatcher.shutdown();
+        }
+
+        scheduler.shutdown();
+        dispatcher.shutdown();
     }
 
     /**
-     * Registers a new configuration listener. Attempting to call this method
-     * from inside the the notify method of the listener generates an
-     * IllegalStateException.
+     * Registers a new configuration listener. The events are delivered to the
+     * listener by a dedicated thread; events of the same category not yet
+     * delivered are merged, so the listener always receives the latest
+     * change. The listener may register or remove listeners from inside its
+     * notify method.
      * 
      * @param lsnr
      *            is the listener to be registered
      */
     public void addListener(ConfigurationListener lsnr) {
-
-        if (deadlockDetected) {
-            logger.error("Deadlock detected, cannot add listener");
-            throw new IllegalStateException("Deadlock detected");
-        }
-
-        synchronized (listeners) {
-            listeners.add(lsnr);
-        }
-
+        dispatcher.addListener(lsnr);
     }
 
     /**
-     * Removes a registered configuration listener. Attempting to call this
-     * method from inside the the notify method of the listener generates an
-     * IllegalStateException.
+     * Removes a registered configuration listener. Events still pending for
+     * the listener are discarded.
      * 
      * @param lsnr
      *            is the listener to be removed
      */
     public void removeListener(ConfigurationListener lsnr) {
+        dispatcher.removeListener(lsnr);
+    }
 
-        if (deadlockDetected) {
-            logger.error("Deadlock detected, cannot remove listener");
-            throw new IllegalStateException("Deadlock detected");
-        }
-
-        synchronized (listeners) {
-            listeners.remove(lsnr);
-        }
-
+    /**
+     * Returns the delivery statistics of the registered listeners; a high lag
+     * or a growing number of coalesced events identifies a slow listener.
+     * 
+     * @return an array, empty but never null, of statistics
+     */
+    public ConfigurationListenerStats[] getListenerStats() {
+        return dispatcher.getStats();
     }
 
 }
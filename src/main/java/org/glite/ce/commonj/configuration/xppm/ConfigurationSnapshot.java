@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.xppm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An immutable view of the configuration objects published by the enabled
+ * handlers. A new snapshot is built after each commit or rollback cycle and
+ * replaces the previous one atomically; readers never see a partially
+ * committed configuration.
+ */
+class ConfigurationSnapshot {
+
+    private static Logger logger = Logger.getLogger(ConfigurationSnapshot.class.getName());
+
+    static final Object[] EMPTY = new Object[0];
+
+    private final long version;
+
+    private final HashMap<Class<?>, Object[]> elements;
+
+    ConfigurationSnapshot() {
+        version = 0;
+        elements = new HashMap<Class<?>, Object[]>(0);
+    }
+
+    ConfigurationSnapshot(long version, List<ConfigurationHandler> handlerList) {
+
+        this.version = version;
+
+        HashMap<Class<?>, ArrayList<Object>> tmpMap = new HashMap<Class<?>, ArrayList<Object>>();
+
+        for (ConfigurationHandler cHandler : handlerList) {
+
+            if (!cHandler.isEnabled())
+                continue;
+
+            Class<?> category = cHandler.getCategory();
+            Object[] objArray = cHandler.getConfigurationElement();
+            if (objArray == null) {
+                continue;
+            }
+
+            ArrayList<Object> objList = tmpMap.get(category);
+            if (objList == null) {
+                objList = new ArrayList<Object>(objArray.length);
+                tmpMap.put(category, objList);
+            }
+
+            for (Object obj : objArray) {
+                if (category.isInstance(obj)) {
+                    objList.add(obj);
+                } else {
+                    logger.error("Bad returned category for " + cHandler.getClass().getName());
+                }
+            }
+        }
+
+        elements = new HashMap<Class<?>, Object[]>(tmpMap.size());
+        for (Class<?> category : tmpMap.keySet()) {
+            ArrayList<Object> objList = tmpMap.get(category);
+            elements.put(category, objList.size() == 0 ? EMPTY : objList.toArray());
+        }
+
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    Object[] getElements(Class<?> category) {
+        Object[] result = elements.get(category);
+        return result != null ? result : EMPTY;
+    }
+
+}
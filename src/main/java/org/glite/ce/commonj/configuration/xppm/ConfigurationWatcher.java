@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.xppm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The ConfigurationWatcher reloads the configuration when the XML file or any
+ * of the trigger files of the enabled handlers is changed. The parent
+ * directories of the files are registered with a WatchService; a burst of
+ * events is coalesced and the reload is performed once no further event is
+ * received within the debounce delay. If the watcher terminates abruptly the
+ * manager falls back to polling.
+ */
+class ConfigurationWatcher
+    implements Runnable {
+
+    private static Logger logger = Logger.getLogger(ConfigurationWatcher.class.getName());
+
+    private ConfigurationManager manager;
+
+    private long delay;
+
+    private WatchService watchService;
+
+    private HashMap<WatchKey, Path> watchedDirs;
+
+    private HashSet<Path> watchedFiles;
+
+    private Thread watchThread;
+
+    private volatile boolean running;
+
+    ConfigurationWatcher(ConfigurationManager manager, long delay) throws IOException {
+        this.manager = manager;
+        this.delay = delay;
+
+        watchService = FileSystems.getDefault().newWatchService();
+        watchedDirs = new HashMap<WatchKey, Path>();
+        watchedFiles = new HashSet<Path>();
+
+        watchThread = new Thread(this, "ConfigurationWatcher");
+        watchThread.setDaemon(true);
+        running = false;
+    }
+
+    void start(File[] files) {
+        register(files);
+        running = true;
+        watchThread.start();
+    }
+
+    void shutdown() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException ioEx) {
+            logger.error(ioEx.getMessage(), ioEx);
+        }
+    }
+
+    public void run() {
+
+        try {
+            while (running) {
+                try {
+
+                    WatchKey key = watchService.take();
+                    if (!processEvents(key)) {
+                        continue;
+                    }
+
+                    key = watchService.poll(delay, TimeUnit.MILLISECONDS);
+                    while (key != null) {
+                        processEvents(key);
+                        key = watchService.poll(delay, TimeUnit.MILLISECONDS);
+                    }
+
+                    logger.debug("Detected configuration change");
+                    register(manager.reload());
+
+                } catch (InterruptedException intEx) {
+                    if (running) {
+                        logger.error("Configuration watcher abruptly terminated");
+                    }
+                    break;
+                } catch (ClosedWatchServiceException cwsEx) {
+                    if (running) {
+                        logger.error("Configuration watcher abruptly terminated");
+                    }
+                    break;
+                } catch (Throwable th) {
+                    logger.error(th.getMessage(), th);
+                }
+            }
+        } finally {
+            if (running) {
+                shutdown();
+                manager.watcherTerminated(this);
+            }
+        }
+
+        logger.info("ConfigurationWatcher halted");
+    }
+
+    private synchronized boolean processEvents(WatchKey key) {
+
+        boolean result = false;
+        Path dir = watchedDirs.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                result = true;
+                continue;
+            }
+
+            if (dir != null) {
+                Path changed = dir.resolve((Path) event.context());
+                if (watchedFiles.contains(changed)) {
+                    logger.debug("Detected " + event.kind().name() + " for " + changed);
+                    result = true;
+                }
+            }
+        }
+
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+
+        return result;
+    }
+
+    private synchronized void register(File[] files) {
+
+        watchedFiles.clear();
+        HashSet<Path> dirs = new HashSet<Path>();
+
+        for (File file : files) {
+            Path path = file.getAbsoluteFile().toPath().normalize();
+            watchedFiles.add(path);
+            if (path.getParent() != null) {
+                dirs.add(path.getParent());
+            }
+        }
+
+        Iterator<WatchKey> keyIter = watchedDirs.keySet().iterator();
+        while (keyIter.hasNext()) {
+            WatchKey key = keyIter.next();
+            Path dir = watchedDirs.get(key);
+            if (!dirs.remove(dir)) {
+                key.cancel();
+                keyIter.remove();
+                logger.debug("Unregistered directory " + dir);
+            }
+        }
+
+        for (Path dir : dirs) {
+            try {
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirs.put(key, dir);
+                logger.debug("Registered directory " + dir);
+            } catch (IOException ioEx) {
+                logger.warn("Cannot watch directory " + dir + ": " + ioEx.getMessage());
+            }
+        }
+    }
+
+}
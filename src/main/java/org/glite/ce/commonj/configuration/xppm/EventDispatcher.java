@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.xppm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The EventDispatcher delivers the configuration events to the registered
+ * listeners. Each listener has its own queue and its own daemon thread, so a
+ * slow listener delays neither the other listeners nor the detection of the
+ * changes. The queue keeps at most one pending event per category: when a
+ * listener lags behind, a new event is merged with the pending one of the same
+ * category, therefore the queue is bounded by the number of categories and no
+ * change is lost. A category created and deleted before the listener has seen
+ * it produces no event at all.
+ */
+class EventDispatcher {
+
+    private static Logger logger = Logger.getLogger(EventDispatcher.class.getName());
+
+    private static AtomicInteger threadCounter = new AtomicInteger(0);
+
+    private CopyOnWriteArrayList<ListenerQueue> queues;
+
+    EventDispatcher() {
+        queues = new CopyOnWriteArrayList<ListenerQueue>();
+    }
+
+    void addListener(ConfigurationListener lsnr) {
+        ListenerQueue queue = new ListenerQueue(lsnr);
+        queues.add(queue);
+        queue.start();
+    }
+
+    void removeListener(ConfigurationListener lsnr) {
+        for (ListenerQueue queue : queues) {
+            if (queue.listener == lsnr) {
+                queues.remove(queue);
+                queue.shutdown();
+                return;
+            }
+        }
+    }
+
+    boolean hasListeners() {
+        return !queues.isEmpty();
+    }
+
+    void dispatch(ConfigurationEvent event) {
+        for (ListenerQueue queue : queues) {
+            queue.offer(event);
+        }
+    }
+
+    ConfigurationListenerStats[] getStats() {
+        ArrayList<ConfigurationListenerStats> result = new ArrayList<ConfigurationListenerStats>();
+        for (ListenerQueue queue : queues) {
+            result.add(queue.getStats());
+        }
+        return result.toArray(new ConfigurationListenerStats[result.size()]);
+    }
+
+    void shutdown() {
+        for (ListenerQueue queue : queues) {
+            queue.shutdown();
+        }
+        queues.clear();
+    }
+
+    /*
+     * Returns the event that summarizes two consecutive events of the same
+     * category for a listener that has not yet seen the first one, null if
+     * they cancel each other out
+     */
+    private static ConfigurationEvent merge(ConfigurationEvent oldEvent, ConfigurationEvent newEvent) {
+
+        if (oldEvent.getType() == ConfigurationEvent.CREATED_CONFIG
+                && newEvent.getType() == ConfigurationEvent.UPDATED_CONFIG) {
+            return new ConfigurationEvent(newEvent.getCategory(), newEvent.getTime(), ConfigurationEvent.CREATED_CONFIG);
+        }
+
+        if (oldEvent.getType() == ConfigurationEvent.CREATED_CONFIG
+                && newEvent.getType() == ConfigurationEvent.DELETED_CONFIG) {
+            return null;
+        }
+
+        if (oldEvent.getType() == ConfigurationEvent.DELETED_CONFIG
+                && newEvent.getType() == ConfigurationEvent.CREATED_CONFIG) {
+            return new ConfigurationEvent(newEvent.getCategory(), newEvent.getTime(), ConfigurationEvent.UPDATED_CONFIG);
+        }
+
+        return newEvent;
+    }
+
+    private static class PendingEvent {
+
+        ConfigurationEvent event;
+
+        final long enqueueTime;
+
+        PendingEvent(ConfigurationEvent event, long enqueueTime) {
+            this.event = event;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    private static class ListenerQueue
+        implements Runnable {
+
+        final ConfigurationListener listener;
+
+        private LinkedHashMap<Class<?>, PendingEvent> pending;
+
+        private Thread thread;
+
+        private boolean running;
+
+        private long delivered;
+
+        private long coalesced;
+
+        private long lastLag;
+
+        private long maxLag;
+
+        ListenerQueue(ConfigurationListener listener) {
+            this.listener = listener;
+            pending = new LinkedHashMap<Class<?>, PendingEvent>();
+            delivered = 0;
+            coalesced = 0;
+            lastLag = 0;
+            maxLag = 0;
+
+            thread = new Thread(this, "ConfigurationNotifier-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            running = false;
+        }
+
+        synchronized void start() {
+            running = true;
+            thread.start();
+        }
+
+        synchronized void shutdown() {
+            running = false;
+            notifyAll();
+        }
+
+        synchronized void offer(ConfigurationEvent event) {
+
+            PendingEvent pEvent = pending.get(event.getCategory());
+            if (pEvent != null) {
+                pEvent.event = merge(pEvent.event, event);
+                if (pEvent.event == null) {
+                    pending.remove(event.getCategory());
+                }
+                coalesced++;
+                logger.debug("Coalesced event " + event.getCategory().getName() + " for "
+                        + listener.getClass().getName());
+            } else {
+                pending.put(event.getCategory(), new PendingEvent(event, System.currentTimeMillis()));
+            }
+
+            notifyAll();
+        }
+
+        synchronized ConfigurationListenerStats getStats() {
+            long currentLag = 0;
+            if (pending.size() > 0) {
+                currentLag = System.currentTimeMillis() - pending.values().iterator().next().enqueueTime;
+            }
+            return new ConfigurationListenerStats(listener, pending.size(), delivered, coalesced, currentLag, lastLag,
+                    maxLag);
+        }
+
+        private synchronized PendingEvent take()
+            throws InterruptedException {
+
+            while (running && pending.size() == 0) {
+                wait();
+            }
+
+            if (!running) {
+                return null;
+            }
+
+            Iterator<PendingEvent> item = pending.values().iterator();
+            PendingEvent result = item.next();
+            item.remove();
+            return result;
+        }
+
+        public void run() {
+
+            while (true) {
+
+                PendingEvent pEvent = null;
+                try {
+                    pEvent = take();
+                } catch (InterruptedException intEx) {
+                    logger.error("Notifier for " + listener.getClass().getName() + " abruptly terminated");
+                    return;
+                }
+
+                if (pEvent == null) {
+                    break;
+                }
+
+                logger.debug("Read event " + pEvent.event.getCategory().getName() + " " + pEvent.event.getType());
+
+                try {
+                    listener.notify(pEvent.event);
+                } catch (Throwable th) {
+                    logger.error(th.getMessage(), th);
+                }
+
+                synchronized (this) {
+                    delivered++;
+                    lastLag = System.currentTimeMillis() - pEvent.enqueueTime;
+                    if (lastLag > maxLag) {
+                        maxLag = lastLag;
+                    }
+                }
+            }
+
+            logger.debug("Notifier for " + listener.getClass().getName() + " halted");
+        }
+    }
+
+}
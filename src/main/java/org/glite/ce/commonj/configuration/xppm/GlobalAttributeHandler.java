@@ -54,6 +54,10 @@ public class GlobalAttributeHandler
         return expr;
     }
 
+    public String getStreamingPath() {
+        return XPATH_STRING;
+    }
+
     public Class<?> getCategory() {
         return GlobalAttributes.class;
     }
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.xppm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The HandlerScheduler arranges the configuration handlers in levels according
+ * to the dependencies they declare: a handler is placed after all the handlers
+ * of the categories it depends on. The handlers of the same level are
+ * processed in parallel on a bounded pool of daemon threads; a level is
+ * started only when the previous one is completed.
+ */
+class HandlerScheduler {
+
+    private static Logger logger = Logger.getLogger(HandlerScheduler.class.getName());
+
+    private static final long KEEP_ALIVE_TIME = 60;
+
+    interface HandlerTask {
+        void execute(ConfigurationHandler handler) throws Exception;
+    }
+
+    private ArrayList<ArrayList<ConfigurationHandler>> levels;
+
+    private ArrayList<ConfigurationHandler> orderedHandlers;
+
+    private int maxThreads;
+
+    private ThreadPoolExecutor executor;
+
+    HandlerScheduler(List<ConfigurationHandler> handlerList, int maxThreads) {
+
+        this.maxThreads = maxThreads;
+        executor = null;
+
+        HashMap<Class<?>, ArrayList<ConfigurationHandler>> categoryMap = new HashMap<Class<?>, ArrayList<ConfigurationHandler>>();
+        for (ConfigurationHandler handler : handlerList) {
+            ArrayList<ConfigurationHandler> tmpList = categoryMap.get(handler.getCategory());
+            if (tmpList == null) {
+                tmpList = new ArrayList<ConfigurationHandler>();
+                categoryMap.put(handler.getCategory(), tmpList);
+            }
+            tmpList.add(handler);
+        }
+
+        IdentityHashMap<ConfigurationHandler, Integer> levelMap = new IdentityHashMap<ConfigurationHandler, Integer>();
+        IdentityHashMap<ConfigurationHandler, Boolean> visiting = new IdentityHashMap<ConfigurationHandler, Boolean>();
+        levels = new ArrayList<ArrayList<ConfigurationHandler>>();
+
+        for (ConfigurationHandler handler : handlerList) {
+            int level = computeLevel(handler, categoryMap, levelMap, visiting);
+            while (levels.size() <= level) {
+                levels.add(new ArrayList<ConfigurationHandler>());
+            }
+        }
+
+        for (ConfigurationHandler handler : handlerList) {
+            levels.get(levelMap.get(handler)).add(handler);
+        }
+
+        orderedHandlers = new ArrayList<ConfigurationHandler>(handlerList.size());
+        for (ArrayList<ConfigurationHandler> level : levels) {
+            orderedHandlers.addAll(level);
+        }
+    }
+
+    private int computeLevel(ConfigurationHandler handler,
+            HashMap<Class<?>, ArrayList<ConfigurationHandler>> categoryMap,
+            IdentityHashMap<ConfigurationHandler, Integer> levelMap,
+            IdentityHashMap<ConfigurationHandler, Boolean> visiting) {
+
+        Integer result = levelMap.get(handler);
+        if (result != null) {
+            return result.intValue();
+        }
+
+        visiting.put(handler, Boolean.TRUE);
+        int level = 0;
+
+        Class<?>[] dependencies = handler.getDependencies();
+        if (dependencies != null) {
+            for (Class<?> category : dependencies) {
+
+                ArrayList<ConfigurationHandler> tmpList = categoryMap.get(category);
+                if (tmpList == null) {
+                    logger.debug("No handler for dependency " + category.getName());
+                    continue;
+                }
+
+                for (ConfigurationHandler depHandler : tmpList) {
+                    if (depHandler == handler) {
+                        continue;
+                    }
+                    if (visiting.containsKey(depHandler)) {
+                        logger.error("Circular dependency between " + handler.getClass().getName() + " and "
+                                + depHandler.getClass().getName());
+                        continue;
+                    }
+                    level = Math.max(level, computeLevel(depHandler, categoryMap, levelMap, visiting) + 1);
+                }
+            }
+        }
+
+        visiting.remove(handler);
+        levelMap.put(handler, Integer.valueOf(level));
+        return level;
+    }
+
+    /*
+     * Returns the handlers sorted so that any handler follows its dependencies
+     */
+    List<ConfigurationHandler> getOrderedHandlers() {
+        return orderedHandlers;
+    }
+
+    /*
+     * Runs the task for each handler; all the submitted tasks are completed
+     * before the method returns. The first error aborts the remaining levels
+     * and is thrown to the caller.
+     */
+    void execute(final HandlerTask task)
+        throws Exception {
+
+        for (ArrayList<ConfigurationHandler> level : levels) {
+
+            if (level.size() == 1 || maxThreads <= 1) {
+                for (ConfigurationHandler handler : level) {
+                    task.execute(handler);
+                }
+                continue;
+            }
+
+            ArrayList<Future<Object>> results = new ArrayList<Future<Object>>(level.size());
+            for (final ConfigurationHandler handler : level) {
+                results.add(getExecutor().submit(new Callable<Object>() {
+                    public Object call()
+                        throws Exception {
+                        task.execute(handler);
+                        return null;
+                    }
+                }));
+            }
+
+            Throwable error = null;
+            boolean interrupted = false;
+
+            for (Future<Object> result : results) {
+                while (true) {
+                    try {
+                        result.get();
+                        break;
+                    } catch (InterruptedException intEx) {
+                        interrupted = true;
+                    } catch (ExecutionException exeEx) {
+                        if (error == null) {
+                            error = exeEx.getCause();
+                        }
+                        break;
+                    }
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (error instanceof Exception) {
+                throw (Exception) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                        private AtomicInteger counter = new AtomicInteger(0);
+
+                        public Thread newThread(Runnable runnable) {
+                            Thread result = new Thread(runnable, "ConfigurationProcessor-" + counter.incrementAndGet());
+                            result.setDaemon(true);
+                            return result;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+
+    synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+}
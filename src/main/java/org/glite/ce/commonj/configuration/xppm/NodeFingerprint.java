@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.xppm;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Computes a digest of the DOM nodes selected by the XPath expression of a
+ * handler. The digest depends only on the names, the values and the nesting of
+ * elements, attributes and text nodes: attribute order, comments and
+ * whitespace-only text nodes are ignored.
+ */
+class NodeFingerprint {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private NodeFingerprint() {
+    }
+
+    static byte[] digest(NodeList nodeList) {
+
+        MessageDigest md = null;
+        try {
+            md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException nsaEx) {
+            throw new IllegalStateException(nsaEx.getMessage(), nsaEx);
+        }
+
+        for (int k = 0; k < nodeList.getLength(); k++) {
+            update(md, nodeList.item(k));
+        }
+
+        return md.digest();
+    }
+
+    private static void update(MessageDigest md, Node node) {
+
+        switch (node.getNodeType()) {
+
+        case Node.ELEMENT_NODE:
+            md.update((byte) 'E');
+            update(md, node.getNodeName());
+
+            NamedNodeMap attrMap = node.getAttributes();
+            Attr[] attrs = new Attr[attrMap.getLength()];
+            for (int k = 0; k < attrs.length; k++) {
+                attrs[k] = (Attr) attrMap.item(k);
+            }
+            Arrays.sort(attrs, new Comparator<Attr>() {
+                public int compare(Attr a1, Attr a2) {
+                    return a1.getName().compareTo(a2.getName());
+                }
+            });
+            for (Attr attr : attrs) {
+                update(md, attr);
+            }
+
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                update(md, child);
+            }
+
+            md.update((byte) '/');
+            break;
+
+        case Node.ATTRIBUTE_NODE:
+            md.update((byte) 'A');
+            update(md, node.getNodeName());
+            update(md, node.getNodeValue());
+            break;
+
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+            String text = node.getNodeValue();
+            if (text.trim().length() > 0) {
+                md.update((byte) 'T');
+                update(md, text);
+            }
+            break;
+
+        default:
+            break;
+        }
+
+    }
+
+    private static void update(MessageDigest md, String str) {
+        byte[] buff = str.getBytes(UTF8);
+        md.update((byte) (buff.length >>> 24));
+        md.update((byte) (buff.length >>> 16));
+        md.update((byte) (buff.length >>> 8));
+        md.update((byte) buff.length);
+        md.update(buff);
+    }
+
+}
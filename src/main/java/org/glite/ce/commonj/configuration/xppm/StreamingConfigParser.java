@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.xppm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The StreamingConfigParser reads the XML configuration file with a single
+ * StAX pass and builds DOM fragments only for the nodes selected by the
+ * registered paths. A path is an absolute sequence of element names,
+ * optionally terminated by an attribute step, for example
+ * <code>/service/dataSource</code>, <code>/service/@*</code> or
+ * <code>/service/@name</code>. The selected nodes are returned in document
+ * order, as the corresponding XPath expression would do.
+ * <p>
+ * The DOM is not thread-safe, not even for reading: the nodes selected by
+ * each path belong to a distinct document, so that the handlers can be
+ * processed in parallel.
+ */
+class StreamingConfigParser {
+
+    private static final Pattern PATH_PATTERN = Pattern.compile("^(/[^/@*\\s]+)+(/@(\\*|[^/@*\\s]+))?$");
+
+    private static final String ALL_ATTRS = "*";
+
+    private XMLInputFactory inputFactory;
+
+    private DocumentBuilder builder;
+
+    private HashSet<String> elementPaths;
+
+    private HashMap<String, ArrayList<String>> attributePaths;
+
+    private HashSet<String> paths;
+
+    StreamingConfigParser(Collection<String> pathList) throws ParserConfigurationException {
+
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+
+        elementPaths = new HashSet<String>();
+        attributePaths = new HashMap<String, ArrayList<String>>();
+        paths = new HashSet<String>();
+
+        for (String path : pathList) {
+            if (!isSupported(path)) {
+                throw new IllegalArgumentException("Unsupported path: " + path);
+            }
+
+            paths.add(path);
+
+            int idx = path.indexOf("/@");
+            if (idx < 0) {
+                elementPaths.add(path);
+                continue;
+            }
+
+            String elemPath = path.substring(0, idx);
+            ArrayList<String> attrNames = attributePaths.get(elemPath);
+            if (attrNames == null) {
+                attrNames = new ArrayList<String>();
+                attributePaths.put(elemPath, attrNames);
+            }
+            attrNames.add(path.substring(idx + 2));
+        }
+    }
+
+    static boolean isSupported(String path) {
+        return path != null && PATH_PATTERN.matcher(path).matches();
+    }
+
+    /*
+     * Not thread-safe: the caller must serialize the invocations
+     */
+    HashMap<String, NodeList> parse(File xmlFile)
+        throws XMLStreamException, IOException {
+
+        builder.reset();
+
+        HashMap<String, NodeListImpl> tmpMap = new HashMap<String, NodeListImpl>();
+        HashMap<String, Document> documents = new HashMap<String, Document>();
+        for (String path : paths) {
+            tmpMap.put(path, new NodeListImpl());
+            documents.put(path, builder.newDocument());
+        }
+
+        StringBuilder currPath = new StringBuilder();
+        ArrayList<Integer> pathMarks = new ArrayList<Integer>();
+        Node currNode = null;
+
+        InputStream in = new FileInputStream(xmlFile);
+        XMLStreamReader reader = null;
+
+        try {
+            reader = inputFactory.createXMLStreamReader(in);
+
+            while (reader.hasNext()) {
+
+                switch (reader.next()) {
+
+                case XMLStreamConstants.START_ELEMENT:
+
+                    String qName = getQName(reader.getPrefix(), reader.getLocalName());
+                    pathMarks.add(currPath.length());
+                    currPath.append('/').append(qName);
+
+                    if (currNode != null) {
+                        currNode = currNode.appendChild(createElement(currNode.getOwnerDocument(), reader,
+                                qName));
+                        break;
+                    }
+
+                    String path = currPath.toString();
+
+                    ArrayList<String> attrNames = attributePaths.get(path);
+                    if (attrNames != null) {
+                        for (String attrName : attrNames) {
+                            String attrPath = path + "/@" + attrName;
+                            NodeListImpl attrList = tmpMap.get(attrPath);
+                            Document attrDoc = documents.get(attrPath);
+                            for (int k = 0; k < reader.getAttributeCount(); k++) {
+                                String aName = getQName(reader.getAttributePrefix(k), reader.getAttributeLocalName(k));
+                                if (attrName.equals(ALL_ATTRS) || attrName.equals(aName)) {
+                                    Attr attr = attrDoc.createAttribute(aName);
+                                    attr.setValue(reader.getAttributeValue(k));
+                                    attrList.add(attr);
+                                }
+                            }
+                        }
+                    }
+
+                    if (elementPaths.contains(path)) {
+                        currNode = createElement(documents.get(path), reader, qName);
+                        tmpMap.get(path).add(currNode);
+                    }
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+
+                    currPath.setLength(pathMarks.remove(pathMarks.size() - 1));
+                    if (currNode != null) {
+                        currNode = currNode.getParentNode();
+                    }
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    if (currNode != null) {
+                        currNode.appendChild(currNode.getOwnerDocument().createTextNode(reader.getText()));
+                    }
+                    break;
+
+                case XMLStreamConstants.CDATA:
+                    if (currNode != null) {
+                        currNode.appendChild(currNode.getOwnerDocument().createCDATASection(reader.getText()));
+                    }
+                    break;
+
+                case XMLStreamConstants.COMMENT:
+                    if (currNode != null) {
+                        currNode.appendChild(currNode.getOwnerDocument().createComment(reader.getText()));
+                    }
+                    break;
+
+                default:
+                    break;
+                }
+            }
+
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException xmlEx) {
+                }
+            }
+            in.close();
+        }
+
+        return new HashMap<String, NodeList>(tmpMap);
+    }
+
+    private Element createElement(Document document, XMLStreamReader reader, String qName) {
+
+        Element element = document.createElement(qName);
+        for (int k = 0; k < reader.getAttributeCount(); k++) {
+            String aName = getQName(reader.getAttributePrefix(k), reader.getAttributeLocalName(k));
+            element.setAttribute(aName, reader.getAttributeValue(k));
+        }
+        return element;
+
+    }
+
+    private static String getQName(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0) {
+            return localName;
+        }
+        return prefix + ":" + localName;
+    }
+
+}
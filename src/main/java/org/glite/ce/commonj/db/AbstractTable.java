@@ -28,6 +28,13 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
@@ -36,12 +43,33 @@ import org.apache.log4j.Logger;
  * Class representing a generic Data Access Object accessing the database.
  *
  */
-public class AbstractTable implements TableInterface {
+public class AbstractTable implements BatchTableInterface {
     
     /** The logger */
     private final static Logger logger = Logger.getLogger(AbstractTable.class);
     
-    /** The sequence id query */
+    /** The default number of prepared statements cached for each connection */
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+    
+    /** The allocator of the sequence ids, shared by all the tables */
+    private static final SequenceIdAllocator sequenceIdAllocator = new SequenceIdAllocator();
+    
+    /** The prepared statement caches, one for each connection */
+    private final Map<Connection, StatementCache> statementCaches = new WeakHashMap<Connection, StatementCache>(0);
+    
+    /** The max number of prepared statements cached for each connection (0: disabled) */
+    private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    
+    /** The default max number of parameter sets sent with a single executeBatch */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    
+    /** The max number of parameter sets sent with a single executeBatch */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    
+    /** The sequence id queries, one for each sequence name */
+    private final ConcurrentHashMap<String, Query> sequenceIdQueries = new ConcurrentHashMap<String, Query>(0);
+    
+    /** The sequence id query of the last sequence requested */
     protected Query sequenceIdQuery = null;
     
     /** The insert query */
@@ -57,18 +85,39 @@ public class AbstractTable implements TableInterface {
     protected Query selectQuery = null;
  
     /**
-     * Returns the query for retrieving the id from a sequence.
+     * Returns the allocator of the sequence ids used by
+     * {@link #executeSequenceId(String, Connection)}: a block size greater
+     * than 1 for a sequence reserves that many ids with a single round-trip.
+     * Such a sequence must not be read with nextVal by any other client (see
+     * {@link SequenceIdAllocator}).
+     * @return The allocator of the sequence ids.
+     */
+    public static SequenceIdAllocator getSequenceIdAllocator() {
+        return sequenceIdAllocator;
+    }
+
+    /**
+     * Returns the query for retrieving the id from a sequence. Each sequence
+     * has its own query, named after the sequence, so that the prepared
+     * statements of different sequences are cached side by side.
      * @param sequenceName The sequence name.
      * @return The query for retrieving the id from a sequence.
      */
     protected Query getSequenceIdQuery(String sequenceName) {
-        if (sequenceIdQuery == null) {
-            sequenceIdQuery = new Query();
-            sequenceIdQuery.setName(Query.SEQUENCE_ID_STATEMENT);
-            sequenceIdQuery.setStatement("select nextVal('" + sequenceName + "')");
+        Query query = sequenceIdQueries.get(sequenceName);
+        if (query == null) {
+            query = new Query();
+            query.setName(Query.SEQUENCE_ID_STATEMENT + "_" + sequenceName);
+            query.setStatement("select nextVal('" + sequenceName + "')");
+
+            Query previous = sequenceIdQueries.putIfAbsent(sequenceName, query);
+            if (previous != null) {
+                query = previous;
+            }
         }
-        logger.debug("sequenceIdQuery = " + sequenceIdQuery.getStatement());
-        return sequenceIdQuery;
+        sequenceIdQuery = query;
+        logger.debug("sequenceIdQuery = " + query.getStatement());
+        return query;
     }
     
     /**
@@ -88,8 +137,32 @@ public class AbstractTable implements TableInterface {
             throw new IllegalArgumentException("connection not specified!");
         }
 
-        PreparedStatement statement = connection.prepareStatement(query.getStatement(), PreparedStatement.RETURN_GENERATED_KEYS);
-        
+        if (statementCacheSize <= 0) {
+            return prepareStatement(query, connection);
+        }
+
+        StatementCache cache = getStatementCache(connection);
+        if (cache == null) {
+            return prepareStatement(query, connection);
+        }
+
+        return cache.getStatement(query, connection);
+    }
+
+    /**
+     * Prepares a new statement for the given query: the generated keys are
+     * requested only if the query needs them (see
+     * {@link Query#isReturnGeneratedKeys()}).
+     */
+    static PreparedStatement prepareStatement(Query query, Connection connection) throws SQLException {
+        PreparedStatement statement = null;
+
+        if (query.isReturnGeneratedKeys()) {
+            statement = connection.prepareStatement(query.getStatement(), Statement.RETURN_GENERATED_KEYS);
+        } else {
+            statement = connection.prepareStatement(query.getStatement());
+        }
+
         if(statement == null) {
             throw new SQLException("cannot create a PrepareStatement for the query \"" + query.getStatement() + "\"");
         }
@@ -97,6 +170,161 @@ public class AbstractTable implements TableInterface {
         return statement;
     }
 
+    /**
+     * Returns the statement cache of the given connection, creating it if
+     * needed. A connection taken from {@link DatasourceManager} shares the
+     * cache of the physical connection it wraps, so that the statements
+     * survive across the borrows of a pooled connection; the cache is
+     * released once the physical connection is found closed (e.g. evicted by
+     * the pool). The cache of a closed connection is discarded and null is
+     * returned.
+     */
+    private StatementCache getStatementCache(Connection connection) {
+        final Connection physical = DatasourceManager.getPhysicalConnection(connection);
+
+        synchronized (statementCaches) {
+            StatementCache cache = statementCaches.get(physical);
+
+            if (isClosed(physical)) {
+                if (cache != null) {
+                    statementCaches.remove(physical);
+                    cache.close();
+                }
+                return null;
+            }
+
+            if (physical != connection && isClosed(connection)) {
+                return null;
+            }
+
+            if (cache == null) {
+                purgeStatementCaches();
+
+                cache = new StatementCache(statementCacheSize);
+                statementCaches.put(physical, cache);
+            }
+
+            DatasourceManager.addCloseListener(connection, new PhysicalCloseListener(physical));
+
+            return cache;
+        }
+    }
+
+    /*
+     * Releases the statements of a physical connection found closed when the
+     * connection wrapping it is given back; equal for the same table and
+     * physical connection, so that it is registered once for each borrow.
+     */
+    private final class PhysicalCloseListener implements Runnable {
+        private final Connection physical;
+
+        PhysicalCloseListener(Connection physical) {
+            this.physical = physical;
+        }
+
+        public void run() {
+            if (isClosed(physical)) {
+                releaseStatements(physical);
+            }
+        }
+
+        private AbstractTable getTable() {
+            return AbstractTable.this;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PhysicalCloseListener)) {
+                return false;
+            }
+
+            PhysicalCloseListener other = (PhysicalCloseListener) obj;
+            return other.getTable() == AbstractTable.this && other.physical == physical;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(physical);
+        }
+    }
+
+    /*
+     * Drops the caches of the connections closed in the meantime.
+     */
+    private void purgeStatementCaches() {
+        for (Iterator<Map.Entry<Connection, StatementCache>> it = statementCaches.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Connection, StatementCache> entry = it.next();
+            Connection connection = entry.getKey();
+
+            if (connection == null || isClosed(connection)) {
+                it.remove();
+                entry.getValue().close();
+            }
+        }
+    }
+
+    private static boolean isClosed(Connection connection) {
+        try {
+            return connection.isClosed();
+        } catch (SQLException sqle) {
+            return true;
+        }
+    }
+
+    /**
+     * Closes and discards the prepared statements cached for the given
+     * connection (for a connection taken from {@link DatasourceManager}, the
+     * physical connection it wraps). It is invoked automatically when a
+     * connection taken from {@link DatasourceManager} is closed along with
+     * its physical connection; any other connection should be released
+     * before closing it, otherwise the cache is dropped as soon as the
+     * connection is found closed.
+     * 
+     * @param connection The connection.
+     */
+    public void releaseStatements(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        StatementCache cache = null;
+        synchronized (statementCaches) {
+            cache = statementCaches.remove(DatasourceManager.getPhysicalConnection(connection));
+        }
+
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    /**
+     * Returns the max number of prepared statements cached for each connection.
+     * @return The max number of prepared statements cached for each connection.
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Sets the max number of prepared statements cached for each connection
+     * (the least recently used ones are closed first); 0 disables the cache.
+     * @param statementCacheSize The max number of cached statements.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        if (statementCacheSize < 0) {
+            throw new IllegalArgumentException("statementCacheSize must be >= 0");
+        }
+
+        this.statementCacheSize = statementCacheSize;
+
+        if (statementCacheSize == 0) {
+            synchronized (statementCaches) {
+                for (Iterator<StatementCache> it = statementCaches.values().iterator(); it.hasNext();) {
+                    it.next().close();
+                }
+                statementCaches.clear();
+            }
+        }
+    }
+
     /**
      * @see org.glite.ce.commonj.db.TableInterface#executeSequenceId(java.lang.String, java.sql.Connection)
      */
@@ -108,6 +336,25 @@ public class AbstractTable implements TableInterface {
             throw new IllegalArgumentException("connection not specified!");
         }
         
+        if (sequenceIdAllocator.getBlockSize(sequenceName) == 1) {
+            return selectSequenceValue(sequenceName, connection);
+        }
+
+        return sequenceIdAllocator.nextId(sequenceName, connection, new SequenceIdAllocator.SequenceSource() {
+            public long nextSequenceValue(String name, Connection conn) throws SQLException {
+                return selectSequenceValue(name, conn);
+            }
+        });
+    }
+
+    /**
+     * Reads the next value of the named sequence from the database.
+     * @param sequenceName The name of the sequence.
+     * @param connection The connection.
+     * @return The next value of the sequence.
+     * @throws SQLException
+     */
+    protected long selectSequenceValue(String sequenceName, Connection connection) throws SQLException {
         long id = -1;
         PreparedStatement pstmt = null;
         ResultSet rset = null;
@@ -123,21 +370,137 @@ public class AbstractTable implements TableInterface {
         } catch (SQLException sqle) {
             throw sqle;
         } finally {
+            if (rset != null) {
+                try {
+                    rset.close();
+                } catch (SQLException sqle2) {
+                    logger.error(sqle2);
+                }
+            }
             if (pstmt != null) {
                 try {
+                    // a cached statement is given back to the cache
                     pstmt.close();
                 } catch (SQLException sqle1) {
                     logger.error(sqle1);
                 }
             }
-            if (rset != null) {
-                try {
-                    rset.close();
-                } catch (SQLException sqle2) {
-                    logger.error(sqle2);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the max number of parameter sets sent with a single executeBatch.
+     * @return The max number of parameter sets sent with a single executeBatch.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the max number of parameter sets sent with a single executeBatch:
+     * larger lists are split into several batches.
+     * @param batchSize The batch size.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be > 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @see org.glite.ce.commonj.db.BatchTableInterface#executeBatch(org.glite.ce.commonj.db.Query, java.util.List, java.sql.Connection)
+     */
+    public BatchResult executeBatch(Query query, List<Object[]> parameterSets, Connection connection) throws SQLException, IllegalArgumentException {
+        if (parameterSets == null) {
+            throw new IllegalArgumentException("parameterSets not specified!");
+        }
+
+        int[] updateCounts = new int[parameterSets.size()];
+        long[] generatedKeys = new long[query != null && query.isReturnGeneratedKeys() ? parameterSets.size() : 0];
+        int keyCount = 0;
+
+        PreparedStatement pstmt = getPreparedStatement(query, connection);
+        
+        try {
+            int done = 0;
+            
+            while (done < parameterSets.size()) {
+                int end = Math.min(done + batchSize, parameterSets.size());
+
+                for (int i = done; i < end; i++) {
+                    setParameters(pstmt, parameterSets.get(i));
+                    pstmt.addBatch();
                 }
+
+                int[] counts = pstmt.executeBatch();
+                System.arraycopy(counts, 0, updateCounts, done, Math.min(counts.length, end - done));
+
+                if (generatedKeys.length > 0) {
+                    keyCount = readGeneratedKeys(pstmt, generatedKeys, keyCount);
+                }
+
+                done = end;
+            }
+        } catch (SQLException sqle) {
+            try {
+                pstmt.clearBatch();
+            } catch (SQLException sqle1) {
+                logger.error(sqle1);
+            }
+            throw sqle;
+        } finally {
+            try {
+                pstmt.close();
+            } catch (SQLException sqle2) {
+                logger.error(sqle2);
             }
         }
-        return id;
+
+        if (keyCount < generatedKeys.length) {
+            long[] keys = new long[keyCount];
+            System.arraycopy(generatedKeys, 0, keys, 0, keyCount);
+            generatedKeys = keys;
+        }
+
+        return new BatchResult(updateCounts, generatedKeys);
+    }
+
+    /**
+     * Binds the given values to the parameters of the statement, in order.
+     * @param pstmt The prepared statement.
+     * @param parameters The values (may contain null).
+     * @throws SQLException
+     */
+    protected static void setParameters(PreparedStatement pstmt, Object[] parameters) throws SQLException {
+        if (parameters == null) {
+            return;
+        }
+
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i] == null) {
+                pstmt.setNull(i + 1, Types.NULL);
+            } else {
+                pstmt.setObject(i + 1, parameters[i]);
+            }
+        }
+    }
+
+    private static int readGeneratedKeys(PreparedStatement pstmt, long[] keys, int offset) throws SQLException {
+        ResultSet rset = pstmt.getGeneratedKeys();
+        if (rset == null) {
+            return offset;
+        }
+
+        try {
+            while (offset < keys.length && rset.next()) {
+                keys[offset++] = rset.getLong(1);
+            }
+        } finally {
+            rset.close();
+        }
+
+        return offset;
     }
 }
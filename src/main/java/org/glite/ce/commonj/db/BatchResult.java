@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.db;
+
+/**
+ * Class representing the outcome of a batch execution.
+ */
+public class BatchResult {
+
+    /** The update counts, one for each parameter set */
+    private final int[] updateCounts;
+
+    /** The generated keys (empty if not requested or not supported) */
+    private final long[] generatedKeys;
+
+    public BatchResult(int[] updateCounts, long[] generatedKeys) {
+        this.updateCounts = updateCounts;
+        this.generatedKeys = generatedKeys;
+    }
+
+    /**
+     * @return the update counts, one for each parameter set
+     */
+    public int[] getUpdateCounts() {
+        return updateCounts;
+    }
+
+    /**
+     * @return the generated keys, in the order of the parameter sets
+     */
+    public long[] getGeneratedKeys() {
+        return generatedKeys;
+    }
+}
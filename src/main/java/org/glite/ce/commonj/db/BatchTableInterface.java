@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+
+/**
+ * Interface for a table able to execute a query in batch. It is kept apart
+ * from {@link TableInterface} so that the existing implementations of that
+ * interface are not affected.
+ *
+ */
+public interface BatchTableInterface extends TableInterface {
+    
+    /**
+     * Executes the given query once for each parameter set, using
+     * <code>addBatch</code>/<code>executeBatch</code>. The transaction is not
+     * committed.
+     * @param query The query to be executed.
+     * @param parameterSets The parameter sets, bound in order.
+     * @param connection The connection.
+     * @return The update counts and, if requested by the query, the generated keys.
+     * @throws SQLException
+     */
+    public BatchResult executeBatch(Query query, List<Object[]> parameterSets, Connection connection) throws SQLException;
+}
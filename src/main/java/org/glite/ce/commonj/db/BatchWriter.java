@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Write-behind buffer for a single query: the parameter sets added are
+ * written in background with {@link BatchTableInterface#executeBatch}, on a
+ * connection taken from {@link DatasourceManager} and committed after each
+ * batch. A batch is written as soon as it reaches <code>maxBatchSize</code>
+ * parameter sets or when its oldest one has been waiting for
+ * <code>maxDelay</code> milliseconds, whichever comes first.
+ * <p>
+ * The buffer is bounded: {@link #add(Object[])} blocks while it is full.
+ * Failed batches are rolled back, logged and counted (see
+ * {@link #getFailedCount()}).
+ * <p>
+ * {@link #close()} waits for the pending additions, so every parameter set
+ * accepted is written; once closed, the additions fail at once.
+ */
+public class BatchWriter {
+
+    private final static Logger logger = Logger.getLogger(BatchWriter.class);
+
+    /** How often (ms) the idle writer and the blocked additions check whether it has been closed */
+    private static final long CLOSE_CHECK_PERIOD = 500;
+
+    private final BatchTableInterface table;
+
+    private final Query query;
+
+    private final String dataSourceName;
+
+    private final int maxBatchSize;
+
+    private final long maxDelay;
+
+    private final ArrayBlockingQueue<Object[]> queue;
+
+    private final AtomicLong writtenCount = new AtomicLong(0);
+
+    private final AtomicLong failedCount = new AtomicLong(0);
+
+    private final Object flushLock = new Object();
+
+    /*
+     * Held in read mode by the additions and in write mode by close(), so
+     * that nothing is queued after the last flush
+     */
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private final Thread writer;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param table The table executing the batches.
+     * @param query The query executed for each parameter set.
+     * @param dataSourceName The name of the datasource providing the connections.
+     * @param maxBatchSize The max number of parameter sets written with a single batch.
+     * @param maxDelay The max time (ms) a parameter set waits before being written.
+     * @param capacity The max number of pending parameter sets.
+     */
+    public BatchWriter(BatchTableInterface table, Query query, String dataSourceName, int maxBatchSize, long maxDelay, int capacity) {
+        if (table == null) {
+            throw new IllegalArgumentException("table not specified!");
+        }
+        if (query == null) {
+            throw new IllegalArgumentException("query not specified!");
+        }
+        if (dataSourceName == null) {
+            throw new IllegalArgumentException("dataSourceName not specified!");
+        }
+        if (maxBatchSize < 1 || maxDelay < 0 || capacity < maxBatchSize) {
+            throw new IllegalArgumentException("wrong batch parameters: maxBatchSize=" + maxBatchSize + " maxDelay=" + maxDelay + " capacity=" + capacity);
+        }
+
+        this.table = table;
+        this.query = query;
+        this.dataSourceName = dataSourceName;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+        this.queue = new ArrayBlockingQueue<Object[]>(capacity);
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "BatchWriter-" + query.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a parameter set, waiting while the buffer is full.
+     *
+     * @param parameters The values of the query parameters.
+     * @throws InterruptedException
+     * @throws IllegalStateException if the writer is closed or its thread has
+     *             been stopped.
+     */
+    public void add(Object[] parameters) throws InterruptedException, IllegalStateException {
+        closeLock.readLock().lockInterruptibly();
+        try {
+            checkClosed();
+            while (!queue.offer(parameters, CLOSE_CHECK_PERIOD, TimeUnit.MILLISECONDS)) {
+                checkClosed();
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queues a parameter set, waiting at most <code>timeout</code> ms while
+     * the buffer is full.
+     *
+     * @return false if the buffer is still full after the timeout.
+     * @throws IllegalStateException if the writer is closed or its thread has
+     *             been stopped.
+     */
+    public boolean offer(Object[] parameters, long timeout) throws InterruptedException, IllegalStateException {
+        closeLock.readLock().lockInterruptibly();
+        try {
+            checkClosed();
+            return queue.offer(parameters, timeout, TimeUnit.MILLISECONDS);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes synchronously all the pending parameter sets.
+     */
+    public void flush() {
+        List<Object[]> batch = new ArrayList<Object[]>(maxBatchSize);
+
+        synchronized (flushLock) {
+            while (queue.drainTo(batch, maxBatchSize) > 0) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Stops the background writer and writes the pending parameter sets. The
+     * additions in progress are completed first (the writer keeps draining
+     * the buffer meanwhile).
+     */
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        flush();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    private void checkClosed() throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("the BatchWriter is closed");
+        }
+        if (!writer.isAlive()) {
+            throw new IllegalStateException("the BatchWriter thread is not running");
+        }
+    }
+
+    private void writeLoop() {
+        List<Object[]> batch = new ArrayList<Object[]>(maxBatchSize);
+
+        while (!closed) {
+            try {
+                Object[] first = queue.poll(CLOSE_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                synchronized (flushLock) {
+                    batch.add(first);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+
+                    while (batch.size() < maxBatchSize) {
+                        if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                            continue;
+                        }
+
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0) {
+                            break;
+                        }
+
+                        Object[] next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                logger.warn("BatchWriter-" + query.getName() + " interrupted");
+                return;
+            } catch (Throwable th) {
+                logger.error("BatchWriter-" + query.getName() + " error: " + th.getMessage());
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Object[]> batch) {
+        Connection connection = null;
+
+        try {
+            connection = DatasourceManager.getConnection(dataSourceName);
+            table.executeBatch(query, batch, connection);
+            connection.commit();
+            writtenCount.addAndGet(batch.size());
+        } catch (Throwable th) {
+            failedCount.addAndGet(batch.size());
+
+            String msg = "cannot write " + batch.size() + " rows with the query " + query.getName();
+            if (logger.isDebugEnabled()) {
+                logger.error(msg, th);
+            } else {
+                logger.error(msg + ": " + th.getMessage());
+            }
+
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException sqle) {
+                    logger.error(sqle);
+                }
+            }
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException sqle) {
+                    logger.error(sqle);
+                }
+            }
+        }
+    }
+}
@@ -52,6 +52,18 @@ public class DatasourceConfigHandler extends ConfigurationHandler {
 
     private static final String XPATH_STRING = "/service/dataSource";
 
+    /*
+     * DBCP hands out a new wrapper for each borrow of a pooled connection:
+     * unless configured otherwise, its own statement pooling is enabled so
+     * that the prepared statements are reused across the borrows
+     */
+    private static final String DBCP_FACTORY_SUFFIX = ".BasicDataSourceFactory";
+
+    private static final String[][] DBCP_DEFAULT_ATTRIBUTES = {
+        { "poolPreparedStatements", "true" },
+        { "maxOpenPreparedStatements", String.valueOf(AbstractTable.DEFAULT_STATEMENT_CACHE_SIZE) }
+    };
+
     private XPathExpression expr;
 
     private List<HashMap<String, String>> currentParams;
@@ -73,6 +85,10 @@ public class DatasourceConfigHandler extends ConfigurationHandler {
         return expr;
     }
 
+    public String getStreamingPath() {
+        return XPATH_STRING;
+    }
+
     public Class<?> getCategory() {
         return HashMap.class;
     }
@@ -132,11 +148,24 @@ public class DatasourceConfigHandler extends ConfigurationHandler {
         tmpParams = null;
         currentDatasources = new HashMap<String, DataSource>(currentParams.size());
 
-        for (HashMap<String, String> dataSourceAttribute : currentParams) {
+        for (HashMap<String, String> params : currentParams) {
+            /*
+             * work on a copy: currentParams is compared with the next
+             * configuration and must keep all the attributes
+             */
+            HashMap<String, String> dataSourceAttribute = new HashMap<String, String>(params);
             String name = dataSourceAttribute.remove("name");
             String type = dataSourceAttribute.remove("type");        
             String factory = dataSourceAttribute.remove("factory");    
             Reference reference = new Reference(type);
+
+            if (factory != null && factory.endsWith(DBCP_FACTORY_SUFFIX)) {
+                for (String[] attribute : DBCP_DEFAULT_ATTRIBUTES) {
+                    if (!dataSourceAttribute.containsKey(attribute[0])) {
+                        dataSourceAttribute.put(attribute[0], attribute[1]);
+                    }
+                }
+            }
             
             for (String attributeName : dataSourceAttribute.keySet()) {
                 reference.add(new StringRefAddr(attributeName, dataSourceAttribute.get(attributeName)));
@@ -151,6 +180,11 @@ public class DatasourceConfigHandler extends ConfigurationHandler {
             }
 
         }
+
+        /*
+         * the datasources already in use are swapped with the new ones
+         */
+        DatasourceManager.updateDataSources(currentDatasources);
     }
 
     public void rollback() {
@@ -18,9 +18,20 @@
 
 package org.glite.ce.commonj.db;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
@@ -30,16 +41,32 @@ import org.apache.log4j.Logger;
  * Class to manage <code>JDBC</code> datasources. Connection pooling is used.
  * <code>ConnectionManager</code> can register a valid data source
  * configuration.
+ * <p>
+ * The registry is safe for concurrent use. A datasource can be replaced at
+ * any time (see {@link #replaceDataSource(String, DataSource)}): the new
+ * connections are taken from the new datasource, while the old one is closed
+ * as soon as all its connections have been given back.
+ * <p>
+ * The connections handed out are proxies: closing one gives the connection
+ * back to its datasource, after which the proxy refuses any further call.
  */
 public class DatasourceManager {
     /** The logger */
     private static final Logger logger = Logger.getLogger(DatasourceManager.class);
 
     /** The datasource cache */
-    private static final HashMap<String, DataSource> datasourceCache = new HashMap<String, DataSource>(0);
+    private static final ConcurrentHashMap<String, ManagedDataSource> datasourceCache = new ConcurrentHashMap<String, ManagedDataSource>(0);
+
+    /** The connection counters, one for each datasource name */
+    private static final ConcurrentHashMap<String, DatasourceMetrics> metricsCache = new ConcurrentHashMap<String, DatasourceMetrics>(0);
 
     public static void destroy() {
-        datasourceCache.clear();
+        for (Iterator<ManagedDataSource> it = datasourceCache.values().iterator(); it.hasNext();) {
+            ManagedDataSource managed = it.next();
+            it.remove();
+            managed.retire();
+        }
+        metricsCache.clear();
     }
     
     public static boolean addDataSource(String dataSourceName, DataSource dataSource) {
@@ -47,14 +74,101 @@ public class DatasourceManager {
         if ((dataSourceName == null) || (dataSource == null)) {
             logger.warn("dataSourceName and/or dataSource is/are null: (" + dataSourceName + ", " + dataSource + ")");        
         } else {          
-            if (!datasourceCache.containsKey(dataSourceName)) {
-                datasourceCache.put(dataSourceName, dataSource);
-                isPutDatasource = true;
-            }
+            isPutDatasource = datasourceCache.putIfAbsent(dataSourceName, new ManagedDataSource(dataSourceName, dataSource)) == null;
         }
         return isPutDatasource;
     }
 
+    /**
+     * Registers the datasource, atomically replacing the one with the same
+     * name. The replaced datasource is closed (if it has a
+     * <code>close()</code> method) once its borrowed connections have been
+     * closed.
+     * 
+     * @param dataSourceName
+     *            The datasource name.
+     * @param dataSource
+     *            The new datasource.
+     * @return true if a datasource has been replaced.
+     */
+    public static boolean replaceDataSource(String dataSourceName, DataSource dataSource) {
+        if ((dataSourceName == null) || (dataSource == null)) {
+            logger.warn("dataSourceName and/or dataSource is/are null: (" + dataSourceName + ", " + dataSource + ")");
+            return false;
+        }
+
+        ManagedDataSource old = datasourceCache.put(dataSourceName, new ManagedDataSource(dataSourceName, dataSource));
+        if (old == null) {
+            return false;
+        }
+
+        if (old.dataSource != dataSource) {
+            logger.info("datasource " + dataSourceName + " replaced; " + old.inFlight.get() + " connections still in use on the old one");
+            old.retire();
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the registered datasources having the same name of the given
+     * ones (e.g. rebuilt by a configuration reload); the others are ignored.
+     * 
+     * @param dataSources
+     *            The datasources, by name.
+     */
+    public static void updateDataSources(Map<String, DataSource> dataSources) {
+        if (dataSources == null) {
+            return;
+        }
+
+        for (Map.Entry<String, DataSource> entry : dataSources.entrySet()) {
+            if (datasourceCache.containsKey(entry.getKey())) {
+                replaceDataSource(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Unregisters the datasource, closing it once its borrowed connections
+     * have been closed.
+     * 
+     * @param dataSourceName
+     *            The datasource name.
+     * @return true if the datasource was registered.
+     */
+    public static boolean removeDataSource(String dataSourceName) {
+        if (dataSourceName == null) {
+            return false;
+        }
+
+        ManagedDataSource old = datasourceCache.remove(dataSourceName);
+        if (old == null) {
+            return false;
+        }
+
+        old.retire();
+        return true;
+    }
+
+    /**
+     * Returns the connection counters of the given datasource.
+     * 
+     * @param dataSourceName
+     *            The datasource name.
+     * @return the connection counters, or null if the datasource has never
+     *         been registered.
+     */
+    public static DatasourceMetrics getMetrics(String dataSourceName) {
+        return dataSourceName == null ? null : metricsCache.get(dataSourceName);
+    }
+
+    /**
+     * @return the connection counters of all the datasources, by name.
+     */
+    public static Map<String, DatasourceMetrics> getMetrics() {
+        return new HashMap<String, DatasourceMetrics>(metricsCache);
+    }
+
     /**
      * Returns a connection from the connection pool associated to a given
      * datasource name.
@@ -71,29 +185,272 @@ public class DatasourceManager {
             throw new DatabaseException("datasourceName not specified!");
         }
 
-        if (!datasourceCache.containsKey(dataSourceName)) {
-            throw new DatabaseException("datasourceName " + dataSourceName + " not found!");
+        ManagedDataSource managed = null;
+
+        while (true) {
+            managed = datasourceCache.get(dataSourceName);
+
+            if (managed == null) {
+                throw new DatabaseException("datasourceName " + dataSourceName + " not found!");
+            }
+
+            if (managed.borrow()) {
+                break;
+            }
+            // replaced in the meantime: retry with the new one
         }
 
-        DataSource dataSource = datasourceCache.get(dataSourceName);
         logger.debug("getConnection " + dataSourceName);
         
         Connection connection = null;
+        long start = System.nanoTime();
 
         try {
-            connection = dataSource.getConnection();
+            connection = managed.dataSource.getConnection();
 
-            if (connection != null) {
-                logger.debug("Connection got from datasource named: " + dataSourceName);
-                connection.setAutoCommit(false);
-            } else {
+            if (connection == null) {
                 throw new DatabaseException("problem in opening connection to target database [" + dataSourceName + "]");
             }
+
+            logger.debug("Connection got from datasource named: " + dataSourceName);
+            connection.setAutoCommit(false);
         } catch (Throwable e) {
+            managed.metrics.failed();
+            managed.giveBack();
+
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException sqle) {
+                    logger.error(sqle);
+                }
+            }
+
             logger.error(e.getMessage());
-            throw new DatabaseException("getConnection error: " + e.getMessage());
+
+            if (e instanceof DatabaseException) {
+                throw (DatabaseException) e;
+            }
+            throw new DatabaseException("getConnection error: " + e.getMessage(), e);
+        }
+
+        managed.metrics.acquired(System.nanoTime() - start);
+
+        return managed.wrap(connection);
+    }
+
+    /*
+     * Registers an action run once the given connection, handed out by
+     * getConnection, has been closed and given back to its datasource; an
+     * action equal to one already registered is ignored. Returns false if
+     * the connection was not handed out by this class or it is already
+     * closed.
+     */
+    static boolean addCloseListener(Connection connection, Runnable listener) {
+        ConnectionHandler handler = getHandler(connection);
+        return handler != null && handler.addCloseListener(listener);
+    }
+
+    /*
+     * Returns the connection taken from the datasource and wrapped by the
+     * given connection, handed out by getConnection: with a pool it is the
+     * same for all the borrows of a pooled connection, unless the pool wraps
+     * it in turn. Any other connection is returned as is.
+     */
+    static Connection getPhysicalConnection(Connection connection) {
+        ConnectionHandler handler = getHandler(connection);
+        return handler == null ? connection : handler.connection;
+    }
+
+    private static ConnectionHandler getHandler(Connection connection) {
+        if (connection == null || !Proxy.isProxyClass(connection.getClass())) {
+            return null;
         }
 
-        return connection;
-    }    
+        InvocationHandler handler = Proxy.getInvocationHandler(connection);
+        return handler instanceof ConnectionHandler ? (ConnectionHandler) handler : null;
+    }
+
+    private static DatasourceMetrics getOrCreateMetrics(String dataSourceName) {
+        DatasourceMetrics metrics = metricsCache.get(dataSourceName);
+        if (metrics == null) {
+            DatasourceMetrics newMetrics = new DatasourceMetrics(dataSourceName);
+            metrics = metricsCache.putIfAbsent(dataSourceName, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    /*
+     * A registered datasource with the count of its borrowed connections.
+     * Once retired no more connections are handed out and the datasource is
+     * closed when the count drops to zero.
+     */
+    private static final class ManagedDataSource {
+
+        private final String name;
+
+        private final DataSource dataSource;
+
+        private final DatasourceMetrics metrics;
+
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private volatile boolean retired = false;
+
+        ManagedDataSource(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.metrics = getOrCreateMetrics(name);
+        }
+
+        boolean borrow() {
+            inFlight.incrementAndGet();
+            metrics.borrowed();
+
+            if (retired) {
+                giveBack();
+                return false;
+            }
+            return true;
+        }
+
+        void giveBack() {
+            metrics.returned();
+
+            if (inFlight.decrementAndGet() == 0 && retired) {
+                close();
+            }
+        }
+
+        void retire() {
+            retired = true;
+
+            if (inFlight.get() == 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                Method closeMethod = dataSource.getClass().getMethod("close");
+                closeMethod.invoke(dataSource);
+                logger.info("old datasource " + name + " closed");
+            } catch (NoSuchMethodException ex) {
+                logger.debug("the datasource " + name + " cannot be closed");
+            } catch (Throwable th) {
+                if (th instanceof InvocationTargetException) {
+                    th = ((InvocationTargetException) th).getTargetException();
+                }
+                logger.error("cannot close the datasource " + name + ": " + th.getMessage());
+            }
+        }
+
+        Connection wrap(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new ConnectionHandler(this, connection));
+        }
+    }
+
+    /*
+     * The handler of the connections handed out: the connection is given
+     * back and the close listeners are run once, then every call but close,
+     * isClosed and the Object methods fails.
+     */
+    private static final class ConnectionHandler implements InvocationHandler {
+
+        private final ManagedDataSource managed;
+
+        private final Connection connection;
+
+        private final List<Runnable> closeListeners = new ArrayList<Runnable>(0);
+
+        private boolean released = false;
+
+        ConnectionHandler(ManagedDataSource managed, Connection connection) {
+            this.managed = managed;
+            this.connection = connection;
+        }
+
+        synchronized boolean addCloseListener(Runnable listener) {
+            if (released) {
+                return false;
+            }
+            if (!closeListeners.contains(listener)) {
+                closeListeners.add(listener);
+            }
+            return true;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            int argc = args == null ? 0 : args.length;
+
+            if ("equals".equals(methodName) && argc == 1) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+
+            if ("hashCode".equals(methodName) && argc == 0) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+
+            if ("toString".equals(methodName) && argc == 0) {
+                return "Connection[" + managed.name + "]@" + Integer.toHexString(System.identityHashCode(proxy));
+            }
+
+            if ("close".equals(methodName) && argc == 0) {
+                close();
+                return null;
+            }
+
+            synchronized (this) {
+                if (released) {
+                    if ("isClosed".equals(methodName) && argc == 0) {
+                        return Boolean.TRUE;
+                    }
+                    throw new SQLException("the connection is closed");
+                }
+            }
+
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getTargetException();
+            }
+        }
+
+        private void close() throws SQLException {
+            List<Runnable> listeners = null;
+
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                listeners = new ArrayList<Runnable>(closeListeners);
+                closeListeners.clear();
+            }
+
+            try {
+                connection.close();
+            } finally {
+                managed.giveBack();
+
+                for (Runnable listener : listeners) {
+                    try {
+                        listener.run();
+                    } catch (Throwable th) {
+                        logger.error("close listener error: " + th.getMessage());
+                    }
+                }
+            }
+        }
+    }
 }
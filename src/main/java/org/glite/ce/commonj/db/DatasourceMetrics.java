@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The connection counters of a datasource registered in the
+ * {@link DatasourceManager}, updated without locks.
+ */
+public class DatasourceMetrics {
+
+    private final String name;
+
+    private final AtomicInteger inFlightCount = new AtomicInteger(0);
+
+    private final AtomicLong acquireCount = new AtomicLong(0);
+
+    private final AtomicLong failureCount = new AtomicLong(0);
+
+    private final AtomicLong totalAcquireLatency = new AtomicLong(0);
+
+    private final AtomicLong maxAcquireLatency = new AtomicLong(0);
+
+    DatasourceMetrics(String name) {
+        this.name = name;
+    }
+
+    void acquired(long latencyNanos) {
+        acquireCount.incrementAndGet();
+
+        long latency = latencyNanos / 1000;
+        totalAcquireLatency.addAndGet(latency);
+
+        long max = maxAcquireLatency.get();
+        while (latency > max && !maxAcquireLatency.compareAndSet(max, latency)) {
+            max = maxAcquireLatency.get();
+        }
+    }
+
+    void failed() {
+        failureCount.incrementAndGet();
+    }
+
+    void borrowed() {
+        inFlightCount.incrementAndGet();
+    }
+
+    void returned() {
+        inFlightCount.decrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of connections currently borrowed
+     */
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    /**
+     * @return the number of connections successfully acquired
+     */
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    /**
+     * @return the number of failed attempts to acquire a connection
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return the average time (microseconds) spent acquiring a connection
+     */
+    public long getAverageAcquireLatency() {
+        long count = acquireCount.get();
+        return count == 0 ? 0 : totalAcquireLatency.get() / count;
+    }
+
+    /**
+     * @return the max time (microseconds) spent acquiring a connection
+     */
+    public long getMaxAcquireLatency() {
+        return maxAcquireLatency.get();
+    }
+
+    public String toString() {
+        return name + ": inFlight=" + getInFlightCount() + " acquired=" + getAcquireCount() + " failed=" + getFailureCount() + " avgLatency="
+                + getAverageAcquireLatency() + "us maxLatency=" + getMaxAcquireLatency() + "us";
+    }
+}
@@ -51,6 +51,9 @@ public class Query {
     /** SQL statement */
     private String statement = null;
 
+    /** Whether the generated keys must be returned (null: derived from the name) */
+    private Boolean returnGeneratedKeys = null;
+
     /**
      * @return the name
      */
@@ -78,4 +81,29 @@ public class Query {
     public void setStatement(String statement) {
         this.statement = statement;
     }
+
+    /**
+     * Tells whether the statement must be prepared with
+     * <code>Statement.RETURN_GENERATED_KEYS</code>. Unless explicitly set, only
+     * insert queries (the {@link #INSERT_STATEMENT} ones or those whose
+     * statement starts with <code>insert</code>) request the generated keys.
+     * 
+     * @return true if the generated keys must be returned
+     */
+    public boolean isReturnGeneratedKeys() {
+        if (returnGeneratedKeys != null) {
+            return returnGeneratedKeys.booleanValue();
+        }
+        if (INSERT_STATEMENT.equals(name)) {
+            return true;
+        }
+        return statement != null && statement.trim().regionMatches(true, 0, "insert", 0, 6);
+    }
+
+    /**
+     * @param returnGeneratedKeys whether the generated keys must be returned
+     */
+    public void setReturnGeneratedKeys(boolean returnGeneratedKeys) {
+        this.returnGeneratedKeys = Boolean.valueOf(returnGeneratedKeys);
+    }
 }
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hi/lo allocator of sequence ids. Every value <code>hi</code> read from a
+ * database sequence reserves the block of ids
+ * <code>[hi * blockSize, hi * blockSize + blockSize - 1]</code>, which is
+ * then handed out from memory without locking. With a block size of 1 (the
+ * default) every id costs a round-trip and the ids are exactly the sequence
+ * values, as before.
+ * <p>
+ * If a datasource name is configured, the next block is fetched in
+ * background (on a dedicated connection, committed) when the current one is
+ * about to be exhausted; otherwise the block is fetched synchronously with
+ * the connection of the caller.
+ * <p>
+ * <b>Note:</b> the block size of a sequence can only grow: decreasing it,
+ * even across restarts, would let new blocks overlap the ids already issued.
+ * <p>
+ * <b>Note:</b> with a block size greater than 1 the ids are no longer the
+ * values of the sequence, so they collide with the values read by any other
+ * client calling nextVal on the same sequence directly (another process with
+ * a block size of 1, a column default, a stored procedure). All the clients
+ * of such a sequence must reserve their ids through this allocator, with the
+ * same block size.
+ */
+public class SequenceIdAllocator {
+
+    private final static Logger logger = Logger.getLogger(SequenceIdAllocator.class);
+
+    private static final int KEEP_ALIVE_TIME = 60;
+
+    /**
+     * Reads the next value of a database sequence.
+     */
+    public interface SequenceSource {
+        public long nextSequenceValue(String sequenceName, Connection connection) throws SQLException;
+    }
+
+    private final ConcurrentHashMap<String, SequenceState> sequences = new ConcurrentHashMap<String, SequenceState>(0);
+
+    private volatile String dataSourceName = null;
+
+    private ThreadPoolExecutor executor = null;
+
+    /**
+     * Returns the number of ids reserved with each round-trip for the given
+     * sequence.
+     *
+     * @param sequenceName The sequence name.
+     * @return The block size.
+     */
+    public int getBlockSize(String sequenceName) {
+        SequenceState state = sequences.get(sequenceName);
+        return state == null ? 1 : state.blockSize;
+    }
+
+    /**
+     * Sets the number of ids reserved with each round-trip for the given
+     * sequence. The new size applies from the next block on.
+     *
+     * @param sequenceName The sequence name.
+     * @param blockSize The block size.
+     * @throws IllegalArgumentException if the block size is not positive or
+     *             smaller than the current one.
+     */
+    public void setBlockSize(String sequenceName, int blockSize) throws IllegalArgumentException {
+        if (sequenceName == null) {
+            throw new IllegalArgumentException("sequenceName not specified!");
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be > 0");
+        }
+
+        SequenceState state = getState(sequenceName);
+        synchronized (state) {
+            if (blockSize < state.blockSize) {
+                throw new IllegalArgumentException("the block size of " + sequenceName + " cannot be decreased (" + state.blockSize + " -> " + blockSize + ")");
+            }
+            state.blockSize = blockSize;
+        }
+    }
+
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    /**
+     * Sets the name of the datasource (see {@link DatasourceManager}) used
+     * for fetching the blocks in background; null disables the prefetching.
+     *
+     * @param dataSourceName The datasource name.
+     */
+    public void setDataSourceName(String dataSourceName) {
+        this.dataSourceName = dataSourceName;
+    }
+
+    /**
+     * Returns the next id of the given sequence.
+     *
+     * @param sequenceName The sequence name.
+     * @param connection The connection used if a new block must be fetched
+     *            synchronously.
+     * @param source The reader of the sequence values.
+     * @return The next id.
+     * @throws SQLException
+     */
+    public long nextId(String sequenceName, Connection connection, SequenceSource source) throws SQLException {
+        SequenceState state = getState(sequenceName);
+
+        while (true) {
+            Block block = state.current;
+
+            if (block != null) {
+                long id = block.next.getAndIncrement();
+
+                if (id < block.end) {
+                    if (id == block.prefetchMark) {
+                        prefetch(sequenceName, state, source);
+                    }
+                    return id;
+                }
+            }
+
+            synchronized (state) {
+                if (state.current != block) {
+                    continue;
+                }
+
+                if (state.prefetched != null) {
+                    state.current = state.prefetched;
+                    state.prefetched = null;
+                } else {
+                    state.current = fetchBlock(sequenceName, state.blockSize, connection, source);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards the blocks reserved for all the sequences; the remaining ids
+     * are lost. The block sizes are preserved.
+     */
+    public void reset() {
+        for (SequenceState state : sequences.values()) {
+            synchronized (state) {
+                state.current = null;
+                state.prefetched = null;
+            }
+        }
+    }
+
+    /**
+     * Stops the prefetching thread.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private SequenceState getState(String sequenceName) {
+        SequenceState state = sequences.get(sequenceName);
+        if (state == null) {
+            SequenceState newState = new SequenceState();
+            state = sequences.putIfAbsent(sequenceName, newState);
+            if (state == null) {
+                state = newState;
+            }
+        }
+        return state;
+    }
+
+    private static Block fetchBlock(String sequenceName, int blockSize, Connection connection, SequenceSource source) throws SQLException {
+        long hi = source.nextSequenceValue(sequenceName, connection);
+
+        if (hi > Long.MAX_VALUE / blockSize - 1) {
+            throw new SQLException("sequence " + sequenceName + " overflow: " + hi + " * " + blockSize);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("reserved block " + hi + " (size " + blockSize + ") for the sequence " + sequenceName);
+        }
+
+        return new Block(hi * blockSize, blockSize);
+    }
+
+    private void prefetch(final String sequenceName, final SequenceState state, final SequenceSource source) {
+        final String dsName = dataSourceName;
+        if (dsName == null) {
+            return;
+        }
+
+        final int blockSize;
+        synchronized (state) {
+            if (state.prefetching || state.prefetched != null) {
+                return;
+            }
+            state.prefetching = true;
+            blockSize = state.blockSize;
+        }
+
+        try {
+            getExecutor().execute(new Runnable() {
+                public void run() {
+                    Block block = null;
+                    Connection connection = null;
+
+                    try {
+                        connection = DatasourceManager.getConnection(dsName);
+                        block = fetchBlock(sequenceName, blockSize, connection, source);
+                        connection.commit();
+                    } catch (Throwable th) {
+                        block = null;
+                        if (logger.isDebugEnabled()) {
+                            logger.error("cannot prefetch a block of the sequence " + sequenceName, th);
+                        } else {
+                            logger.error("cannot prefetch a block of the sequence " + sequenceName + ": " + th.getMessage());
+                        }
+                    } finally {
+                        if (connection != null) {
+                            try {
+                                connection.close();
+                            } catch (SQLException sqle) {
+                                logger.error(sqle);
+                            }
+                        }
+                    }
+
+                    synchronized (state) {
+                        state.prefetching = false;
+                        if (block != null && state.blockSize == blockSize) {
+                            state.prefetched = block;
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            synchronized (state) {
+                state.prefetching = false;
+            }
+            logger.error("cannot schedule the prefetch of the sequence " + sequenceName + ": " + ex.getMessage());
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_TIME, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread result = new Thread(runnable, "SequenceIdPrefetcher");
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+
+    private static final class Block {
+        final AtomicLong next;
+
+        final long end;
+
+        final long prefetchMark;
+
+        Block(long start, int size) {
+            this.next = new AtomicLong(start);
+            this.end = start + size;
+            this.prefetchMark = size > 1 ? end - Math.max(1, size / 4) : -1;
+        }
+    }
+
+    private static final class SequenceState {
+        volatile Block current = null;
+
+        Block prefetched = null;
+
+        boolean prefetching = false;
+
+        int blockSize = 1;
+    }
+}
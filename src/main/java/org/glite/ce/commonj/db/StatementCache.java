@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * LRU cache of the prepared statements of a single connection, keyed by the
+ * query name. The statements handed out are proxies: closing them returns the
+ * physical statement to the cache instead of closing it, so callers keep
+ * following the usual prepare/execute/close pattern.
+ */
+class StatementCache {
+
+    private final static Logger logger = Logger.getLogger(StatementCache.class);
+
+    private final int maxSize;
+
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    private boolean closed = false;
+
+    StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    eldest.getValue().evict();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached statement for the given query, preparing it on the
+     * connection if it is missing or stale. If the cached statement is still
+     * in use (e.g. nested calls for the same query) a plain, non cached
+     * statement is returned.
+     */
+    synchronized PreparedStatement getStatement(Query query, Connection connection) throws SQLException {
+        if (closed) {
+            return AbstractTable.prepareStatement(query, connection);
+        }
+
+        CachedStatement cached = statements.get(query.getName());
+
+        if (cached != null) {
+            if (cached.inUse && cached.sql.equals(query.getStatement())) {
+                return AbstractTable.prepareStatement(query, connection);
+            }
+
+            if (!cached.inUse && cached.sql.equals(query.getStatement()) && !isClosed(cached.statement)) {
+                cached.inUse = true;
+                return cached.proxy;
+            }
+
+            statements.remove(query.getName());
+            cached.evict();
+        }
+
+        cached = new CachedStatement(query.getName(), AbstractTable.prepareStatement(query, connection), query.getStatement());
+        cached.inUse = true;
+        statements.put(query.getName(), cached);
+
+        return cached.proxy;
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes all the physical statements; those still in use are closed as
+     * soon as they are released.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        for (Iterator<CachedStatement> it = statements.values().iterator(); it.hasNext();) {
+            it.next().evict();
+        }
+        statements.clear();
+    }
+
+    private static boolean isClosed(PreparedStatement statement) {
+        try {
+            return statement.isClosed();
+        } catch (SQLException sqle) {
+            return true;
+        } catch (AbstractMethodError err) {
+            // pre JDBC 4 driver
+            return false;
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException sqle) {
+            logger.error(sqle);
+        }
+    }
+
+    private class CachedStatement implements InvocationHandler {
+
+        private final String name;
+
+        private final PreparedStatement statement;
+
+        private final String sql;
+
+        private final PreparedStatement proxy;
+
+        private boolean inUse = false;
+
+        private boolean evicted = false;
+
+        CachedStatement(String name, PreparedStatement statement, String sql) {
+            this.name = name;
+            this.statement = statement;
+            this.sql = sql;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, this);
+        }
+
+        /*
+         * Called with the cache lock held: the physical statement is closed
+         * now if idle, otherwise when the caller releases it.
+         */
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                closeQuietly(statement);
+            }
+        }
+
+        private void release() throws SQLException {
+            synchronized (StatementCache.this) {
+                if (!inUse) {
+                    return;
+                }
+                inUse = false;
+
+                if (!evicted) {
+                    try {
+                        statement.clearParameters();
+                        statement.clearBatch();
+                        statement.clearWarnings();
+                        return;
+                    } catch (SQLException sqle) {
+                        if (statements.get(name) == this) {
+                            statements.remove(name);
+                        }
+                        evicted = true;
+                    }
+                }
+            }
+
+            statement.close();
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            int argc = args == null ? 0 : args.length;
+
+            if ("close".equals(methodName) && argc == 0) {
+                release();
+                return null;
+            }
+
+            if ("isClosed".equals(methodName) && argc == 0) {
+                synchronized (StatementCache.this) {
+                    if (!inUse) {
+                        return Boolean.TRUE;
+                    }
+                }
+            }
+
+            if ("equals".equals(methodName) && argc == 1) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+
+            if ("hashCode".equals(methodName) && argc == 0) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+
+            if ("toString".equals(methodName) && argc == 0) {
+                return statement.toString();
+            }
+
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getTargetException();
+            }
+        }
+    }
+}
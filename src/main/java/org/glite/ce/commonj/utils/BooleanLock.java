@@ -18,14 +18,33 @@
 
 package org.glite.ce.commonj.utils;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
 /**
  * This class is a simple semaphore used to synchronize access to shared resources.
  *
+ * The waiting threads are queued on AbstractQueuedSynchronizer instances, one
+ * for each kind of wait: a change of value wakes up all the threads waiting
+ * for that value (waitUntilTrue, waitUntilFalse) but only one of the threads
+ * that want to flip it (waitToSetTrue, waitToSetFalse), since only one of them
+ * can succeed. The methods taking a TimeUnit wait with nanosecond precision
+ * and do not wait at all if the timeout is not positive; the methods taking
+ * milliseconds keep the original convention: 0L means wait indefinitely and
+ * a negative timeout does not wait at all.
+ *
  * @author Luigi Zangrando (zangrando@pd.infn.it)
  * 
  */
 public class BooleanLock extends Object {
-    private boolean value;
+    private final AtomicBoolean value;
+
+    /*
+     * Indexed by the awaited value: 0 for false, 1 for true
+     */
+    private final Gate[] exclusiveGates;
+    private final Gate[] sharedGates;
 
     /**
      * Creates a new BooleanLock object with initial value false.
@@ -40,19 +59,20 @@ public class BooleanLock extends Object {
      * @param The boolean initial value
      */
     public BooleanLock(boolean initialValue) {
-        value = initialValue;
+        value = new AtomicBoolean(initialValue);
+        exclusiveGates = new Gate[] { new Gate(false), new Gate(true) };
+        sharedGates = new Gate[] { new Gate(false), new Gate(true) };
     }
 
     /**
      * Set a new value to BooleanLock.
-     * When changed all objects synchronized will be notified.
+     * When changed all the threads waiting for the new value will be notified.
      *
      * @param newValue The boolean new value.
      */
-    public synchronized void setValue(boolean newValue) {
-        if (newValue != value) {
-            value = newValue;
-            notifyAll();
+    public void setValue(boolean newValue) {
+        if (value.compareAndSet(!newValue, newValue)) {
+            signal(newValue);
         }
     }
 
@@ -60,42 +80,72 @@ public class BooleanLock extends Object {
      * Set BooleanLock value to true if it is set to false before the timeout.
      *
      * @param msTimeout The timeout expressed in milliseconds.
-     * If 0L wait indefinitely.
+     * If 0L wait indefinitely, if negative do not wait.
      *
      * @return A boolean representing the final outcome.
      * This will be true if the BooleanLock value has been successfully set to true before the timeout, false otherwise.
      *
      * @throws InterruptedException 
      */
-    public synchronized boolean waitToSetTrue(long msTimeout) throws InterruptedException {
-        boolean success = waitUntilFalse(msTimeout);
+    public boolean waitToSetTrue(long msTimeout) throws InterruptedException {
+        return waitToSet(true, toNanos(msTimeout));
+    }
 
-        if (success) {
-            setValue(true);
-        }
+    /**
+     * Set BooleanLock value to true if it is set to false before the timeout.
+     *
+     * @param timeout The maximum time to wait; if not positive do not wait.
+     * @param unit The unit of the timeout.
+     *
+     * @return true if the value has been set to true, false if the timeout elapsed.
+     *
+     * @throws InterruptedException 
+     */
+    public boolean waitToSetTrue(long timeout, TimeUnit unit) throws InterruptedException {
+        return waitToSet(true, Math.max(0L, unit.toNanos(timeout)));
+    }
 
-        return success;
+    /**
+     * Set BooleanLock value to true as soon as it is false, ignoring the interruptions.
+     */
+    public void waitToSetTrueUninterruptibly() {
+        waitToSetUninterruptibly(true);
     }
 
     /**
      * Set BooleanLock value to false if it is set to true before the timeout.
      *
      * @param msTimeout The timeout expressed in milliseconds.
-     * If 0L wait indefinitely.
+     * If 0L wait indefinitely, if negative do not wait.
      *
      * @return A boolean representing the final outcome.
      * This will be true if the BooleanLock value has been successfully set to false before the timeout, false otherwise.
      *
      * @throws InterruptedException 
      */
-    public synchronized boolean waitToSetFalse(long msTimeout) throws InterruptedException {
-        boolean success = waitUntilTrue(msTimeout);
+    public boolean waitToSetFalse(long msTimeout) throws InterruptedException {
+        return waitToSet(false, toNanos(msTimeout));
+    }
 
-        if (success) {
-            setValue(false);
-        }
+    /**
+     * Set BooleanLock value to false if it is set to true before the timeout.
+     *
+     * @param timeout The maximum time to wait; if not positive do not wait.
+     * @param unit The unit of the timeout.
+     *
+     * @return true if the value has been set to false, false if the timeout elapsed.
+     *
+     * @throws InterruptedException 
+     */
+    public boolean waitToSetFalse(long timeout, TimeUnit unit) throws InterruptedException {
+        return waitToSet(false, Math.max(0L, unit.toNanos(timeout)));
+    }
 
-        return success;
+    /**
+     * Set BooleanLock value to false as soon as it is true, ignoring the interruptions.
+     */
+    public void waitToSetFalseUninterruptibly() {
+        waitToSetUninterruptibly(false);
     }
 
     /**
@@ -103,8 +153,8 @@ public class BooleanLock extends Object {
      *
      * @return The boolean the response
      */
-    public synchronized boolean isTrue() {
-        return value;
+    public boolean isTrue() {
+        return value.get();
     }
 
 
@@ -113,8 +163,8 @@ public class BooleanLock extends Object {
      *
      * @return The boolean representing the response
      */
-    public synchronized boolean isFalse() {
-        return !value;
+    public boolean isFalse() {
+        return !value.get();
     }
 
     /**
@@ -123,13 +173,13 @@ public class BooleanLock extends Object {
      *
      * @param msTimeout The maximum amount of time to wait before return a response.
      * This is expressed in milliseconds.
-     * If 0L wait indefinitely.
+     * If 0L wait indefinitely, if negative do not wait.
      *
      * @return A boolean representing the response of the operation.
      *
      * @throws InterruptedException
      */
-    public synchronized boolean waitUntilTrue(long msTimeout) throws InterruptedException {
+    public boolean waitUntilTrue(long msTimeout) throws InterruptedException {
         return waitUntilStateIs(true, msTimeout);
     }
 
@@ -139,13 +189,13 @@ public class BooleanLock extends Object {
      *
      * @param msTimeout The maximum amount of time to wait before return a response.
      * This is expressed in milliseconds.
-     * If 0L wait indefinitely.
+     * If 0L wait indefinitely, if negative do not wait.
      *
      * @return A boolean representing the response of the operation.
      *
      * @throws InterruptedException
      */
-    public synchronized boolean waitUntilFalse(long msTimeout) throws InterruptedException {
+    public boolean waitUntilFalse(long msTimeout) throws InterruptedException {
         return waitUntilStateIs(false, msTimeout);
     }
 
@@ -155,33 +205,129 @@ public class BooleanLock extends Object {
      *
      * @param msTimeout The maximum amount of time to wait before return a response.
      * This is expressed in milliseconds.
-     * If 0L wait indefinitely.
+     * If 0L wait indefinitely, if negative do not wait.
      *
      * @return A boolean representing the response of the operation.
      *
      * @throws InterruptedException
      */
-    public synchronized boolean waitUntilStateIs(boolean state, long msTimeout) throws InterruptedException {
-        if (msTimeout == 0L) {
-            while (value != state) {
-                wait(); // wait indefinitely until notified
-            }
+    public boolean waitUntilStateIs(boolean state, long msTimeout) throws InterruptedException {
+        return waitUntil(state, toNanos(msTimeout));
+    }
+
+    /**
+     * Check if the value of the BooleanLock equals the specified state 
+     * or wait for a maximum amount of time that the value is set to the specified state.
+     *
+     * @param timeout The maximum time to wait; if not positive do not wait.
+     * @param unit The unit of the timeout.
+     *
+     * @return true if the value equals the specified state.
+     *
+     * @throws InterruptedException
+     */
+    public boolean waitUntilStateIs(boolean state, long timeout, TimeUnit unit) throws InterruptedException {
+        return waitUntil(state, Math.max(0L, unit.toNanos(timeout)));
+    }
 
-            // condition has finally been met
+    /**
+     * Wait until the value of the BooleanLock equals the specified state, ignoring the interruptions.
+     */
+    public void waitUntilStateIsUninterruptibly(boolean state) {
+        if (value.get() != state) {
+            sharedGates[index(state)].acquireShared(1);
+        }
+    }
+
+    /*
+     * A negative timeout means wait indefinitely
+     */
+    private boolean waitUntil(boolean state, long nanosTimeout) throws InterruptedException {
+        if (value.get() == state) {
             return true;
         }
 
-        // only wait for the specified amount of time
-        long endTime = System.currentTimeMillis() + msTimeout;
-        long msRemaining = msTimeout;
+        Gate gate = sharedGates[index(state)];
+        if (nanosTimeout < 0L) {
+            gate.acquireSharedInterruptibly(1);
+            return true;
+        }
+        return gate.tryAcquireSharedNanos(1, nanosTimeout);
+    }
+
+    /*
+     * A negative timeout means wait indefinitely
+     */
+    private boolean waitToSet(boolean newValue, long nanosTimeout) throws InterruptedException {
+        Gate gate = exclusiveGates[index(!newValue)];
 
-        while ((value != state) && (msRemaining > 0L)) {
-            wait(msRemaining);
-            msRemaining = endTime - System.currentTimeMillis();
+        if (nanosTimeout < 0L) {
+            gate.acquireInterruptibly(1);
+        } else if (!gate.tryAcquireNanos(1, nanosTimeout)) {
+            return false;
         }
 
-        // May have timed out, or may have met value, 
-        // calculate return value.
-        return (value == state);
+        signal(newValue);
+        return true;
+    }
+
+    private void waitToSetUninterruptibly(boolean newValue) {
+        exclusiveGates[index(!newValue)].acquire(1);
+        signal(newValue);
+    }
+
+    /*
+     * Wakes up all the threads waiting for the value and one of the threads
+     * waiting to flip it
+     */
+    private void signal(boolean state) {
+        sharedGates[index(state)].releaseShared(1);
+        exclusiveGates[index(state)].release(1);
+    }
+
+    /*
+     * Converts a timeout in milliseconds: 0L means wait indefinitely (-1L),
+     * a negative value means do not wait (0L)
+     */
+    private static long toNanos(long msTimeout) {
+        if (msTimeout == 0L) {
+            return -1L;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0L, msTimeout));
+    }
+
+    private static int index(boolean state) {
+        return state ? 1 : 0;
+    }
+
+    /*
+     * The queue of the threads waiting for the value to become equal to
+     * target; the exclusive acquisition flips the value, the shared one
+     * leaves it unchanged. The state of the synchronizer is not used.
+     */
+    private class Gate extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean target;
+
+        Gate(boolean target) {
+            this.target = target;
+        }
+
+        protected boolean tryAcquire(int arg) {
+            return value.compareAndSet(target, !target);
+        }
+
+        protected boolean tryRelease(int arg) {
+            return true;
+        }
+
+        protected int tryAcquireShared(int arg) {
+            return value.get() == target ? 1 : -1;
+        }
+
+        protected boolean tryReleaseShared(int arg) {
+            return true;
+        }
     }
 }
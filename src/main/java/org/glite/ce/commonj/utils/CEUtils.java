@@ -49,6 +49,7 @@ import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -284,7 +285,32 @@ public class CEUtils {
         X509Certificate[] certChain = (X509Certificate[]) msgCtx.getProperty(AuthZConstants.USER_CERTCHAIN_LABEL);
         String tmpDN = convertDNfromRFC2253(certChain[0].getSubjectX500Principal().getName());
 
-        StringTokenizer strtok = new StringTokenizer(tmps, "||");
+        for (Pattern pRegex : getDNFilters(tmps)) {
+            logger.debug("Trying match " + pRegex.pattern() + " against " + tmpDN);
+            Matcher mRegex = pRegex.matcher(tmpDN);
+            if (mRegex.find()) {
+                return tmpDN.substring(0, mRegex.end());
+            }
+        }
+
+        logger.debug("Cannot find match for " + tmpDN);
+        return convertDNfromRFC2253(baseDN);
+    }
+
+    /*
+     * The compiled patterns are kept until the dn_filter attribute changes
+     */
+    private static volatile DNFilterCache dnFilterCache = null;
+
+    private static Pattern[] getDNFilters(String filterStr) {
+
+        DNFilterCache cache = dnFilterCache;
+        if (cache != null && cache.source.equals(filterStr)) {
+            return cache.patterns;
+        }
+
+        ArrayList<Pattern> tmpList = new ArrayList<Pattern>();
+        StringTokenizer strtok = new StringTokenizer(filterStr, "||");
 
         while (strtok.hasMoreTokens()) {
             String stregex = strtok.nextToken().trim();
@@ -292,16 +318,28 @@ public class CEUtils {
             if (stregex.length() == 0)
                 continue;
 
-            logger.debug("Trying match " + stregex + " against " + tmpDN);
-            Pattern pRegex = Pattern.compile(stregex);
-            Matcher mRegex = pRegex.matcher(tmpDN);
-            if (mRegex.find()) {
-                return tmpDN.substring(0, mRegex.end());
+            try {
+                tmpList.add(Pattern.compile(stregex));
+            } catch (PatternSyntaxException psEx) {
+                logger.error("Wrong dn_filter expression " + stregex + ": " + psEx.getMessage());
             }
         }
 
-        logger.debug("Cannot find match for " + tmpDN);
-        return convertDNfromRFC2253(baseDN);
+        cache = new DNFilterCache(filterStr, tmpList.toArray(new Pattern[tmpList.size()]));
+        dnFilterCache = cache;
+        return cache.patterns;
+    }
+
+    private static class DNFilterCache {
+
+        final String source;
+
+        final Pattern[] patterns;
+
+        DNFilterCache(String source, Pattern[] patterns) {
+            this.source = source;
+            this.patterns = patterns;
+        }
     }
 
     public static boolean isAdmin() {
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils;
+
+/**
+ * The default clock of the Timer: it is driven by System.nanoTime(), so that
+ * a step of the system clock neither fires a burst of tasks nor stalls them.
+ * The origin is the system time at the creation of the clock, therefore the
+ * returned values stay close to the ones of System.currentTimeMillis().
+ */
+public class MonotonicClock
+    implements TimerClock {
+
+    private final long originMillis;
+
+    private final long originNanos;
+
+    public MonotonicClock() {
+        originMillis = System.currentTimeMillis();
+        originNanos = System.nanoTime();
+    }
+
+    public long currentTimeMillis() {
+        return originMillis + (System.nanoTime() - originNanos) / 1000000L;
+    }
+
+    public void waitUntil(Object monitor, long deadline)
+        throws InterruptedException {
+        long timeout = deadline - currentTimeMillis();
+        if (timeout > 0) {
+            monitor.wait(timeout);
+        }
+    }
+
+}
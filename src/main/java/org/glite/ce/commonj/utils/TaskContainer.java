@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils;
+
+/**
+ * A structure holding scheduled timer tasks. The container is notified when a
+ * task is cancelled, so that the task can be removed immediately instead of
+ * waiting for its expiration.
+ */
+interface TaskContainer {
+
+    void remove(TimerTask task);
+
+    /*
+     * Adds again a FIXED_DELAY_POST_EXECUTION task once its execution is
+     * completed, unless the task or the container has been cancelled
+     */
+    void reschedule(TimerTask task);
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the expired tasks of a Timer, either in the thread of the timer or by
+ * means of an executor, and collects the lateness of the executions per task
+ * name. A task that does not allow concurrent executions is skipped if its
+ * previous execution is still running. An execution rejected by the executor
+ * is skipped as well; a FIXED_DELAY_POST_EXECUTION task, which is rescheduled
+ * only at the end of its executions, is given back to its container.
+ */
+class TaskDispatcher {
+
+    private static Logger logger = Logger.getLogger(TaskDispatcher.class.getName());
+
+    private static final String UNNAMED = "unnamed";
+
+    private Executor executor;
+
+    private TimerClock clock;
+
+    private ConcurrentHashMap<String, LatenessCounter> counters;
+
+    /*
+     * A null executor runs the tasks in the calling thread
+     */
+    TaskDispatcher(Executor executor, TimerClock clock) {
+        this.executor = executor;
+        this.clock = clock;
+        counters = new ConcurrentHashMap<String, LatenessCounter>();
+    }
+
+    void dispatch(final TimerTask task, final long executionTime, final TaskContainer container) {
+
+        final boolean exclusive = !task.isConcurrentExecution();
+        if (exclusive && !task.executing.compareAndSet(false, true)) {
+            getCounter(task).skipped();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Task " + task.getName() + " still running, execution skipped");
+            }
+            return;
+        }
+
+        Runnable runner = new Runnable() {
+            public void run() {
+                execute(task, executionTime, container, exclusive);
+            }
+        };
+
+        if (executor == null) {
+            runner.run();
+            return;
+        }
+
+        try {
+            executor.execute(runner);
+        } catch (RejectedExecutionException rejEx) {
+            logger.warn("Execution of task " + task.getName() + " rejected");
+            getCounter(task).skipped();
+            if (exclusive) {
+                task.executing.set(false);
+            }
+            if (task.getExecutionType() == TimerTask.EXECUTION_TYPE.FIXED_DELAY_POST_EXECUTION) {
+                container.reschedule(task);
+            }
+        }
+    }
+
+    TimerTaskStats[] getStats() {
+        ArrayList<TimerTaskStats> result = new ArrayList<TimerTaskStats>();
+        for (String name : counters.keySet()) {
+            result.add(counters.get(name).snapshot(name));
+        }
+        return result.toArray(new TimerTaskStats[result.size()]);
+    }
+
+    TimerTaskStats getStats(String name) {
+        LatenessCounter counter = counters.get(name);
+        return counter != null ? counter.snapshot(name) : null;
+    }
+
+    private void execute(TimerTask task, long executionTime, TaskContainer container, boolean exclusive) {
+
+        getCounter(task).executed(clock.currentTimeMillis() - executionTime);
+
+        try {
+            task.run();
+        } catch (Throwable th) {
+            if (logger.isDebugEnabled()) {
+                logger.error("Task " + task.getName() + " failed", th);
+            } else {
+                logger.error("Task " + task.getName() + " failed: " + th.getMessage());
+            }
+        } finally {
+            if (exclusive) {
+                task.executing.set(false);
+            }
+        }
+
+        if (task.getRate() == 0) {
+            task.setState(TimerTask.STATUS.EXECUTED);
+        } else if (task.getExecutionType() == TimerTask.EXECUTION_TYPE.FIXED_DELAY_POST_EXECUTION) {
+            container.reschedule(task);
+        }
+    }
+
+    private LatenessCounter getCounter(TimerTask task) {
+        String name = task.getName() != null ? task.getName() : UNNAMED;
+        LatenessCounter counter = counters.get(name);
+        if (counter == null) {
+            LatenessCounter newCounter = new LatenessCounter();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    private static class LatenessCounter {
+
+        private long executions = 0;
+
+        private long skipped = 0;
+
+        private long totalLateness = 0;
+
+        private long lastLateness = 0;
+
+        private long maxLateness = 0;
+
+        synchronized void executed(long lateness) {
+            executions++;
+            totalLateness += lateness;
+            lastLateness = lateness;
+            if (lateness > maxLateness) {
+                maxLateness = lateness;
+            }
+        }
+
+        synchronized void skipped() {
+            skipped++;
+        }
+
+        synchronized TimerTaskStats snapshot(String name) {
+            return new TimerTaskStats(name, executions, skipped, totalLateness, lastLateness, maxLateness);
+        }
+    }
+
+}
@@ -24,11 +24,14 @@
 
 package org.glite.ce.commonj.utils;
 
-import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A facility for threads to schedule tasks for future execution in a
@@ -64,22 +67,57 @@ import java.util.concurrent.TimeUnit;
  * <p>This class does <i>not</i> offer real-time guarantees: it schedules
  * tasks using the <tt>Object.wait(long)</tt> method.
  *
+ * <p>The execution times are measured by a <tt>TimerClock</tt>: by default a
+ * <tt>MonotonicClock</tt>, driven by <tt>System.nanoTime()</tt>, so that a
+ * step of the system clock does not affect the scheduled tasks.  The
+ * <tt>Date</tt> arguments are converted by their distance from the current
+ * system time.  A <tt>VirtualClock</tt> can be supplied for tests.
+ *
  * <p>Implementation note: This class scales to large numbers of concurrently
  * scheduled tasks (thousands should present no problem).  Internally,
  * it uses a binary heap to represent its task queue, so the cost to schedule
  * a task is O(log n), where n is the number of concurrently scheduled tasks.
  *
+ * <p>Implementation note: by default the tasks of a timer using the binary
+ * heap run sequentially in the timer thread; a timer created with a thread
+ * count or with an executor hands them to worker threads instead, so that a
+ * slow task does not delay the others.  A task that does not allow
+ * concurrent executions (see <tt>TimerTask.setConcurrentExecution</tt>)
+ * skips an execution while the previous one is still running; a
+ * <tt>FIXED_DELAY_POST_EXECUTION</tt> task is rescheduled when its
+ * execution completes.  The lateness of the executions is collected per task
+ * name and returned by <tt>getTaskStats</tt>.
+ *
+ * <p>Implementation note: a timer created with the <tt>TIMING_WHEEL</tt>
+ * engine keeps its tasks in a hierarchical timing wheel instead of the binary
+ * heap: scheduling and cancelling a task cost O(1), the tasks are run by a
+ * pool of worker threads and the resolution of the execution time is reduced
+ * to 10 milliseconds.  This engine is meant for timers holding hundreds of
+ * thousands of tasks.
+ *
  * <p>Implementation note: All constructors start a timer thread.
  */
 
 public class Timer {
+    /**
+     * The data structures available for holding the scheduled tasks.
+     */
+    public static enum ENGINE { BINARY_HEAP, TIMING_WHEEL }
+
     /**
      * The timer task queue.  This data structure is shared with the timer
      * thread.  The timer produces tasks, via its various schedule calls,
      * and the timer thread consumes, executing timer tasks as appropriate,
      * and removing them from the queue when they're obsolete.
      */
-    private TaskQueue queue = new TaskQueue();
+    private TaskQueue queue;
+
+    /**
+     * The time source of this timer.
+     */
+    private TimerClock clock;
+
+    private static final TimerClock DEFAULT_CLOCK = new MonotonicClock();
 
     /**
      * The timer thread.
@@ -87,7 +125,17 @@ public class Timer {
     //private TimerThread thread = new TimerThread(queue);
     protected boolean shutdownNow = false;
     private static final int THREAD_COUNT = 20;
-    private final ThreadPoolExecutor pool = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 10, TimeUnit.SECONDS, new LinkedBlockingQueue());
+    private ThreadPoolExecutor pool = null;
+
+    /**
+     * Runs the expired tasks and collects their lateness.
+     */
+    private TaskDispatcher dispatcher;
+
+    /**
+     * The timing wheel, null if the timer uses the binary heap.
+     */
+    private TimingWheel wheel = null;
 
 
     /**
@@ -171,14 +219,106 @@ public class Timer {
      * @since 1.5
      */
     public Timer(String name, boolean isDaemon) {        
-        TimerThread thread = new TimerThread(queue);
+        this(name, isDaemon, ENGINE.BINARY_HEAP);
+    }
+
+    /**
+     * Creates a new timer whose associated thread has the specified name,
+     * may be specified to run as a daemon and uses the specified engine.
+     *
+     * @param name the name of the associated thread
+     * @param isDaemon true if the associated thread should run as a daemon
+     * @param engine the data structure holding the scheduled tasks
+     * @throws NullPointerException if name is null
+     */
+    public Timer(String name, boolean isDaemon, ENGINE engine) {
+        this(name, isDaemon, engine, engine == ENGINE.TIMING_WHEEL ? THREAD_COUNT : 0);
+    }
+
+    /**
+     * Creates a new timer whose tasks are run by a pool of worker threads
+     * owned by the timer.  The worker threads run as daemons and terminate
+     * when they are idle.
+     *
+     * @param name the name of the associated thread
+     * @param isDaemon true if the associated thread should run as a daemon
+     * @param engine the data structure holding the scheduled tasks
+     * @param threadCount the number of worker threads; if 0 the tasks run
+     *        in the timer thread
+     * @throws NullPointerException if name is null
+     * @throws IllegalArgumentException if <tt>threadCount</tt> is negative
+     */
+    public Timer(final String name, boolean isDaemon, ENGINE engine, int threadCount) {
+        if (threadCount < 0) {
+            throw new IllegalArgumentException("Negative thread count.");
+        }
+
+        if (threadCount > 0) {
+            pool = new ThreadPoolExecutor(threadCount, threadCount, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            pool.setThreadFactory(new ThreadFactory() {
+                private AtomicInteger counter = new AtomicInteger(0);
+
+                public Thread newThread(Runnable r) {
+                    Thread worker = new Thread(r, name + "-worker-" + counter.incrementAndGet());
+                    worker.setDaemon(true);
+                    return worker;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+        }
+
+        start(name, isDaemon, engine, pool, DEFAULT_CLOCK);
+    }
+
+    /**
+     * Creates a new timer whose tasks are run by the specified executor.  The
+     * executor is not shut down when the timer is cancelled.
+     *
+     * @param name the name of the associated thread
+     * @param isDaemon true if the associated thread should run as a daemon
+     * @param engine the data structure holding the scheduled tasks
+     * @param executor the executor running the tasks; if null the tasks run
+     *        in the timer thread
+     * @throws NullPointerException if name is null
+     */
+    public Timer(String name, boolean isDaemon, ENGINE engine, Executor executor) {
+        this(name, isDaemon, engine, executor, DEFAULT_CLOCK);
+    }
+
+    /**
+     * Creates a new timer whose tasks are run by the specified executor and
+     * whose execution times are measured by the specified clock.
+     *
+     * @param name the name of the associated thread
+     * @param isDaemon true if the associated thread should run as a daemon
+     * @param engine the data structure holding the scheduled tasks
+     * @param executor the executor running the tasks; if null the tasks run
+     *        in the timer thread
+     * @param clock the time source of the timer
+     * @throws NullPointerException if name or clock is null
+     */
+    public Timer(String name, boolean isDaemon, ENGINE engine, Executor executor, TimerClock clock) {
+        start(name, isDaemon, engine, executor, clock);
+    }
+
+    private void start(String name, boolean isDaemon, ENGINE engine, Executor executor, TimerClock clock) {
+        if (clock == null) {
+            throw new NullPointerException("Missing clock.");
+        }
+
+        this.clock = clock;
+        queue = new TaskQueue(clock);
+        dispatcher = new TaskDispatcher(executor, clock);
+
+        if (engine == ENGINE.TIMING_WHEEL) {
+            wheel = new TimingWheel(name, isDaemon, dispatcher, clock);
+            return;
+        }
+
+        TimerThread thread = new TimerThread(queue, dispatcher, clock);
         thread.setDaemon(isDaemon);
         thread.setName(name);
         thread.start();
-
-//        for(int i=0; i<5; i++) {
-//            pool.execute(new TimerThread(queue));
-//        }
     }
 
     /**
@@ -195,7 +335,7 @@ public class Timer {
         if (delay < 0) {
             throw new IllegalArgumentException("Negative delay.");
         }
-        sched(task, System.currentTimeMillis()+delay, 0, null);
+        sched(task, clock.currentTimeMillis()+delay, 0, null);
     }
 
     /**
@@ -209,7 +349,7 @@ public class Timer {
      *         cancelled, timer was cancelled, or timer thread terminated.
      */
     public void schedule(TimerTask task, Date time) {
-        sched(task, time.getTime(), 0, null);
+        sched(task, toClockTime(time), 0, null);
     }
 
     /**
@@ -246,7 +386,7 @@ public class Timer {
         if (delay < 0) {
             throw new IllegalArgumentException("Negative delay.");
         }
-        sched(task, System.currentTimeMillis()+delay, rate, executionType);
+        sched(task, clock.currentTimeMillis()+delay, rate, executionType);
     }
 
     /**
@@ -279,7 +419,7 @@ public class Timer {
      *         cancelled, timer was cancelled, or timer thread terminated.
      */
     public void schedule(TimerTask task, Date firstTime, long rate, TimerTask.EXECUTION_TYPE executionType) {
-        sched(task, firstTime.getTime(), rate, executionType);
+        sched(task, toClockTime(firstTime), rate, executionType);
     }
 
     /**
@@ -361,6 +501,123 @@ public class Timer {
 //        sched(task, firstTime.getTime(), rate);
 //    }
 
+    /**
+     * Schedules all the specified tasks with the same delay, rate and
+     * execution type.  The tasks are inserted in a single critical section
+     * and the timer thread is woken up once, which is much cheaper than
+     * scheduling them one by one when a large number of tasks is restored.
+     * Either all the tasks are scheduled or none of them.
+     *
+     * @param tasks tasks to be scheduled.
+     * @param delay delay in milliseconds before the tasks are to be executed.
+     * @param rate time in milliseconds between successive task executions.
+     * @throws IllegalArgumentException if <tt>delay</tt> is negative or
+     *         <tt>rate</tt> is not positive.
+     * @throws IllegalStateException if a task was already scheduled or
+     *         cancelled, or timer was cancelled.
+     */
+    public void scheduleAll(Collection<? extends TimerTask> tasks, long delay, long rate, TimerTask.EXECUTION_TYPE executionType) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Negative delay.");
+        }
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Non-positive rate.");
+        }
+
+        Object monitor = (wheel != null) ? wheel : queue;
+
+        synchronized(monitor) {
+            if (shutdownNow) {
+                throw new IllegalStateException("Timer already cancelled.");
+            }
+
+            long time = clock.currentTimeMillis() + delay;
+            int count = 0;
+            for (TimerTask task : tasks) {
+                synchronized(task.lock) {
+                    if (task.state != TimerTask.STATUS.VIRGIN) {
+                        rollback(tasks, count);
+                        throw new IllegalStateException("Task already scheduled or cancelled");
+                    }
+                    task.setExecutionType(executionType);
+                    task.setNextExecutionTime(time);
+                    task.setRate(rate);
+                    task.setState(TimerTask.STATUS.SCHEDULED);
+                    task.clock = clock;
+                }
+                count++;
+            }
+
+            if (wheel != null) {
+                wheel.addAll(tasks);
+            } else {
+                queue.addAll(tasks);
+                queue.notify();
+            }
+        }
+    }
+
+    /*
+     * Brings back to VIRGIN the first count tasks marked by scheduleAll()
+     */
+    private void rollback(Collection<? extends TimerTask> tasks, int count) {
+        for (TimerTask task : tasks) {
+            if (count-- == 0) {
+                break;
+            }
+            synchronized(task.lock) {
+                task.setState(TimerTask.STATUS.VIRGIN);
+                task.clock = null;
+            }
+        }
+    }
+
+    /**
+     * Cancels all the scheduled tasks selected by the filter and removes them
+     * in a single pass.  A task whose execution is in progress and that is
+     * not going to be rescheduled before the end of the execution is not
+     * affected.
+     *
+     * @param filter selects the tasks to be cancelled.
+     * @return the number of cancelled tasks.
+     */
+    public int cancelAll(TimerTaskFilter filter) {
+        if (wheel != null) {
+            return wheel.removeAll(filter);
+        }
+
+        synchronized(queue) {
+            return queue.removeAll(filter);
+        }
+    }
+
+    /**
+     * Cancels all the scheduled tasks with the specified name.
+     *
+     * @param name the name of the tasks, see <tt>TimerTask.getName()</tt>.
+     * @return the number of cancelled tasks.
+     */
+    public int cancelByName(final String name) {
+        return cancelAll(new TimerTaskFilter() {
+            public boolean accept(TimerTask task) {
+                return name == null ? task.getName() == null : name.equals(task.getName());
+            }
+        });
+    }
+
+    /**
+     * Converts a date to the time of the clock of this timer, preserving its
+     * distance from the current system time.  A date in the past is mapped
+     * to the current time.
+     */
+    private long toClockTime(Date date) {
+        if (date.getTime() < 0) {
+            throw new IllegalArgumentException("Illegal execution time.");
+        }
+        long now = clock.currentTimeMillis();
+        return now + Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+
     /**
      * Schedule the specified timer task for execution at the specified
      * time with the specified rate, in milliseconds.  If rate is
@@ -380,6 +637,28 @@ public class Timer {
         if (rate <= 0) {
             throw new IllegalArgumentException("Non-positive rate.");
         }
+
+        if (wheel != null) {
+            synchronized(wheel) {
+                if (shutdownNow) {
+                    throw new IllegalStateException("Timer already cancelled.");
+                }
+
+                synchronized(task.lock) {
+                    if (task.state != TimerTask.STATUS.VIRGIN) {
+                        throw new IllegalStateException("Task already scheduled or cancelled");
+                    }
+                    task.setExecutionType(executionType);
+                    task.setNextExecutionTime(time);
+                    task.setRate(rate);
+                    task.setState(TimerTask.STATUS.SCHEDULED);
+                    task.clock = clock;
+                }
+
+                wheel.add(task);
+            }
+            return;
+        }
         
         synchronized(queue) {
             if (shutdownNow) {
@@ -394,6 +673,7 @@ public class Timer {
                 task.setNextExecutionTime(time);
                 task.setRate(rate);
                 task.setState(TimerTask.STATUS.SCHEDULED);
+                task.clock = clock;
             }
 
             queue.add(task);
@@ -405,11 +685,17 @@ public class Timer {
 
     
     public int size() {
+        if (wheel != null) {
+            return wheel.size();
+        }
     	return queue.size();
     }
     
     
     public TimerTask getTimerTask(int i) {
+        if (wheel != null) {
+            return wheel.get(i);
+        }
     	return queue.get(i);
     }
     
@@ -430,15 +716,45 @@ public class Timer {
      * calls have no effect.
      */
     public void cancel() {   
+        if (wheel != null) {
+            synchronized(wheel) {
+                shutdownNow = true;
+                wheel.close();
+            }
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            return;
+        }
+
         queue.close();          
                 
         synchronized(queue) {  
+            shutdownNow = true;
             queue.clear();
             queue.notify();  // In case queue was already empty.
         }
 
-        pool.shutdownNow();
-        pool.purge();
+        if (pool != null) {
+            pool.shutdownNow();
+            pool.purge();
+        }
+    }
+
+    /**
+     * Returns the execution statistics of the tasks of this timer, one entry
+     * per task name; the tasks without a name are collected together.
+     */
+    public TimerTaskStats[] getTaskStats() {
+        return dispatcher.getStats();
+    }
+
+    /**
+     * Returns the execution statistics of the tasks with the specified name,
+     * null if no such task has ever been run.
+     */
+    public TimerTaskStats getTaskStats(String name) {
+        return dispatcher.getStats(name);
     }
 
     /**
@@ -464,6 +780,11 @@ public class Timer {
      public int purge() {
          int result = 0;
 
+         if (wheel != null) {
+             // cancelled tasks are removed from the wheel immediately
+             return result;
+         }
+
          synchronized(queue) {
              for (int i = queue.size(); i > 0; i--) {
                  if (queue.get(i).state == TimerTask.STATUS.CANCELLED) {
@@ -474,6 +795,7 @@ public class Timer {
 
              if (result != 0) {
                  queue.heapify();
+                 queue.compact();
              }
          }
 
@@ -505,8 +827,21 @@ class TimerThread extends Thread {
      */
     private TaskQueue queue;
 
-    TimerThread(TaskQueue queue) {
+    /**
+     * Runs the fired tasks, in this thread or by means of the executor of
+     * the Timer.
+     */
+    private TaskDispatcher dispatcher;
+
+    /**
+     * The time source of the Timer.
+     */
+    private TimerClock clock;
+
+    TimerThread(TaskQueue queue, TaskDispatcher dispatcher, TimerClock clock) {
         this.queue = queue;
+        this.dispatcher = dispatcher;
+        this.clock = clock;
     }
 
     public void run() {
@@ -529,6 +864,7 @@ class TimerThread extends Thread {
             try {
                 TimerTask task = null;
                 boolean taskFired;
+                long firedTime = 0;
                 
                 synchronized(queue) {
                     // Wait for queue to become non-empty
@@ -554,12 +890,10 @@ class TimerThread extends Thread {
                             continue;  // No action required, poll queue again
                         }
                         
-                        currentTime = System.currentTimeMillis();
+                        currentTime = clock.currentTimeMillis();
                         executionTime = task.getNextExecutionTime();
-                        
-                        Calendar now = Calendar.getInstance();
-                        now.setTimeInMillis(currentTime);
-   
+                        firedTime = executionTime;
+
                         if (taskFired = (executionTime <= currentTime)) {
                             if (task.getRate() == 0) { // Non-repeating, remove
                                 queue.removeMin();
@@ -587,27 +921,12 @@ class TimerThread extends Thread {
                         }
                     }
                     if (!taskFired) { // Task hasn't yet fired; wait
-                        queue.wait(executionTime - currentTime);
+                        clock.waitUntil(queue, executionTime);
                     }
                 }
 
                 if (taskFired) { // Task fired; run it, holding no locks
-                    task.run();
-
-                    if (task.getRate() == 0) { // Non-repeating, remove
-                        task.setState(TimerTask.STATUS.EXECUTED);
-                    } else if(task.getExecutionType() == TimerTask.EXECUTION_TYPE.FIXED_DELAY_POST_EXECUTION) { // Repeating task, reschedule
-                        synchronized(task.lock) {
-                            task.setState(TimerTask.STATUS.SCHEDULED);
-                            task.setNextExecutionTime(System.currentTimeMillis() + task.getRate());
-                       //     System.out.println(">>>> Timer currentTime = " + Calendar.getInstance().getTime() + " FIXED_DELAY_POST_EXECUTION  nextExecutionTime = " + task.getNextExecutionDate().getTime());
-
-                            Calendar time = Calendar.getInstance();
-                            time.setTimeInMillis(task.getNextExecutionTime());
-                        }
-
-                        queue.add(task);
-                    }
+                    dispatcher.dispatch(task, firedTime, queue);
                 }
             } catch(InterruptedException e) {
             }
@@ -621,8 +940,11 @@ class TimerThread extends Thread {
  * shares with its TimerThread. Internally this class uses a heap, which
  * offers log(n) performance for the add, removeMin and rescheduleMin
  * operations, and constant time performance for the getMin operation.
+ * A cancelled task is removed from the heap in log(n) time through its
+ * index; the backing array shrinks when the live tasks fall below a quarter
+ * of its capacity.
  */
-class TaskQueue {
+class TaskQueue implements TaskContainer {
     /**
      * Priority queue represented as a balanced binary heap: the two children
      * of queue[n] are queue[2*n] and queue[2*n+1].  The priority queue is
@@ -631,7 +953,9 @@ class TaskQueue {
      * each node n in the heap, and each descendant of n, d,
      * n.nextExecutionTime <= d.nextExecutionTime. 
      */
-    private TimerTask[] queue = new TimerTask[128];
+    private static final int INITIAL_CAPACITY = 128;
+
+    private TimerTask[] queue = new TimerTask[INITIAL_CAPACITY];
 
     private boolean closed = false;
     
@@ -641,6 +965,15 @@ class TaskQueue {
      */
     private int size = 0;
 
+    /**
+     * The time source of the Timer.
+     */
+    private TimerClock clock;
+
+    TaskQueue(TimerClock clock) {
+        this.clock = clock;
+    }
+
     /**
      * Returns the number of tasks currently on the queue.
      */
@@ -669,11 +1002,91 @@ class TaskQueue {
 
         queue[size] = task;
         queue[size].setIndex(size);
+        task.container = this;
         fixUp(size);
 
         notifyAll();
     }
 
+    /**
+     * Adds a set of tasks to the priority queue: the tasks are appended and
+     * the heap invariant is restored once.
+     */
+    synchronized void addAll(Collection<? extends TimerTask> tasks) {
+        int oldSize = size;
+
+        int capacity = queue.length;
+        while (size + tasks.size() >= capacity) {
+            capacity *= 2;
+        }
+        if (capacity != queue.length) {
+            TimerTask[] newQueue = new TimerTask[capacity];
+            System.arraycopy(queue, 0, newQueue, 0, size + 1);
+            queue = newQueue;
+        }
+
+        for (TimerTask task : tasks) {
+            queue[++size] = task;
+            task.setIndex(size);
+            task.container = this;
+        }
+
+        if (size - oldSize >= oldSize) {
+            heapify();
+        } else {
+            for (int i = oldSize + 1; i <= size; i++) {
+                fixUp(i);
+            }
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Cancels and removes the tasks selected by the filter.
+     */
+    synchronized int removeAll(TimerTaskFilter filter) {
+        int result = 0;
+
+        for (int i = size; i > 0; i--) {
+            TimerTask task = queue[i];
+            if (filter.accept(task)) {
+                synchronized(task.lock) {
+                    task.state = TimerTask.STATUS.CANCELLED;
+                }
+                quickRemove(i);
+                result++;
+            }
+        }
+
+        if (result != 0) {
+            heapify();
+            compact();
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds again a FIXED_DELAY_POST_EXECUTION task after its execution,
+     * unless the task or the queue has been cancelled.
+     */
+    public synchronized void reschedule(TimerTask task) {
+        if (closed) {
+            return;
+        }
+
+        synchronized(task.lock) {
+            if (task.state == TimerTask.STATUS.CANCELLED) {
+                return;  // Cancelled while running
+            }
+            task.setState(TimerTask.STATUS.SCHEDULED);
+            task.setNextExecutionTime(clock.currentTimeMillis() + task.getRate());
+        }
+
+        add(task);
+    }
+
     /**
      * Return the "head task" of the priority queue.  (The head task is an
      * task with the lowest nextExecutionTime.)
@@ -702,9 +1115,34 @@ class TaskQueue {
      * Remove the head task from the priority queue.
      */
     synchronized void removeMin() {
+        queue[1].container = null;
         queue[1] = queue[size];
+        queue[1].setIndex(1);
         queue[size--] = null;  // Drop extra reference to prevent memory leak
         fixDown(1);
+        compact();
+    }
+
+    /**
+     * Removes the specified task from the priority queue, if present.  The
+     * position of the task is given by its index, so the cost is log(n).
+     */
+    public synchronized void remove(TimerTask task) {
+        int i = task.getIndex();
+        if (i < 1 || i > size || queue[i] != task) {
+            return;
+        }
+
+        task.container = null;
+        queue[i] = queue[size];
+        queue[i].setIndex(i);
+        queue[size--] = null;  // Drop extra reference to prevent memory leak
+
+        if (i <= size) {
+            fixDown(i);
+            fixUp(i);
+        }
+        compact();
     }
 
     /**
@@ -715,7 +1153,9 @@ class TaskQueue {
     synchronized void quickRemove(int i) {
         assert i <= size;
 
+        queue[i].container = null;
         queue[i] = queue[size];
+        queue[i].setIndex(i);
         queue[size--] = null;  // Drop extra ref to prevent memory leak
     }
 
@@ -741,9 +1181,23 @@ class TaskQueue {
     void clear() {
         // Null out task references to prevent memory leak
         for (int i=1; i<=size; i++)  {
+            queue[i].container = null;
             queue[i] = null;
         }
         size = 0;
+        queue = new TimerTask[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Halves the backing array when the live tasks fall below a quarter of
+     * its capacity, so that the memory follows the number of scheduled tasks.
+     */
+    void compact() {
+        if (queue.length > INITIAL_CAPACITY && size < queue.length / 4) {
+            TimerTask[] newQueue = new TimerTask[queue.length / 2];
+            System.arraycopy(queue, 0, newQueue, 0, size + 1);
+            queue = newQueue;
+        }
     }
 
     /**
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils;
+
+/**
+ * The time source of a Timer. The times are expressed in milliseconds with an
+ * arbitrary origin; the only requirement is that they never go backward.
+ */
+public interface TimerClock {
+
+    /**
+     * Returns the current time of this clock in milliseconds.
+     */
+    public long currentTimeMillis();
+
+    /**
+     * Waits on the specified monitor, which is held by the caller, until it
+     * is notified or the deadline of this clock has been reached.
+     *
+     * @param monitor
+     *            is the object the timer thread waits on
+     * @param deadline
+     *            is the time of this clock at which the wait ends
+     * @throws InterruptedException
+     *             if the waiting thread is interrupted
+     */
+    public void waitUntil(Object monitor, long deadline)
+        throws InterruptedException;
+
+}
@@ -26,6 +26,7 @@ package org.glite.ce.commonj.utils;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public abstract class TimerTask implements Runnable {
     /**
@@ -48,8 +49,8 @@ public abstract class TimerTask implements Runnable {
     STATUS state = STATUS.VIRGIN;
     
     /**
-     * Next execution time for this task in the format returned by
-     * System.currentTimeMillis, assuming this task is scheduled for execution.
+     * Next execution time for this task in the format returned by the clock
+     * of the Timer, assuming this task is scheduled for execution.
      * For repeating tasks, this field is updated prior to each task execution.
      */
     private long nextExecutionTime;
@@ -63,6 +64,31 @@ public abstract class TimerTask implements Runnable {
     private int index = 0;
     private EXECUTION_TYPE executionType = null;
     private String name;
+    private boolean concurrentExecution = false;
+
+    /**
+     * The engine of the Timer holding this task, if any; used by cancel() to
+     * release the task immediately.
+     */
+    volatile TaskContainer container = null;
+
+    /**
+     * The clock of the Timer this task has been scheduled on.
+     */
+    volatile TimerClock clock = null;
+
+    /**
+     * Links of this task in a bucket of the timing wheel.
+     */
+    TimingWheel.Bucket bucket = null;
+    TimerTask bucketNext = null;
+    TimerTask bucketPrev = null;
+
+    /**
+     * Set while an execution of this task is in progress, unless concurrent
+     * executions are allowed.
+     */
+    final AtomicBoolean executing = new AtomicBoolean(false);
 
 
     /**
@@ -99,11 +125,21 @@ public abstract class TimerTask implements Runnable {
      *         executions from taking place.)
      */
     public boolean cancel() {
+        boolean result;
+        TaskContainer owner;
         synchronized(lock) {
-            boolean result = (state == STATUS.SCHEDULED);
+            result = (state == STATUS.SCHEDULED);
             state = STATUS.CANCELLED;
-            return result;
+            owner = container;
         }
+
+        /*
+         * The container lock is always acquired before the task lock
+         */
+        if (owner != null) {
+            owner.remove(this);
+        }
+        return result;
     }
     
     
@@ -115,19 +151,42 @@ public abstract class TimerTask implements Runnable {
         return index;
     }
 
+    /**
+     * Returns true if a new execution of this task may start while the
+     * previous one is still running; otherwise the new execution is skipped.
+     * This is relevant only for timers that run the tasks by means of an
+     * executor.
+     */
+    public boolean isConcurrentExecution() {
+        return concurrentExecution;
+    }
+
     public String getName() {
     	return name;
     }
     
+    /**
+     * Returns the next execution time converted to the system time.
+     */
     public Calendar getNextExecutionDate() {
         Calendar date = Calendar.getInstance();
-        date.setTimeInMillis(nextExecutionTime);
+        TimerClock tmpClock = clock;
+        if (tmpClock == null) {
+            date.setTimeInMillis(nextExecutionTime);
+        } else {
+            date.setTimeInMillis(System.currentTimeMillis() + nextExecutionTime - tmpClock.currentTimeMillis());
+        }
         return date;
     }
 
     public void getNextExecutionDate(Calendar date) {
         if(date != null) {
-            nextExecutionTime = date.getTimeInMillis();
+            TimerClock tmpClock = clock;
+            if (tmpClock == null) {
+                nextExecutionTime = date.getTimeInMillis();
+            } else {
+                nextExecutionTime = tmpClock.currentTimeMillis() + date.getTimeInMillis() - System.currentTimeMillis();
+            }
         }
     }
 
@@ -183,7 +242,7 @@ public abstract class TimerTask implements Runnable {
     public long scheduledExecutionTime() {
         synchronized(lock) {
             switch(executionType) {
-                case FIXED_RATE: return System.currentTimeMillis() + rate;
+                case FIXED_RATE: return (clock != null ? clock.currentTimeMillis() : System.currentTimeMillis()) + rate;
                 case FIXED_DELAY: return nextExecutionTime + rate;
                 case FIXED_DELAY_POST_EXECUTION: return nextExecutionTime + rate;
             }
@@ -192,6 +251,10 @@ public abstract class TimerTask implements Runnable {
         }
     }
 
+    public void setConcurrentExecution(boolean concurrentExecution) {
+        this.concurrentExecution = concurrentExecution;
+    }
+
     public void setExecutionType(EXECUTION_TYPE executionType) {
         this.executionType = executionType;        
     }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils;
+
+/**
+ * Selects the tasks of a Timer, see Timer.cancelAll().
+ */
+public interface TimerTaskFilter {
+
+    /**
+     * Returns true if the task is selected. The method is called while the
+     * Timer is locked, so it must be fast and must not call the Timer.
+     */
+    public boolean accept(TimerTask task);
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils;
+
+/**
+ * A snapshot of the execution statistics of the timer tasks sharing the same
+ * name. The lateness is the time, in milliseconds, elapsed between the
+ * scheduled execution time and the actual start of the execution.
+ */
+public class TimerTaskStats {
+
+    private String name;
+
+    private long executions;
+
+    private long skippedExecutions;
+
+    private long totalLateness;
+
+    private long lastLateness;
+
+    private long maxLateness;
+
+    TimerTaskStats(String name, long executions, long skipped, long totalLateness, long lastLateness,
+            long maxLateness) {
+        this.name = name;
+        this.executions = executions;
+        this.skippedExecutions = skipped;
+        this.totalLateness = totalLateness;
+        this.lastLateness = lastLateness;
+        this.maxLateness = maxLateness;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * Returns the number of executions not started because the previous
+     * execution of the task was still running.
+     */
+    public long getSkippedExecutions() {
+        return skippedExecutions;
+    }
+
+    public long getAverageLateness() {
+        return executions > 0 ? totalLateness / executions : 0;
+    }
+
+    public long getLastLateness() {
+        return lastLateness;
+    }
+
+    public long getMaxLateness() {
+        return maxLateness;
+    }
+
+    public String toString() {
+        StringBuffer buff = new StringBuffer(name);
+        buff.append(": executions=").append(executions);
+        buff.append(" skipped=").append(skippedExecutions);
+        buff.append(" avgLateness=").append(getAverageLateness());
+        buff.append(" lastLateness=").append(lastLateness);
+        buff.append(" maxLateness=").append(maxLateness);
+        return buff.toString();
+    }
+
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class implements a hierarchical timing wheel: an alternative engine for
+ * the Timer designed for a very large number of scheduled tasks. Each level
+ * of the hierarchy is a circular array of buckets, a bucket is a doubly linked
+ * list of tasks; a task whose expiration falls beyond the range of a level is
+ * stored in the next, coarser, level and moved down when its bucket expires.
+ * Inserting and cancelling a task costs O(1); the thread of the wheel sleeps
+ * until the expiration of the first non-empty bucket and hands the expired
+ * tasks to the dispatcher of the Timer, without holding the lock of the wheel.
+ * A task inserted with an expired execution time is put in the due bucket and
+ * dispatched by the thread of the wheel as well.
+ *
+ * The resolution of the wheel is TICK milliseconds: a task never runs before
+ * its execution time, but it may run up to one tick later.
+ */
+class TimingWheel
+    implements Runnable, TaskContainer {
+
+    private static Logger logger = Logger.getLogger(TimingWheel.class.getName());
+
+    static final long TICK = 10;
+
+    static final int WHEEL_SIZE = 256;
+
+    private Level root;
+
+    private PriorityQueue<Bucket> bucketQueue;
+
+    private Bucket dueBucket;
+
+    private int size;
+
+    private boolean closed;
+
+    private TaskDispatcher dispatcher;
+
+    private TimerClock clock;
+
+    private Thread thread;
+
+    TimingWheel(String name, boolean isDaemon, TaskDispatcher dispatcher, TimerClock clock) {
+        this.dispatcher = dispatcher;
+        this.clock = clock;
+        root = new Level(TICK, clock.currentTimeMillis());
+        bucketQueue = new PriorityQueue<Bucket>();
+        dueBucket = new Bucket();
+        size = 0;
+        closed = false;
+
+        thread = new Thread(this, name);
+        thread.setDaemon(isDaemon);
+        thread.start();
+    }
+
+    /*
+     * Inserts a task already set for scheduling by the Timer
+     */
+    synchronized void add(TimerTask task) {
+        if (closed) {
+            throw new IllegalStateException("Timer already cancelled.");
+        }
+
+        Bucket first = bucketQueue.peek();
+        boolean due = insert(task);
+
+        if (due || bucketQueue.peek() != first) {
+            notify();
+        }
+    }
+
+    /*
+     * Inserts a set of tasks with a single notification of the thread
+     */
+    synchronized void addAll(Collection<? extends TimerTask> tasks) {
+        if (closed) {
+            throw new IllegalStateException("Timer already cancelled.");
+        }
+
+        Bucket first = bucketQueue.peek();
+        boolean due = false;
+
+        for (TimerTask task : tasks) {
+            due |= insert(task);
+        }
+
+        if (due || bucketQueue.peek() != first) {
+            notify();
+        }
+    }
+
+    /*
+     * Returns true if the task is already expired
+     */
+    private boolean insert(TimerTask task) {
+        size++;
+        task.container = this;
+        if (root.add(task, ceilTick(task.getNextExecutionTime()))) {
+            return false;
+        }
+        dueBucket.add(task);
+        return true;
+    }
+
+    /*
+     * Cancels and removes the tasks selected by the filter
+     */
+    synchronized int removeAll(TimerTaskFilter filter) {
+        int result = 0;
+
+        for (Bucket bucket : getBuckets()) {
+            TimerTask task = bucket.head;
+            while (task != null) {
+                TimerTask next = task.bucketNext;
+                if (filter.accept(task)) {
+                    synchronized (task.lock) {
+                        task.state = TimerTask.STATUS.CANCELLED;
+                    }
+                    bucket.remove(task);
+                    task.container = null;
+                    size--;
+                    result++;
+                }
+                task = next;
+            }
+        }
+
+        return result;
+    }
+
+    public synchronized void remove(TimerTask task) {
+        if (task.bucket != null) {
+            task.bucket.remove(task);
+            task.container = null;
+            size--;
+        }
+    }
+
+    public synchronized void reschedule(TimerTask task) {
+        if (closed) {
+            return;
+        }
+
+        synchronized (task.lock) {
+            if (task.state == TimerTask.STATUS.CANCELLED) {
+                return;
+            }
+            task.setNextExecutionTime(clock.currentTimeMillis() + task.getRate());
+        }
+
+        add(task);
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /*
+     * Returns the i-th task, 1 <= i <= size, in no particular order; the cost
+     * is linear in the number of tasks
+     */
+    synchronized TimerTask get(int i) {
+        int count = 0;
+        for (Bucket bucket : getBuckets()) {
+            for (TimerTask task = bucket.head; task != null; task = task.bucketNext) {
+                if (++count == i) {
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    synchronized void close() {
+        closed = true;
+
+        for (Bucket bucket : getBuckets()) {
+            while (bucket.head != null) {
+                TimerTask task = bucket.head;
+                bucket.remove(task);
+                task.container = null;
+            }
+            bucket.expiration = -1;
+        }
+
+        bucketQueue.clear();
+        size = 0;
+        notify();
+    }
+
+    public void run() {
+        try {
+            mainLoop();
+        } catch (InterruptedException intEx) {
+            logger.error("Timer " + thread.getName() + " abruptly terminated");
+        } finally {
+            close();
+        }
+    }
+
+    /*
+     * The expired tasks are collected with the lock of the wheel held and
+     * dispatched after its release, so that neither the dispatcher nor a task
+     * run in the thread of the wheel delay the callers of the wheel
+     */
+    private void mainLoop()
+        throws InterruptedException {
+
+        ArrayList<ExpiredTask> expired = new ArrayList<ExpiredTask>();
+
+        while (true) {
+
+            synchronized (this) {
+
+                if (closed) {
+                    return;
+                }
+
+                while (dueBucket.head != null) {
+                    TimerTask task = dueBucket.head;
+                    dueBucket.remove(task);
+                    expire(task, expired);
+                }
+
+                Bucket bucket = bucketQueue.peek();
+                if (expired.isEmpty()) {
+                    if (bucket == null) {
+                        wait();
+                        continue;
+                    }
+
+                    if (bucket.expiration > clock.currentTimeMillis()) {
+                        clock.waitUntil(this, bucket.expiration);
+                        continue;
+                    }
+                }
+
+                if (bucket != null && bucket.expiration <= clock.currentTimeMillis()) {
+                    bucketQueue.poll();
+                    root.advanceClock(bucket.expiration);
+
+                    /*
+                     * The tasks are either expired or moved to a finer level
+                     */
+                    while (bucket.head != null) {
+                        TimerTask task = bucket.head;
+                        bucket.remove(task);
+                        if (!root.add(task, ceilTick(task.getNextExecutionTime()))) {
+                            expire(task, expired);
+                        }
+                    }
+                    bucket.expiration = -1;
+                }
+            }
+
+            for (ExpiredTask item : expired) {
+                dispatcher.dispatch(item.task, item.executionTime, this);
+            }
+            expired.clear();
+        }
+    }
+
+    /*
+     * Called with the lock of the wheel held, the task is not in any bucket
+     */
+    private void expire(TimerTask task, ArrayList<ExpiredTask> expired) {
+
+        final long executionTime;
+        final boolean repeated;
+
+        synchronized (task.lock) {
+
+            if (task.state == TimerTask.STATUS.CANCELLED) {
+                task.container = null;
+                size--;
+                return;
+            }
+
+            executionTime = task.getNextExecutionTime();
+            long currentTime = clock.currentTimeMillis();
+
+            if (task.getRate() > 0 && task.getExecutionType() == TimerTask.EXECUTION_TYPE.FIXED_RATE) {
+                task.setNextExecutionTime(currentTime + task.getRate());
+                repeated = true;
+            } else if (task.getRate() > 0 && task.getExecutionType() == TimerTask.EXECUTION_TYPE.FIXED_DELAY) {
+                task.setNextExecutionTime(executionTime + task.getRate());
+                repeated = true;
+            } else {
+                repeated = false;
+            }
+        }
+
+        if (repeated) {
+            /*
+             * Late executions are caught up one per tick
+             */
+            root.add(task, Math.max(ceilTick(task.getNextExecutionTime()), root.currentTime + TICK));
+        } else {
+            task.container = null;
+            size--;
+        }
+
+        expired.add(new ExpiredTask(task, executionTime));
+    }
+
+    /*
+     * Returns the due bucket and the buckets of all the levels
+     */
+    private ArrayList<Bucket> getBuckets() {
+        ArrayList<Bucket> result = new ArrayList<Bucket>();
+        result.add(dueBucket);
+        for (Level level = root; level != null; level = level.overflow) {
+            for (Bucket bucket : level.buckets) {
+                result.add(bucket);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * The time used for the placement is rounded up to the tick of the first
+     * level, so that the bucket of the first level expires at or after the
+     * execution time; the buckets of the other levels expire earlier and their
+     * tasks are moved down.
+     */
+    private static long ceilTick(long time) {
+        long rest = time % TICK;
+        return rest == 0 ? time : time - rest + TICK;
+    }
+
+    /*
+     * A level of the hierarchy: WHEEL_SIZE buckets of tickMs milliseconds each
+     */
+    private class Level {
+
+        final long tickMs;
+
+        final long interval;
+
+        long currentTime;
+
+        final Bucket[] buckets;
+
+        Level overflow;
+
+        Level(long tickMs, long startTime) {
+            this.tickMs = tickMs;
+            interval = tickMs * WHEEL_SIZE;
+            currentTime = startTime - (startTime % tickMs);
+            buckets = new Bucket[WHEEL_SIZE];
+            for (int k = 0; k < WHEEL_SIZE; k++) {
+                buckets[k] = new Bucket();
+            }
+            overflow = null;
+        }
+
+        /*
+         * Returns false if the time is already expired for this level
+         */
+        boolean add(TimerTask task, long time) {
+
+            if (time < currentTime + tickMs) {
+                return false;
+            }
+
+            if (time < currentTime + interval) {
+                long virtualId = time / tickMs;
+                Bucket bucket = buckets[(int) (virtualId % WHEEL_SIZE)];
+                bucket.add(task);
+                if (bucket.expiration != virtualId * tickMs) {
+                    bucket.expiration = virtualId * tickMs;
+                    bucketQueue.add(bucket);
+                }
+                return true;
+            }
+
+            if (overflow == null) {
+                overflow = new Level(interval, currentTime);
+            }
+            return overflow.add(task, time);
+        }
+
+        void advanceClock(long time) {
+            if (time >= currentTime + tickMs) {
+                currentTime = time - (time % tickMs);
+                if (overflow != null) {
+                    overflow.advanceClock(currentTime);
+                }
+            }
+        }
+    }
+
+    static class Bucket
+        implements Comparable<Bucket> {
+
+        long expiration = -1;
+
+        TimerTask head = null;
+
+        void add(TimerTask task) {
+            task.bucket = this;
+            task.bucketPrev = null;
+            task.bucketNext = head;
+            if (head != null) {
+                head.bucketPrev = task;
+            }
+            head = task;
+        }
+
+        void remove(TimerTask task) {
+            if (task.bucketPrev != null) {
+                task.bucketPrev.bucketNext = task.bucketNext;
+            } else {
+                head = task.bucketNext;
+            }
+            if (task.bucketNext != null) {
+                task.bucketNext.bucketPrev = task.bucketPrev;
+            }
+            task.bucket = null;
+            task.bucketNext = null;
+            task.bucketPrev = null;
+        }
+
+        public int compareTo(Bucket other) {
+            return expiration < other.expiration ? -1 : (expiration == other.expiration ? 0 : 1);
+        }
+    }
+
+    private static class ExpiredTask {
+
+        final TimerTask task;
+
+        final long executionTime;
+
+        ExpiredTask(TimerTask task, long executionTime) {
+            this.task = task;
+            this.executionTime = executionTime;
+        }
+    }
+
+}
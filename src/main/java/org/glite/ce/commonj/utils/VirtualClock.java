@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * A clock that moves only when it is explicitly advanced, meant for
+ * deterministic tests: the timers using this clock never wait in real time,
+ * they are woken up by each call of advance() and fire all the tasks whose
+ * execution time has been reached.
+ */
+public class VirtualClock
+    implements TimerClock {
+
+    private long currentTime;
+
+    private Set<Object> monitors;
+
+    public VirtualClock() {
+        this(0);
+    }
+
+    public VirtualClock(long startTime) {
+        currentTime = startTime;
+        monitors = Collections.newSetFromMap(new WeakHashMap<Object, Boolean>());
+    }
+
+    public synchronized long currentTimeMillis() {
+        return currentTime;
+    }
+
+    public void waitUntil(Object monitor, long deadline)
+        throws InterruptedException {
+        /*
+         * The monitor is registered before releasing the lock of the clock,
+         * so that a concurrent advance() cannot be missed
+         */
+        synchronized (this) {
+            if (currentTime >= deadline) {
+                return;
+            }
+            monitors.add(monitor);
+        }
+        monitor.wait();
+    }
+
+    /**
+     * Moves the clock forward and wakes up the timers waiting on it.
+     *
+     * @param millis
+     *            is the amount of time in milliseconds
+     * @throws IllegalArgumentException
+     *             if millis is negative
+     */
+    public void advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Negative time.");
+        }
+
+        ArrayList<Object> waiting = null;
+        synchronized (this) {
+            currentTime += millis;
+            waiting = new ArrayList<Object>(monitors);
+        }
+
+        /*
+         * The monitors are notified without holding the lock of the clock
+         */
+        for (Object monitor : waiting) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+}
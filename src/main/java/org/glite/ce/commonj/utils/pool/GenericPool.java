@@ -24,15 +24,70 @@
 
 package org.glite.ce.commonj.utils.pool;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
+import org.apache.log4j.Logger;
+import org.glite.ce.commonj.utils.Timer;
+import org.glite.ce.commonj.utils.TimerTask;
+
+/**
+ * A bounded pool of objects. The idle objects are kept in a lock-free deque
+ * and the number of borrowed objects is bounded by a fair semaphore, so that
+ * borrowing and releasing cost O(1) and a caller waiting for an object is
+ * served in arrival order. The borrowed objects are tracked by identity.
+ *
+ * The minimum number of objects is allocated asynchronously, in parallel, by
+ * warmUp(), invoked at the latest by the first get(): allocate() is never
+ * called before the construction of the subclass is complete. If an idle
+ * timeout is specified, an evictor running on a
+ * shared Timer destroys the objects idle for longer than the timeout, down to
+ * the minimum size. The objects can be checked by validate() when they are
+ * borrowed and when they are returned; an invalid object is destroyed.
+ *
+ * The metrics of the pool are available through getMetrics() and can be
+ * registered as a JMX MBean. The leak detection reports the objects borrowed
+ * for longer than a threshold, optionally with the stack trace of the
+ * borrowing thread.
+ */
 public abstract class GenericPool<T> {
-    private ArrayList<T> allocatedItems;
-    private ArrayList<T> unAllocatedItems;
+    private static Logger logger = Logger.getLogger(GenericPool.class.getName());
+
+    private static final int WARMUP_THREADS = 4;
+    private static Timer evictionTimer = null;
+
+    private ConcurrentHashMap<ItemKey, BorrowInfo> allocatedItems;
+    private ConcurrentLinkedDeque<IdleItem<T>> unAllocatedItems;
+    private Semaphore permits;
+    private AtomicInteger poolSize;
     private int minPoolSize = 1;
     private int maxPoolSize = 50;
-    private boolean shutdown = false;
+    private long idleTimeout = 0;
+    private volatile boolean testOnBorrow = false;
+    private volatile boolean testOnReturn = false;
+    private volatile boolean shutdown = false;
+    private TimerTask evictionTask = null;
+    private PoolMetrics metrics;
+    private volatile long leakThreshold = 0;
+    private volatile boolean captureStackTrace = false;
+    private TimerTask leakTask = null;
+    private ObjectName mbeanName = null;
+    private AtomicBoolean warmUpStarted;
 
     public GenericPool() throws GenericPoolException {
         // initialize pool
@@ -43,20 +98,50 @@ public abstract class GenericPool<T> {
     /**
      * Creates the pool.
      * 
-     * @param minIdle
-     *            minimum number of objects residing in the pool
+     * @param minPoolSize
+     *            minimum number of objects residing in the pool, not greater
+     *            than maxPoolSize
+     * @param maxPoolSize
+     *            maximum number of objects borrowed at the same time, greater
+     *            than 0
      */
     public GenericPool(final int minPoolSize, final int maxPoolSize) throws GenericPoolException {
+        this(minPoolSize, maxPoolSize, 0);
+    }
+
+    /**
+     * Creates the pool with eviction of the idle objects.
+     * 
+     * @param minPoolSize
+     *            minimum number of objects residing in the pool, not greater
+     *            than maxPoolSize
+     * @param maxPoolSize
+     *            maximum number of objects borrowed at the same time, greater
+     *            than 0
+     * @param idleTimeout
+     *            time in milliseconds after which an idle object exceeding
+     *            the minimum size is destroyed; 0 disables the eviction
+     */
+    public GenericPool(final int minPoolSize, final int maxPoolSize, final long idleTimeout) throws GenericPoolException {
         if (minPoolSize < 0) {
             throw new GenericPoolException("wrong value for minPoolSize");
         }
         
-        if (maxPoolSize < 0) {
+        if (maxPoolSize <= 0) {
             throw new GenericPoolException("wrong value for maxPoolSize");
         }
+
+        if (minPoolSize > maxPoolSize) {
+            throw new GenericPoolException("minPoolSize (" + minPoolSize + ") greater than maxPoolSize (" + maxPoolSize + ")");
+        }
+
+        if (idleTimeout < 0) {
+            throw new GenericPoolException("wrong value for idleTimeout");
+        }
         
         this.minPoolSize= minPoolSize;
         this.maxPoolSize= maxPoolSize;
+        this.idleTimeout = idleTimeout;
         
         // initialize pool
         initialize();
@@ -64,53 +149,275 @@ public abstract class GenericPool<T> {
 
     
     private void initialize() {
-        allocatedItems = new ArrayList<T>();
-        unAllocatedItems = new ArrayList<T>();
+        metrics = new PoolMetrics(this);
+        allocatedItems = new ConcurrentHashMap<ItemKey, BorrowInfo>();
+        unAllocatedItems = new ConcurrentLinkedDeque<IdleItem<T>>();
+        permits = new Semaphore(maxPoolSize, true);
+        poolSize = new AtomicInteger(0);
+        warmUpStarted = new AtomicBoolean(false);
+
+        if (idleTimeout > 0) {
+            evictionTask = new TimerTask(getClass().getName() + "-evictor") {
+                public void run() {
+                    evict();
+                }
+            };
+            getEvictionTimer().schedule(evictionTask, idleTimeout, idleTimeout, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+        }
+    }
+
+    private static synchronized Timer getEvictionTimer() {
+        if (evictionTimer == null) {
+            evictionTimer = new Timer("GenericPoolEvictor", true);
+        }
+        return evictionTimer;
+    }
+
+    /**
+     * Allocates in background the minimum number of objects. It is invoked
+     * by the first get(); a subclass can invoke it at the end of its
+     * constructor (or the owner of the pool after the construction) to have
+     * the objects ready in advance. The calls after the first one have no
+     * effect.
+     */
+    public void warmUp() {
+        if (minPoolSize == 0 || shutdown || !warmUpStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        int threads = Math.min(minPoolSize, WARMUP_THREADS);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private AtomicInteger counter = new AtomicInteger(0);
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "GenericPoolWarmUp-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
 
         for (int i = 0; i < minPoolSize; i++) {
-            unAllocatedItems.add(allocate());
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (shutdown) {
+                        return;
+                    }
+
+                    try {
+                        T item = allocate();
+                        poolSize.incrementAndGet();
+                        metrics.allocated();
+                        unAllocatedItems.offerLast(new IdleItem<T>(item));
+                        if (shutdown) {
+                            drainIdleItems();
+                        }
+                    } catch (Throwable th) {
+                        logger.error("cannot allocate the object of the pool: " + th.getMessage());
+                    }
+                }
+            });
         }
+
+        executor.shutdown();
     }
     
 
     public boolean isShutdown() {
         return shutdown;
     }
+
+    /**
+     * Enables the validation of the objects taken from the pool.
+     */
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * Enables the validation of the objects returned to the pool.
+     */
+    public void setTestOnReturn(boolean testOnReturn) {
+        this.testOnReturn = testOnReturn;
+    }
+
+    /**
+     * Enables the detection of the objects borrowed for longer than the
+     * threshold: they are logged once and counted by the metrics.
+     * 
+     * @param threshold
+     *            time in milliseconds; 0 disables the detection
+     * @param captureStackTrace
+     *            if true the stack trace of the borrowing thread is recorded
+     *            at each borrow, which is expensive
+     */
+    public synchronized void setLeakDetection(long threshold, boolean captureStackTrace) {
+        if (leakTask != null) {
+            leakTask.cancel();
+            leakTask = null;
+        }
+
+        this.leakThreshold = threshold;
+        this.captureStackTrace = captureStackTrace;
+
+        if (threshold > 0 && !shutdown) {
+            leakTask = new TimerTask(getClass().getName() + "-leakdetector") {
+                public void run() {
+                    detectLeaks();
+                }
+            };
+            getEvictionTimer().schedule(leakTask, threshold, threshold, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+        }
+    }
+
+    /**
+     * Returns the metrics of this pool.
+     */
+    public GenericPoolMXBean getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers the metrics of this pool in the platform MBean server, with
+     * the object name org.glite.ce.commonj:type=GenericPool,name=<name>. The
+     * MBean is unregistered at shutdown.
+     */
+    public synchronized void registerMBean(String name) throws GenericPoolException {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objName = new ObjectName("org.glite.ce.commonj:type=GenericPool,name=" + ObjectName.quote(name));
+            server.registerMBean(new StandardMBean(metrics, GenericPoolMXBean.class, true), objName);
+            mbeanName = objName;
+        } catch (Exception ex) {
+            throw new GenericPoolException("cannot register the MBean " + name + ": " + ex.getMessage());
+        }
+    }
     
     
     /**
      * Gets the next free object from the pool. If the pool doesn't contain any
      * objects, a new object will be allocated and given to the caller of this
-     * method back.
+     * method back. If the maximum number of objects is already borrowed, the
+     * caller waits until an object is released.
      * 
      * @return T borrowed object
      */
-    public synchronized T get() throws GenericPoolException {
+    public T get() throws GenericPoolException {
         if (shutdown) {
             throw new GenericPoolException("the pool is shutdown");
         }
-        
+
+        warmUp();
+
+        long start = System.nanoTime();
+        if (permits.availablePermits() == 0) {
+            metrics.waited();
+        }
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenericPoolException("interrupted while waiting for an object of the pool");
+        }
+
+        return borrow(start);
+    }
+
+    /**
+     * Gets the next free object from the pool, waiting at most the specified
+     * time if the maximum number of objects is already borrowed.
+     * 
+     * @param timeout
+     *            the maximum time to wait in milliseconds
+     * @return T borrowed object
+     * @throws GenericPoolException
+     *             if no object is released within the timeout
+     */
+    public T get(long timeout) throws GenericPoolException {
+        if (shutdown) {
+            throw new GenericPoolException("the pool is shutdown");
+        }
+
+        warmUp();
+
+        long start = System.nanoTime();
+        if (permits.availablePermits() == 0) {
+            metrics.waited();
+        }
+
+        boolean acquired = false;
+        try {
+            acquired = permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenericPoolException("interrupted while waiting for an object of the pool");
+        }
+
+        if (!acquired) {
+            metrics.exhausted();
+            throw new GenericPoolException("no object available in the pool after " + timeout + " ms");
+        }
+
+        return borrow(start);
+    }
+
+    /*
+     * Called with a permit acquired
+     */
+    private T borrow(long start) throws GenericPoolException {
+        if (shutdown) {
+            permits.release();
+            throw new GenericPoolException("the pool is shutdown");
+        }
+
         T item = null;
-        
-        if (unAllocatedItems.size() == 0 && allocatedItems.size() < maxPoolSize) {
-            item = allocate();
-            System.out.println("allocated new item");
-        } else {
-            item = unAllocatedItems.remove(0);
+
+        IdleItem<T> idleItem = null;
+        while (item == null && (idleItem = unAllocatedItems.pollFirst()) != null) {
+            item = idleItem.item;
+            if (testOnBorrow && !isValid(item)) {
+                discard(item);
+                item = null;
+            }
+        }
+
+        if (item == null) {
+            try {
+                item = allocate();
+            } catch (RuntimeException ex) {
+                permits.release();
+                throw ex;
+            }
+            poolSize.incrementAndGet();
+            metrics.allocated();
         }
 
-        allocatedItems.add(item);
+        ItemKey key = new ItemKey(item);
+        allocatedItems.put(key, new BorrowInfo(item, captureStackTrace));
 
+        /*
+         * A concurrent shutdown may have missed the object
+         */
+        if (shutdown) {
+            if (allocatedItems.remove(key) != null) {
+                discard(item);
+            }
+            permits.release();
+            throw new GenericPoolException("the pool is shutdown");
+        }
+
+        metrics.borrowed(System.nanoTime() - start);
         return item;
     }
 
     /**
      * Returns object back to the pool.
      * 
-     * @param object
+     * @param item
      *            object to be returned
      */
-    public synchronized void release(T item) throws GenericPoolException {
+    public void release(T item) throws GenericPoolException {
         if (shutdown) {
             throw new GenericPoolException("the pool is shutdown");
         }
@@ -119,34 +426,192 @@ public abstract class GenericPool<T> {
             return;
         }
         
-        if (allocatedItems.remove(item)) {
-            unAllocatedItems.add(item);
+        if (allocatedItems.remove(new ItemKey(item)) != null) {
+            if (testOnReturn && !isValid(item)) {
+                discard(item);
+            } else {
+                /*
+                 * The object is made available before the permit
+                 */
+                unAllocatedItems.offerFirst(new IdleItem<T>(item));
+                if (shutdown) {
+                    drainIdleItems();
+                }
+            }
+            permits.release();
         }
     }
 
     /**
-     * Shutdown this pool.
+     * Shutdown this pool. The objects borrowed or returned concurrently are
+     * destroyed as well.
      */
-    public void shutdown() {
+    public synchronized void shutdown() {
         shutdown = true;
-        
-        for (T item : allocatedItems) {
-            if (item instanceof Destroyable) {
-                ((Destroyable)item).destroy();
+
+        if (evictionTask != null) {
+            evictionTask.cancel();
+            evictionTask = null;
+        }
+
+        if (leakTask != null) {
+            leakTask.cancel();
+            leakTask = null;
+        }
+
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (Exception ex) {
+                logger.warn("cannot unregister the MBean " + mbeanName + ": " + ex.getMessage());
             }
+            mbeanName = null;
         }
-        allocatedItems.clear();
+
+        /*
+         * Wakes up the callers waiting for an object
+         */
+        permits.release(maxPoolSize);
         
-        for (T item : unAllocatedItems) {
-            if (item instanceof Destroyable) {
+        for (ItemKey key : allocatedItems.keySet()) {
+            if (allocatedItems.remove(key) != null) {
+                poolSize.decrementAndGet();
+                metrics.destroyed();
+                destroy(key.item);
+            }
+        }
+
+        drainIdleItems();
+    }
+
+    /*
+     * Destroys the idle objects exceeding the minimum size, starting from the
+     * least recently used one, whose idle timeout has expired
+     */
+    private void evict() {
+        long limit = System.currentTimeMillis() - idleTimeout;
+        int evicted = 0;
+
+        while (!shutdown && poolSize.get() > minPoolSize) {
+            IdleItem<T> idleItem = unAllocatedItems.pollLast();
+            if (idleItem == null) {
+                break;
+            }
+
+            if (idleItem.idleSince > limit) {
+                unAllocatedItems.offerLast(idleItem);
+                break;
+            }
+
+            discard(idleItem.item);
+            evicted++;
+        }
+
+        if (evicted > 0 && logger.isDebugEnabled()) {
+            logger.debug("evicted " + evicted + " idle objects from " + getClass().getName());
+        }
+    }
+
+    private void drainIdleItems() {
+        IdleItem<T> idleItem = null;
+        while ((idleItem = unAllocatedItems.pollFirst()) != null) {
+            discard(idleItem.item);
+        }
+    }
+
+    private boolean isValid(T item) {
+        try {
+            return validate(item);
+        } catch (Throwable th) {
+            logger.debug("validation failed: " + th.getMessage());
+            return false;
+        }
+    }
+
+    private void discard(T item) {
+        poolSize.decrementAndGet();
+        metrics.destroyed();
+        destroy(item);
+    }
+
+    /*
+     * Logs once each object borrowed for longer than the threshold
+     */
+    private void detectLeaks() {
+        long limit = System.currentTimeMillis() - leakThreshold;
+
+        for (BorrowInfo info : allocatedItems.values()) {
+            if (info.borrowTime < limit && !info.reported) {
+                info.reported = true;
+                metrics.leaked();
+
+                if (info.stackTrace != null) {
+                    logger.warn("possible leak in " + getClass().getName() + ": " + info, info.stackTrace);
+                } else {
+                    logger.warn("possible leak in " + getClass().getName() + ": " + info);
+                }
+            }
+        }
+    }
+
+    String[] getSuspectedLeaks() {
+        ArrayList<String> result = new ArrayList<String>();
+        long threshold = leakThreshold;
+        if (threshold > 0) {
+            long limit = System.currentTimeMillis() - threshold;
+            for (BorrowInfo info : allocatedItems.values()) {
+                if (info.borrowTime < limit) {
+                    result.add(info.describe());
+                }
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    int getMinPoolSize() {
+        return minPoolSize;
+    }
+
+    int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    int getPoolSize() {
+        return poolSize.get();
+    }
+
+    private void destroy(Object item) {
+        if (item instanceof Destroyable) {
+            try {
                 ((Destroyable)item).destroy();
+            } catch (Throwable th) {
+                logger.error("cannot destroy the object of the pool: " + th.getMessage());
             }
         }
-        unAllocatedItems.clear();
     }
 
+    /**
+     * Returns the number of borrowed objects.
+     */
+    public int getAllocatedCount() {
+        return allocatedItems.size();
+    }
+
+    /**
+     * Returns the number of idle objects.
+     */
+    public int getUnAllocatedCount() {
+        return unAllocatedItems.size();
+    }
+
+    /**
+     * Logs the metrics of the pool at INFO level.
+     * 
+     * @deprecated use {@link #getMetrics()}
+     */
+    @Deprecated
     public void printStatus() {
-        System.out.println("allocatedItems=" + allocatedItems.size() + " unAllocatedItems=" + unAllocatedItems.size());
+        logger.info(metrics.toString());
     }
     
     
@@ -157,4 +622,76 @@ public abstract class GenericPool<T> {
      */
     protected abstract T allocate();
 
+    /**
+     * Checks an object taken from or returned to the pool, if the test is
+     * enabled; an invalid object is destroyed. The default implementation
+     * accepts every object.
+     * 
+     * @return true if the object can be used
+     */
+    protected boolean validate(T item) {
+        return true;
+    }
+
+    private static final class IdleItem<T> {
+        final T item;
+        final long idleSince;
+
+        IdleItem(T item) {
+            this.item = item;
+            idleSince = System.currentTimeMillis();
+        }
+    }
+
+    /*
+     * Describes a borrowed object for the leak detection
+     */
+    private static final class BorrowInfo {
+        final long borrowTime;
+        final String threadName;
+        final String itemName;
+        final Throwable stackTrace;
+        volatile boolean reported = false;
+
+        BorrowInfo(Object item, boolean capture) {
+            borrowTime = System.currentTimeMillis();
+            threadName = Thread.currentThread().getName();
+            itemName = item.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(item));
+            stackTrace = capture ? new Throwable("borrowed here") : null;
+        }
+
+        public String toString() {
+            return itemName + " borrowed by " + threadName + " " + (System.currentTimeMillis() - borrowTime)
+                    + " ms ago";
+        }
+
+        String describe() {
+            if (stackTrace == null) {
+                return toString();
+            }
+            StringWriter writer = new StringWriter();
+            stackTrace.printStackTrace(new PrintWriter(writer));
+            return toString() + "\n" + writer.toString();
+        }
+    }
+
+    /*
+     * Compares the borrowed objects by identity
+     */
+    private static final class ItemKey {
+        final Object item;
+
+        ItemKey(Object item) {
+            this.item = item;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(item);
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof ItemKey && ((ItemKey) obj).item == item;
+        }
+    }
+
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils.pool;
+
+/**
+ * The management interface of a GenericPool. The latencies are expressed in
+ * microseconds.
+ */
+public interface GenericPoolMXBean {
+
+    public int getMinPoolSize();
+
+    public int getMaxPoolSize();
+
+    /**
+     * Returns the number of objects currently allocated, borrowed or idle.
+     */
+    public int getPoolSize();
+
+    public int getInUseCount();
+
+    public int getIdleCount();
+
+    public long getBorrowCount();
+
+    /**
+     * Returns the number of borrows that had to wait because the maximum
+     * number of objects was already borrowed.
+     */
+    public long getWaitCount();
+
+    /**
+     * Returns the number of borrows that failed because the pool remained
+     * exhausted for the whole timeout.
+     */
+    public long getExhaustionCount();
+
+    public long getAllocationCount();
+
+    public long getDestroyCount();
+
+    /**
+     * Returns the number of objects allocated during the last complete
+     * minute.
+     */
+    public long getAllocationRate();
+
+    /**
+     * Returns the upper bounds of the buckets of the borrow latency
+     * histogram; the last bucket has no upper bound.
+     */
+    public long[] getBorrowLatencyBounds();
+
+    public long[] getBorrowLatencyHistogram();
+
+    public long getMaxBorrowLatency();
+
+    /**
+     * Returns the number of objects found borrowed for longer than the leak
+     * threshold.
+     */
+    public long getLeakCount();
+
+    /**
+     * Returns a description of the objects currently borrowed for longer than
+     * the leak threshold, with the borrowing stack trace if captured.
+     */
+    public String[] getSuspectedLeaks();
+
+}
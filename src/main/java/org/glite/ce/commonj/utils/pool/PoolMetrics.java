@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils.pool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The counters of a GenericPool, updated without locks by the pool and read
+ * through the GenericPoolMXBean interface.
+ */
+class PoolMetrics
+    implements GenericPoolMXBean {
+
+    private static final long[] LATENCY_BOUNDS = { 10, 100, 1000, 10000, 100000, 1000000 };
+
+    private static final long MINUTE = 60000;
+
+    private GenericPool<?> pool;
+
+    private AtomicLong borrowCount = new AtomicLong(0);
+
+    private AtomicLong waitCount = new AtomicLong(0);
+
+    private AtomicLong exhaustionCount = new AtomicLong(0);
+
+    private AtomicLong allocationCount = new AtomicLong(0);
+
+    private AtomicLong destroyCount = new AtomicLong(0);
+
+    private AtomicLong leakCount = new AtomicLong(0);
+
+    private AtomicLong maxBorrowLatency = new AtomicLong(0);
+
+    private AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BOUNDS.length + 1);
+
+    private long currentMinute = 0;
+
+    private long currentMinuteAllocations = 0;
+
+    private long lastMinuteAllocations = 0;
+
+    PoolMetrics(GenericPool<?> pool) {
+        this.pool = pool;
+    }
+
+    void borrowed(long latencyNanos) {
+        borrowCount.incrementAndGet();
+
+        long latency = latencyNanos / 1000;
+        int bucket = 0;
+        while (bucket < LATENCY_BOUNDS.length && latency > LATENCY_BOUNDS[bucket]) {
+            bucket++;
+        }
+        latencyHistogram.incrementAndGet(bucket);
+
+        long max = maxBorrowLatency.get();
+        while (latency > max && !maxBorrowLatency.compareAndSet(max, latency)) {
+            max = maxBorrowLatency.get();
+        }
+    }
+
+    void waited() {
+        waitCount.incrementAndGet();
+    }
+
+    void exhausted() {
+        exhaustionCount.incrementAndGet();
+    }
+
+    void allocated() {
+        allocationCount.incrementAndGet();
+
+        synchronized (this) {
+            rollMinute();
+            currentMinuteAllocations++;
+        }
+    }
+
+    void destroyed() {
+        destroyCount.incrementAndGet();
+    }
+
+    void leaked() {
+        leakCount.incrementAndGet();
+    }
+
+    /*
+     * Called with the lock held
+     */
+    private void rollMinute() {
+        long minute = System.currentTimeMillis() / MINUTE;
+        if (minute != currentMinute) {
+            lastMinuteAllocations = (minute == currentMinute + 1) ? currentMinuteAllocations : 0;
+            currentMinuteAllocations = 0;
+            currentMinute = minute;
+        }
+    }
+
+    public int getMinPoolSize() {
+        return pool.getMinPoolSize();
+    }
+
+    public int getMaxPoolSize() {
+        return pool.getMaxPoolSize();
+    }
+
+    public int getPoolSize() {
+        return pool.getPoolSize();
+    }
+
+    public int getInUseCount() {
+        return pool.getAllocatedCount();
+    }
+
+    public int getIdleCount() {
+        return pool.getUnAllocatedCount();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    public long getExhaustionCount() {
+        return exhaustionCount.get();
+    }
+
+    public long getAllocationCount() {
+        return allocationCount.get();
+    }
+
+    public long getDestroyCount() {
+        return destroyCount.get();
+    }
+
+    public synchronized long getAllocationRate() {
+        rollMinute();
+        return lastMinuteAllocations;
+    }
+
+    public long[] getBorrowLatencyBounds() {
+        return LATENCY_BOUNDS.clone();
+    }
+
+    public long[] getBorrowLatencyHistogram() {
+        long[] result = new long[latencyHistogram.length()];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = latencyHistogram.get(k);
+        }
+        return result;
+    }
+
+    public long getMaxBorrowLatency() {
+        return maxBorrowLatency.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    public String[] getSuspectedLeaks() {
+        return pool.getSuspectedLeaks();
+    }
+
+    public String toString() {
+        StringBuffer buff = new StringBuffer();
+        buff.append("poolSize=").append(getPoolSize());
+        buff.append(" inUse=").append(getInUseCount());
+        buff.append(" idle=").append(getIdleCount());
+        buff.append(" borrows=").append(getBorrowCount());
+        buff.append(" waits=").append(getWaitCount());
+        buff.append(" exhaustions=").append(getExhaustionCount());
+        buff.append(" allocations=").append(getAllocationCount());
+        buff.append(" destroys=").append(getDestroyCount());
+        buff.append(" leaks=").append(getLeakCount());
+        buff.append(" maxBorrowLatency=").append(getMaxBorrowLatency()).append("us");
+        return buff.toString();
+    }
+
+}
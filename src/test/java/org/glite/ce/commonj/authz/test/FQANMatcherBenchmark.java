@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz.test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.glite.ce.commonj.authz.FQANMatcher;
+import org.glite.ce.commonj.authz.FQANPattern;
+
+/**
+ * Compares the lookup of the FQANs of a request in a VOMS gridmap table with
+ * the FQANMatcher index against the loop over all the FQANPattern formerly
+ * used by the VomsServicePDP. The table contains literal patterns and, for
+ * one VO out of ten, wildcard patterns on the groups and the roles; most of
+ * the FQANs looked up do not match any pattern, the worst case for the
+ * loop. The two lookups are checked to agree on every FQAN.
+ *
+ * Usage: FQANMatcherBenchmark [patterns] [requests]
+ */
+public class FQANMatcherBenchmark {
+
+    private static final int FQANS_PER_REQUEST = 4;
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args)
+        throws Exception {
+
+        int patternCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Random random = new Random(0);
+
+        Set<FQANPattern> patterns = new LinkedHashSet<FQANPattern>();
+        while (patterns.size() < patternCount) {
+            patterns.add(new FQANPattern(randomPattern(random)));
+        }
+
+        List<String[]> fqanLists = new ArrayList<String[]>(requests);
+        for (int i = 0; i < requests; i++) {
+            String[] fqans = new String[FQANS_PER_REQUEST];
+            for (int k = 0; k < FQANS_PER_REQUEST; k++) {
+                fqans[k] = randomFQAN(random);
+            }
+            fqanLists.add(fqans);
+        }
+
+        long start = System.nanoTime();
+        FQANMatcher matcher = new FQANMatcher(patterns);
+        long buildTime = System.nanoTime() - start;
+
+        int granted = 0;
+        for (String[] fqans : fqanLists) {
+            for (String fqan : fqans) {
+                boolean expected = loopMatch(patterns, fqan) != null;
+                FQANPattern found = matcher.match(fqan);
+                if (expected != (found != null) || (found != null && !found.matches(fqan))) {
+                    throw new IllegalStateException("Mismatch for " + fqan + ": loop=" + expected + " index="
+                            + found);
+                }
+                if (expected) {
+                    granted++;
+                }
+            }
+        }
+
+        System.out.println("Patterns: " + matcher.size() + " FQANs: " + (requests * FQANS_PER_REQUEST)
+                + " matching: " + granted + " index build: " + (buildTime / 1000) + " us");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long loopTime = 0;
+            long indexTime = 0;
+            int loopHits = 0;
+            int indexHits = 0;
+
+            start = System.nanoTime();
+            for (String[] fqans : fqanLists) {
+                for (String fqan : fqans) {
+                    if (loopMatch(patterns, fqan) != null) {
+                        loopHits++;
+                        break;
+                    }
+                }
+            }
+            loopTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String[] fqans : fqanLists) {
+                for (String fqan : fqans) {
+                    if (matcher.match(fqan) != null) {
+                        indexHits++;
+                        break;
+                    }
+                }
+            }
+            indexTime = System.nanoTime() - start;
+
+            System.out.println("Round " + round + ": loop " + (loopTime / requests) + " ns/request (" + loopHits
+                    + " granted), index " + (indexTime / requests) + " ns/request (" + indexHits
+                    + " granted), states " + matcher.getStateCount());
+        }
+    }
+
+    private static FQANPattern loopMatch(Set<FQANPattern> patterns, String fqan) {
+        for (FQANPattern pattern : patterns) {
+            if (pattern.matches(fqan)) {
+                return pattern;
+            }
+        }
+        return null;
+    }
+
+    private static String randomPattern(Random random) {
+        int vo = random.nextInt(500);
+        StringBuilder buff = new StringBuilder("/vo").append(vo).append(".example.org");
+
+        if (vo % 10 == 0) {
+            switch (random.nextInt(4)) {
+            case 0:
+                return buff.append("/*").toString();
+            case 1:
+                return buff.append("/group").append(random.nextInt(20)).append("/Role=*").toString();
+            case 2:
+                return buff.append("/group?").append("/Role=").append(randomRole(random)).toString();
+            default:
+                return buff.append("/prod*").toString();
+            }
+        }
+
+        if (random.nextBoolean()) {
+            buff.append("/group").append(random.nextInt(20));
+        }
+        if (random.nextBoolean()) {
+            buff.append("/Role=").append(randomRole(random));
+        }
+        return buff.toString();
+    }
+
+    private static String randomFQAN(Random random) {
+        StringBuilder buff = new StringBuilder("/vo").append(random.nextInt(1000)).append(".example.org");
+
+        if (random.nextBoolean()) {
+            buff.append(random.nextBoolean() ? "/group" : "/production").append(random.nextInt(30));
+        }
+        buff.append("/Role=").append(random.nextInt(3) == 0 ? randomRole(random) : "NULL");
+        if (random.nextInt(4) == 0) {
+            buff.append("/Capability=NULL");
+        }
+        return buff.toString();
+    }
+
+    private static String randomRole(Random random) {
+        String[] roles = { "lcgadmin", "production", "pilot", "user" };
+        return roles[random.nextInt(roles.length)];
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz.test;
+
+import java.math.BigInteger;
+import java.security.Principal;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * A certificate with the given encoding and expiration; nothing is verified.
+ */
+public class FakeCertificate
+    extends X509Certificate {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] encoded;
+
+    private final Date notAfter;
+
+    public FakeCertificate(String name, long notAfter) {
+        this.encoded = name.getBytes();
+        this.notAfter = new Date(notAfter);
+    }
+
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    public Date getNotAfter() {
+        return notAfter;
+    }
+
+    public Date getNotBefore() {
+        return new Date(0);
+    }
+
+    public void checkValidity() {
+    }
+
+    public void checkValidity(Date date) {
+    }
+
+    public int getVersion() {
+        return 3;
+    }
+
+    public BigInteger getSerialNumber() {
+        return BigInteger.ONE;
+    }
+
+    public Principal getIssuerDN() {
+        return null;
+    }
+
+    public Principal getSubjectDN() {
+        return null;
+    }
+
+    public byte[] getTBSCertificate() {
+        return encoded;
+    }
+
+    public byte[] getSignature() {
+        return null;
+    }
+
+    public String getSigAlgName() {
+        return "SHA256withRSA";
+    }
+
+    public String getSigAlgOID() {
+        return null;
+    }
+
+    public byte[] getSigAlgParams() {
+        return null;
+    }
+
+    public boolean[] getIssuerUniqueID() {
+        return null;
+    }
+
+    public boolean[] getSubjectUniqueID() {
+        return null;
+    }
+
+    public boolean[] getKeyUsage() {
+        return null;
+    }
+
+    public int getBasicConstraints() {
+        return -1;
+    }
+
+    public void verify(PublicKey key) {
+    }
+
+    public void verify(PublicKey key, String sigProvider) {
+    }
+
+    public String toString() {
+        return "FakeCertificate";
+    }
+
+    public PublicKey getPublicKey() {
+        return null;
+    }
+
+    public boolean hasUnsupportedCriticalExtension() {
+        return false;
+    }
+
+    public Set<String> getCriticalExtensionOIDs() {
+        return null;
+    }
+
+    public Set<String> getNonCriticalExtensionOIDs() {
+        return null;
+    }
+
+    public byte[] getExtensionValue(String oid) {
+        return null;
+    }
+}
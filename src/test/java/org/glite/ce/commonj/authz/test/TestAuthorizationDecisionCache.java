@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.security.auth.Subject;
+import javax.security.auth.x500.X500Principal;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.authz.AuthZConstants;
+import org.glite.ce.commonj.authz.AuthorizationDecisionCache;
+import org.glite.ce.commonj.authz.AuthorizationException;
+import org.glite.ce.commonj.authz.ServiceAuthorizationInterface;
+import org.glite.ce.commonj.authz.ServiceAuthorizationInterface.MessageContext;
+import org.glite.ce.commonj.configuration.xppm.ConfigurationEvent;
+import org.italiangrid.voms.VOMSAttribute;
+
+public class TestAuthorizationDecisionCache
+    extends TestCase {
+
+    private static final String USER_DN = "CN=user,O=test";
+
+    private static final QName SUBMIT = new QName("http://test", "submit");
+
+    private static final QName CANCEL = new QName("http://test", "cancel");
+
+    private static final long LONG_TIME = 3600 * 1000L;
+
+    private static final long SHORT_TIME = 300;
+
+    public TestAuthorizationDecisionCache(String name) {
+        super(name);
+    }
+
+    public void testKey()
+        throws Exception {
+
+        CountingBox box = new CountingBox(true);
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(box, 10, LONG_TIME, LONG_TIME);
+
+        assertTrue(cache.isPermitted(null, createContext(USER_DN, false, "/vo/a", "/vo/b"), SUBMIT));
+        assertTrue(cache.isPermitted(null, createContext(USER_DN, false, "/vo/a", "/vo/b"), SUBMIT));
+        assertEquals(1, box.count);
+        assertEquals(1, cache.getHitCount());
+
+        /*
+         * The order of the FQANs is significant
+         */
+        cache.isPermitted(null, createContext(USER_DN, false, "/vo/b", "/vo/a"), SUBMIT);
+        assertEquals(2, box.count);
+
+        cache.isPermitted(null, createContext(USER_DN, false, "/vo/a"), SUBMIT);
+        assertEquals(3, box.count);
+
+        cache.isPermitted(null, createContext("CN=other,O=test", false, "/vo/a", "/vo/b"), SUBMIT);
+        assertEquals(4, box.count);
+
+        cache.isPermitted(null, createContext(USER_DN, false, "/vo/a", "/vo/b"), CANCEL);
+        assertEquals(5, box.count);
+
+        cache.isPermitted(null, createContext(USER_DN, true, "/vo/a", "/vo/b"), SUBMIT);
+        assertEquals(6, box.count);
+
+        /*
+         * Without the DN property the subject is used
+         */
+        Subject subject = new Subject();
+        subject.getPrincipals().add(new X500Principal(USER_DN));
+        cache.isPermitted(subject, createContext(null, false, "/vo/a", "/vo/b"), SUBMIT);
+        assertEquals(6, box.count);
+
+        /*
+         * Without any DN nothing is cached
+         */
+        cache.isPermitted(null, createContext(null, false), SUBMIT);
+        cache.isPermitted(null, createContext(null, false), SUBMIT);
+        assertEquals(8, box.count);
+
+        assertEquals(6, cache.getSize());
+    }
+
+    public void testExpiration()
+        throws Exception {
+
+        CountingBox granting = new CountingBox(true);
+        AuthorizationDecisionCache positive = new AuthorizationDecisionCache(granting, 10, SHORT_TIME, LONG_TIME);
+        CountingBox denying = new CountingBox(false);
+        AuthorizationDecisionCache negative = new AuthorizationDecisionCache(denying, 10, SHORT_TIME, LONG_TIME);
+
+        assertTrue(positive.isPermitted(null, createContext(USER_DN, false), SUBMIT));
+        assertFalse(negative.isPermitted(null, createContext(USER_DN, false), SUBMIT));
+
+        Thread.sleep(SHORT_TIME + 200);
+
+        /*
+         * Only the granted decision has expired
+         */
+        assertTrue(positive.isPermitted(null, createContext(USER_DN, false), SUBMIT));
+        assertFalse(negative.isPermitted(null, createContext(USER_DN, false), SUBMIT));
+        assertEquals(2, granting.count);
+        assertEquals(1, denying.count);
+
+        denying = new CountingBox(false);
+        negative = new AuthorizationDecisionCache(denying, 10, LONG_TIME, SHORT_TIME);
+        negative.isPermitted(null, createContext(USER_DN, false), SUBMIT);
+        Thread.sleep(SHORT_TIME + 200);
+        negative.isPermitted(null, createContext(USER_DN, false), SUBMIT);
+        assertEquals(2, denying.count);
+    }
+
+    public void testFailure()
+        throws Exception {
+
+        CountingBox box = new CountingBox(true);
+        box.failure = new AuthorizationException("PDP unreachable");
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(box, 10, LONG_TIME, LONG_TIME);
+
+        for (int k = 0; k < 2; k++) {
+            try {
+                cache.isPermitted(null, createContext(USER_DN, false), SUBMIT);
+                fail("Failure not propagated");
+            } catch (AuthorizationException ex) {
+                assertSame(box.failure, ex);
+            }
+        }
+
+        assertEquals(2, box.count);
+        assertEquals(0, cache.getSize());
+
+        box.failure = null;
+        assertTrue(cache.isPermitted(null, createContext(USER_DN, false), SUBMIT));
+        assertEquals(1, cache.getSize());
+    }
+
+    public void testPropertyReplay()
+        throws Exception {
+
+        CountingBox box = new CountingBox(true);
+        box.setName = AuthZConstants.LOCAL_USER_ID;
+        box.setValue = "pool001";
+        box.removeName = "obsolete";
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(box, 10, LONG_TIME, LONG_TIME);
+
+        MessageContext context = createContext(USER_DN, false);
+        context.setProperty("obsolete", "value");
+        cache.isPermitted(null, context, SUBMIT);
+        assertEquals("pool001", context.getProperty(AuthZConstants.LOCAL_USER_ID));
+        assertFalse(context.containsProperty("obsolete"));
+
+        /*
+         * The hit replays the recorded changes without calling the box
+         */
+        context = createContext(USER_DN, false);
+        context.setProperty("obsolete", "value");
+        cache.isPermitted(null, context, SUBMIT);
+        assertEquals(1, box.count);
+        assertEquals("pool001", context.getProperty(AuthZConstants.LOCAL_USER_ID));
+        assertFalse(context.containsProperty("obsolete"));
+    }
+
+    public void testInvalidation()
+        throws Exception {
+
+        final CountingBox box = new CountingBox(true);
+        final AuthorizationDecisionCache cache = new AuthorizationDecisionCache(box, 10, LONG_TIME, LONG_TIME);
+
+        cache.isPermitted(null, createContext(USER_DN, false), SUBMIT);
+        assertEquals(1, cache.getSize());
+
+        cache.notify(new ConfigurationEvent(ServiceAuthorizationInterface.class, System.currentTimeMillis(),
+                ConfigurationEvent.UPDATED_CONFIG));
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getInvalidationCount());
+
+        /*
+         * Events for other categories are ignored
+         */
+        cache.isPermitted(null, createContext(USER_DN, false), SUBMIT);
+        cache.notify(new ConfigurationEvent(String.class, System.currentTimeMillis(),
+                ConfigurationEvent.UPDATED_CONFIG));
+        assertEquals(1, cache.getSize());
+        cache.invalidate();
+
+        /*
+         * A decision computed across an invalidation is not stored
+         */
+        box.action = new Runnable() {
+            public void run() {
+                cache.invalidate();
+            }
+        };
+        assertTrue(cache.isPermitted(null, createContext(USER_DN, false), SUBMIT));
+        assertEquals(0, cache.getSize());
+
+        box.action = null;
+        cache.isPermitted(null, createContext(USER_DN, false), SUBMIT);
+        assertEquals(1, cache.getSize());
+    }
+
+    public void testConfiguration()
+        throws Exception {
+
+        CountingBox box = new CountingBox(true);
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(box, 10, 1000, 2000);
+
+        assertTrue(cache.isConfiguredWith(box, 10, 1000, 2000));
+        assertFalse(cache.isConfiguredWith(new CountingBox(true), 10, 1000, 2000));
+        assertFalse(cache.isConfiguredWith(box, 20, 1000, 2000));
+        assertFalse(cache.isConfiguredWith(box, 10, 3000, 2000));
+        assertFalse(cache.isConfiguredWith(box, 10, 1000, 3000));
+
+        try {
+            new AuthorizationDecisionCache(box, 0, 1000, 2000);
+            fail("Accepted an empty cache");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    private static MessageContext createContext(String dn, boolean admin, String... fqans) {
+        MessageContext context = new MapContext();
+
+        if (dn != null) {
+            context.setProperty(AuthZConstants.USERDN_RFC2253_LABEL, dn);
+        }
+        context.setProperty(AuthZConstants.IS_ADMIN, Boolean.valueOf(admin));
+
+        final List<String> fqanList = Arrays.asList(fqans);
+        VOMSAttribute attribute = (VOMSAttribute) Proxy.newProxyInstance(VOMSAttribute.class.getClassLoader(),
+                new Class<?>[] { VOMSAttribute.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getFQANs".equals(method.getName())) {
+                            return fqanList;
+                        }
+                        return null;
+                    }
+                });
+
+        List<VOMSAttribute> attributes = new ArrayList<VOMSAttribute>(1);
+        attributes.add(attribute);
+        context.setProperty(AuthZConstants.USER_VOMSATTRS_LABEL, attributes);
+
+        return context;
+    }
+
+    private static class CountingBox
+        implements ServiceAuthorizationInterface {
+
+        boolean permitted;
+
+        AuthorizationException failure = null;
+
+        String setName = null;
+
+        Object setValue = null;
+
+        String removeName = null;
+
+        Runnable action = null;
+
+        int count = 0;
+
+        CountingBox(boolean permitted) {
+            this.permitted = permitted;
+        }
+
+        public boolean isPermitted(Subject peerSubject, MessageContext context, QName operation)
+            throws AuthorizationException {
+
+            count++;
+
+            if (action != null) {
+                action.run();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (setName != null) {
+                context.setProperty(setName, setValue);
+            }
+            if (removeName != null) {
+                context.removeProperty(removeName);
+            }
+
+            return permitted;
+        }
+    }
+
+    private static class MapContext
+        extends HashMap<String, Object>
+        implements MessageContext {
+
+        private static final long serialVersionUID = 1L;
+
+        public boolean containsProperty(String name) {
+            return containsKey(name);
+        }
+
+        public Object getProperty(String name) {
+            return get(name);
+        }
+
+        public Iterator<String> getPropertyNames() {
+            return keySet().iterator();
+        }
+
+        public void removeProperty(String name) {
+            remove(name);
+        }
+
+        public void setProperty(String name, Object value) {
+            put(name, value);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.authz.FQANMatcher;
+import org.glite.ce.commonj.authz.FQANPattern;
+
+public class TestFQANMatcher
+    extends TestCase {
+
+    public TestFQANMatcher(String name) {
+        super(name);
+    }
+
+    public void testLiteral()
+        throws Exception {
+
+        FQANMatcher matcher = createMatcher("/atlas", "/atlas/prod/Role=production");
+
+        assertMatch(matcher, "/atlas", "/atlas");
+        assertMatch(matcher, "/atlas", "/atlas/");
+        assertMatch(matcher, "/atlas/prod/Role=production", "/atlas/prod/Role=production");
+        assertNoMatch(matcher, "/atlas/prod");
+        assertNoMatch(matcher, "/atlas/Role=production");
+        assertNoMatch(matcher, "/atlasx");
+        assertNoMatch(matcher, "/cms");
+    }
+
+    public void testWildcards()
+        throws Exception {
+
+        FQANMatcher matcher = createMatcher("/cms/*", "/lhcb/?rod", "/dteam/Role=*", "/alice/*/Role=lcg*");
+
+        assertMatch(matcher, "/cms/*", "/cms/user");
+        assertMatch(matcher, "/cms/*", "/cms/user/analysis");
+        assertNoMatch(matcher, "/cms");
+
+        assertMatch(matcher, "/lhcb/?rod", "/lhcb/prod");
+        assertNoMatch(matcher, "/lhcb/rod");
+        assertNoMatch(matcher, "/lhcb/xprod");
+
+        assertMatch(matcher, "/dteam/Role=*", "/dteam/Role=production");
+        assertNoMatch(matcher, "/dteam");
+        assertNoMatch(matcher, "/dteam/test/Role=production");
+
+        assertMatch(matcher, "/alice/*/Role=lcg*", "/alice/sgm/Role=lcgadmin");
+        assertNoMatch(matcher, "/alice/sgm/Role=admin");
+
+        assertTrue(matcher.getStateCount() > 0);
+    }
+
+    /*
+     * The '.' of a pattern matches any character, as in the regular
+     * expression of FQANPattern
+     */
+    public void testDotWildcard()
+        throws Exception {
+
+        FQANMatcher matcher = createMatcher("/vo.example.org");
+
+        assertMatch(matcher, "/vo.example.org", "/vo.example.org");
+        assertMatch(matcher, "/vo.example.org", "/voXexampleYorg");
+        assertNoMatch(matcher, "/vo.example.org/group");
+        assertNoMatch(matcher, "/vo..example.org");
+    }
+
+    public void testRegex()
+        throws Exception {
+
+        FQANMatcher matcher = createMatcher("/(atlas|cms)/prod", "/vo[0-9]+");
+
+        assertMatch(matcher, "/(atlas|cms)/prod", "/atlas/prod");
+        assertMatch(matcher, "/(atlas|cms)/prod", "/cms/prod");
+        assertNoMatch(matcher, "/lhcb/prod");
+
+        assertMatch(matcher, "/vo[0-9]+", "/vo12");
+        assertNoMatch(matcher, "/vo");
+        assertNoMatch(matcher, "/vo1/Role=admin");
+    }
+
+    /*
+     * A pattern without role matches only the FQANs without role and vice
+     * versa
+     */
+    public void testRole()
+        throws Exception {
+
+        FQANMatcher matcher = createMatcher("/cms/*", "/atlas/Role=admin");
+
+        assertNoMatch(matcher, "/cms/user/Role=lcgadmin");
+        assertMatch(matcher, "/cms/*", "/cms/user/Role=NULL");
+        assertNoMatch(matcher, "/atlas");
+        assertMatch(matcher, "/atlas/Role=admin", "/atlas/Role=admin");
+    }
+
+    /*
+     * "/Role=NULL" and the capability are removed from both the patterns and
+     * the FQANs
+     */
+    public void testCanonicalization()
+        throws Exception {
+
+        FQANMatcher matcher = createMatcher("/atlas/Role=NULL", "/cms/Role=prod/Capability=NULL", "/atlas/");
+        assertEquals(2, matcher.size());
+
+        assertMatch(matcher, "/atlas", "/atlas");
+        assertMatch(matcher, "/atlas", "/atlas/Role=NULL/Capability=NULL");
+        assertMatch(matcher, "/atlas", "  /atlas/Role=NULL  ");
+        assertMatch(matcher, "/cms/Role=prod", "/cms/Role=prod");
+        assertMatch(matcher, "/cms/Role=prod", "/cms/Role=prod/Capability=NULL");
+    }
+
+    public void testMalformed()
+        throws Exception {
+
+        FQANMatcher matcher = createMatcher("/atlas", "/cms/*");
+
+        String[] malformed = { "atlas", "/", "", "/vo=atlas/group" };
+        for (String fqan : malformed) {
+            try {
+                matcher.match(fqan);
+                fail("Accepted the malformed FQAN \"" + fqan + "\"");
+            } catch (IllegalArgumentException ex) {
+            }
+        }
+
+        try {
+            new FQANPattern("atlas");
+            fail("Accepted a malformed pattern");
+        } catch (IllegalArgumentException ex) {
+        }
+
+        /*
+         * An empty index does not check the FQAN
+         */
+        FQANMatcher empty = new FQANMatcher(new ArrayList<FQANPattern>());
+        assertEquals(0, empty.size());
+        assertNull(empty.match("atlas"));
+    }
+
+    /*
+     * The index agrees with the loop over the patterns
+     */
+    public void testAgreement()
+        throws Exception {
+
+        String[] patternStrs = { "/atlas", "/atlas/*", "/cms/?ser", "/cms/user/Role=*", "/lhcb/a.c", "/(dteam|ops)/test",
+                "/alice/*/Role=prod*", "/vo[12]/Role=admin" };
+        String[] fqans = { "/atlas", "/atlas/prod", "/atlas/Role=prod", "/cms/user", "/cms/users", "/cms/user/Role=x",
+                "/lhcb/abc", "/lhcb/ac", "/dteam/test", "/ops/test/Role=NULL", "/alice/x/y/Role=production",
+                "/alice/Role=prod", "/vo1/Role=admin", "/vo3/Role=admin", "/other" };
+
+        List<FQANPattern> patterns = new ArrayList<FQANPattern>();
+        for (String str : patternStrs) {
+            patterns.add(new FQANPattern(str));
+        }
+        FQANMatcher matcher = new FQANMatcher(patterns);
+
+        for (int round = 0; round < 2; round++) {
+            for (String fqan : fqans) {
+                boolean expected = false;
+                for (FQANPattern pattern : patterns) {
+                    expected |= pattern.matches(fqan);
+                }
+
+                FQANPattern found = matcher.match(fqan);
+                assertEquals("Wrong result for " + fqan, expected, found != null);
+                if (found != null) {
+                    assertTrue("Wrong pattern for " + fqan, found.matches(fqan));
+                }
+            }
+        }
+    }
+
+    private FQANMatcher createMatcher(String... patternStrs) {
+        List<FQANPattern> patterns = new ArrayList<FQANPattern>();
+        for (String str : patternStrs) {
+            patterns.add(new FQANPattern(str));
+        }
+        return new FQANMatcher(patterns);
+    }
+
+    private void assertMatch(FQANMatcher matcher, String pattern, String fqan) {
+        FQANPattern found = matcher.match(fqan);
+        assertNotNull("No pattern found for " + fqan, found);
+        assertEquals("Wrong pattern for " + fqan, pattern, found.toString());
+    }
+
+    private void assertNoMatch(FQANMatcher matcher, String fqan) {
+        FQANPattern found = matcher.match(fqan);
+        assertNull("Unexpected pattern " + found + " for " + fqan, found);
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.authz.AuthorizationException;
+import org.glite.ce.commonj.authz.gjaf.GlexecExecutor;
+
+public class TestGlexecExecutor
+    extends TestCase {
+
+    private static final String[] ENVP = new String[] { "PATH=/bin:/usr/bin" };
+
+    public TestGlexecExecutor(String name) {
+        super(name);
+    }
+
+    public void testResult()
+        throws Exception {
+
+        GlexecExecutor executor = new GlexecExecutor(2, 2, 10000);
+
+        GlexecExecutor.Result result = executor.execute(shell("echo out; echo err >&2; exit 3"), ENVP);
+        assertEquals(3, result.getExitCode());
+        assertEquals("out\n", result.getStdout());
+        assertEquals("err\n", result.getStderr());
+
+        result = executor.execute(shell("true"), ENVP);
+        assertEquals(0, result.getExitCode());
+
+        assertEquals(2, executor.getExecutionCount());
+        assertEquals(0, executor.getRejectedCount());
+        assertEquals(0, executor.getTimeoutCount());
+        assertEquals(0, executor.getRunningCount());
+        assertEquals(0, executor.getQueueDepth());
+        assertTrue(executor.getMaxLatency() >= executor.getAverageLatency());
+    }
+
+    public void testConcurrencyCap()
+        throws Exception {
+
+        GlexecExecutor executor = new GlexecExecutor(2, 10, 10000);
+
+        Caller[] callers = new Caller[5];
+        for (int k = 0; k < callers.length; k++) {
+            callers[k] = new Caller(executor, "sleep 0.5");
+        }
+
+        int maxRunning = runAll(executor, callers);
+
+        assertEquals(2, maxRunning);
+        for (Caller caller : callers) {
+            assertNull(caller.error);
+            assertEquals(0, caller.result.getExitCode());
+        }
+        assertEquals(5, executor.getExecutionCount());
+        assertEquals(0, executor.getRejectedCount());
+    }
+
+    public void testQueueLimit()
+        throws Exception {
+
+        GlexecExecutor executor = new GlexecExecutor(1, 1, 10000);
+
+        Caller running = new Caller(executor, "sleep 1");
+        running.start();
+        waitFor(executor, 1, 0);
+
+        Caller queued = new Caller(executor, "true");
+        queued.start();
+        waitFor(executor, 1, 1);
+
+        /*
+         * Neither a slot nor room in the queue: rejected without waiting
+         */
+        long start = System.currentTimeMillis();
+        try {
+            executor.execute(shell("true"), ENVP);
+            fail("Call not rejected");
+        } catch (AuthorizationException ex) {
+        }
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertEquals(1, executor.getRejectedCount());
+
+        running.join(5000);
+        queued.join(5000);
+        assertNull(running.error);
+        assertNull(queued.error);
+        assertEquals(2, executor.getExecutionCount());
+    }
+
+    public void testDeadline()
+        throws Exception {
+
+        GlexecExecutor executor = new GlexecExecutor(1, 0, 500);
+
+        long start = System.currentTimeMillis();
+        try {
+            executor.execute(shell("exec sleep 10"), ENVP);
+            fail("Process not killed");
+        } catch (AuthorizationException ex) {
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, executor.getTimeoutCount());
+        assertEquals(0, executor.getRunningCount());
+    }
+
+    public void testOutputTruncation()
+        throws Exception {
+
+        GlexecExecutor executor = new GlexecExecutor(1, 0, 10000);
+
+        GlexecExecutor.Result result = executor.execute(shell("head -c 200000 /dev/zero | tr '\\0' x"), ENVP);
+        assertEquals(0, result.getExitCode());
+        assertEquals(65536, result.getStdout().length());
+    }
+
+    public void testResize()
+        throws Exception {
+
+        GlexecExecutor executor = new GlexecExecutor(3, 10, 10000);
+
+        Caller[] callers = new Caller[3];
+        for (int k = 0; k < callers.length; k++) {
+            callers[k] = new Caller(executor, "sleep 1");
+            callers[k].start();
+        }
+        waitFor(executor, 3, 0);
+
+        /*
+         * The running processes keep their slots: no new process starts
+         * until they are fewer than the new limit
+         */
+        executor.configure(1, 10, 10000);
+        assertEquals(1, executor.getMaxProcesses());
+
+        Caller[] others = new Caller[2];
+        for (int k = 0; k < others.length; k++) {
+            others[k] = new Caller(executor, "sleep 0.3");
+        }
+        int maxRunning = runAll(executor, others);
+        assertEquals(3, maxRunning);
+
+        for (Caller caller : callers) {
+            caller.join(5000);
+        }
+        assertEquals(5, executor.getExecutionCount());
+
+        /*
+         * Growing the limit frees new slots
+         */
+        executor.configure(2, 10, 10000);
+        others = new Caller[4];
+        for (int k = 0; k < others.length; k++) {
+            others[k] = new Caller(executor, "sleep 0.3");
+        }
+        assertEquals(2, runAll(executor, others));
+
+        try {
+            executor.configure(0, 10, 10000);
+            fail("Accepted no process");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    /*
+     * Starts the callers, waits for them and returns the max number of
+     * processes seen running at the same time.
+     */
+    private static int runAll(GlexecExecutor executor, Caller[] callers)
+        throws Exception {
+
+        for (Caller caller : callers) {
+            caller.start();
+        }
+
+        int maxRunning = 0;
+        boolean alive = true;
+        while (alive) {
+            maxRunning = Math.max(maxRunning, executor.getRunningCount());
+            Thread.sleep(10);
+
+            alive = false;
+            for (Caller caller : callers) {
+                alive = alive || caller.isAlive();
+            }
+        }
+
+        return maxRunning;
+    }
+
+    private static void waitFor(GlexecExecutor executor, int running, int queued)
+        throws Exception {
+
+        for (int k = 0; k < 500; k++) {
+            if (executor.getRunningCount() == running && executor.getQueueDepth() == queued) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("Executor state not reached: " + executor);
+    }
+
+    private static String[] shell(String command) {
+        return new String[] { "/bin/sh", "-c", command };
+    }
+
+    private static class Caller
+        extends Thread {
+
+        private static final AtomicInteger counter = new AtomicInteger(0);
+
+        private final GlexecExecutor executor;
+
+        private final String command;
+
+        volatile GlexecExecutor.Result result = null;
+
+        volatile AuthorizationException error = null;
+
+        Caller(GlexecExecutor executor, String command) {
+            super("Caller-" + counter.incrementAndGet());
+            this.executor = executor;
+            this.command = command;
+        }
+
+        public void run() {
+            try {
+                result = executor.execute(shell(command), ENVP);
+            } catch (AuthorizationException ex) {
+                error = ex;
+            }
+        }
+    }
+}
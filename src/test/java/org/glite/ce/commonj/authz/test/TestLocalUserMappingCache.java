@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz.test;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.authz.AuthorizationException;
+import org.glite.ce.commonj.authz.gjaf.LocalUserMappingCache;
+
+public class TestLocalUserMappingCache
+    extends TestCase {
+
+    private static final long LONG_TIME = 3600 * 1000L;
+
+    private static final long SHORT_TIME = 300;
+
+    private static final List<String> NO_FQANS = new ArrayList<String>(0);
+
+    public TestLocalUserMappingCache(String name) {
+        super(name);
+    }
+
+    public void testHit()
+        throws Exception {
+
+        LocalUserMappingCache<String> cache = new LocalUserMappingCache<String>(LONG_TIME, 10);
+        CountingLoader loader = new CountingLoader("pool001");
+
+        assertEquals("pool001", cache.get(createChain("user", LONG_TIME), NO_FQANS, loader));
+        assertEquals("pool001", cache.get(createChain("user", LONG_TIME), NO_FQANS, loader));
+        assertEquals(1, loader.count);
+
+        /*
+         * The FQANs are part of the key
+         */
+        cache.get(createChain("user", LONG_TIME), Arrays.asList("/vo"), loader);
+        cache.get(createChain("other", LONG_TIME), NO_FQANS, loader);
+        assertEquals(3, loader.count);
+        assertEquals(3, cache.getSize());
+    }
+
+    public void testCoalescing()
+        throws Exception {
+
+        final LocalUserMappingCache<String> cache = new LocalUserMappingCache<String>(LONG_TIME, 10);
+        final CountingLoader loader = new CountingLoader("pool001");
+        loader.blocker = new CountDownLatch(1);
+
+        Requester[] requesters = new Requester[4];
+        for (int k = 0; k < requesters.length; k++) {
+            requesters[k] = new Requester(cache, loader);
+            requesters[k].start();
+        }
+
+        assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        loader.blocker.countDown();
+
+        for (Requester requester : requesters) {
+            requester.join(5000);
+            assertEquals("pool001", requester.result);
+        }
+        assertEquals(1, loader.count);
+    }
+
+    public void testCoalescedFailure()
+        throws Exception {
+
+        final LocalUserMappingCache<String> cache = new LocalUserMappingCache<String>(LONG_TIME, 10);
+        final CountingLoader loader = new CountingLoader("pool001");
+        loader.blocker = new CountDownLatch(1);
+        loader.failure = new AuthorizationException("glexec error");
+
+        Requester[] requesters = new Requester[4];
+        for (int k = 0; k < requesters.length; k++) {
+            requesters[k] = new Requester(cache, loader);
+            requesters[k].start();
+        }
+
+        assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        loader.blocker.countDown();
+
+        for (Requester requester : requesters) {
+            requester.join(5000);
+            assertNull(requester.result);
+            assertNotNull(requester.error);
+        }
+        assertEquals(1, loader.count);
+
+        /*
+         * The failure is not cached
+         */
+        loader.blocker = null;
+        loader.failure = null;
+        assertEquals("pool001", cache.get(createChain("user", LONG_TIME), NO_FQANS, loader));
+        assertEquals(2, loader.count);
+    }
+
+    public void testFailure()
+        throws Exception {
+
+        LocalUserMappingCache<String> cache = new LocalUserMappingCache<String>(LONG_TIME, 10);
+        CountingLoader loader = new CountingLoader("pool001");
+        loader.failure = new AuthorizationException("glexec error");
+
+        for (int k = 0; k < 2; k++) {
+            try {
+                cache.get(createChain("user", LONG_TIME), NO_FQANS, loader);
+                fail("Failure not propagated");
+            } catch (AuthorizationException ex) {
+                assertSame(loader.failure, ex);
+            }
+        }
+
+        assertEquals(2, loader.count);
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testNotCacheable()
+        throws Exception {
+
+        LocalUserMappingCache<String> cache = new LocalUserMappingCache<String>(LONG_TIME, 10);
+
+        /*
+         * A mapping without the user id
+         */
+        CountingLoader loader = new CountingLoader(null);
+
+        assertNull(cache.get(createChain("user", LONG_TIME), NO_FQANS, loader));
+        assertNull(cache.get(createChain("user", LONG_TIME), NO_FQANS, loader));
+        assertEquals(2, loader.count);
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testTTLExpiration()
+        throws Exception {
+
+        LocalUserMappingCache<String> cache = new LocalUserMappingCache<String>(SHORT_TIME, 10);
+        assertExpiration(cache, createChain("user", LONG_TIME));
+    }
+
+    public void testChainExpiration()
+        throws Exception {
+
+        LocalUserMappingCache<String> cache = new LocalUserMappingCache<String>(LONG_TIME, 10);
+
+        /*
+         * The proxy expires before the end-entity certificate
+         */
+        X509Certificate[] chain = new X509Certificate[] {
+                new FakeCertificate("user", System.currentTimeMillis() + LONG_TIME),
+                new FakeCertificate("proxy", System.currentTimeMillis() + SHORT_TIME) };
+        assertExpiration(cache, chain);
+    }
+
+    public void testPurge()
+        throws Exception {
+
+        LocalUserMappingCache<String> cache = new LocalUserMappingCache<String>(10 * LONG_TIME, 2);
+        CountingLoader loader = new CountingLoader("pool001");
+
+        cache.get(createChain("first", LONG_TIME), NO_FQANS, loader);
+        cache.get(createChain("second", 2 * LONG_TIME), NO_FQANS, loader);
+        cache.get(createChain("expired", SHORT_TIME), NO_FQANS, loader);
+        assertEquals(3, loader.count);
+
+        /*
+         * The mapping expiring first is removed: the others are still cached
+         */
+        assertEquals(2, cache.getSize());
+        cache.get(createChain("first", LONG_TIME), NO_FQANS, loader);
+        cache.get(createChain("second", 2 * LONG_TIME), NO_FQANS, loader);
+        assertEquals(3, loader.count);
+
+        /*
+         * A new mapping is removed as well if it expires first
+         */
+        cache.get(createChain("third", SHORT_TIME), NO_FQANS, loader);
+        assertEquals(2, cache.getSize());
+        cache.get(createChain("first", LONG_TIME), NO_FQANS, loader);
+        assertEquals(4, loader.count);
+
+        cache.get(createChain("fourth", 3 * LONG_TIME), NO_FQANS, loader);
+        assertEquals(2, cache.getSize());
+        cache.get(createChain("second", 2 * LONG_TIME), NO_FQANS, loader);
+        cache.get(createChain("fourth", 3 * LONG_TIME), NO_FQANS, loader);
+        assertEquals(5, loader.count);
+    }
+
+    public void testDisabled()
+        throws Exception {
+
+        LocalUserMappingCache<String> cache = new LocalUserMappingCache<String>(LONG_TIME, 0);
+        CountingLoader loader = new CountingLoader("pool001");
+
+        cache.get(createChain("user", LONG_TIME), NO_FQANS, loader);
+        cache.get(createChain("user", LONG_TIME), NO_FQANS, loader);
+        assertEquals(2, loader.count);
+        assertEquals(0, cache.getSize());
+
+        cache.setMaxSize(10);
+        cache.setTTL(0);
+        cache.get(createChain("user", LONG_TIME), NO_FQANS, loader);
+        assertEquals(0, cache.getSize());
+    }
+
+    private static void assertExpiration(LocalUserMappingCache<String> cache, X509Certificate[] chain)
+        throws Exception {
+
+        CountingLoader loader = new CountingLoader("pool001");
+
+        cache.get(chain, NO_FQANS, loader);
+        cache.get(chain, NO_FQANS, loader);
+        assertEquals(1, loader.count);
+
+        Thread.sleep(SHORT_TIME + 200);
+        cache.get(chain, NO_FQANS, loader);
+        assertEquals(2, loader.count);
+    }
+
+    private static X509Certificate[] createChain(String name, long validity) {
+        return new X509Certificate[] { new FakeCertificate(name, System.currentTimeMillis() + validity),
+                new FakeCertificate(name + "-proxy", System.currentTimeMillis() + validity) };
+    }
+
+    private static class CountingLoader
+        implements LocalUserMappingCache.Loader<String> {
+
+        final String uid;
+
+        final CountDownLatch started = new CountDownLatch(1);
+
+        volatile CountDownLatch blocker = null;
+
+        volatile AuthorizationException failure = null;
+
+        volatile int count = 0;
+
+        CountingLoader(String uid) {
+            this.uid = uid;
+        }
+
+        public synchronized String load()
+            throws AuthorizationException {
+
+            count++;
+            started.countDown();
+
+            if (blocker != null) {
+                try {
+                    blocker.await();
+                } catch (InterruptedException intEx) {
+                    throw new AuthorizationException("interrupted");
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return uid;
+        }
+
+        public boolean isCacheable(String value) {
+            return value != null;
+        }
+    }
+
+    private static class Requester
+        extends Thread {
+
+        private final LocalUserMappingCache<String> cache;
+
+        private final CountingLoader loader;
+
+        volatile String result = null;
+
+        volatile AuthorizationException error = null;
+
+        Requester(LocalUserMappingCache<String> cache, CountingLoader loader) {
+            this.cache = cache;
+            this.loader = loader;
+        }
+
+        public void run() {
+            try {
+                result = cache.get(createChain("user", LONG_TIME), NO_FQANS, loader);
+            } catch (AuthorizationException ex) {
+                error = ex;
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.authz.VOMSValidationCache;
+import org.italiangrid.voms.VOMSAttribute;
+
+public class TestVOMSValidationCache
+    extends TestCase {
+
+    private static final long LONG_TIME = 12 * 3600 * 1000L;
+
+    private static final long SHORT_TIME = 300;
+
+    public TestVOMSValidationCache(String name) {
+        super(name);
+    }
+
+    public void testHit()
+        throws Exception {
+
+        VOMSValidationCache cache = new VOMSValidationCache(10, LONG_TIME);
+        X509Certificate[] chain = createChain("user", LONG_TIME);
+        List<VOMSAttribute> attributes = createAttributes(LONG_TIME);
+
+        assertNull(cache.get(chain));
+        assertEquals(attributes, cache.put(chain, attributes, 0));
+        assertEquals(attributes, cache.get(chain));
+
+        /*
+         * The key is the content of the chain, not the array
+         */
+        assertEquals(attributes, cache.get(createChain("user", LONG_TIME)));
+        assertNull(cache.get(createChain("other", LONG_TIME)));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testTTLExpiration()
+        throws Exception {
+
+        VOMSValidationCache cache = new VOMSValidationCache(10, SHORT_TIME);
+        assertExpiration(cache, createChain("user", LONG_TIME), createAttributes(LONG_TIME), 0);
+    }
+
+    public void testDeadlineExpiration()
+        throws Exception {
+
+        VOMSValidationCache cache = new VOMSValidationCache(10, LONG_TIME);
+        long deadline = System.currentTimeMillis() + SHORT_TIME;
+        assertExpiration(cache, createChain("user", LONG_TIME), createAttributes(LONG_TIME), deadline);
+    }
+
+    public void testChainExpiration()
+        throws Exception {
+
+        VOMSValidationCache cache = new VOMSValidationCache(10, LONG_TIME);
+
+        /*
+         * The proxy expires before the end-entity certificate
+         */
+        X509Certificate[] chain = new X509Certificate[] {
+                new FakeCertificate("user", System.currentTimeMillis() + LONG_TIME),
+                new FakeCertificate("proxy", System.currentTimeMillis() + SHORT_TIME) };
+        assertExpiration(cache, chain, createAttributes(LONG_TIME), 0);
+    }
+
+    public void testAttributeExpiration()
+        throws Exception {
+
+        VOMSValidationCache cache = new VOMSValidationCache(10, LONG_TIME);
+        List<VOMSAttribute> attributes = createAttributes(LONG_TIME);
+        attributes.addAll(createAttributes(SHORT_TIME));
+        assertExpiration(cache, createChain("user", LONG_TIME), attributes, 0);
+    }
+
+    public void testAlreadyExpired()
+        throws Exception {
+
+        VOMSValidationCache cache = new VOMSValidationCache(10, LONG_TIME);
+        X509Certificate[] chain = createChain("user", LONG_TIME);
+
+        cache.put(chain, createAttributes(-1000), 0);
+        assertEquals(0, cache.getSize());
+
+        cache.put(chain, createAttributes(LONG_TIME), System.currentTimeMillis() - 1000);
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testEviction()
+        throws Exception {
+
+        VOMSValidationCache cache = new VOMSValidationCache(2, LONG_TIME);
+        X509Certificate[] first = createChain("first", LONG_TIME);
+        X509Certificate[] second = createChain("second", LONG_TIME);
+        X509Certificate[] third = createChain("third", LONG_TIME);
+
+        cache.put(first, createAttributes(LONG_TIME), 0);
+        cache.put(second, createAttributes(LONG_TIME), 0);
+
+        /*
+         * The first chain becomes the most recently used: the second one is
+         * evicted
+         */
+        assertNotNull(cache.get(first));
+        cache.put(third, createAttributes(LONG_TIME), 0);
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertNotNull(cache.get(third));
+    }
+
+    public void testDisabled()
+        throws Exception {
+
+        VOMSValidationCache cache = new VOMSValidationCache(10, LONG_TIME);
+        X509Certificate[] chain = createChain("user", LONG_TIME);
+        List<VOMSAttribute> attributes = createAttributes(LONG_TIME);
+
+        cache.put(chain, attributes, 0);
+        assertEquals(1, cache.getSize());
+
+        cache.setMaxSize(0);
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get(chain));
+
+        assertEquals(attributes, cache.put(chain, attributes, 0));
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get(chain));
+
+        try {
+            cache.setMaxSize(-1);
+            fail("Accepted a negative size");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    public void testValidation()
+        throws Exception {
+
+        VOMSValidationCache cache = new VOMSValidationCache(10, LONG_TIME);
+        X509Certificate[] chain = createChain("user", LONG_TIME);
+        CountingValidation validation = new CountingValidation(createAttributes(LONG_TIME));
+
+        /*
+         * A validation with errors is never stored
+         */
+        validation.errors = true;
+        assertEquals(validation.attributes, cache.get(chain, validation, 0));
+        assertEquals(validation.attributes, cache.get(chain, validation, 0));
+        assertEquals(2, validation.count);
+        assertEquals(0, cache.getSize());
+
+        validation.errors = false;
+        assertEquals(validation.attributes, cache.get(chain, validation, 0));
+        assertEquals(validation.attributes, cache.get(chain, validation, 0));
+        assertEquals(3, validation.count);
+        assertEquals(1, cache.getSize());
+
+        /*
+         * The deadline is applied to the validated attributes
+         */
+        X509Certificate[] other = createChain("other", LONG_TIME);
+        cache.get(other, validation, System.currentTimeMillis() + SHORT_TIME);
+        assertEquals(4, validation.count);
+        Thread.sleep(SHORT_TIME + 200);
+        cache.get(other, validation, 0);
+        assertEquals(5, validation.count);
+    }
+
+    private static void assertExpiration(VOMSValidationCache cache, X509Certificate[] chain,
+            List<VOMSAttribute> attributes, long deadline)
+        throws Exception {
+
+        cache.put(chain, attributes, deadline);
+        assertNotNull(cache.get(chain));
+
+        Thread.sleep(SHORT_TIME + 200);
+        assertNull(cache.get(chain));
+        assertEquals(1, cache.getExpiredCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    private static X509Certificate[] createChain(String name, long validity) {
+        return new X509Certificate[] { new FakeCertificate(name, System.currentTimeMillis() + validity),
+                new FakeCertificate(name + "-proxy", System.currentTimeMillis() + validity) };
+    }
+
+    private static List<VOMSAttribute> createAttributes(long validity) {
+        final Date notAfter = new Date(System.currentTimeMillis() + validity);
+
+        VOMSAttribute attribute = (VOMSAttribute) Proxy.newProxyInstance(VOMSAttribute.class.getClassLoader(),
+                new Class<?>[] { VOMSAttribute.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getNotAfter".equals(method.getName())) {
+                            return notAfter;
+                        }
+                        if ("getVO".equals(method.getName())) {
+                            return "test";
+                        }
+                        if ("hashCode".equals(method.getName())) {
+                            return System.identityHashCode(proxy);
+                        }
+                        if ("equals".equals(method.getName())) {
+                            return proxy == args[0];
+                        }
+                        return null;
+                    }
+                });
+
+        List<VOMSAttribute> result = new ArrayList<VOMSAttribute>(1);
+        result.add(attribute);
+        return result;
+    }
+
+    private static class CountingValidation
+        implements VOMSValidationCache.Validation {
+
+        List<VOMSAttribute> attributes;
+
+        boolean errors = false;
+
+        int count = 0;
+
+        CountingValidation(List<VOMSAttribute> attributes) {
+            this.attributes = attributes;
+        }
+
+        public List<VOMSAttribute> validate(X509Certificate[] certChain) {
+            count++;
+            return attributes;
+        }
+
+        public boolean hasErrors() {
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.authz.test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Principal;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.glite.ce.commonj.authz.VOMSValidationCache;
+import org.italiangrid.voms.VOMSAttribute;
+
+/**
+ * Measures the per-request latency of the VOMS validation step of the
+ * AuthorizationHandler with and without the VOMSValidationCache. The full
+ * validation is simulated by the verification of one RSA signature for each
+ * certificate of the chain (end-entity, proxy and attribute certificate);
+ * the requests are spread over a set of distinct clients.
+ *
+ * Usage: VOMSValidationCacheBenchmark [requests] [clients]
+ */
+public class VOMSValidationCacheBenchmark {
+
+    private static final int CHAIN_LENGTH = 3;
+
+    public static void main(String[] args)
+        throws Exception {
+
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        Random random = new Random(0);
+        X509Certificate[][] chains = new X509Certificate[clients][];
+        byte[][] signatures = new byte[clients][];
+
+        for (int i = 0; i < clients; i++) {
+            chains[i] = new X509Certificate[CHAIN_LENGTH];
+            for (int k = 0; k < CHAIN_LENGTH; k++) {
+                byte[] encoded = new byte[1500];
+                random.nextBytes(encoded);
+                chains[i][k] = new FakeCertificate(encoded);
+            }
+
+            Signature signer = Signature.getInstance("SHA256withRSA");
+            signer.initSign(keyPair.getPrivate());
+            signer.update(chains[i][0].getEncoded());
+            signatures[i] = signer.sign();
+        }
+
+        VOMSValidationCache cache = new VOMSValidationCache(VOMSValidationCache.DEFAULT_MAX_SIZE,
+                VOMSValidationCache.DEFAULT_TTL);
+
+        /*
+         * warm-up
+         */
+        run("warm-up ", null, chains, signatures, keyPair.getPublic(), requests / 10);
+        run("warm-up ", cache, chains, signatures, keyPair.getPublic(), requests / 10);
+
+        run("no cache", null, chains, signatures, keyPair.getPublic(), requests);
+        cache.clear();
+        run("cache   ", cache, chains, signatures, keyPair.getPublic(), requests);
+
+        System.out.println(cache);
+    }
+
+    private static void run(String label, VOMSValidationCache cache, X509Certificate[][] chains, byte[][] signatures,
+            PublicKey key, int requests)
+        throws Exception {
+
+        long[] latencies = new long[requests];
+
+        for (int i = 0; i < requests; i++) {
+            int client = i % chains.length;
+            long start = System.nanoTime();
+
+            List<VOMSAttribute> attributes = cache == null ? null : cache.get(chains[client]);
+            if (attributes == null) {
+                attributes = validate(chains[client], signatures[client], key);
+                if (cache != null) {
+                    cache.put(chains[client], attributes, 0);
+                }
+            }
+
+            latencies[i] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(latencies);
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+
+        System.out.println(label + ": mean " + (total / requests / 1000) + " us, p50 " + (latencies[requests / 2] / 1000)
+                + " us, p99 " + (latencies[requests * 99 / 100] / 1000) + " us");
+    }
+
+    private static List<VOMSAttribute> validate(X509Certificate[] chain, byte[] signature, PublicKey key)
+        throws Exception {
+
+        for (int k = 0; k < chain.length; k++) {
+            Signature verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(key);
+            verifier.update(chain[0].getEncoded());
+            if (!verifier.verify(signature)) {
+                throw new IllegalStateException("wrong signature");
+            }
+        }
+
+        return new ArrayList<VOMSAttribute>(0);
+    }
+
+    private static class FakeCertificate
+        extends X509Certificate {
+
+        private static final long serialVersionUID = 1L;
+
+        private byte[] encoded;
+
+        private Date notAfter = new Date(System.currentTimeMillis() + 12 * 3600 * 1000L);
+
+        FakeCertificate(byte[] encoded) {
+            this.encoded = encoded;
+        }
+
+        public byte[] getEncoded() {
+            return encoded;
+        }
+
+        public Date getNotAfter() {
+            return notAfter;
+        }
+
+        public Date getNotBefore() {
+            return new Date(0);
+        }
+
+        public void checkValidity() {
+        }
+
+        public void checkValidity(Date date) {
+        }
+
+        public int getVersion() {
+            return 3;
+        }
+
+        public BigInteger getSerialNumber() {
+            return BigInteger.ONE;
+        }
+
+        public Principal getIssuerDN() {
+            return null;
+        }
+
+        public Principal getSubjectDN() {
+            return null;
+        }
+
+        public byte[] getTBSCertificate() {
+            return encoded;
+        }
+
+        public byte[] getSignature() {
+            return null;
+        }
+
+        public String getSigAlgName() {
+            return "SHA256withRSA";
+        }
+
+        public String getSigAlgOID() {
+            return null;
+        }
+
+        public byte[] getSigAlgParams() {
+            return null;
+        }
+
+        public boolean[] getIssuerUniqueID() {
+            return null;
+        }
+
+        public boolean[] getSubjectUniqueID() {
+            return null;
+        }
+
+        public boolean[] getKeyUsage() {
+            return null;
+        }
+
+        public int getBasicConstraints() {
+            return -1;
+        }
+
+        public void verify(PublicKey key) {
+        }
+
+        public void verify(PublicKey key, String sigProvider) {
+        }
+
+        public String toString() {
+            return "FakeCertificate";
+        }
+
+        public PublicKey getPublicKey() {
+            return null;
+        }
+
+        public boolean hasUnsupportedCriticalExtension() {
+            return false;
+        }
+
+        public Set<String> getCriticalExtensionOIDs() {
+            return null;
+        }
+
+        public Set<String> getNonCriticalExtensionOIDs() {
+            return null;
+        }
+
+        public byte[] getExtensionValue(String oid) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.configuration.CommonConfigException;
+import org.glite.ce.commonj.configuration.CommonServiceConfig;
+import org.glite.ce.commonj.configuration.GlobalAttributeListener;
+import org.glite.ce.commonj.configuration.xppm.test.ConfigFile;
+import org.glite.ce.commonj.configuration.xppm.test.LogUtils;
+import org.glite.ce.commonj.configuration.xppm.test.MockElement;
+import org.glite.ce.commonj.configuration.xppm.test.TLAttributes;
+
+public class TestGlobalAttributeListener
+    extends TestCase {
+
+    private static final String CONFIG_LABEL = "test.service.config.file";
+
+    private ConfigFile confFile;
+
+    public TestGlobalAttributeListener(String name) {
+        super(name);
+
+        confFile = new ConfigFile();
+
+        LogUtils.setup();
+    }
+
+    protected void setUp()
+        throws Exception {
+
+        confFile.write(new TLAttributes("id-value", "code-value"), new MockElement[0], false);
+
+        System.setProperty(CONFIG_LABEL, confFile.getFilename());
+        System.setProperty("configuration.manager.watch", "true");
+    }
+
+    protected void tearDown() {
+        System.clearProperty(CONFIG_LABEL);
+        System.clearProperty("configuration.manager.watch");
+        confFile.delete();
+    }
+
+    /*
+     * No attribute getter is called after the registration of the listener
+     */
+    public void testNotificationWithoutGetters()
+        throws Exception {
+
+        TestServiceConfig config = new TestServiceConfig();
+
+        try {
+
+            RecordingListener lsnr = new RecordingListener();
+            config.addGlobalAttributeListener(TLAttributes.ID_LABEL, lsnr);
+
+            Thread.sleep(1000);
+
+            confFile.write(new TLAttributes("new-id-value", "code-value"), new MockElement[0], false);
+
+            String[] change = lsnr.waitForChange(10000);
+            assertNotNull("Missing notification", change);
+            assertEquals(TLAttributes.ID_LABEL, change[0]);
+            assertEquals("id-value", change[1]);
+            assertEquals("new-id-value", change[2]);
+
+        } finally {
+            config.destroy();
+        }
+    }
+
+    public void testUnchangedAttribute()
+        throws Exception {
+
+        TestServiceConfig config = new TestServiceConfig();
+
+        try {
+
+            RecordingListener idLsnr = new RecordingListener();
+            RecordingListener codeLsnr = new RecordingListener();
+            config.addGlobalAttributeListener(TLAttributes.ID_LABEL, idLsnr);
+            config.addGlobalAttributeListener(TLAttributes.CODE_LABEL, codeLsnr);
+
+            Thread.sleep(1000);
+
+            confFile.write(new TLAttributes("new-id-value", "code-value"), new MockElement[0], false);
+
+            assertNotNull("Missing notification", idLsnr.waitForChange(10000));
+            assertNull("Unexpected notification", codeLsnr.waitForChange(1000));
+            assertEquals("new-id-value", config.getGlobalAttributeAsString(TLAttributes.ID_LABEL));
+
+        } finally {
+            config.destroy();
+        }
+    }
+
+    private static class TestServiceConfig
+        extends CommonServiceConfig {
+
+        TestServiceConfig() throws CommonConfigException {
+            super();
+        }
+
+        protected String getSysPropertyName() {
+            return CONFIG_LABEL;
+        }
+    }
+
+    private static class RecordingListener
+        implements GlobalAttributeListener {
+
+        private List<String[]> changes = new ArrayList<String[]>();
+
+        public synchronized void attributeChanged(String name, String oldValue, String newValue) {
+            changes.add(new String[] { name, oldValue, newValue });
+            notifyAll();
+        }
+
+        public synchronized String[] waitForChange(long timeout)
+            throws InterruptedException {
+
+            long deadline = System.currentTimeMillis() + timeout;
+            long remaining = timeout;
+            while (changes.isEmpty() && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return changes.isEmpty() ? null : changes.remove(0);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.xppm.test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.glite.ce.commonj.configuration.xppm.ConfigurationManager;
+
+/**
+ * Compares the parse time and the allocated memory of the DOM/XPath engine and
+ * of the streaming engine of the ConfigurationManager. The configuration file
+ * contains the sections of the test handlers and a large amount of unrelated
+ * elements.
+ *
+ * Usage: ConfigurationParserBenchmark [sections] [fillers] [iterations]
+ */
+public class ConfigurationParserBenchmark {
+
+    private static final String STREAMING_LABEL = "configuration.manager.streaming";
+
+    public static void main(String[] args)
+        throws Exception {
+
+        int sections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int fillers = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        File confFile = File.createTempFile("benchconfig", ".xml");
+        confFile.deleteOnExit();
+        writeConfig(confFile, sections, fillers);
+
+        System.out.println("Configuration file: " + confFile.length() + " bytes");
+
+        for (String mode : new String[] { "false", "true", "false", "true" }) {
+            System.setProperty(STREAMING_LABEL, mode);
+            run(confFile, mode.equals("true") ? "streaming" : "dom", iterations);
+        }
+
+        System.clearProperty(STREAMING_LABEL);
+    }
+
+    private static void run(File confFile, String label, int iterations)
+        throws Exception {
+
+        ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean sunBean = null;
+        if (mxBean instanceof com.sun.management.ThreadMXBean) {
+            sunBean = (com.sun.management.ThreadMXBean) mxBean;
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = sunBean != null ? sunBean.getThreadAllocatedBytes(threadId) : 0;
+        long start = System.nanoTime();
+
+        for (int k = 0; k < iterations; k++) {
+            ConfigurationManager cMan = new ConfigurationManager(confFile.getAbsolutePath());
+            if (cMan.getConfigurationElements(SimpleElement.class).length == 0) {
+                throw new IllegalStateException("Missing simple elements");
+            }
+            cMan.shutdown();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        String allocStr = "n/a";
+        if (sunBean != null) {
+            allocStr = Long.toString((sunBean.getThreadAllocatedBytes(threadId) - allocated) / iterations / 1024)
+                    + " KB/op";
+        }
+
+        System.out.println(label + ": " + (elapsed / iterations / 1000) + " us/op, " + allocStr);
+    }
+
+    private static void writeConfig(File confFile, int sections, int fillers)
+        throws Exception {
+
+        PrintWriter writer = new PrintWriter(confFile);
+        writer.println("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>");
+        writer.print("<service name=\"benchservice\" ");
+        writer.print(new TLAttributes("id-value", "code-value").getXMLAttributes());
+        writer.println(">");
+
+        for (int k = 0; k < sections; k++) {
+            writer.println(new SimpleElement("attr" + k, "content" + k).getXMLElement());
+        }
+
+        for (int k = 0; k < fillers; k++) {
+            writer.print("<filler index=\"" + k + "\"><item name=\"a\" value=\"");
+            writer.print(k);
+            writer.println("\"/><item name=\"b\">some text</item></filler>");
+        }
+
+        writer.println(new FailureElement(false, "failure content").getXMLElement());
+        writer.println("</service>");
+        writer.close();
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.xppm.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactoryConfigurationException;
+
+import org.glite.ce.commonj.configuration.CommonConfigException;
+import org.glite.ce.commonj.configuration.xppm.ConfigurationHandler;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Handlers for the parallel processing tests: the handlers of the sections
+ * "first" and "second" are independent and wait for each other inside the
+ * process method, the handler of the section "dependent" depends on both.
+ * The start and the end of each process method are recorded in the event
+ * list, the document owning the parsed nodes in the document map.
+ */
+public abstract class ParallelConfigHandler
+    extends ConfigurationHandler {
+
+    public static final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    public static final Map<String, Document> documents = Collections
+            .synchronizedMap(new HashMap<String, Document>());
+
+    public static volatile CyclicBarrier barrier = null;
+
+    protected String tag;
+
+    private XPathExpression expr;
+
+    private ParallelElement[] currElements;
+
+    private ParallelElement[] tmpElements;
+
+    protected ParallelConfigHandler(String tag) throws XPathExpressionException, XPathFactoryConfigurationException {
+        this.tag = tag;
+        XPath xpath = ConfigurationHandler.getXPathFactory().newXPath();
+        expr = xpath.compile("/service/" + tag);
+        currElements = null;
+        tmpElements = null;
+    }
+
+    public XPathExpression getXPath() {
+        return expr;
+    }
+
+    public String getStreamingPath() {
+        return "/service/" + tag;
+    }
+
+    protected abstract ParallelElement createElement(String name, String[] items);
+
+    public Object[] getConfigurationElement() {
+        return currElements;
+    }
+
+    public boolean process(NodeList parsedElements)
+        throws CommonConfigException {
+
+        events.add(tag + ":start");
+        if (parsedElements.getLength() > 0) {
+            documents.put(tag, parsedElements.item(0).getOwnerDocument());
+        }
+
+        CyclicBarrier tmpBarrier = barrier;
+        if (tmpBarrier != null && getDependencies() == null) {
+            try {
+                tmpBarrier.await(10, TimeUnit.SECONDS);
+            } catch (Exception ex) {
+                events.add(tag + ":alone");
+                throw new CommonConfigException("Handlers not processed in parallel");
+            }
+        }
+
+        ArrayList<ParallelElement> tmpList = new ArrayList<ParallelElement>();
+
+        for (int k = 0; k < parsedElements.getLength(); k++) {
+            Element pElem = (Element) parsedElements.item(k);
+
+            ArrayList<String> items = new ArrayList<String>();
+            NodeList children = pElem.getChildNodes();
+            for (int j = 0; j < children.getLength(); j++) {
+                Node child = children.item(j);
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    items.add(child.getTextContent());
+                }
+            }
+
+            tmpList.add(createElement(pElem.getAttribute("name"), items.toArray(new String[items.size()])));
+        }
+
+        tmpElements = tmpList.toArray(new ParallelElement[tmpList.size()]);
+
+        events.add(tag + ":end");
+        return true;
+    }
+
+    public boolean processTriggers() {
+        return false;
+    }
+
+    public void commit() {
+        currElements = tmpElements;
+        tmpElements = null;
+    }
+
+    public void rollback() {
+        tmpElements = null;
+    }
+
+    public File[] getTriggers() {
+        return null;
+    }
+
+    public void clean() {
+    }
+
+    public static class First
+        extends ParallelConfigHandler {
+
+        public First() throws XPathExpressionException, XPathFactoryConfigurationException {
+            super("first");
+        }
+
+        public Class<?> getCategory() {
+            return ParallelElement.First.class;
+        }
+
+        protected ParallelElement createElement(String name, String[] items) {
+            return new ParallelElement.First(name, items);
+        }
+    }
+
+    public static class Second
+        extends ParallelConfigHandler {
+
+        public Second() throws XPathExpressionException, XPathFactoryConfigurationException {
+            super("second");
+        }
+
+        public Class<?> getCategory() {
+            return ParallelElement.Second.class;
+        }
+
+        protected ParallelElement createElement(String name, String[] items) {
+            return new ParallelElement.Second(name, items);
+        }
+    }
+
+    public static class Dependent
+        extends ParallelConfigHandler {
+
+        public Dependent() throws XPathExpressionException, XPathFactoryConfigurationException {
+            super("dependent");
+        }
+
+        public Class<?> getCategory() {
+            return ParallelElement.Dependent.class;
+        }
+
+        protected ParallelElement createElement(String name, String[] items) {
+            return new ParallelElement.Dependent(name, items);
+        }
+
+        public Class<?>[] getDependencies() {
+            return new Class<?>[] { ParallelElement.First.class, ParallelElement.Second.class };
+        }
+    }
+}
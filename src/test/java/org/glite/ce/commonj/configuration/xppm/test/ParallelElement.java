@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.xppm.test;
+
+import java.util.Arrays;
+
+public class ParallelElement
+    implements MockElement {
+
+    public String tag;
+
+    public String name;
+
+    public String[] items;
+
+    public ParallelElement(String tag, String name, String[] items) {
+        this.tag = tag;
+        this.name = name;
+        this.items = items;
+    }
+
+    public boolean equals(Object tmpo) {
+        if (tmpo == null || !(tmpo instanceof ParallelElement)) {
+            return false;
+        }
+        ParallelElement pElement = (ParallelElement) tmpo;
+
+        return tag.equals(pElement.tag) && name.equals(pElement.name) && Arrays.equals(items, pElement.items);
+    }
+
+    public int hashCode() {
+        return 31 * (31 * tag.hashCode() + name.hashCode()) + Arrays.hashCode(items);
+    }
+
+    public String getXMLElement() {
+        StringBuffer buff = new StringBuffer("<");
+        buff.append(tag).append(" name=\"").append(name).append("\">");
+        for (String item : items) {
+            buff.append("<item>").append(item).append("</item>");
+        }
+        buff.append("</").append(tag).append(">");
+        return buff.toString();
+    }
+
+    public static class First
+        extends ParallelElement {
+
+        public First(String name, String[] items) {
+            super("first", name, items);
+        }
+    }
+
+    public static class Second
+        extends ParallelElement {
+
+        public Second(String name, String[] items) {
+            super("second", name, items);
+        }
+    }
+
+    public static class Dependent
+        extends ParallelElement {
+
+        public Dependent(String name, String[] items) {
+            super("dependent", name, items);
+        }
+    }
+
+}
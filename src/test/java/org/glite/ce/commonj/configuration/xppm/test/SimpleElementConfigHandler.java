@@ -55,6 +55,10 @@ public class SimpleElementConfigHandler
         return expr;
     }
 
+    public String getStreamingPath() {
+        return XPATH_STRING;
+    }
+
     public Class<?> getCategory() {
         return SimpleElement.class;
     }
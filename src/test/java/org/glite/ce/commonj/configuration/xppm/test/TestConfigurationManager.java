@@ -81,6 +81,79 @@ public class TestConfigurationManager
         }
     }
 
+    public void testDOMParsing()
+        throws Exception {
+
+        System.setProperty("configuration.manager.streaming", "false");
+        try {
+            ConfigurationManager cMan = new ConfigurationManager(confFile.getFilename());
+            Object[] tmpo = cMan.getConfigurationElements(SimpleElement.class);
+            if (tmpo.length > 0) {
+                SimpleElement sElement = (SimpleElement) tmpo[0];
+                assertTrue(sElement.value.equals("myattr") && sElement.content.trim().equals("mycontent"));
+            } else {
+                fail("Missing simple element");
+            }
+
+            tmpo = cMan.getConfigurationElements(TLAttributes.class);
+            assertTrue(tmpo.length > 0 && ((TLAttributes) tmpo[0]).id.equals("id-value"));
+        } finally {
+            System.clearProperty("configuration.manager.streaming");
+        }
+    }
+
+    public void testSnapshotReading()
+        throws Exception {
+
+        ConfigurationManager cMan = new ConfigurationManager(confFile.getFilename());
+        Object[] tmpo1 = cMan.getConfigurationElements(SimpleElement.class);
+        long version = cMan.getConfigurationVersion();
+
+        Object[] tmpo2 = cMan.getConfigurationElements(SimpleElement.class);
+        assertTrue(tmpo1.length > 0 && tmpo1 == tmpo2);
+        assertTrue(cMan.getConfigurationElements(String.class).length == 0);
+
+        Thread.sleep(6000);
+
+        TLAttributes attributes = new TLAttributes("new-id-value", "code-value");
+        MockElement[] elements = new MockElement[2];
+        elements[0] = new SimpleElement("myattr", "mycontent");
+        elements[1] = new FailureElement(false, "failure content");
+        confFile.write(attributes, elements, false);
+
+        Thread.sleep(6000);
+
+        cMan.getConfigurationElements(TLAttributes.class);
+        assertTrue(cMan.getConfigurationVersion() > version);
+    }
+
+    public void testUnchangedSection()
+        throws Exception {
+
+        ConfigurationManager cMan = new ConfigurationManager(confFile.getFilename());
+        Object[] tmpo1 = cMan.getConfigurationElements(SimpleElement.class);
+        if (tmpo1.length == 0) {
+            fail("Missing simple element");
+            return;
+        }
+
+        Thread.sleep(6000);
+
+        TLAttributes attributes = new TLAttributes("new-id-value", "code-value");
+        MockElement[] elements = new MockElement[2];
+        elements[0] = new SimpleElement("myattr", "mycontent");
+        elements[1] = new FailureElement(false, "failure content");
+        confFile.write(attributes, elements, false);
+
+        Thread.sleep(6000);
+
+        TLAttributes attrs = (TLAttributes) cMan.getConfigurationElements(TLAttributes.class)[0];
+        assertTrue(attrs.id.equals("new-id-value"));
+
+        Object[] tmpo2 = cMan.getConfigurationElements(SimpleElement.class);
+        assertTrue(tmpo2.length > 0 && tmpo1[0] == tmpo2[0]);
+    }
+
     public void testAttributeReloading()
         throws Exception {
         ConfigurationManager cMan = new ConfigurationManager(confFile.getFilename());
@@ -18,10 +18,15 @@
 
 package org.glite.ce.commonj.configuration.xppm.test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 import org.apache.log4j.Logger;
 import org.apache.log4j.spi.LoggingEvent;
 import org.glite.ce.commonj.configuration.xppm.ConfigurationEvent;
 import org.glite.ce.commonj.configuration.xppm.ConfigurationListener;
+import org.glite.ce.commonj.configuration.xppm.ConfigurationListenerStats;
 import org.glite.ce.commonj.configuration.xppm.ConfigurationManager;
 
 import junit.framework.TestCase;
@@ -154,6 +159,96 @@ public class TestNotificationManager
         
     }
 
+    public void testSlowListener()
+        throws Exception {
+
+        ConfigurationListener slowListener = new ConfigurationListener() {
+            public void notify(ConfigurationEvent event) {
+                try {
+                    Thread.sleep(3000);
+                } catch (InterruptedException intEx) {
+                }
+            }
+        };
+
+        ConfigurationListener[] lsnrs = { slowListener, listener };
+        ConfigurationManager cMan = new ConfigurationManager(confFile.getFilename(), 3000, lsnrs);
+
+        Thread.sleep(1000);
+
+        try {
+            assertTrue(listener.size() > 0);
+
+            ConfigurationListenerStats[] stats = cMan.getListenerStats();
+            assertTrue(stats.length == 2);
+            assertTrue(stats[0].getListener() == slowListener && stats[0].getPendingEvents() > 0);
+            assertTrue(stats[1].getListener() == listener && stats[1].getPendingEvents() == 0);
+        } finally {
+            cMan.shutdown();
+        }
+    }
+
+    /*
+     * A category created and deleted while the listener is busy produces no
+     * event for that listener
+     */
+    public void testCreatedAndDeletedWhileLagging()
+        throws Exception {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<ConfigurationEvent> received = new ArrayList<ConfigurationEvent>();
+
+        ConfigurationListener slowListener = new ConfigurationListener() {
+            public void notify(ConfigurationEvent event) {
+                try {
+                    release.await();
+                } catch (InterruptedException intEx) {
+                }
+                synchronized (received) {
+                    received.add(event);
+                }
+            }
+        };
+
+        ConfigurationListener[] lsnrs = { slowListener };
+        ConfigurationManager cMan = new ConfigurationManager(confFile.getFilename(), 1000, lsnrs);
+
+        try {
+            Thread.sleep(2000);
+
+            TLAttributes attributes = new TLAttributes("id-value", "code-value");
+            MockElement[] elements = new MockElement[2];
+            elements[0] = new SimpleElement("myattr", "mycontent");
+            elements[1] = new FailureElement(false, "failure content");
+            confFile.write(attributes, elements, false);
+
+            Thread.sleep(3000);
+
+            elements = new MockElement[1];
+            elements[0] = new FailureElement(false, "failure content");
+            confFile.write(attributes, elements, false);
+
+            Thread.sleep(3000);
+
+            ConfigurationListenerStats[] stats = cMan.getListenerStats();
+            assertTrue(stats[0].getCoalescedEvents() > 0);
+
+            release.countDown();
+            Thread.sleep(1000);
+
+            synchronized (received) {
+                assertTrue(received.size() > 0);
+                for (ConfigurationEvent event : received) {
+                    assertTrue("Unexpected event for " + event.getCategory().getName(),
+                            event.getCategory() != SimpleElement.class);
+                }
+            }
+        } finally {
+            release.countDown();
+            cMan.shutdown();
+        }
+    }
+
     public void testShutdown()
         throws Exception {
 
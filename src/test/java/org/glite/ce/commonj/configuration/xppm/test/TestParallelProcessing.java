@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.configuration.xppm.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.configuration.xppm.ConfigurationManager;
+import org.w3c.dom.Document;
+
+public class TestParallelProcessing
+    extends TestCase {
+
+    private static final int ELEMENTS = 300;
+
+    private static final int ITEMS = 5;
+
+    private static final int ROUNDS = 10;
+
+    private ConfigFile confFile = new ConfigFile();
+
+    public TestParallelProcessing(String name) {
+        super(name);
+    }
+
+    protected void setUp()
+        throws Exception {
+        System.setProperty("configuration.manager.threads", "4");
+        ParallelConfigHandler.barrier = new CyclicBarrier(2);
+    }
+
+    protected void tearDown() {
+        System.clearProperty("configuration.manager.threads");
+        System.clearProperty("configuration.manager.streaming");
+        ParallelConfigHandler.barrier = null;
+        confFile.delete();
+    }
+
+    public void testParallelStreaming()
+        throws Exception {
+        runParallel(true);
+    }
+
+    public void testParallelDOM()
+        throws Exception {
+        runParallel(false);
+    }
+
+    /*
+     * The handlers of the sections "first" and "second" are processed at the
+     * same time, the handler of the section "dependent" only after both.
+     */
+    private void runParallel(boolean streaming)
+        throws Exception {
+
+        System.setProperty("configuration.manager.streaming", Boolean.toString(streaming));
+
+        for (int round = 0; round < ROUNDS; round++) {
+
+            ParallelElement[] first = createElements(new ParallelConfigHandler.First(), round);
+            ParallelElement[] second = createElements(new ParallelConfigHandler.Second(), round);
+            ParallelElement[] dependent = createElements(new ParallelConfigHandler.Dependent(), round);
+
+            ArrayList<MockElement> elements = new ArrayList<MockElement>();
+            for (int k = 0; k < ELEMENTS; k++) {
+                elements.add(first[k]);
+                elements.add(second[k]);
+                elements.add(dependent[k]);
+            }
+            confFile.write(new TLAttributes("id-value", "code-value"), elements.toArray(new MockElement[elements
+                    .size()]), false);
+
+            ParallelConfigHandler.events.clear();
+            ParallelConfigHandler.documents.clear();
+            ConfigurationManager cMan = new ConfigurationManager(confFile.getFilename());
+
+            try {
+
+                checkElements(first, cMan.getConfigurationElements(ParallelElement.First.class));
+                checkElements(second, cMan.getConfigurationElements(ParallelElement.Second.class));
+                checkElements(dependent, cMan.getConfigurationElements(ParallelElement.Dependent.class));
+
+                List<String> events = new ArrayList<String>(ParallelConfigHandler.events);
+                int depStart = events.indexOf("dependent:start");
+                assertTrue("Missing events " + events, depStart >= 0);
+                assertTrue("Wrong order " + events, events.indexOf("first:end") < depStart);
+                assertTrue("Wrong order " + events, events.indexOf("second:end") < depStart);
+
+                Document firstDoc = ParallelConfigHandler.documents.get("first");
+                Document secondDoc = ParallelConfigHandler.documents.get("second");
+                Document depDoc = ParallelConfigHandler.documents.get("dependent");
+                assertNotNull("Missing documents", firstDoc);
+                assertTrue("Shared document", firstDoc != secondDoc && firstDoc != depDoc && secondDoc != depDoc);
+
+            } finally {
+                cMan.shutdown();
+            }
+        }
+    }
+
+    private ParallelElement[] createElements(ParallelConfigHandler handler, int round) {
+        ParallelElement[] result = new ParallelElement[ELEMENTS];
+        for (int k = 0; k < ELEMENTS; k++) {
+            String[] items = new String[ITEMS];
+            for (int j = 0; j < ITEMS; j++) {
+                items[j] = handler.tag + "-" + round + "-" + k + "-" + j;
+            }
+            result[k] = handler.createElement(handler.tag + k, items);
+        }
+        return result;
+    }
+
+    private void checkElements(ParallelElement[] expected, Object[] found) {
+        assertEquals("Wrong number of elements", expected.length, found.length);
+        for (int k = 0; k < expected.length; k++) {
+            assertEquals("Wrong element " + k, expected[k], found[k]);
+        }
+    }
+
+}
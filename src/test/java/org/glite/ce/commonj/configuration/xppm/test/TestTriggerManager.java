@@ -166,6 +166,93 @@ public class TestTriggerManager
 
     }
 
+    public void testTriggerWithWatcher()
+        throws Exception {
+
+        String contentStr = "new trigger content";
+
+        System.setProperty("configuration.manager.watch", "true");
+        ConfigurationManager cMan = null;
+
+        try {
+            cMan = new ConfigurationManager(confFile.getFilename());
+
+            Object[] tmpo = cMan.getConfigurationElements(TriggerElement.class);
+
+            Thread.sleep(1000);
+
+            new TriggerElement(triggerFile1, contentStr);
+
+            Thread.sleep(2000);
+
+            tmpo = cMan.getConfigurationElements(TriggerElement.class);
+            if (tmpo.length == 0) {
+                fail("Missing trigger element");
+                return;
+            }
+
+            TriggerElement resElem = (TriggerElement) tmpo[0];
+            assertTrue(resElem.getContent().equals(contentStr));
+
+        } finally {
+            System.clearProperty("configuration.manager.watch");
+            if (cMan != null) {
+                cMan.shutdown();
+            }
+        }
+
+    }
+
+    public void testPollingAfterWatcherFailure()
+        throws Exception {
+
+        String contentStr = "new trigger content";
+
+        System.setProperty("configuration.manager.watch", "true");
+        System.setProperty("configuration.manager.refresh.time", "1");
+        ConfigurationManager cMan = null;
+
+        try {
+            cMan = new ConfigurationManager(confFile.getFilename());
+
+            Object[] tmpo = cMan.getConfigurationElements(TriggerElement.class);
+
+            Thread.sleep(1000);
+
+            boolean found = false;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("ConfigurationWatcher")) {
+                    thread.interrupt();
+                    found = true;
+                }
+            }
+            assertTrue("Missing configuration watcher", found);
+
+            Thread.sleep(500);
+
+            new TriggerElement(triggerFile1, contentStr);
+
+            Thread.sleep(1500);
+
+            tmpo = cMan.getConfigurationElements(TriggerElement.class);
+            if (tmpo.length == 0) {
+                fail("Missing trigger element");
+                return;
+            }
+
+            TriggerElement resElem = (TriggerElement) tmpo[0];
+            assertTrue(resElem.getContent().equals(contentStr));
+
+        } finally {
+            System.clearProperty("configuration.manager.watch");
+            System.clearProperty("configuration.manager.refresh.time");
+            if (cMan != null) {
+                cMan.shutdown();
+            }
+        }
+
+    }
+
     public void testNotificationFromTrigger()
         throws Exception {
 
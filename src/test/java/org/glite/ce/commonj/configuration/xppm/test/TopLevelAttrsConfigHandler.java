@@ -54,6 +54,10 @@ public class TopLevelAttrsConfigHandler
         return expr;
     }
 
+    public String getStreamingPath() {
+        return XPATH_STRING;
+    }
+
     public Class<?> getCategory() {
         return TLAttributes.class;
     }
@@ -57,6 +57,10 @@ public class TriggerElementConfigHandler
         return expr;
     }
 
+    public String getStreamingPath() {
+        return XPATH_STRING;
+    }
+
     public Class<?> getCategory() {
         return TriggerElement.class;
     }
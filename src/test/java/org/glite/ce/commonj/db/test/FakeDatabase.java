@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.db.test;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+/**
+ * In-memory fake of the JDBC objects used by the db package, built with
+ * dynamic proxies: it records the statements prepared and the batches
+ * executed, returns increasing values for "select nextVal('name')" and
+ * increasing generated keys for the statements prepared with
+ * RETURN_GENERATED_KEYS.
+ */
+public class FakeDatabase {
+
+    private static final Pattern NEXTVAL = Pattern.compile("select nextVal\\('(.*)'\\)");
+
+    private final HashMap<String, AtomicLong> sequences = new HashMap<String, AtomicLong>();
+
+    private final AtomicLong generatedKeys = new AtomicLong(0);
+
+    private final List<String> preparedStatements = Collections.synchronizedList(new ArrayList<String>());
+
+    private final List<Object[]> rows = Collections.synchronizedList(new ArrayList<Object[]>());
+
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    private final AtomicInteger openStatements = new AtomicInteger(0);
+
+    private final AtomicInteger openConnections = new AtomicInteger(0);
+
+    private volatile boolean failing = false;
+
+    private volatile boolean closed = false;
+
+    private volatile boolean pooled = false;
+
+    private final List<Connection> idleConnections = Collections.synchronizedList(new ArrayList<Connection>());
+
+    /**
+     * Returns an open connection: a new one, or an idle one if the database
+     * is pooled.
+     */
+    public Connection getConnection() {
+        openConnections.incrementAndGet();
+        synchronized (idleConnections) {
+            if (!idleConnections.isEmpty()) {
+                return idleConnections.remove(idleConnections.size() - 1);
+            }
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new ConnectionHandler());
+    }
+
+    /**
+     * Returns a datasource handing out the connections of this database. The
+     * datasource has a <code>close()</code> method (see {@link #isClosed()}).
+     */
+    public DataSource getDataSource() {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class, Closeable.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args)
+                throws SQLException {
+
+                String name = method.getName();
+                if ("getConnection".equals(name)) {
+                    if (closed) {
+                        throw new SQLException("datasource closed");
+                    }
+                    return getConnection();
+                }
+                if ("close".equals(name)) {
+                    closed = true;
+                    return null;
+                }
+                if ("equals".equals(name)) {
+                    return Boolean.valueOf(proxy == args[0]);
+                }
+                if ("hashCode".equals(name)) {
+                    return Integer.valueOf(System.identityHashCode(proxy));
+                }
+                if ("toString".equals(name)) {
+                    return "FakeDataSource@" + Integer.toHexString(System.identityHashCode(proxy));
+                }
+                return defaultValue(method);
+            }
+        });
+    }
+
+    /**
+     * Returns true if the datasource has been closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Makes the connections behave as in a pool: closing one makes it idle,
+     * still open, and it is handed out again by {@link #getConnection()}.
+     */
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Makes every statement executed from now on fail.
+     */
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    public List<String> getPreparedStatements() {
+        synchronized (preparedStatements) {
+            return new ArrayList<String>(preparedStatements);
+        }
+    }
+
+    /**
+     * Returns the parameter sets executed in batch, in order.
+     */
+    public List<Object[]> getRows() {
+        synchronized (rows) {
+            return new ArrayList<Object[]>(rows);
+        }
+    }
+
+    public List<Integer> getBatchSizes() {
+        synchronized (batchSizes) {
+            return new ArrayList<Integer>(batchSizes);
+        }
+    }
+
+    public int getOpenStatements() {
+        return openStatements.get();
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    private synchronized long nextVal(String sequenceName) {
+        AtomicLong value = sequences.get(sequenceName);
+        if (value == null) {
+            value = new AtomicLong(0);
+            sequences.put(sequenceName, value);
+        }
+        return value.incrementAndGet();
+    }
+
+    private static ResultSet createResultSet(final long[] values) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+            private int row = -1;
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("next".equals(name)) {
+                    return Boolean.valueOf(++row < values.length);
+                }
+                if ("getLong".equals(name)) {
+                    return Long.valueOf(values[row]);
+                }
+                return defaultValue(method);
+            }
+        });
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (type == int.class) {
+            return Integer.valueOf(0);
+        }
+        if (type == long.class) {
+            return Long.valueOf(0);
+        }
+        return null;
+    }
+
+    private class ConnectionHandler
+        implements InvocationHandler {
+
+        private boolean closed = false;
+
+        public synchronized Object invoke(Object proxy, Method method, Object[] args)
+            throws SQLException {
+
+            String name = method.getName();
+
+            if ("close".equals(name)) {
+                if (pooled && !closed) {
+                    openConnections.decrementAndGet();
+                    idleConnections.add((Connection) proxy);
+                } else if (!closed) {
+                    closed = true;
+                    openConnections.decrementAndGet();
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return Boolean.valueOf(closed);
+            }
+            if ("equals".equals(name)) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(name)) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            if ("toString".equals(name)) {
+                return "FakeConnection@" + Integer.toHexString(System.identityHashCode(proxy));
+            }
+
+            if (closed) {
+                throw new SQLException("connection closed");
+            }
+
+            if ("prepareStatement".equals(name)) {
+                String sql = (String) args[0];
+                boolean keys = args.length == 2 && args[1] instanceof Integer && ((Integer) args[1]).intValue() == Statement.RETURN_GENERATED_KEYS;
+                preparedStatements.add(sql);
+                openStatements.incrementAndGet();
+                return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, new StatementHandler(sql, keys));
+            }
+
+            return defaultValue(method);
+        }
+    }
+
+    private class StatementHandler
+        implements InvocationHandler {
+
+        private final String sql;
+
+        private final boolean returnGeneratedKeys;
+
+        private final ArrayList<Object> parameters = new ArrayList<Object>();
+
+        private final ArrayList<Object[]> batch = new ArrayList<Object[]>();
+
+        private long[] lastKeys = new long[0];
+
+        private boolean closed = false;
+
+        StatementHandler(String sql, boolean returnGeneratedKeys) {
+            this.sql = sql;
+            this.returnGeneratedKeys = returnGeneratedKeys;
+        }
+
+        public synchronized Object invoke(Object proxy, Method method, Object[] args)
+            throws SQLException {
+
+            String name = method.getName();
+
+            if ("close".equals(name)) {
+                if (!closed) {
+                    closed = true;
+                    openStatements.decrementAndGet();
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return Boolean.valueOf(closed);
+            }
+            if ("equals".equals(name)) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(name)) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            if ("toString".equals(name)) {
+                return "FakeStatement[" + sql + "]";
+            }
+
+            if (closed) {
+                throw new SQLException("statement closed");
+            }
+
+            if ("setObject".equals(name) || "setNull".equals(name)) {
+                int index = ((Integer) args[0]).intValue();
+                while (parameters.size() < index) {
+                    parameters.add(null);
+                }
+                parameters.set(index - 1, "setNull".equals(name) ? null : args[1]);
+                return null;
+            }
+            if ("clearParameters".equals(name)) {
+                parameters.clear();
+                return null;
+            }
+            if ("addBatch".equals(name)) {
+                batch.add(parameters.toArray());
+                return null;
+            }
+            if ("clearBatch".equals(name)) {
+                batch.clear();
+                return null;
+            }
+            if ("executeBatch".equals(name)) {
+                if (failing) {
+                    batch.clear();
+                    throw new SQLException("execution failure");
+                }
+                int[] counts = new int[batch.size()];
+                lastKeys = new long[returnGeneratedKeys ? batch.size() : 0];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = 1;
+                    if (returnGeneratedKeys) {
+                        lastKeys[i] = generatedKeys.incrementAndGet();
+                    }
+                }
+                rows.addAll(batch);
+                batchSizes.add(Integer.valueOf(batch.size()));
+                batch.clear();
+                return counts;
+            }
+            if ("getGeneratedKeys".equals(name)) {
+                return createResultSet(lastKeys);
+            }
+            if ("executeQuery".equals(name)) {
+                if (failing) {
+                    throw new SQLException("execution failure");
+                }
+                Matcher matcher = NEXTVAL.matcher(sql);
+                if (!matcher.matches()) {
+                    throw new SQLException("unsupported query: " + sql);
+                }
+                return createResultSet(new long[] { nextVal(matcher.group(1)) });
+            }
+
+            return defaultValue(method);
+        }
+    }
+
+}
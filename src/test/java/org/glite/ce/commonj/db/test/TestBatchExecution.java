@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.db.test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.db.AbstractTable;
+import org.glite.ce.commonj.db.BatchResult;
+import org.glite.ce.commonj.db.Query;
+
+public class TestBatchExecution
+    extends TestCase {
+
+    private FakeDatabase database;
+
+    private Connection connection;
+
+    private AbstractTable table;
+
+    public TestBatchExecution(String name) {
+        super(name);
+    }
+
+    protected void setUp() {
+        database = new FakeDatabase();
+        connection = database.getConnection();
+        table = new AbstractTable();
+    }
+
+    protected void tearDown()
+        throws Exception {
+        table.releaseStatements(connection);
+        connection.close();
+    }
+
+    /*
+     * The parameter sets are split into batches of at most batchSize
+     */
+    public void testChunking()
+        throws Exception {
+
+        table.setBatchSize(10);
+        List<Object[]> rows = createRows(25);
+
+        BatchResult result = table.executeBatch(createQuery(false), rows, connection);
+
+        assertEquals(3, database.getBatchSizes().size());
+        assertEquals(Integer.valueOf(10), database.getBatchSizes().get(0));
+        assertEquals(Integer.valueOf(10), database.getBatchSizes().get(1));
+        assertEquals(Integer.valueOf(5), database.getBatchSizes().get(2));
+
+        List<Object[]> written = database.getRows();
+        assertEquals(25, written.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals(Integer.valueOf(i), written.get(i)[0]);
+            assertEquals(i % 2 == 0 ? null : "row-" + i, written.get(i)[1]);
+        }
+
+        assertEquals(25, result.getUpdateCounts().length);
+        for (int count : result.getUpdateCounts()) {
+            assertEquals(1, count);
+        }
+        assertEquals(0, result.getGeneratedKeys().length);
+
+        /*
+         * The statement is prepared once and given back to the cache
+         */
+        assertEquals(1, database.getPreparedStatements().size());
+        table.executeBatch(createQuery(false), createRows(3), connection);
+        assertEquals(1, database.getPreparedStatements().size());
+
+        try {
+            table.setBatchSize(0);
+            fail("Accepted a batch size not positive");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    /*
+     * The generated keys of all the batches are returned in order
+     */
+    public void testGeneratedKeys()
+        throws Exception {
+
+        table.setBatchSize(4);
+        BatchResult result = table.executeBatch(createQuery(true), createRows(10), connection);
+
+        long[] keys = result.getGeneratedKeys();
+        assertEquals(10, keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i + 1, keys[i]);
+        }
+    }
+
+    public void testEmptyBatch()
+        throws Exception {
+
+        BatchResult result = table.executeBatch(createQuery(true), new ArrayList<Object[]>(), connection);
+        assertEquals(0, result.getUpdateCounts().length);
+        assertEquals(0, result.getGeneratedKeys().length);
+        assertEquals(0, database.getBatchSizes().size());
+
+        try {
+            table.executeBatch(createQuery(false), null, connection);
+            fail("Accepted null parameter sets");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    /*
+     * A failed batch is cleared and the statement can be used again
+     */
+    public void testFailure()
+        throws Exception {
+
+        database.setFailing(true);
+        try {
+            table.executeBatch(createQuery(false), createRows(5), connection);
+            fail("Batch failure not reported");
+        } catch (SQLException ex) {
+        }
+
+        database.setFailing(false);
+        table.executeBatch(createQuery(false), createRows(5), connection);
+        assertEquals(5, database.getRows().size());
+    }
+
+    private Query createQuery(boolean returnGeneratedKeys) {
+        Query query = new Query();
+        query.setName(returnGeneratedKeys ? "INSERT_WITH_KEYS" : Query.INSERT_STATEMENT);
+        query.setStatement("insert into test(id, name) values(?, ?)");
+        query.setReturnGeneratedKeys(returnGeneratedKeys);
+        return query;
+    }
+
+    private List<Object[]> createRows(int count) {
+        ArrayList<Object[]> result = new ArrayList<Object[]>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new Object[] { Integer.valueOf(i), i % 2 == 0 ? null : "row-" + i });
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.db.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.db.AbstractTable;
+import org.glite.ce.commonj.db.BatchWriter;
+import org.glite.ce.commonj.db.DatasourceManager;
+import org.glite.ce.commonj.db.Query;
+
+public class TestBatchWriter
+    extends TestCase {
+
+    private static final String DATASOURCE = "test-batch-writer";
+
+    private FakeDatabase database;
+
+    private BatchWriter writer;
+
+    public TestBatchWriter(String name) {
+        super(name);
+    }
+
+    protected void setUp() {
+        database = new FakeDatabase();
+        assertTrue(DatasourceManager.addDataSource(DATASOURCE, database.getDataSource()));
+    }
+
+    protected void tearDown() {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        DatasourceManager.removeDataSource(DATASOURCE);
+    }
+
+    public void testFlushBySize()
+        throws Exception {
+
+        writer = createWriter(10, 60000, 100);
+        for (int i = 0; i < 30; i++) {
+            writer.add(new Object[] { Integer.valueOf(i) });
+        }
+
+        assertTrue(waitForWritten(30));
+        for (Integer size : database.getBatchSizes()) {
+            assertEquals(Integer.valueOf(10), size);
+        }
+        assertEquals(0, writer.getPendingCount());
+        assertEquals(0, database.getOpenConnections());
+    }
+
+    public void testFlushByDelay()
+        throws Exception {
+
+        writer = createWriter(100, 200, 100);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            writer.add(new Object[] { Integer.valueOf(i) });
+        }
+
+        assertTrue(waitForWritten(3));
+        assertTrue(System.currentTimeMillis() - start >= 150);
+        assertEquals(1, database.getBatchSizes().size());
+    }
+
+    /*
+     * The pending parameter sets are written by close() and the additions
+     * fail afterwards
+     */
+    public void testClose()
+        throws Exception {
+
+        writer = createWriter(100, 60000, 100);
+        for (int i = 0; i < 50; i++) {
+            writer.add(new Object[] { Integer.valueOf(i) });
+        }
+
+        writer.close();
+        assertTrue(writer.isClosed());
+        assertEquals(50, writer.getWrittenCount());
+        assertEquals(50, database.getRows().size());
+
+        try {
+            writer.add(new Object[] { Integer.valueOf(0) });
+            fail("Added to a closed writer");
+        } catch (IllegalStateException ex) {
+        }
+
+        try {
+            writer.offer(new Object[] { Integer.valueOf(0) }, 0);
+            fail("Offered to a closed writer");
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    /*
+     * Every parameter set accepted while the writer is being closed is
+     * written and no addition stays blocked on the full buffer
+     */
+    public void testConcurrentClose()
+        throws Exception {
+
+        writer = createWriter(5, 10, 5);
+        final AtomicInteger accepted = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int k = 0; k < 8; k++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        while (true) {
+                            writer.add(new Object[] { Integer.valueOf(accepted.get()) });
+                            accepted.incrementAndGet();
+                        }
+                    } catch (IllegalStateException ex) {
+                        return;
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        Thread.sleep(300);
+        writer.close();
+
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertFalse("Addition blocked after close", thread.isAlive());
+        }
+
+        assertTrue(accepted.get() > 0);
+        assertEquals(accepted.get(), writer.getWrittenCount());
+        assertEquals(accepted.get(), database.getRows().size());
+        assertEquals(0, writer.getPendingCount());
+    }
+
+    /*
+     * A failed batch is counted and does not stop the writer
+     */
+    public void testFailure()
+        throws Exception {
+
+        writer = createWriter(10, 50, 100);
+        database.setFailing(true);
+        for (int i = 0; i < 5; i++) {
+            writer.add(new Object[] { Integer.valueOf(i) });
+        }
+
+        for (int k = 0; k < 100 && writer.getFailedCount() < 5; k++) {
+            Thread.sleep(50);
+        }
+        assertEquals(5, writer.getFailedCount());
+
+        database.setFailing(false);
+        writer.add(new Object[] { Integer.valueOf(5) });
+        assertTrue(waitForWritten(1));
+        assertEquals(0, database.getOpenConnections());
+    }
+
+    private BatchWriter createWriter(int maxBatchSize, long maxDelay, int capacity) {
+        Query query = new Query();
+        query.setName(Query.INSERT_STATEMENT);
+        query.setStatement("insert into test(id) values(?)");
+        query.setReturnGeneratedKeys(false);
+
+        return new BatchWriter(new AbstractTable(), query, DATASOURCE, maxBatchSize, maxDelay, capacity);
+    }
+
+    private boolean waitForWritten(long value)
+        throws InterruptedException {
+        for (int k = 0; k < 100 && writer.getWrittenCount() < value; k++) {
+            Thread.sleep(50);
+        }
+        return writer.getWrittenCount() == value;
+    }
+
+}
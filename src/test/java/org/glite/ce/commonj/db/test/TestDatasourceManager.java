@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.db.test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.db.AbstractTable;
+import org.glite.ce.commonj.db.DatabaseException;
+import org.glite.ce.commonj.db.DatasourceManager;
+import org.glite.ce.commonj.db.DatasourceMetrics;
+import org.glite.ce.commonj.db.Query;
+
+public class TestDatasourceManager
+    extends TestCase {
+
+    private static final String DATASOURCE = "test-datasource";
+
+    public TestDatasourceManager(String name) {
+        super(name);
+    }
+
+    protected void tearDown() {
+        DatasourceManager.removeDataSource(DATASOURCE);
+    }
+
+    /*
+     * The replaced datasource is closed once its borrowed connections are
+     * given back, while the new connections come from the new one
+     */
+    public void testReplaceDraining()
+        throws Exception {
+
+        FakeDatabase oldDatabase = new FakeDatabase();
+        FakeDatabase newDatabase = new FakeDatabase();
+        assertTrue(DatasourceManager.addDataSource(DATASOURCE, oldDatabase.getDataSource()));
+        assertFalse(DatasourceManager.addDataSource(DATASOURCE, newDatabase.getDataSource()));
+
+        Connection first = DatasourceManager.getConnection(DATASOURCE);
+        Connection second = DatasourceManager.getConnection(DATASOURCE);
+        assertEquals(2, oldDatabase.getOpenConnections());
+
+        assertTrue(DatasourceManager.replaceDataSource(DATASOURCE, newDatabase.getDataSource()));
+        assertFalse(oldDatabase.isClosed());
+
+        Connection third = DatasourceManager.getConnection(DATASOURCE);
+        assertEquals(1, newDatabase.getOpenConnections());
+        assertEquals(2, oldDatabase.getOpenConnections());
+
+        first.close();
+        assertFalse(oldDatabase.isClosed());
+        second.close();
+        assertTrue(oldDatabase.isClosed());
+        assertEquals(0, oldDatabase.getOpenConnections());
+
+        third.close();
+        assertFalse(newDatabase.isClosed());
+        assertEquals(0, DatasourceManager.getMetrics(DATASOURCE).getInFlightCount());
+    }
+
+    public void testRetireDraining()
+        throws Exception {
+
+        FakeDatabase database = new FakeDatabase();
+        DatasourceManager.addDataSource(DATASOURCE, database.getDataSource());
+
+        Connection connection = DatasourceManager.getConnection(DATASOURCE);
+        assertTrue(DatasourceManager.removeDataSource(DATASOURCE));
+        assertFalse(database.isClosed());
+
+        try {
+            DatasourceManager.getConnection(DATASOURCE);
+            fail("Got a connection from a removed datasource");
+        } catch (DatabaseException ex) {
+        }
+
+        connection.close();
+        assertTrue(database.isClosed());
+    }
+
+    /*
+     * A closed connection is given back once and refuses any further call,
+     * even if its physical connection is still open in the pool
+     */
+    public void testClosedConnection()
+        throws Exception {
+
+        FakeDatabase database = new FakeDatabase();
+        database.setPooled(true);
+        DatasourceManager.addDataSource(DATASOURCE, database.getDataSource());
+        DatasourceMetrics metrics = DatasourceManager.getMetrics(DATASOURCE);
+
+        Connection connection = DatasourceManager.getConnection(DATASOURCE);
+        assertEquals(1, metrics.getInFlightCount());
+
+        connection.close();
+        connection.close();
+        assertTrue(connection.isClosed());
+        assertEquals(0, metrics.getInFlightCount());
+        assertEquals(0, database.getOpenConnections());
+
+        try {
+            connection.prepareStatement("select 1");
+            fail("Used a closed connection");
+        } catch (SQLException ex) {
+        }
+
+        try {
+            connection.commit();
+            fail("Used a closed connection");
+        } catch (SQLException ex) {
+        }
+    }
+
+    /*
+     * The statements cached by a table are closed with the connection
+     */
+    public void testStatementRelease()
+        throws Exception {
+
+        FakeDatabase database = new FakeDatabase();
+        DatasourceManager.addDataSource(DATASOURCE, database.getDataSource());
+        AbstractTable table = new AbstractTable();
+
+        Query query = new Query();
+        query.setName(Query.SELECT_STATEMENT);
+        query.setStatement("select id from test");
+
+        Connection connection = DatasourceManager.getConnection(DATASOURCE);
+        PreparedStatement statement = table.getPreparedStatement(query, connection);
+        statement.close();
+        assertSame(statement, table.getPreparedStatement(query, connection));
+        statement.close();
+        assertEquals(1, database.getOpenStatements());
+
+        /*
+         * The physical connection is closed too: its statements are released
+         */
+        connection.close();
+        assertEquals(0, database.getOpenStatements());
+
+        connection = DatasourceManager.getConnection(DATASOURCE);
+        table.getPreparedStatement(query, connection).close();
+        assertEquals(2, database.getPreparedStatements().size());
+        connection.close();
+        assertEquals(0, database.getOpenStatements());
+    }
+
+    public void testStatementReuse()
+        throws Exception {
+
+        FakeDatabase database = new FakeDatabase();
+        database.setPooled(true);
+        DatasourceManager.addDataSource(DATASOURCE, database.getDataSource());
+        AbstractTable table = new AbstractTable();
+
+        Query query = new Query();
+        query.setName(Query.SELECT_STATEMENT);
+        query.setStatement("select id from test");
+
+        Connection connection = DatasourceManager.getConnection(DATASOURCE);
+        PreparedStatement statement = table.getPreparedStatement(query, connection);
+        statement.close();
+        connection.close();
+        assertEquals(1, database.getOpenStatements());
+
+        try {
+            table.getPreparedStatement(query, connection);
+            fail("Got a statement from a closed connection");
+        } catch (SQLException sqle) {
+        }
+
+        /*
+         * The second borrow of the same pooled connection reuses the
+         * physical statement
+         */
+        connection = DatasourceManager.getConnection(DATASOURCE);
+        assertSame(statement, table.getPreparedStatement(query, connection));
+        statement.close();
+        connection.close();
+        assertEquals(1, database.getPreparedStatements().size());
+        assertEquals(1, database.getOpenStatements());
+
+        table.releaseStatements(connection);
+        assertEquals(0, database.getOpenStatements());
+    }
+
+    public void testMissingDataSource()
+        throws Exception {
+
+        try {
+            DatasourceManager.getConnection("missing-datasource");
+            fail("Got a connection from a missing datasource");
+        } catch (DatabaseException ex) {
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.db.test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.db.AbstractTable;
+import org.glite.ce.commonj.db.SequenceIdAllocator;
+
+public class TestSequenceIdAllocator
+    extends TestCase {
+
+    private SequenceIdAllocator allocator;
+
+    private CountingSource source;
+
+    public TestSequenceIdAllocator(String name) {
+        super(name);
+    }
+
+    protected void setUp() {
+        allocator = new SequenceIdAllocator();
+        source = new CountingSource();
+    }
+
+    protected void tearDown() {
+        allocator.shutdown();
+    }
+
+    /*
+     * With the default block size the ids are the sequence values
+     */
+    public void testDefaultBlockSize()
+        throws Exception {
+
+        assertEquals(1, allocator.getBlockSize("seq"));
+        for (long k = 1; k <= 5; k++) {
+            assertEquals(k, allocator.nextId("seq", null, source));
+        }
+        assertEquals(5, source.calls.get());
+    }
+
+    /*
+     * The value hi reserves the ids [hi * size, hi * size + size - 1]
+     */
+    public void testBlockArithmetic()
+        throws Exception {
+
+        allocator.setBlockSize("seq", 10);
+
+        for (long id = 10; id < 30; id++) {
+            assertEquals(id, allocator.nextId("seq", null, source));
+        }
+        assertEquals(2, source.calls.get());
+
+        assertEquals(30, allocator.nextId("seq", null, source));
+        assertEquals(3, source.calls.get());
+
+        /*
+         * The sequences are independent
+         */
+        allocator.setBlockSize("other", 5);
+        assertEquals(5, allocator.nextId("other", null, new CountingSource()));
+        assertEquals(1, allocator.getBlockSize("missing"));
+    }
+
+    /*
+     * The current block is used up before the new size applies and the new
+     * blocks never overlap the ids already issued
+     */
+    public void testBlockSizeGrowth()
+        throws Exception {
+
+        allocator.setBlockSize("seq", 10);
+        HashSet<Long> issued = new HashSet<Long>();
+
+        for (int k = 0; k < 5; k++) {
+            issued.add(allocator.nextId("seq", null, source));
+        }
+
+        allocator.setBlockSize("seq", 100);
+        assertEquals(100, allocator.getBlockSize("seq"));
+
+        for (long id = 15; id < 20; id++) {
+            assertEquals(id, allocator.nextId("seq", null, source));
+            issued.add(id);
+        }
+        assertEquals(1, source.calls.get());
+
+        assertEquals(200, allocator.nextId("seq", null, source));
+        assertEquals(2, source.calls.get());
+        for (int k = 0; k < 99; k++) {
+            assertTrue(issued.add(allocator.nextId("seq", null, source)));
+        }
+        assertEquals(300, allocator.nextId("seq", null, source));
+
+        try {
+            allocator.setBlockSize("seq", 10);
+            fail("Decreased the block size");
+        } catch (IllegalArgumentException ex) {
+        }
+
+        try {
+            allocator.setBlockSize("seq", 0);
+            fail("Accepted a block size not positive");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    /*
+     * The blocks reserved are lost, the block size is kept
+     */
+    public void testReset()
+        throws Exception {
+
+        allocator.setBlockSize("seq", 10);
+        assertEquals(10, allocator.nextId("seq", null, source));
+
+        allocator.reset();
+        assertEquals(10, allocator.getBlockSize("seq"));
+        assertEquals(20, allocator.nextId("seq", null, source));
+    }
+
+    public void testOverflow()
+        throws Exception {
+
+        allocator.setBlockSize("seq", 1000);
+        source.value.set(Long.MAX_VALUE / 100);
+
+        try {
+            allocator.nextId("seq", null, source);
+            fail("Sequence overflow not detected");
+        } catch (SQLException ex) {
+        }
+    }
+
+    public void testConcurrentIds()
+        throws Exception {
+
+        allocator.setBlockSize("seq", 7);
+        final List<List<Long>> results = new ArrayList<List<Long>>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int k = 0; k < 8; k++) {
+            final List<Long> ids = new ArrayList<Long>();
+            results.add(ids);
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 1000; i++) {
+                            ids.add(allocator.nextId("seq", null, source));
+                        }
+                    } catch (SQLException ex) {
+                        ids.add(Long.valueOf(-1));
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+
+        HashSet<Long> issued = new HashSet<Long>();
+        for (List<Long> ids : results) {
+            assertEquals(1000, ids.size());
+            for (Long id : ids) {
+                assertTrue("Duplicated id " + id, id.longValue() > 0 && issued.add(id));
+            }
+        }
+    }
+
+    /*
+     * Every sequence is read with its own query
+     */
+    public void testSequenceIdQueries()
+        throws Exception {
+
+        FakeDatabase database = new FakeDatabase();
+        Connection connection = database.getConnection();
+        AbstractTable table = new AbstractTable();
+
+        String first = "test_seq_first";
+        String second = "test_seq_second";
+
+        assertEquals(1, table.executeSequenceId(first, connection));
+        assertEquals(1, table.executeSequenceId(second, connection));
+        assertEquals(2, table.executeSequenceId(second, connection));
+        assertEquals(2, table.executeSequenceId(first, connection));
+
+        List<String> prepared = database.getPreparedStatements();
+        assertEquals(2, prepared.size());
+        assertEquals("select nextVal('" + first + "')", prepared.get(0));
+        assertEquals("select nextVal('" + second + "')", prepared.get(1));
+
+        table.releaseStatements(connection);
+        connection.close();
+        assertEquals(0, database.getOpenStatements());
+    }
+
+    private static class CountingSource
+        implements SequenceIdAllocator.SequenceSource {
+
+        final AtomicInteger calls = new AtomicInteger(0);
+
+        final AtomicLong value = new AtomicLong(0);
+
+        public long nextSequenceValue(String sequenceName, Connection connection) {
+            calls.incrementAndGet();
+            return value.incrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils.pool.test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glite.ce.commonj.utils.pool.GenericPool;
+import org.glite.ce.commonj.utils.pool.GenericPoolException;
+
+/**
+ * Measures the throughput of borrow/release cycles of the GenericPool with 1,
+ * 8 and 64 contending threads, compared with the previous synchronized
+ * implementation based on array lists. Each thread keeps a number of objects
+ * borrowed and cycles through them, so that the pool tracks many borrowed
+ * objects at once. The synchronized pool cannot wait for an object, therefore
+ * it is measured with a pool larger than the number of borrowed objects only;
+ * the waiting of the lock-free pool is measured with one object per thread and
+ * a pool half the number of threads.
+ *
+ * Usage: PoolBenchmark [seconds] [held]
+ */
+public class PoolBenchmark {
+
+    private static final int[] THREADS = { 1, 8, 64 };
+
+    public static void main(String[] args)
+        throws Exception {
+
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int held = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        for (int threads : THREADS) {
+            int max = threads * held + 1;
+            run("synchronized max=" + max, new SynchronizedPool(max), threads, held, seconds);
+            run("lock-free    max=" + max, new ObjectPool(max), threads, held, seconds);
+            if (threads > 1) {
+                // the threads hold one object each and wait for each other
+                run("lock-free    max=" + (threads / 2) + " held=1", new ObjectPool(threads / 2), threads, 1, seconds);
+            }
+        }
+    }
+
+    private static void run(String label, final Pool pool, int threads, final int held, final int seconds)
+        throws Exception {
+
+        final AtomicLong operations = new AtomicLong(0);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+
+        for (int k = 0; k < threads; k++) {
+            Thread worker = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        Object[] items = new Object[held];
+                        long count = 0;
+                        while (System.nanoTime() < deadline[0]) {
+                            int slot = (int) (count % held);
+                            if (items[slot] != null) {
+                                pool.release(items[slot]);
+                            }
+                            items[slot] = pool.get();
+                            count++;
+                        }
+                        for (Object item : items) {
+                            if (item != null) {
+                                pool.release(item);
+                            }
+                        }
+                        operations.addAndGet(count);
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+
+        deadline[0] = System.nanoTime() + seconds * 1000000000L;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        System.out.println(label + " threads=" + threads + " ops/s=" + operations.get() / seconds);
+    }
+
+    private interface Pool {
+        Object get() throws Exception;
+
+        void release(Object item) throws Exception;
+    }
+
+    private static class ObjectPool
+        extends GenericPool<Object>
+        implements Pool {
+
+        ObjectPool(int max)
+            throws GenericPoolException {
+            super(1, max);
+        }
+
+        protected Object allocate() {
+            return new Object();
+        }
+    }
+
+    /*
+     * The algorithm of the previous GenericPool
+     */
+    private static class SynchronizedPool
+        implements Pool {
+
+        private ArrayList<Object> allocatedItems = new ArrayList<Object>();
+
+        private ArrayList<Object> unAllocatedItems = new ArrayList<Object>();
+
+        private int maxPoolSize;
+
+        SynchronizedPool(int max) {
+            maxPoolSize = max;
+            unAllocatedItems.add(new Object());
+        }
+
+        public synchronized Object get() {
+            Object item = null;
+            if (unAllocatedItems.size() == 0 && allocatedItems.size() < maxPoolSize) {
+                item = new Object();
+            } else {
+                item = unAllocatedItems.remove(0);
+            }
+            allocatedItems.add(item);
+            return item;
+        }
+
+        public synchronized void release(Object item) {
+            if (allocatedItems.remove(item)) {
+                unAllocatedItems.add(item);
+            }
+        }
+    }
+
+}
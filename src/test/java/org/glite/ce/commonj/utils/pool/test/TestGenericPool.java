@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils.pool.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.glite.ce.commonj.utils.pool.Destroyable;
+import org.glite.ce.commonj.utils.pool.GenericPool;
+import org.glite.ce.commonj.utils.pool.GenericPoolException;
+import org.glite.ce.commonj.utils.pool.GenericPoolMXBean;
+
+public class TestGenericPool
+    extends TestCase {
+
+    private TestPool pool;
+
+    public TestGenericPool(String name) {
+        super(name);
+    }
+
+    protected void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public void testWrongSize()
+        throws Exception {
+
+        try {
+            new TestPool(0, 0, 0);
+            fail("Created a pool with no objects");
+        } catch (GenericPoolException ex) {
+        }
+
+        try {
+            new TestPool(-1, 10, 0);
+            fail("Created a pool with a negative minimum size");
+        } catch (GenericPoolException ex) {
+        }
+
+        try {
+            new TestPool(5, 2, 0);
+            fail("Created a pool with a minimum size greater than the maximum");
+        } catch (GenericPoolException ex) {
+        }
+    }
+
+    public void testBorrowAndReturn()
+        throws Exception {
+
+        pool = new TestPool(0, 2, 0);
+
+        Item item1 = pool.get();
+        Item item2 = pool.get();
+        assertTrue(item1 != item2);
+        assertEquals(2, pool.getAllocatedCount());
+        assertEquals(0, pool.getUnAllocatedCount());
+
+        try {
+            pool.get(100);
+            fail("Borrowed more objects than the maximum");
+        } catch (GenericPoolException ex) {
+        }
+
+        pool.release(item1);
+        assertEquals(1, pool.getAllocatedCount());
+        assertEquals(1, pool.getUnAllocatedCount());
+
+        assertSame(item1, pool.get(100));
+        pool.release(item1);
+        pool.release(item2);
+        assertEquals(0, pool.getAllocatedCount());
+        assertEquals(2, pool.getUnAllocatedCount());
+        assertEquals(2, pool.getMetrics().getAllocationCount());
+
+        /*
+         * An object not borrowed from the pool is ignored
+         */
+        pool.release(new Item());
+        assertEquals(2, pool.getUnAllocatedCount());
+
+        pool.shutdown();
+        assertTrue(item1.destroyed && item2.destroyed);
+
+        try {
+            pool.get();
+            fail("Borrowed from a pool shut down");
+        } catch (GenericPoolException ex) {
+        }
+    }
+
+    public void testWaitingBorrower()
+        throws Exception {
+
+        pool = new TestPool(0, 1, 0);
+        Item item = pool.get();
+
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread borrower = new Thread() {
+            public void run() {
+                try {
+                    result.set(pool.get());
+                } catch (GenericPoolException ex) {
+                    result.set(ex);
+                }
+            }
+        };
+        borrower.start();
+
+        Thread.sleep(200);
+        assertNull(result.get());
+
+        pool.release(item);
+        borrower.join(5000);
+        assertSame(item, result.get());
+    }
+
+    public void testMinimumSize()
+        throws Exception {
+
+        pool = new TestPool(3, 5, 0);
+        Thread.sleep(200);
+        assertEquals(0, pool.getMetrics().getAllocationCount());
+
+        pool.warmUp();
+        pool.warmUp();
+        assertTrue(waitForIdle(3));
+        assertEquals(3, pool.getMetrics().getAllocationCount());
+    }
+
+    /*
+     * The warm-up does not start before the subclass is constructed
+     */
+    public void testWarmUpAfterConstruction()
+        throws Exception {
+
+        ConfiguredPool configuredPool = new ConfiguredPool(3, 5);
+        try {
+            Item item = configuredPool.get();
+            assertEquals("config", item.config);
+            configuredPool.release(item);
+
+            for (int k = 0; k < 100 && configuredPool.getUnAllocatedCount() < 3; k++) {
+                Thread.sleep(50);
+            }
+            assertTrue(configuredPool.getUnAllocatedCount() >= 3);
+            assertEquals(0, configuredPool.failures.get());
+        } finally {
+            configuredPool.shutdown();
+        }
+    }
+
+    /*
+     * The idle objects are destroyed after the timeout as long as the pool,
+     * including the borrowed objects, exceeds the minimum size
+     */
+    public void testEviction()
+        throws Exception {
+
+        pool = new TestPool(1, 5, 200);
+        pool.warmUp();
+        assertTrue(waitForIdle(1));
+
+        Item[] items = new Item[5];
+        for (int k = 0; k < items.length; k++) {
+            items[k] = pool.get();
+        }
+        for (int k = 1; k < items.length; k++) {
+            pool.release(items[k]);
+        }
+        assertEquals(4, pool.getUnAllocatedCount());
+        assertEquals(5, pool.getMetrics().getPoolSize());
+
+        assertTrue(waitForIdle(0));
+        assertEquals(1, pool.getMetrics().getPoolSize());
+        assertEquals(4, pool.getMetrics().getDestroyCount());
+        assertFalse(items[0].destroyed);
+        for (int k = 1; k < items.length; k++) {
+            assertTrue(items[k].destroyed);
+        }
+
+        /*
+         * The object of the minimum size is kept idle
+         */
+        pool.release(items[0]);
+        Thread.sleep(600);
+        assertEquals(1, pool.getUnAllocatedCount());
+        assertFalse(items[0].destroyed);
+    }
+
+    public void testValidationOnBorrow()
+        throws Exception {
+
+        pool = new TestPool(0, 2, 0);
+        pool.setTestOnBorrow(true);
+
+        Item item1 = pool.get();
+        Item item2 = pool.get();
+        pool.release(item1);
+        pool.release(item2);
+
+        item1.valid = false;
+        item2.failure = true;
+
+        Item item3 = pool.get();
+        assertTrue(item3 != item1 && item3 != item2);
+        assertTrue(item1.destroyed && item2.destroyed);
+        assertEquals(0, pool.getUnAllocatedCount());
+        assertEquals(1, pool.getMetrics().getPoolSize());
+        assertEquals(2, pool.getMetrics().getDestroyCount());
+    }
+
+    public void testValidationOnReturn()
+        throws Exception {
+
+        pool = new TestPool(0, 1, 0);
+        pool.setTestOnReturn(true);
+
+        Item item1 = pool.get();
+        item1.valid = false;
+        pool.release(item1);
+
+        assertTrue(item1.destroyed);
+        assertEquals(0, pool.getUnAllocatedCount());
+        assertEquals(0, pool.getMetrics().getPoolSize());
+
+        /*
+         * The permit of the invalid object is given back
+         */
+        Item item2 = pool.get(1000);
+        assertTrue(item2 != item1);
+        pool.release(item2);
+        assertEquals(1, pool.getUnAllocatedCount());
+    }
+
+    public void testMetrics()
+        throws Exception {
+
+        pool = new TestPool(0, 2, 0);
+        pool.setTestOnReturn(true);
+        GenericPoolMXBean metrics = pool.getMetrics();
+
+        Item item1 = pool.get();
+        Item item2 = pool.get();
+        assertEquals(2, metrics.getInUseCount());
+        assertEquals(0, metrics.getIdleCount());
+
+        try {
+            pool.get(50);
+            fail("Borrowed more objects than the maximum");
+        } catch (GenericPoolException ex) {
+        }
+
+        pool.release(item1);
+        item2.valid = false;
+        pool.release(item2);
+        pool.release(pool.get());
+
+        assertEquals(3, metrics.getBorrowCount());
+        assertEquals(1, metrics.getWaitCount());
+        assertEquals(1, metrics.getExhaustionCount());
+        assertEquals(2, metrics.getAllocationCount());
+        assertEquals(1, metrics.getDestroyCount());
+        assertEquals(1, metrics.getPoolSize());
+        assertEquals(0, metrics.getInUseCount());
+        assertEquals(1, metrics.getIdleCount());
+        assertEquals(2, metrics.getMaxPoolSize());
+
+        long[] histogram = metrics.getBorrowLatencyHistogram();
+        assertEquals(metrics.getBorrowLatencyBounds().length + 1, histogram.length);
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        assertEquals(metrics.getBorrowCount(), total);
+    }
+
+    /*
+     * An object borrowed for longer than the threshold is counted once
+     */
+    public void testLeakDetection()
+        throws Exception {
+
+        pool = new TestPool(0, 2, 0);
+        pool.setLeakDetection(100, true);
+        GenericPoolMXBean metrics = pool.getMetrics();
+
+        Item leaked = pool.get();
+        pool.release(pool.get());
+
+        for (int k = 0; k < 100 && metrics.getLeakCount() == 0; k++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, metrics.getLeakCount());
+
+        String[] leaks = metrics.getSuspectedLeaks();
+        assertEquals(1, leaks.length);
+        assertTrue(leaks[0], leaks[0].indexOf("borrowed here") > 0);
+
+        Thread.sleep(500);
+        assertEquals(1, metrics.getLeakCount());
+
+        pool.release(leaked);
+        assertEquals(0, metrics.getSuspectedLeaks().length);
+
+        pool.setLeakDetection(0, false);
+        assertEquals(0, metrics.getSuspectedLeaks().length);
+    }
+
+    public void testMBean()
+        throws Exception {
+
+        pool = new TestPool(0, 2, 0);
+        pool.registerMBean("test-pool");
+
+        ObjectName name = new ObjectName("org.glite.ce.commonj:type=GenericPool,name=" + ObjectName.quote("test-pool"));
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        assertEquals(Integer.valueOf(2), ManagementFactory.getPlatformMBeanServer().getAttribute(name, "MaxPoolSize"));
+
+        pool.shutdown();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    private boolean waitForIdle(int value)
+        throws InterruptedException {
+        for (int k = 0; k < 100 && pool.getUnAllocatedCount() != value; k++) {
+            Thread.sleep(50);
+        }
+        return pool.getUnAllocatedCount() == value;
+    }
+
+    static class Item
+        implements Destroyable {
+
+        volatile boolean destroyed = false;
+
+        volatile boolean valid = true;
+
+        volatile boolean failure = false;
+
+        String config = null;
+
+        public void destroy() {
+            destroyed = true;
+        }
+    }
+
+    /*
+     * A pool whose objects depend on a field set by its constructor
+     */
+    static class ConfiguredPool
+        extends GenericPool<Item> {
+
+        final AtomicInteger failures = new AtomicInteger(0);
+
+        private String config;
+
+        ConfiguredPool(int minPoolSize, int maxPoolSize) throws GenericPoolException, InterruptedException {
+            super(minPoolSize, maxPoolSize);
+            Thread.sleep(200);
+            config = "config";
+        }
+
+        protected Item allocate() {
+            if (config == null) {
+                failures.incrementAndGet();
+                throw new IllegalStateException("pool not configured");
+            }
+            Item item = new Item();
+            item.config = config;
+            return item;
+        }
+    }
+
+    static class TestPool
+        extends GenericPool<Item> {
+
+        TestPool(int minPoolSize, int maxPoolSize, long idleTimeout) throws GenericPoolException {
+            super(minPoolSize, maxPoolSize, idleTimeout);
+        }
+
+        protected Item allocate() {
+            return new Item();
+        }
+
+        protected boolean validate(Item item) {
+            if (item.failure) {
+                throw new IllegalStateException("validation failure");
+            }
+            return item.valid;
+        }
+    }
+
+}
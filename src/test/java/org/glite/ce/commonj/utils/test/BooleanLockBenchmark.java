@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils.test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glite.ce.commonj.utils.BooleanLock;
+
+/**
+ * Measures the throughput of BooleanLock used as a mutex by 1, 8 and 64
+ * contending threads (waitToSetTrue followed by setValue(false)), compared
+ * with the previous implementation based on wait/notifyAll.
+ *
+ * Usage: BooleanLockBenchmark [seconds]
+ */
+public class BooleanLockBenchmark {
+
+    private static final int[] THREADS = { 1, 8, 64 };
+
+    public static void main(String[] args)
+        throws Exception {
+
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+
+        for (int threads : THREADS) {
+            final MonitorLock monitorLock = new MonitorLock();
+            run("monitor", threads, seconds, new Lock() {
+                public void lock()
+                    throws InterruptedException {
+                    monitorLock.waitToSetTrue();
+                }
+
+                public void unlock() {
+                    monitorLock.setValue(false);
+                }
+            });
+
+            final BooleanLock aqsLock = new BooleanLock();
+            run("aqs    ", threads, seconds, new Lock() {
+                public void lock()
+                    throws InterruptedException {
+                    aqsLock.waitToSetTrue(0L);
+                }
+
+                public void unlock() {
+                    aqsLock.setValue(false);
+                }
+            });
+        }
+    }
+
+    private static void run(String label, int threads, int seconds, final Lock lock)
+        throws Exception {
+
+        final AtomicLong operations = new AtomicLong(0);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long deadline = System.nanoTime() + seconds * 1000000000L + 100000000L;
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+
+        for (int k = 0; k < threads; k++) {
+            Thread worker = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        long count = 0;
+                        while (System.nanoTime() < deadline) {
+                            lock.lock();
+                            count++;
+                            lock.unlock();
+                        }
+                        operations.addAndGet(count);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+
+        Thread.sleep(100);
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        System.out.println(label + " threads=" + threads + " ops/s=" + operations.get() / seconds);
+    }
+
+    private interface Lock {
+        void lock()
+            throws InterruptedException;
+
+        void unlock();
+    }
+
+    /*
+     * The algorithm of the previous BooleanLock
+     */
+    private static class MonitorLock {
+
+        private boolean value = false;
+
+        synchronized void setValue(boolean newValue) {
+            if (newValue != value) {
+                value = newValue;
+                notifyAll();
+            }
+        }
+
+        synchronized void waitToSetTrue()
+            throws InterruptedException {
+            while (value) {
+                wait();
+            }
+            setValue(true);
+        }
+    }
+
+}
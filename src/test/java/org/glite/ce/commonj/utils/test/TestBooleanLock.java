@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.glite.ce.commonj.utils.BooleanLock;
+
+import junit.framework.TestCase;
+
+public class TestBooleanLock
+    extends TestCase {
+
+    private static final long JOIN_TIMEOUT = 30000;
+
+    public TestBooleanLock(String name) {
+        super(name);
+    }
+
+    public void testValue()
+        throws Exception {
+
+        BooleanLock lock = new BooleanLock();
+        assertTrue(lock.isFalse());
+
+        lock.setValue(true);
+        assertTrue(lock.isTrue());
+        assertTrue(lock.waitUntilTrue(0L));
+        assertTrue(lock.waitUntilStateIs(true, 0, TimeUnit.SECONDS));
+
+        assertTrue(lock.waitToSetFalse(0L));
+        assertTrue(lock.isFalse());
+        assertTrue(new BooleanLock(true).isTrue());
+    }
+
+    public void testTimeout()
+        throws Exception {
+
+        BooleanLock lock = new BooleanLock(true);
+
+        long start = System.nanoTime();
+        assertFalse(lock.waitUntilFalse(100));
+        assertFalse(lock.waitToSetTrue(100));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+
+        /*
+         * A timeout not positive does not wait
+         */
+        start = System.nanoTime();
+        assertFalse(lock.waitToSetTrue(0, TimeUnit.MILLISECONDS));
+        assertFalse(lock.waitUntilStateIs(false, -1, TimeUnit.MILLISECONDS));
+        assertFalse(lock.waitUntilFalse(-1));
+        assertFalse(lock.waitToSetTrue(-1));
+        assertTrue(lock.waitUntilStateIs(true, -1));
+        assertTrue(lock.waitToSetFalse(-1));
+        assertTrue(lock.waitToSetTrue(-100));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(lock.isTrue());
+    }
+
+    /*
+     * A change of value wakes up all the threads waiting for it
+     */
+    public void testAllWaitersWoken()
+        throws Exception {
+
+        final BooleanLock lock = new BooleanLock();
+        final AtomicInteger woken = new AtomicInteger(0);
+        final CountDownLatch started = new CountDownLatch(32);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int k = 0; k < 32; k++) {
+            threads.add(new Worker() {
+                protected void work()
+                    throws InterruptedException {
+                    started.countDown();
+                    if (lock.waitUntilTrue(0L)) {
+                        woken.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start(threads);
+
+        started.await();
+        Thread.sleep(100);
+        assertEquals(0, woken.get());
+
+        lock.setValue(true);
+        join(threads);
+        assertEquals(32, woken.get());
+    }
+
+    /*
+     * A change of value lets only one of the threads waiting to flip it
+     * succeed
+     */
+    public void testOneSetterWoken()
+        throws Exception {
+
+        final BooleanLock lock = new BooleanLock(true);
+        final AtomicInteger flipped = new AtomicInteger(0);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int k = 0; k < 8; k++) {
+            threads.add(new Worker() {
+                protected void work()
+                    throws InterruptedException {
+                    if (lock.waitToSetTrue(0L)) {
+                        flipped.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start(threads);
+
+        Thread.sleep(100);
+        assertEquals(0, flipped.get());
+
+        for (int k = 1; k <= threads.size(); k++) {
+            lock.setValue(false);
+            assertTrue(waitFor(flipped, k));
+            Thread.sleep(50);
+            assertEquals(k, flipped.get());
+            assertTrue(lock.isTrue());
+        }
+
+        join(threads);
+    }
+
+    /*
+     * Used as a mutex: no thread is left waiting after the lock is released
+     * for the last time and no two threads own it at once
+     */
+    public void testMutualExclusion()
+        throws Exception {
+
+        final BooleanLock lock = new BooleanLock();
+        final AtomicInteger owners = new AtomicInteger(0);
+        final int[] counter = new int[1];
+        final int iterations = 5000;
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int k = 0; k < 16; k++) {
+            threads.add(new Worker() {
+                protected void work()
+                    throws InterruptedException {
+                    for (int i = 0; i < iterations; i++) {
+                        lock.waitToSetTrue(0L);
+                        if (owners.incrementAndGet() != 1) {
+                            throw new IllegalStateException("lock owned twice");
+                        }
+                        counter[0]++;
+                        owners.decrementAndGet();
+                        lock.setValue(false);
+                    }
+                }
+            });
+        }
+        start(threads);
+        join(threads);
+
+        assertEquals(16 * iterations, counter[0]);
+        assertTrue(lock.isFalse());
+    }
+
+    /*
+     * Two threads flip the value in turn: a lost wakeup would stop both
+     */
+    public void testPingPong()
+        throws Exception {
+
+        final BooleanLock lock = new BooleanLock();
+        final int iterations = 20000;
+
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.add(new Worker() {
+            protected void work()
+                throws InterruptedException {
+                for (int i = 0; i < iterations; i++) {
+                    lock.waitToSetTrue(0L);
+                }
+            }
+        });
+        threads.add(new Worker() {
+            protected void work() {
+                for (int i = 0; i < iterations; i++) {
+                    lock.waitToSetFalseUninterruptibly();
+                }
+            }
+        });
+        start(threads);
+        join(threads);
+
+        assertTrue(lock.isFalse());
+    }
+
+    public void testInterruption()
+        throws Exception {
+
+        final BooleanLock lock = new BooleanLock();
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    result.set(lock.waitUntilTrue(0L));
+                } catch (InterruptedException ex) {
+                    result.set(ex);
+                }
+            }
+        };
+        waiter.start();
+        Thread.sleep(100);
+        waiter.interrupt();
+        waiter.join(JOIN_TIMEOUT);
+        assertTrue(result.get() instanceof InterruptedException);
+
+        Thread uninterruptible = new Thread() {
+            public void run() {
+                lock.waitUntilStateIsUninterruptibly(true);
+                result.set(Thread.currentThread().isInterrupted());
+            }
+        };
+        result.set(null);
+        uninterruptible.start();
+        Thread.sleep(100);
+        uninterruptible.interrupt();
+        Thread.sleep(100);
+        assertNull(result.get());
+
+        lock.setValue(true);
+        uninterruptible.join(JOIN_TIMEOUT);
+        assertEquals(Boolean.TRUE, result.get());
+    }
+
+    private void start(List<Thread> threads) {
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void join(List<Thread> threads)
+        throws Exception {
+        long deadline = System.currentTimeMillis() + JOIN_TIMEOUT;
+        for (Thread thread : threads) {
+            thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            assertFalse("Thread still waiting: lost wakeup", thread.isAlive());
+        }
+        for (Thread thread : threads) {
+            Throwable failure = ((Worker) thread).failure;
+            assertNull(failure == null ? null : failure.toString(), failure);
+        }
+    }
+
+    private boolean waitFor(AtomicInteger counter, int value)
+        throws InterruptedException {
+        for (int k = 0; k < 200 && counter.get() < value; k++) {
+            Thread.sleep(10);
+        }
+        return counter.get() == value;
+    }
+
+    private static abstract class Worker
+        extends Thread {
+
+        volatile Throwable failure = null;
+
+        public void run() {
+            try {
+                work();
+            } catch (Throwable th) {
+                failure = th;
+            }
+        }
+
+        protected abstract void work()
+            throws Exception;
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glite.ce.commonj.utils.Timer;
+import org.glite.ce.commonj.utils.TimerTask;
+import org.glite.ce.commonj.utils.TimerTaskFilter;
+import org.glite.ce.commonj.utils.VirtualClock;
+
+import junit.framework.TestCase;
+
+public class TestScheduleAll
+    extends TestCase {
+
+    private static final int TASKS = 1000;
+
+    private static final long DELAY = 1000;
+
+    private static final long RATE = 100000;
+
+    public TestScheduleAll(String name) {
+        super(name);
+    }
+
+    public void testScheduleAllHeap()
+        throws Exception {
+        runScheduleAll(Timer.ENGINE.BINARY_HEAP);
+    }
+
+    public void testScheduleAllWheel()
+        throws Exception {
+        runScheduleAll(Timer.ENGINE.TIMING_WHEEL);
+    }
+
+    public void testRollbackHeap()
+        throws Exception {
+        runRollback(Timer.ENGINE.BINARY_HEAP);
+    }
+
+    public void testRollbackWheel()
+        throws Exception {
+        runRollback(Timer.ENGINE.TIMING_WHEEL);
+    }
+
+    public void testCancelByNameHeap()
+        throws Exception {
+        runCancelByName(Timer.ENGINE.BINARY_HEAP);
+    }
+
+    public void testCancelByNameWheel()
+        throws Exception {
+        runCancelByName(Timer.ENGINE.TIMING_WHEEL);
+    }
+
+    public void testCancelAllHeap()
+        throws Exception {
+        runCancelAll(Timer.ENGINE.BINARY_HEAP);
+    }
+
+    public void testCancelAllWheel()
+        throws Exception {
+        runCancelAll(Timer.ENGINE.TIMING_WHEEL);
+    }
+
+    private void runScheduleAll(Timer.ENGINE engine)
+        throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        Timer timer = new Timer("test-all-" + engine, true, engine, null, clock);
+        AtomicInteger counter = new AtomicInteger(0);
+
+        try {
+            List<NamedTask> tasks = createTasks(counter, TASKS, null);
+            timer.scheduleAll(tasks, DELAY, RATE, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+
+            assertEquals(TASKS, timer.size());
+            for (NamedTask task : tasks) {
+                assertEquals(TimerTask.STATUS.SCHEDULED, task.getState());
+            }
+
+            clock.advance(DELAY);
+            assertTrue(waitFor(counter, TASKS));
+            assertEquals(0, timer.size());
+        } finally {
+            timer.cancel();
+        }
+    }
+
+    /*
+     * A task already scheduled in the middle of the collection makes the
+     * whole call fail: the other tasks are left untouched and can be
+     * scheduled again
+     */
+    private void runRollback(Timer.ENGINE engine)
+        throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        Timer timer = new Timer("test-rollback-" + engine, true, engine, null, clock);
+        AtomicInteger counter = new AtomicInteger(0);
+
+        try {
+            List<NamedTask> tasks = createTasks(counter, TASKS, null);
+            NamedTask scheduled = tasks.get(TASKS / 2);
+            timer.schedule(scheduled, DELAY, RATE, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+
+            try {
+                timer.scheduleAll(tasks, DELAY, RATE, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+                fail("Scheduled a task twice");
+            } catch (IllegalStateException ex) {
+            }
+
+            assertEquals(1, timer.size());
+            for (NamedTask task : tasks) {
+                if (task != scheduled) {
+                    assertEquals(TimerTask.STATUS.VIRGIN, task.getState());
+                }
+            }
+
+            tasks.remove(scheduled);
+            timer.scheduleAll(tasks, DELAY, RATE, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+            assertEquals(TASKS, timer.size());
+
+            clock.advance(DELAY);
+            assertTrue(waitFor(counter, TASKS));
+        } finally {
+            timer.cancel();
+        }
+    }
+
+    private void runCancelByName(Timer.ENGINE engine)
+        throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        Timer timer = new Timer("test-name-" + engine, true, engine, null, clock);
+        AtomicInteger counter = new AtomicInteger(0);
+
+        try {
+            List<NamedTask> first = createTasks(counter, TASKS, "first");
+            List<NamedTask> second = createTasks(counter, TASKS, "second");
+            List<NamedTask> unnamed = createTasks(counter, TASKS, null);
+            timer.scheduleAll(first, DELAY, RATE, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+            timer.scheduleAll(second, DELAY, RATE, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+            timer.scheduleAll(unnamed, DELAY, RATE, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+
+            assertEquals(TASKS, timer.cancelByName("first"));
+            assertEquals(2 * TASKS, timer.size());
+            assertEquals(0, timer.cancelByName("first"));
+            assertEquals(0, timer.cancelByName("missing"));
+
+            assertEquals(TASKS, timer.cancelByName(null));
+            assertEquals(TASKS, timer.size());
+
+            for (NamedTask task : first) {
+                assertEquals(TimerTask.STATUS.CANCELLED, task.getState());
+            }
+            for (NamedTask task : unnamed) {
+                assertEquals(TimerTask.STATUS.CANCELLED, task.getState());
+            }
+
+            clock.advance(DELAY);
+            assertTrue(waitFor(counter, TASKS));
+            for (NamedTask task : second) {
+                assertTrue(task.executed);
+            }
+        } finally {
+            timer.cancel();
+        }
+    }
+
+    private void runCancelAll(Timer.ENGINE engine)
+        throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        Timer timer = new Timer("test-filter-" + engine, true, engine, null, clock);
+        AtomicInteger counter = new AtomicInteger(0);
+
+        try {
+            List<NamedTask> tasks = createTasks(counter, TASKS, null);
+            for (int k = 0; k < TASKS; k++) {
+                timer.schedule(tasks.get(k), DELAY + k, RATE, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+            }
+
+            int result = timer.cancelAll(new TimerTaskFilter() {
+                public boolean accept(TimerTask task) {
+                    return ((NamedTask) task).id % 2 == 0;
+                }
+            });
+            assertEquals(TASKS / 2, result);
+            assertEquals(TASKS / 2, timer.size());
+
+            clock.advance(DELAY + TASKS);
+            assertTrue(waitFor(counter, TASKS / 2));
+            for (NamedTask task : tasks) {
+                assertEquals(task.id % 2 != 0, task.executed);
+            }
+            assertEquals(0, timer.size());
+        } finally {
+            timer.cancel();
+        }
+    }
+
+    private List<NamedTask> createTasks(AtomicInteger counter, int count, String name) {
+        ArrayList<NamedTask> result = new ArrayList<NamedTask>(count);
+        for (int k = 0; k < count; k++) {
+            result.add(new NamedTask(counter, name, k));
+        }
+        return result;
+    }
+
+    private boolean waitFor(AtomicInteger counter, int value)
+        throws InterruptedException {
+        for (int k = 0; k < 200 && counter.get() < value; k++) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(100);
+        return counter.get() == value;
+    }
+
+    private static class NamedTask
+        extends TimerTask {
+
+        private AtomicInteger counter;
+
+        final int id;
+
+        volatile boolean executed = false;
+
+        NamedTask(AtomicInteger counter, String name, int id) {
+            super(name);
+            this.counter = counter;
+            this.id = id;
+        }
+
+        public void run() {
+            cancel();
+            executed = true;
+            counter.incrementAndGet();
+        }
+    }
+
+}
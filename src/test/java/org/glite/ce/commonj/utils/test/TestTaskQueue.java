@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils.test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glite.ce.commonj.utils.Timer;
+import org.glite.ce.commonj.utils.TimerTask;
+import org.glite.ce.commonj.utils.TimerTaskFilter;
+import org.glite.ce.commonj.utils.VirtualClock;
+
+import junit.framework.TestCase;
+
+public class TestTaskQueue
+    extends TestCase {
+
+    private static final int TASKS = 10000;
+
+    private static final long HORIZON = 10000;
+
+    private VirtualClock clock;
+
+    private Timer timer;
+
+    private AtomicInteger counter;
+
+    public TestTaskQueue(String name) {
+        super(name);
+    }
+
+    protected void setUp()
+        throws Exception {
+        clock = new VirtualClock();
+        timer = new Timer("test-queue", true, Timer.ENGINE.BINARY_HEAP, null, clock);
+        counter = new AtomicInteger(0);
+    }
+
+    protected void tearDown() {
+        timer.cancel();
+    }
+
+    /*
+     * The tasks cancelled from the middle of the heap are removed at once
+     * and the heap invariant holds after each removal
+     */
+    public void testCancelFromMiddle()
+        throws Exception {
+
+        List<RecordingTask> tasks = scheduleRandom(1000);
+
+        HashSet<RecordingTask> cancelled = new HashSet<RecordingTask>();
+        for (int k = 0; k < tasks.size(); k += 3) {
+            RecordingTask task = tasks.get(k);
+            int index = task.getIndex();
+
+            assertTrue(task.cancel());
+            cancelled.add(task);
+
+            assertEquals(tasks.size() - cancelled.size(), timer.size());
+            assertTrue("Task still in the heap", index > timer.size() || timer.getTimerTask(index) != task);
+            checkHeap();
+        }
+
+        HashSet<TimerTask> found = new HashSet<TimerTask>();
+        for (int i = 1; i <= timer.size(); i++) {
+            found.add(timer.getTimerTask(i));
+        }
+        for (RecordingTask task : tasks) {
+            assertEquals("Wrong task set", !cancelled.contains(task), found.contains(task));
+        }
+
+        clock.advance(HORIZON);
+        assertTrue(waitFor(tasks.size() - cancelled.size()));
+        for (RecordingTask task : cancelled) {
+            assertFalse("Cancelled task executed", task.executed);
+        }
+    }
+
+    /*
+     * The backing array shrinks when most of the tasks are cancelled and the
+     * remaining tasks are still executed
+     */
+    public void testCompaction()
+        throws Exception {
+
+        List<RecordingTask> tasks = scheduleRandom(TASKS);
+        int fullCapacity = getCapacity();
+        assertTrue(fullCapacity > TASKS);
+
+        ArrayList<RecordingTask> survivors = new ArrayList<RecordingTask>();
+        for (int k = 0; k < tasks.size(); k++) {
+            if (k % 1000 == 500) {
+                survivors.add(tasks.get(k));
+            } else {
+                tasks.get(k).cancel();
+            }
+        }
+
+        assertEquals(survivors.size(), timer.size());
+        checkHeap();
+        assertTrue("Backing array not compacted: " + getCapacity(), getCapacity() <= fullCapacity / 8);
+
+        clock.advance(HORIZON);
+        assertTrue(waitFor(survivors.size()));
+        assertEquals(0, timer.size());
+    }
+
+    /*
+     * A filter cancelling the tasks in the middle of the heap leaves a valid
+     * heap
+     */
+    public void testCancelAllFromMiddle()
+        throws Exception {
+
+        List<RecordingTask> tasks = scheduleRandom(1000);
+        final HashSet<RecordingTask> selected = new HashSet<RecordingTask>();
+        for (int k = 0; k < tasks.size(); k += 2) {
+            selected.add(tasks.get(k));
+        }
+
+        int result = timer.cancelAll(new TimerTaskFilter() {
+            public boolean accept(TimerTask task) {
+                return selected.contains(task);
+            }
+        });
+
+        assertEquals(selected.size(), result);
+        assertEquals(tasks.size() - selected.size(), timer.size());
+        checkHeap();
+
+        for (RecordingTask task : selected) {
+            assertEquals(TimerTask.STATUS.CANCELLED, task.getState());
+        }
+    }
+
+    private List<RecordingTask> scheduleRandom(int count) {
+        Random random = new Random(count);
+        ArrayList<RecordingTask> result = new ArrayList<RecordingTask>(count);
+        for (int k = 0; k < count; k++) {
+            RecordingTask task = new RecordingTask(counter);
+            timer.schedule(task, 1 + random.nextInt((int) HORIZON - 1), HORIZON * 10,
+                    TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+            result.add(task);
+        }
+        checkHeap();
+        return result;
+    }
+
+    private void checkHeap() {
+        for (int i = 1; i <= timer.size(); i++) {
+            TimerTask task = timer.getTimerTask(i);
+            assertEquals("Wrong index", i, task.getIndex());
+            if (i > 1) {
+                assertTrue("Heap invariant broken at " + i,
+                        timer.getTimerTask(i / 2).getNextExecutionTime() <= task.getNextExecutionTime());
+            }
+        }
+    }
+
+    private int getCapacity()
+        throws Exception {
+        Field queueField = Timer.class.getDeclaredField("queue");
+        queueField.setAccessible(true);
+        Object queue = queueField.get(timer);
+
+        Field arrayField = queue.getClass().getDeclaredField("queue");
+        arrayField.setAccessible(true);
+        return ((Object[]) arrayField.get(queue)).length;
+    }
+
+    private boolean waitFor(int value)
+        throws InterruptedException {
+        for (int k = 0; k < 200 && counter.get() < value; k++) {
+            Thread.sleep(50);
+        }
+        return counter.get() == value;
+    }
+
+    private static class RecordingTask
+        extends TimerTask {
+
+        private AtomicInteger counter;
+
+        volatile boolean executed = false;
+
+        RecordingTask(AtomicInteger counter) {
+            this.counter = counter;
+        }
+
+        public void run() {
+            cancel();
+            executed = true;
+            counter.incrementAndGet();
+        }
+    }
+
+}
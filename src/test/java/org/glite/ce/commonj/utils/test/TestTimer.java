@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.glite.ce.commonj.utils.Timer;
+import org.glite.ce.commonj.utils.TimerTask;
+import org.glite.ce.commonj.utils.VirtualClock;
+
+import junit.framework.TestCase;
+
+public class TestTimer
+    extends TestCase {
+
+    private static final int TASKS = 100000;
+
+    private static final long HORIZON = 10000;
+
+    public TestTimer(String name) {
+        super(name);
+    }
+
+    public void testVirtualClockHeap()
+        throws Exception {
+        runVirtualClock(Timer.ENGINE.BINARY_HEAP);
+    }
+
+    public void testVirtualClockWheel()
+        throws Exception {
+        runVirtualClock(Timer.ENGINE.TIMING_WHEEL);
+    }
+
+    public void testSaturatedExecutorHeap()
+        throws Exception {
+        runSaturatedExecutor(Timer.ENGINE.BINARY_HEAP);
+    }
+
+    public void testSaturatedExecutorWheel()
+        throws Exception {
+        runSaturatedExecutor(Timer.ENGINE.TIMING_WHEEL);
+    }
+
+    /*
+     * The executions of a FIXED_DELAY_POST_EXECUTION task rejected by a busy
+     * executor are skipped, but the task is not lost
+     */
+    private void runSaturatedExecutor(Timer.ENGINE engine)
+        throws Exception {
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>());
+        Timer timer = new Timer("test-saturated-" + engine, true, engine, executor);
+        final CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger counter = new AtomicInteger(0);
+
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException intEx) {
+                    }
+                }
+            });
+
+            CountingTask task = new CountingTask(counter, "post-execution");
+            timer.schedule(task, 0, 50, TimerTask.EXECUTION_TYPE.FIXED_DELAY_POST_EXECUTION);
+
+            Thread.sleep(500);
+            assertEquals(0, counter.get());
+            assertTrue(timer.getTaskStats("post-execution").getSkippedExecutions() > 0);
+
+            release.countDown();
+            assertTrue("Task lost after rejection", waitFor(counter, 1));
+        } finally {
+            release.countDown();
+            timer.cancel();
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * A task expired when scheduled runs in the thread of the wheel, never in
+     * the thread of the caller
+     */
+    public void testExpiredTaskOnWheel()
+        throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        Timer timer = new Timer("test-expired", true, Timer.ENGINE.TIMING_WHEEL, null, clock);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(0);
+
+        try {
+            BlockingTask task = new BlockingTask(started, release);
+            timer.schedule(task, 0, HORIZON, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals("test-expired", task.thread.get().getName());
+        } finally {
+            timer.cancel();
+        }
+    }
+
+    /*
+     * The wheel does not hold its lock while a task runs in its thread
+     */
+    public void testSlowTaskOnWheel()
+        throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        Timer timer = new Timer("test-slow", true, Timer.ENGINE.TIMING_WHEEL, null, clock);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            BlockingTask task = new BlockingTask(started, release);
+            timer.schedule(task, 100, HORIZON, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+            clock.advance(200);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals("test-slow", task.thread.get().getName());
+
+            long start = System.currentTimeMillis();
+            timer.schedule(new CountingTask(new AtomicInteger(0)), 1, HORIZON, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+            assertEquals(1, timer.size());
+            assertTrue("Timer locked by a running task", System.currentTimeMillis() - start < 1000);
+        } finally {
+            release.countDown();
+            timer.cancel();
+        }
+    }
+
+    /*
+     * The tasks are spread over the horizon: no task runs before the clock is
+     * advanced, half of them run after the first step, all after the second.
+     */
+    private void runVirtualClock(Timer.ENGINE engine)
+        throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        Timer timer = new Timer("test-" + engine, true, engine, null, clock);
+        AtomicInteger counter = new AtomicInteger(0);
+
+        try {
+            for (int k = 0; k < TASKS; k++) {
+                timer.schedule(new CountingTask(counter), 1 + k % HORIZON, HORIZON * 10,
+                        TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+            }
+
+            Thread.sleep(500);
+            assertEquals(0, counter.get());
+
+            clock.advance(HORIZON / 2);
+            assertTrue(waitFor(counter, TASKS / 2));
+            Thread.sleep(500);
+            assertEquals(TASKS / 2, counter.get());
+
+            clock.advance(HORIZON / 2);
+            assertTrue(waitFor(counter, TASKS));
+            assertEquals(0, timer.size());
+        } finally {
+            timer.cancel();
+        }
+    }
+
+    private boolean waitFor(AtomicInteger counter, int value)
+        throws InterruptedException {
+        for (int k = 0; k < 200 && counter.get() < value; k++) {
+            Thread.sleep(50);
+        }
+        return counter.get() == value;
+    }
+
+    private static class CountingTask
+        extends TimerTask {
+
+        private AtomicInteger counter;
+
+        CountingTask(AtomicInteger counter) {
+            this.counter = counter;
+        }
+
+        CountingTask(AtomicInteger counter, String name) {
+            super(name);
+            this.counter = counter;
+        }
+
+        public void run() {
+            cancel();
+            counter.incrementAndGet();
+        }
+    }
+
+    private static class BlockingTask
+        extends TimerTask {
+
+        private CountDownLatch started;
+
+        private CountDownLatch release;
+
+        AtomicReference<Thread> thread = new AtomicReference<Thread>();
+
+        BlockingTask(CountDownLatch started, CountDownLatch release) {
+            this.started = started;
+            this.release = release;
+        }
+
+        public void run() {
+            cancel();
+            thread.set(Thread.currentThread());
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException intEx) {
+            }
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package org.glite.ce.commonj.utils.test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.glite.ce.commonj.utils.Timer;
+import org.glite.ce.commonj.utils.TimerTask;
+
+/**
+ * Compares the cost of scheduling, cancelling and expiring a large number of
+ * tasks with the binary heap engine and with the timing wheel engine of the
+ * Timer, and the cost of restoring the tasks at startup one by one and with
+ * the bulk operations.
+ *
+ * Usage: TimerBenchmark [tasks...]
+ */
+public class TimerBenchmark {
+
+    public static void main(String[] args)
+        throws Exception {
+
+        int[] sizes = { 10000, 100000, 1000000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int k = 0; k < args.length; k++) {
+                sizes[k] = Integer.parseInt(args[k]);
+            }
+        }
+
+        for (int size : sizes) {
+            for (Timer.ENGINE engine : Timer.ENGINE.values()) {
+                runCancel(engine, size);
+                runExpiry(engine, size);
+                runRestore(engine, size);
+            }
+        }
+    }
+
+    /*
+     * Schedules the tasks far in the future and cancels all of them
+     */
+    private static void runCancel(Timer.ENGINE engine, int size) {
+        Timer timer = new Timer("bench-" + engine, true, engine);
+        TimerTask[] tasks = new TimerTask[size];
+
+        long start = System.nanoTime();
+        for (int k = 0; k < size; k++) {
+            tasks[k] = new BenchTask(null);
+            timer.schedule(tasks[k], 3600000L + k, 60000L, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+        }
+        long scheduleTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int k = 0; k < size; k++) {
+            tasks[k].cancel();
+        }
+        timer.purge();
+        long cancelTime = System.nanoTime() - start;
+
+        timer.cancel();
+
+        System.out.println(engine + " tasks=" + size + " schedule=" + TimeUnit.NANOSECONDS.toMillis(scheduleTime)
+                + "ms cancel=" + TimeUnit.NANOSECONDS.toMillis(cancelTime) + "ms");
+    }
+
+    /*
+     * Restores the tasks while the timer is running, then cancels them by name
+     */
+    private static void runRestore(Timer.ENGINE engine, int size) {
+        ArrayList<TimerTask> tasks = new ArrayList<TimerTask>(size);
+        for (int k = 0; k < size; k++) {
+            tasks.add(new BenchTask(null));
+        }
+
+        Timer timer = new Timer("bench-" + engine, true, engine);
+        timer.schedule(new BenchTask(null), 1L, 1L, TimerTask.EXECUTION_TYPE.FIXED_RATE);
+
+        long start = System.nanoTime();
+        for (TimerTask task : tasks) {
+            timer.schedule(task, 3600000L, 60000L, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+        }
+        long singleTime = System.nanoTime() - start;
+        timer.cancel();
+
+        tasks.clear();
+        for (int k = 0; k < size; k++) {
+            tasks.add(new BenchTask(null));
+            tasks.get(k).setName(k % 2 == 0 ? "even" : "odd");
+        }
+
+        timer = new Timer("bench-" + engine, true, engine);
+        timer.schedule(new BenchTask(null), 1L, 1L, TimerTask.EXECUTION_TYPE.FIXED_RATE);
+
+        start = System.nanoTime();
+        timer.scheduleAll(tasks, 3600000L, 60000L, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+        long bulkTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int cancelled = timer.cancelByName("even");
+        long cancelTime = System.nanoTime() - start;
+        timer.cancel();
+
+        System.out.println(engine + " tasks=" + size + " restore=" + TimeUnit.NANOSECONDS.toMillis(singleTime)
+                + "ms scheduleAll=" + TimeUnit.NANOSECONDS.toMillis(bulkTime) + "ms cancelByName("
+                + cancelled + ")=" + TimeUnit.NANOSECONDS.toMillis(cancelTime) + "ms");
+    }
+
+    /*
+     * Schedules the tasks within one second and waits for all of them
+     */
+    private static void runExpiry(Timer.ENGINE engine, int size)
+        throws InterruptedException {
+        Timer timer = new Timer("bench-" + engine, true, engine);
+        CountDownLatch latch = new CountDownLatch(size);
+
+        long start = System.nanoTime();
+        for (int k = 0; k < size; k++) {
+            timer.schedule(new BenchTask(latch), k % 1000, 60000L, TimerTask.EXECUTION_TYPE.FIXED_DELAY);
+        }
+
+        boolean completed = latch.await(10, TimeUnit.MINUTES);
+        long drainTime = System.nanoTime() - start;
+
+        timer.cancel();
+
+        System.out.println(engine + " tasks=" + size + " expiry=" + TimeUnit.NANOSECONDS.toMillis(drainTime) + "ms"
+                + (completed ? "" : " (timeout)"));
+    }
+
+    private static class BenchTask
+        extends TimerTask {
+
+        private CountDownLatch latch;
+
+        BenchTask(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        public void run() {
+            cancel();
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+    }
+
+}